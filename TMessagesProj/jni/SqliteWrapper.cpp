@@ -55,6 +55,10 @@ void Java_com_filtershekanha_teledr_SQLite_SQLitePreparedStatement_reset(JNIEnv
     }
 }
 
+void Java_com_filtershekanha_teledr_SQLite_SQLitePreparedStatement_clearBindings(JNIEnv *env, jobject object, jlong statementHandle) {
+    sqlite3_clear_bindings((sqlite3_stmt *) (intptr_t) statementHandle);
+}
+
 void Java_com_filtershekanha_teledr_SQLite_SQLitePreparedStatement_finalize(JNIEnv *env, jobject object, jlong statementHandle) {
     sqlite3_finalize((sqlite3_stmt *) (intptr_t) statementHandle);
 }
@@ -161,6 +165,20 @@ jlong Java_com_filtershekanha_teledr_SQLite_SQLiteDatabase_opendb(JNIEnv *env, j
     return (jlong) handle;
 }
 
+jlong Java_com_filtershekanha_teledr_SQLite_SQLiteDatabase_opendbReadOnly(JNIEnv *env, jobject object, jstring fileName) {
+    char const *fileNameStr = env->GetStringUTFChars(fileName, 0);
+
+    sqlite3 *handle = 0;
+    int err = sqlite3_open_v2(fileNameStr, &handle, SQLITE_OPEN_READONLY | SQLITE_OPEN_NOMUTEX, 0);
+    if (SQLITE_OK != err) {
+        throw_sqlite3_exception(env, handle, err);
+    }
+    if (fileNameStr != 0) {
+        env->ReleaseStringUTFChars(fileName, fileNameStr);
+    }
+    return (jlong) handle;
+}
+
 jint Java_com_filtershekanha_teledr_SQLite_SQLiteCursor_columnType(JNIEnv *env, jobject object, jlong statementHandle, jint columnIndex) {
     sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
     return sqlite3_column_type(handle, columnIndex);
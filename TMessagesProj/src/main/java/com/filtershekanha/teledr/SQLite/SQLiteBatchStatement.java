@@ -0,0 +1,72 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.SQLite;
+
+import android.util.SparseArray;
+
+/**
+ * Multi-row statements of one table, prepared once per row count. Only the full size statement
+ * goes to the statement cache of the database, the shorter ones for the last rows are prepared
+ * outside of it, so they do not take one cache entry per row count.
+ */
+public class SQLiteBatchStatement {
+
+    private static final int MAX_VARIABLES = 999;
+    private static final int MAX_ROWS = 64;
+
+    private SQLiteDatabase database;
+    private String prefix;
+    private String row;
+    private int maxRows;
+    private SparseArray<SQLitePreparedStatement> statements = new SparseArray<>();
+
+    public SQLiteBatchStatement(SQLiteDatabase db, String sqlPrefix, String rowPattern, int columns) {
+        database = db;
+        prefix = sqlPrefix;
+        row = rowPattern;
+        maxRows = Math.min(MAX_ROWS, MAX_VARIABLES / columns);
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public SQLitePreparedStatement obtain(int rows) throws SQLiteException {
+        if (rows <= 0 || rows > maxRows) {
+            throw new IllegalArgumentException("invalid batch size " + rows);
+        }
+        SQLitePreparedStatement statement = statements.get(rows);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder(prefix.length() + (row.length() + 2) * rows);
+            sql.append(prefix).append(' ');
+            for (int a = 0; a < rows; a++) {
+                if (a != 0) {
+                    sql.append(", ");
+                }
+                sql.append(row);
+            }
+            if (rows == maxRows) {
+                statement = database.executeFast(sql.toString());
+            } else {
+                statement = new SQLitePreparedStatement(database, sql.toString(), true);
+            }
+            statements.put(rows, statement);
+        } else {
+            statement.requery();
+        }
+        return statement;
+    }
+
+    public void dispose() {
+        for (int a = 0; a < statements.size(); a++) {
+            statements.valueAt(a).dispose();
+        }
+        statements.clear();
+    }
+}
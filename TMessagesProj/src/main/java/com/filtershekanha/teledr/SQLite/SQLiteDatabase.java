@@ -12,12 +12,34 @@ import com.filtershekanha.teledr.messenger.ApplicationLoader;
 import com.filtershekanha.teledr.internal.BuildVars;
 import com.filtershekanha.teledr.messenger.FileLog;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class SQLiteDatabase {
 
 	private final long sqliteHandle;
 
 	private boolean isOpen = false;
     private boolean inTransaction = false;
+    private boolean readOnly = false;
+
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final LinkedHashMap<String, SQLitePreparedStatement> statementCache = new LinkedHashMap<String, SQLitePreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLitePreparedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                eldest.getValue().evict();
+                return true;
+            }
+            return false;
+        }
+    };
+    private long statementCacheHits;
+    private long statementCacheMisses;
+    private long statementsPrepared;
+    private long statementsPrepareTime;
 
 	public long getSQLiteHandle() {
 		return sqliteHandle;
@@ -28,6 +50,20 @@ public class SQLiteDatabase {
 		isOpen = true;
 	}
 
+    public SQLiteDatabase(String fileName, boolean readOnlyConnection) throws SQLiteException {
+        if (readOnlyConnection) {
+            sqliteHandle = opendbReadOnly(fileName);
+        } else {
+            sqliteHandle = opendb(fileName, ApplicationLoader.getFilesDirFixed().getPath());
+        }
+        readOnly = readOnlyConnection;
+        isOpen = true;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
 	public boolean tableExists(String tableName) throws SQLiteException {
 		checkOpened();
 		String s = "SELECT rowid FROM sqlite_master WHERE type='table' AND name=?;";
@@ -35,7 +71,7 @@ public class SQLiteDatabase {
 	}
 
     public SQLitePreparedStatement executeFast(String sql) throws SQLiteException {
-        return new SQLitePreparedStatement(this, sql, true);
+        return obtainStatement(sql);
     }
 
 	public Integer executeInt(String sql, Object... args) throws SQLiteException {
@@ -53,12 +89,100 @@ public class SQLiteDatabase {
 
 	public SQLiteCursor queryFinalized(String sql, Object... args) throws SQLiteException {
 		checkOpened();
-		return new SQLitePreparedStatement(this, sql, true).query(args);
+		return obtainStatement(sql).query(args);
 	}
 
+    private SQLitePreparedStatement obtainStatement(String sql) throws SQLiteException {
+        if (!isCacheable(sql)) {
+            return new SQLitePreparedStatement(this, sql, true);
+        }
+        synchronized (statementCache) {
+            SQLitePreparedStatement statement = statementCache.get(sql);
+            if (statement != null && !statement.inUse) {
+                statement.inUse = true;
+                statementCacheHits++;
+                return statement;
+            }
+            statementCacheMisses++;
+            if (statement != null) {
+                return new SQLitePreparedStatement(this, sql, true);
+            }
+        }
+        SQLitePreparedStatement statement = new SQLitePreparedStatement(this, sql, true);
+        synchronized (statementCache) {
+            if (isOpen && !statementCache.containsKey(sql)) {
+                statement.inUse = true;
+                statement.setCached(this, sql);
+                statementCache.put(sql, statement);
+            }
+        }
+        return statement;
+    }
+
+    void releaseStatement(SQLitePreparedStatement statement) {
+        boolean recycled = statement.recycle();
+        synchronized (statementCache) {
+            statement.inUse = false;
+            if (!recycled && statementCache.get(statement.getCacheKey()) == statement) {
+                statementCache.remove(statement.getCacheKey());
+                statement.evict();
+            }
+        }
+    }
+
+    void onStatementPrepared(long time) {
+        synchronized (statementCache) {
+            statementsPrepared++;
+            statementsPrepareTime += time;
+        }
+    }
+
+    /**
+     * Only statements with bound parameters are cached. SQL with literal values built by
+     * String.format is rarely repeated and would only evict the statements that are.
+     */
+    private static boolean isCacheable(String sql) {
+        if (sql.indexOf('?') < 0) {
+            return false;
+        }
+        return sql.regionMatches(true, 0, "SELECT", 0, 6) || sql.regionMatches(true, 0, "INSERT", 0, 6) ||
+                sql.regionMatches(true, 0, "REPLACE", 0, 7) || sql.regionMatches(true, 0, "UPDATE", 0, 6) ||
+                sql.regionMatches(true, 0, "DELETE", 0, 6);
+    }
+
+    public float getStatementCacheHitRate() {
+        synchronized (statementCache) {
+            long total = statementCacheHits + statementCacheMisses;
+            return total != 0 ? statementCacheHits / (float) total : 0;
+        }
+    }
+
+    public long getStatementsPrepared() {
+        synchronized (statementCache) {
+            return statementsPrepared;
+        }
+    }
+
+    public long getStatementsPrepareTime() {
+        synchronized (statementCache) {
+            return statementsPrepareTime;
+        }
+    }
+
+    public void clearStatementCache() {
+        synchronized (statementCache) {
+            ArrayList<SQLitePreparedStatement> statements = new ArrayList<>(statementCache.values());
+            statementCache.clear();
+            for (int a = 0; a < statements.size(); a++) {
+                statements.get(a).evict();
+            }
+        }
+    }
+
 	public void close() {
 		if (isOpen) {
 			try {
+                clearStatementCache();
                 commitTransaction();
 				closedb(sqliteHandle);
 			} catch (SQLiteException e) {
@@ -82,6 +206,9 @@ public class SQLiteDatabase {
 	}
 
     public void beginTransaction() throws SQLiteException {
+        if (readOnly) {
+            throw new SQLiteException("database is read-only");
+        }
         if (inTransaction) {
             throw new SQLiteException("database already in transaction");
         }
@@ -98,6 +225,7 @@ public class SQLiteDatabase {
     }
 
 	native long opendb(String fileName, String tempDir) throws SQLiteException;
+    native long opendbReadOnly(String fileName) throws SQLiteException;
 	native void closedb(long sqliteHandle) throws SQLiteException;
     native void beginTransaction(long sqliteHandle);
     native void commitTransaction(long sqliteHandle);
@@ -19,6 +19,9 @@ public class SQLitePreparedStatement {
     private boolean isFinalized = false;
     private long sqliteStatementHandle;
     private boolean finalizeAfterQuery = false;
+    private SQLiteDatabase cacheOwner;
+    private String cacheKey;
+    boolean inUse;
 
     //private static HashMap<SQLitePreparedStatement, String> hashMap;
 
@@ -28,7 +31,9 @@ public class SQLitePreparedStatement {
 
     public SQLitePreparedStatement(SQLiteDatabase db, String sql, boolean finalize) throws SQLiteException {
         finalizeAfterQuery = finalize;
+        long startTime = System.nanoTime();
         sqliteStatementHandle = prepare(db.getSQLiteHandle(), sql);
+        db.onStatementPrepared(System.nanoTime() - startTime);
         /*if (BuildVars.DEBUG_VERSION) {
             if (hashMap == null) {
                 hashMap = new HashMap<>();
@@ -58,6 +63,8 @@ public class SQLitePreparedStatement {
                 bindNull(sqliteStatementHandle, i);
             } else if (obj instanceof Integer) {
                 bindInt(sqliteStatementHandle, i, (Integer) obj);
+            } else if (obj instanceof Long) {
+                bindLong(sqliteStatementHandle, i, (Long) obj);
             } else if (obj instanceof Double) {
                 bindDouble(sqliteStatementHandle, i, (Double) obj);
             } else if (obj instanceof String) {
@@ -86,7 +93,39 @@ public class SQLitePreparedStatement {
     }
 
     public void dispose() {
-        if (finalizeAfterQuery) {
+        if (cacheOwner != null) {
+            cacheOwner.releaseStatement(this);
+        } else if (finalizeAfterQuery) {
+            finalizeQuery();
+        }
+    }
+
+    void setCached(SQLiteDatabase db, String sql) {
+        cacheOwner = db;
+        cacheKey = sql;
+    }
+
+    String getCacheKey() {
+        return cacheKey;
+    }
+
+    boolean recycle() {
+        if (isFinalized) {
+            return false;
+        }
+        try {
+            reset(sqliteStatementHandle);
+            clearBindings(sqliteStatementHandle);
+            return true;
+        } catch (SQLiteException e) {
+            return false;
+        }
+    }
+
+    void evict() {
+        cacheOwner = null;
+        cacheKey = null;
+        if (!inUse) {
             finalizeQuery();
         }
     }
@@ -149,6 +188,7 @@ public class SQLitePreparedStatement {
     native void bindDouble(long statementHandle, int index, double value) throws SQLiteException;
     native void bindNull(long statementHandle, int index) throws SQLiteException;
     native void reset(long statementHandle) throws SQLiteException;
+    native void clearBindings(long statementHandle);
     native long prepare(long sqliteHandle, String sql) throws SQLiteException;
     native void finalize(long statementHandle) throws SQLiteException;
     native int step(long statementHandle) throws SQLiteException;
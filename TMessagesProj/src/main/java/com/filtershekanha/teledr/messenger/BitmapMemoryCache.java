@@ -0,0 +1,513 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.graphics.drawable.BitmapDrawable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded bitmap cache with W-TinyLFU eviction. New entries go to a small LRU window,
+ * entries leaving the window compete with the probation victim by their estimated access
+ * frequency, entries hit while on probation are promoted to the protected segment. Lookups
+ * are lock-free, policy bookkeeping on reads is skipped when the policy lock is busy.
+ * {@link #peek(String)} and {@link #contains(String)} do not count as an access.
+ */
+public class BitmapMemoryCache {
+
+    private static final int QUEUE_NONE = -1;
+    private static final int QUEUE_WINDOW = 0;
+    private static final int QUEUE_PROBATION = 1;
+    private static final int QUEUE_PROTECTED = 2;
+
+    private static class Node {
+        final String key;
+        final String base;
+        final String filter;
+        volatile BitmapDrawable value;
+        int size;
+        int queue = QUEUE_NONE;
+        Node prev;
+        Node next;
+
+        Node(String key) {
+            this.key = key;
+            int index = key.indexOf('@');
+            if (index > 0) {
+                base = key.substring(0, index);
+                filter = key.substring(index + 1);
+            } else {
+                base = null;
+                filter = null;
+            }
+        }
+    }
+
+    private static class Queue {
+        Node head;
+        Node tail;
+        int size;
+
+        void add(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail != null) {
+                tail.next = node;
+            } else {
+                head = node;
+            }
+            tail = node;
+            size += node.size;
+        }
+
+        void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size -= node.size;
+        }
+    }
+
+    private static class FrequencySketch {
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxEntries) {
+            int length = 64;
+            while (length < maxEntries / 4) {
+                length <<= 1;
+            }
+            table = new long[length];
+            mask = length - 1;
+            sampleSize = length * 4 * 10;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i) << 2;
+                if (((table[index] >>> shift) & 0xfL) != 0xfL) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            int h = (hash + i * 0x9E3779B9) * 0x85EBCA6B;
+            h ^= h >>> 15;
+            return h & mask;
+        }
+
+        private int offsetOf(int hash, int i) {
+            return ((hash >>> (i << 3)) & 3) + (i << 2) & 15;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+    private final HashMap<String, ArrayList<String>> filters = new HashMap<>();
+    private final HashMap<String, Integer> useCounts = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+
+    private final int maxSize;
+    private final int maxWindowSize;
+    private final int maxProtectedSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public BitmapMemoryCache(int maxSize, int expectedEntrySize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        maxWindowSize = Math.max(1, maxSize / 5);
+        maxProtectedSize = (maxSize - maxWindowSize) * 4 / 5;
+        sketch = new FrequencySketch(Math.max(64, maxSize / Math.max(1, expectedEntrySize)));
+    }
+
+    public final BitmapDrawable get(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node node = data.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            if (lock.tryLock()) {
+                try {
+                    sketch.increment(key.hashCode());
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return null;
+        }
+        hits.incrementAndGet();
+        BitmapDrawable value = node.value;
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key.hashCode());
+                onAccess(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return value;
+    }
+
+    public BitmapDrawable peek(String key) {
+        Node node = data.get(key);
+        return node != null ? node.value : null;
+    }
+
+    public boolean contains(String key) {
+        return data.containsKey(key);
+    }
+
+    public ArrayList<String> getFilterKeys(String key) {
+        lock.lock();
+        try {
+            ArrayList<String> arr = filters.get(key);
+            if (arr != null) {
+                return new ArrayList<>(arr);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public BitmapDrawable put(String key, BitmapDrawable value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        int size = sizeOf(key, value);
+        if (size < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        BitmapDrawable previous = null;
+        ArrayList<Node> evicted;
+        lock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            Node node = data.get(key);
+            if (node != null) {
+                previous = node.value;
+                Queue queue = getQueue(node.queue);
+                queue.remove(node);
+                node.value = value;
+                node.size = size;
+                queue.add(node);
+                onAccess(node);
+            } else {
+                node = new Node(key);
+                node.value = value;
+                node.size = size;
+                node.queue = QUEUE_WINDOW;
+                window.add(node);
+                data.put(key, node);
+                if (node.base != null) {
+                    ArrayList<String> arr = filters.get(node.base);
+                    if (arr == null) {
+                        arr = new ArrayList<>();
+                        filters.put(node.base, arr);
+                    }
+                    if (!arr.contains(node.filter)) {
+                        arr.add(node.filter);
+                    }
+                }
+            }
+            evicted = evict(node);
+        } finally {
+            lock.unlock();
+        }
+        if (previous != null && previous != value) {
+            entryRemoved(false, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return previous;
+    }
+
+    public final BitmapDrawable remove(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node node;
+        lock.lock();
+        try {
+            node = data.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (node != null) {
+            entryRemoved(false, key, node.value, null);
+            return node.value;
+        }
+        return null;
+    }
+
+    public final void evictAll() {
+        ArrayList<Node> evicted = new ArrayList<>(data.size());
+        lock.lock();
+        try {
+            for (int q = QUEUE_WINDOW; q <= QUEUE_PROTECTED; q++) {
+                Queue queue = getQueue(q);
+                while (queue.head != null) {
+                    Node node = queue.head;
+                    data.remove(node.key);
+                    unlink(node);
+                    evicted.add(node);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyEvicted(evicted);
+    }
+
+    public void incrementUseCount(String key) {
+        synchronized (useCounts) {
+            Integer count = useCounts.get(key);
+            useCounts.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    public boolean decrementUseCount(String key) {
+        synchronized (useCounts) {
+            Integer count = useCounts.get(key);
+            if (count == null) {
+                return true;
+            }
+            if (count == 1) {
+                useCounts.remove(key);
+                return true;
+            }
+            useCounts.put(key, count - 1);
+            return false;
+        }
+    }
+
+    public int getUseCount(String key) {
+        synchronized (useCounts) {
+            Integer count = useCounts.get(key);
+            return count != null ? count : 0;
+        }
+    }
+
+    public void moveUseCount(String oldKey, String newKey) {
+        synchronized (useCounts) {
+            Integer count = useCounts.remove(oldKey);
+            if (count != null) {
+                useCounts.put(newKey, count);
+            }
+        }
+    }
+
+    public void removeUseCount(String key) {
+        synchronized (useCounts) {
+            useCounts.remove(key);
+        }
+    }
+
+    public final int size() {
+        lock.lock();
+        try {
+            return window.size + probation.size + protectedQueue.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    public float getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total != 0 ? h / (float) total : 0;
+    }
+
+    protected void entryRemoved(boolean evicted, String key, BitmapDrawable oldValue, BitmapDrawable newValue) {
+
+    }
+
+    protected int sizeOf(String key, BitmapDrawable value) {
+        return 1;
+    }
+
+    private Queue getQueue(int queue) {
+        if (queue == QUEUE_WINDOW) {
+            return window;
+        } else if (queue == QUEUE_PROBATION) {
+            return probation;
+        } else {
+            return protectedQueue;
+        }
+    }
+
+    private void onAccess(Node node) {
+        if (node.queue == QUEUE_NONE) {
+            return;
+        }
+        Queue queue = getQueue(node.queue);
+        queue.remove(node);
+        if (node.queue == QUEUE_PROBATION) {
+            node.queue = QUEUE_PROTECTED;
+            protectedQueue.add(node);
+            while (protectedQueue.size > maxProtectedSize && protectedQueue.head != node) {
+                Node demoted = protectedQueue.head;
+                protectedQueue.remove(demoted);
+                demoted.queue = QUEUE_PROBATION;
+                probation.add(demoted);
+            }
+        } else {
+            queue.add(node);
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.queue != QUEUE_NONE) {
+            getQueue(node.queue).remove(node);
+            node.queue = QUEUE_NONE;
+        }
+        if (node.base != null) {
+            ArrayList<String> arr = filters.get(node.base);
+            if (arr != null) {
+                arr.remove(node.filter);
+                if (arr.isEmpty()) {
+                    filters.remove(node.base);
+                }
+            }
+        }
+    }
+
+    private ArrayList<Node> evict(Node justAdded) {
+        ArrayList<Node> evicted = null;
+        while (window.size > maxWindowSize && window.head != null && window.head != justAdded) {
+            Node candidate = window.head;
+            window.remove(candidate);
+            candidate.queue = QUEUE_PROBATION;
+            probation.add(candidate);
+            while (candidate.queue == QUEUE_PROBATION && window.size + probation.size + protectedQueue.size > maxSize) {
+                Node victim = firstEvictable(probation, justAdded);
+                if (victim == null || victim == candidate) {
+                    break;
+                }
+                if (sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                    victim = candidate;
+                    rejections.incrementAndGet();
+                }
+                evicted = evictNode(victim, evicted);
+            }
+        }
+        while (window.size + probation.size + protectedQueue.size > maxSize) {
+            Node victim = firstEvictable(probation, justAdded);
+            if (victim == null) {
+                victim = firstEvictable(protectedQueue, justAdded);
+            }
+            if (victim == null) {
+                victim = firstEvictable(window, justAdded);
+            }
+            if (victim == null) {
+                break;
+            }
+            evicted = evictNode(victim, evicted);
+        }
+        return evicted;
+    }
+
+    private ArrayList<Node> evictNode(Node node, ArrayList<Node> evicted) {
+        data.remove(node.key);
+        unlink(node);
+        evictions.incrementAndGet();
+        if (evicted == null) {
+            evicted = new ArrayList<>();
+        }
+        evicted.add(node);
+        return evicted;
+    }
+
+    private static Node firstEvictable(Queue queue, Node justAdded) {
+        Node node = queue.head;
+        if (node == justAdded) {
+            node = node.next;
+        }
+        return node;
+    }
+
+    private void notifyEvicted(ArrayList<Node> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (int a = 0, N = evicted.size(); a < N; a++) {
+            Node node = evicted.get(a);
+            entryRemoved(true, node.key, node.value, null);
+        }
+    }
+}
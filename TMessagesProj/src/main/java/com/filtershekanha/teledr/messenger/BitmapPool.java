@@ -0,0 +1,190 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of mutable bitmaps bucketed by allocation size, fed by memory cache evictions and used as
+ * {@link BitmapFactory.Options#inBitmap} targets. Reusing an allocation of a different size or
+ * config requires {@link Bitmap#reconfigure}, so the pool is only enabled on API 21+, below that
+ * decoding uses purgeable bitmaps which can not be reused anyway.
+ */
+public class BitmapPool {
+
+    private static final int BUCKETS_COUNT = 32;
+    private static final int MAX_WASTE_FACTOR = 4;
+
+    public static final boolean ENABLED = Build.VERSION.SDK_INT >= 21;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Bitmap>[] buckets = new ArrayList[BUCKETS_COUNT];
+    private final ArrayList<Bitmap> order = new ArrayList<>();
+    private final int maxSize;
+    private int size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+        for (int a = 0; a < BUCKETS_COUNT; a++) {
+            buckets[a] = new ArrayList<>();
+        }
+    }
+
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!ENABLED || !bitmap.isMutable() || getAllocationSize(bitmap) > maxSize / 2) {
+            bitmap.recycle();
+            return;
+        }
+        int allocationSize = getAllocationSize(bitmap);
+        synchronized (this) {
+            if (order.contains(bitmap)) {
+                return;
+            }
+            buckets[getBucket(allocationSize)].add(bitmap);
+            order.add(bitmap);
+            size += allocationSize;
+            puts.incrementAndGet();
+            while (size > maxSize && !order.isEmpty()) {
+                Bitmap oldest = order.remove(0);
+                int oldestSize = getAllocationSize(oldest);
+                buckets[getBucket(oldestSize)].remove(oldest);
+                size -= oldestSize;
+                evictions.incrementAndGet();
+                oldest.recycle();
+            }
+        }
+    }
+
+    /**
+     * Returns a pooled bitmap reconfigured to the exact size and config, or null.
+     */
+    @TargetApi(21)
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!ENABLED || width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap bitmap = obtain(width * height * getBytesPerPixel(config));
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+                bitmap.eraseColor(0);
+            } catch (Exception e) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Sets {@code inBitmap} for a decode whose bounds are known from a previous
+     * {@code inJustDecodeBounds} pass, and requests a mutable result so it can be pooled later.
+     */
+    public void applyInBitmap(BitmapFactory.Options opts) {
+        if (!ENABLED || opts.inPurgeable) {
+            return;
+        }
+        opts.inMutable = true;
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return;
+        }
+        int sample = Math.max(1, opts.inSampleSize);
+        int width = (opts.outWidth + sample - 1) / sample;
+        int height = (opts.outHeight + sample - 1) / sample;
+        Bitmap.Config config = opts.inPreferredConfig != null ? opts.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        opts.inBitmap = obtain(width * height * getBytesPerPixel(config));
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getPutCount() {
+        return puts.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public float getReuseRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total != 0 ? h / (float) total : 0;
+    }
+
+    public synchronized void clear() {
+        for (int a = 0; a < order.size(); a++) {
+            order.get(a).recycle();
+        }
+        order.clear();
+        for (int a = 0; a < BUCKETS_COUNT; a++) {
+            buckets[a].clear();
+        }
+        size = 0;
+    }
+
+    private Bitmap obtain(int requiredSize) {
+        int bucket = getBucket(requiredSize);
+        synchronized (this) {
+            for (int b = bucket; b < BUCKETS_COUNT && b <= bucket + 2; b++) {
+                ArrayList<Bitmap> bitmaps = buckets[b];
+                for (int a = bitmaps.size() - 1; a >= 0; a--) {
+                    Bitmap bitmap = bitmaps.get(a);
+                    int allocationSize = getAllocationSize(bitmap);
+                    if (allocationSize >= requiredSize && allocationSize <= requiredSize * MAX_WASTE_FACTOR) {
+                        bitmaps.remove(a);
+                        order.remove(bitmap);
+                        size -= allocationSize;
+                        hits.incrementAndGet();
+                        return bitmap;
+                    }
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @TargetApi(19)
+    private static int getAllocationSize(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    private static int getBucket(int size) {
+        return Math.min(BUCKETS_COUNT - 1, 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1)));
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent int to object map without key boxing. Every segment is an open addressing table
+ * with linear probing. Reads never lock: a slot publishes its value before its key, so a reader
+ * that finds the key also sees the value. Writes lock only their segment. Removed entries keep
+ * their key with a null value until the next rehash.
+ */
+public class ConcurrentIntObjectMap<V> {
+
+    private static final int SEGMENTS_SHIFT = 28;
+    private static final int SEGMENTS_COUNT = 1 << (32 - SEGMENTS_SHIFT);
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final class Table {
+        final AtomicIntegerArray keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicIntegerArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_CAPACITY);
+        int used;
+        int size;
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS_COUNT];
+    private volatile Object zeroValue;
+
+    public ConcurrentIntObjectMap() {
+        for (int a = 0; a < SEGMENTS_COUNT; a++) {
+            segments[a] = new Segment();
+        }
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == 0) {
+            return (V) zeroValue;
+        }
+        int h = hash(key);
+        Table table = segments[h >>> SEGMENTS_SHIFT].table;
+        int mask = table.mask;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int k = table.keys.get(i);
+            if (k == key) {
+                return (V) table.values.get(i);
+            } else if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public V put(int key, V value) {
+        return put(key, value, false);
+    }
+
+    public V putIfAbsent(int key, V value) {
+        return put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == 0) {
+            synchronized (this) {
+                Object old = zeroValue;
+                zeroValue = null;
+                return (V) old;
+            }
+        }
+        int h = hash(key);
+        Segment segment = segments[h >>> SEGMENTS_SHIFT];
+        synchronized (segment) {
+            Table table = segment.table;
+            int mask = table.mask;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                int k = table.keys.get(i);
+                if (k == key) {
+                    Object old = table.values.get(i);
+                    if (old != null) {
+                        table.values.set(i, null);
+                        segment.size--;
+                    }
+                    return (V) old;
+                } else if (k == 0) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (int a = 0; a < SEGMENTS_COUNT; a++) {
+            Segment segment = segments[a];
+            synchronized (segment) {
+                segment.table = new Table(INITIAL_CAPACITY);
+                segment.used = 0;
+                segment.size = 0;
+            }
+        }
+        synchronized (this) {
+            zeroValue = null;
+        }
+    }
+
+    public int size() {
+        int size = zeroValue != null ? 1 : 0;
+        for (int a = 0; a < SEGMENTS_COUNT; a++) {
+            Segment segment = segments[a];
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(int key, V value, boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if (key == 0) {
+            synchronized (this) {
+                Object old = zeroValue;
+                if (old == null || !onlyIfAbsent) {
+                    zeroValue = value;
+                }
+                return (V) old;
+            }
+        }
+        int h = hash(key);
+        Segment segment = segments[h >>> SEGMENTS_SHIFT];
+        synchronized (segment) {
+            Table table = segment.table;
+            int mask = table.mask;
+            int i = h & mask;
+            for (; ; i = (i + 1) & mask) {
+                int k = table.keys.get(i);
+                if (k == key) {
+                    Object old = table.values.get(i);
+                    if (old == null) {
+                        segment.size++;
+                    }
+                    if (old == null || !onlyIfAbsent) {
+                        table.values.set(i, value);
+                    }
+                    return (V) old;
+                } else if (k == 0) {
+                    break;
+                }
+            }
+            if ((segment.used + 1) * 4 > table.keys.length() * 3) {
+                table = rehash(segment);
+                mask = table.mask;
+                i = h & mask;
+                while (table.keys.get(i) != 0) {
+                    i = (i + 1) & mask;
+                }
+            }
+            table.values.set(i, value);
+            table.keys.set(i, key);
+            segment.used++;
+            segment.size++;
+            return null;
+        }
+    }
+
+    private static Table rehash(Segment segment) {
+        Table old = segment.table;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (segment.size + 1) * 2) {
+            capacity <<= 1;
+        }
+        Table table = new Table(capacity);
+        int mask = table.mask;
+        for (int a = 0, N = old.keys.length(); a < N; a++) {
+            int key = old.keys.get(a);
+            Object value = old.values.get(a);
+            if (key == 0 || value == null) {
+                continue;
+            }
+            int i = hash(key) & mask;
+            while (table.keys.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            table.values.set(i, value);
+            table.keys.set(i, key);
+        }
+        segment.used = segment.size;
+        segment.table = table;
+        return table;
+    }
+}
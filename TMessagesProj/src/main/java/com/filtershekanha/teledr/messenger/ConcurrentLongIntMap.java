@@ -0,0 +1,221 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent long to int map without boxing, built like {@link ConcurrentIntObjectMap}: lock-free
+ * reads over per-segment open addressing tables and writes locked per segment.
+ */
+public class ConcurrentLongIntMap {
+
+    private static final int SEGMENTS_SHIFT = 28;
+    private static final int SEGMENTS_COUNT = 1 << (32 - SEGMENTS_SHIFT);
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int STATE_REMOVED = 0;
+    private static final int STATE_PRESENT = 1;
+
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicIntegerArray values;
+        final AtomicIntegerArray states;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicIntegerArray(capacity);
+            states = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_CAPACITY);
+        int used;
+        int size;
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS_COUNT];
+    private volatile boolean hasZeroValue;
+    private volatile int zeroValue;
+
+    public ConcurrentLongIntMap() {
+        for (int a = 0; a < SEGMENTS_COUNT; a++) {
+            segments[a] = new Segment();
+        }
+    }
+
+    static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the value mapped to the key or {@code defaultValue} if there is none.
+     */
+    public int get(long key, int defaultValue) {
+        if (key == 0) {
+            synchronized (this) {
+                return hasZeroValue ? zeroValue : defaultValue;
+            }
+        }
+        int h = hash(key);
+        Table table = segments[h >>> SEGMENTS_SHIFT].table;
+        int mask = table.mask;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            long k = table.keys.get(i);
+            if (k == key) {
+                return table.states.get(i) == STATE_PRESENT ? table.values.get(i) : defaultValue;
+            } else if (k == 0) {
+                return defaultValue;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroValue;
+        }
+        int h = hash(key);
+        Table table = segments[h >>> SEGMENTS_SHIFT].table;
+        int mask = table.mask;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            long k = table.keys.get(i);
+            if (k == key) {
+                return table.states.get(i) == STATE_PRESENT;
+            } else if (k == 0) {
+                return false;
+            }
+        }
+    }
+
+    public void put(long key, int value) {
+        if (key == 0) {
+            synchronized (this) {
+                zeroValue = value;
+                hasZeroValue = true;
+            }
+            return;
+        }
+        int h = hash(key);
+        Segment segment = segments[h >>> SEGMENTS_SHIFT];
+        synchronized (segment) {
+            Table table = segment.table;
+            int mask = table.mask;
+            int i = h & mask;
+            for (; ; i = (i + 1) & mask) {
+                long k = table.keys.get(i);
+                if (k == key) {
+                    table.values.set(i, value);
+                    if (table.states.get(i) != STATE_PRESENT) {
+                        table.states.set(i, STATE_PRESENT);
+                        segment.size++;
+                    }
+                    return;
+                } else if (k == 0) {
+                    break;
+                }
+            }
+            if ((segment.used + 1) * 4 > table.keys.length() * 3) {
+                table = rehash(segment);
+                mask = table.mask;
+                i = h & mask;
+                while (table.keys.get(i) != 0) {
+                    i = (i + 1) & mask;
+                }
+            }
+            table.values.set(i, value);
+            table.states.set(i, STATE_PRESENT);
+            table.keys.set(i, key);
+            segment.used++;
+            segment.size++;
+        }
+    }
+
+    public void remove(long key) {
+        if (key == 0) {
+            synchronized (this) {
+                hasZeroValue = false;
+            }
+            return;
+        }
+        int h = hash(key);
+        Segment segment = segments[h >>> SEGMENTS_SHIFT];
+        synchronized (segment) {
+            Table table = segment.table;
+            int mask = table.mask;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                long k = table.keys.get(i);
+                if (k == key) {
+                    if (table.states.get(i) == STATE_PRESENT) {
+                        table.states.set(i, STATE_REMOVED);
+                        segment.size--;
+                    }
+                    return;
+                } else if (k == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (int a = 0; a < SEGMENTS_COUNT; a++) {
+            Segment segment = segments[a];
+            synchronized (segment) {
+                segment.table = new Table(INITIAL_CAPACITY);
+                segment.used = 0;
+                segment.size = 0;
+            }
+        }
+        synchronized (this) {
+            hasZeroValue = false;
+        }
+    }
+
+    public int size() {
+        int size = hasZeroValue ? 1 : 0;
+        for (int a = 0; a < SEGMENTS_COUNT; a++) {
+            Segment segment = segments[a];
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    private static Table rehash(Segment segment) {
+        Table old = segment.table;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (segment.size + 1) * 2) {
+            capacity <<= 1;
+        }
+        Table table = new Table(capacity);
+        int mask = table.mask;
+        for (int a = 0, N = old.keys.length(); a < N; a++) {
+            long key = old.keys.get(a);
+            if (key == 0 || old.states.get(a) != STATE_PRESENT) {
+                continue;
+            }
+            int i = hash(key) & mask;
+            while (table.keys.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            table.values.set(i, old.values.get(a));
+            table.states.set(i, STATE_PRESENT);
+            table.keys.set(i, key);
+        }
+        segment.used = segment.size;
+        segment.table = table;
+        return table;
+    }
+}
@@ -2393,7 +2393,7 @@ public class ContactsController {
                         if (remove) {
                             buildContactsSectionsArrays(false);
                         }
-                        NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_NAME);
+                        NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_NAME);
                         NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.contactsDidLoaded);
                     }
                 });
@@ -2443,7 +2443,7 @@ public class ContactsController {
                                 }
                                 MessagesStorage.getInstance(currentAccount).updateUsers(dbUsersStatus, true, true, true);
                             }
-                            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_STATUS);
+                            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_STATUS);
                         }
                     });
                 }
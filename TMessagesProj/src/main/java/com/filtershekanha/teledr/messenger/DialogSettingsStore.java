@@ -0,0 +1,291 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.content.SharedPreferences;
+
+import com.filtershekanha.teledr.internal.BuildVars;
+import com.filtershekanha.teledr.SQLite.SQLiteCursor;
+import com.filtershekanha.teledr.SQLite.SQLiteDatabase;
+import com.filtershekanha.teledr.SQLite.SQLitePreparedStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Per dialog mute settings of one account. They are kept in memory, so sorting dialogs and
+ * building notifications do not go through the preferences for every dialog, and stored one row
+ * per dialog in the dialog_mute table, so muting a dialog does not rewrite the whole notifications
+ * preferences file. Changes are visible at once and written on the storage queue in one
+ * transaction. The old notify2_ and notifyuntil_ preferences are moved to the table on first load.
+ * The rows are loaded on the storage queue when the account starts, reads never wait for them and
+ * use the values set in this session or still kept in the preferences until they are loaded.
+ */
+public class DialogSettingsStore implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private final static String muteTypePrefix = "notify2_";
+    private final static String muteUntilPrefix = "notifyuntil_";
+
+    private final int currentAccount;
+    private final SharedPreferences preferences;
+    private final ConcurrentLongIntMap muteTypes = new ConcurrentLongIntMap();
+    private final ConcurrentLongIntMap muteUntil = new ConcurrentLongIntMap();
+    private final HashSet<Long> pendingWrites = new HashSet<>();
+    private volatile boolean loaded;
+    private boolean clearedBeforeLoad;
+    private volatile boolean enableAll = true;
+    private volatile boolean enableGroup = true;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public DialogSettingsStore(int account, SharedPreferences preferences) {
+        currentAccount = account;
+        this.preferences = preferences;
+        enableAll = preferences.getBoolean("EnableAll", true);
+        enableGroup = preferences.getBoolean("EnableGroup", true);
+        preferences.registerOnSharedPreferenceChangeListener(this);
+        MessagesStorage.getInstance(currentAccount).getStorageQueue().postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key == null || key.equals("EnableAll")) {
+            enableAll = sharedPreferences.getBoolean("EnableAll", true);
+        }
+        if (key == null || key.equals("EnableGroup")) {
+            enableGroup = sharedPreferences.getBoolean("EnableGroup", true);
+        }
+    }
+
+    public int getMuteType(long dialog_id) {
+        if (!loaded) {
+            int type = muteTypes.get(dialog_id, -2);
+            return type != -2 ? type : preferences.getInt(muteTypePrefix + dialog_id, -1);
+        }
+        return muteTypes.get(dialog_id, -1);
+    }
+
+    public int getMuteUntil(long dialog_id) {
+        if (!loaded && muteTypes.get(dialog_id, -2) == -2) {
+            return preferences.getInt(muteUntilPrefix + dialog_id, 0);
+        }
+        return muteUntil.get(dialog_id, 0);
+    }
+
+    public boolean isMuted(long dialog_id, int currentTime) {
+        int mute_type = getMuteType(dialog_id);
+        if (mute_type == -1) {
+            return (int) dialog_id < 0 ? !enableGroup : !enableAll;
+        } else if (mute_type == 2) {
+            return true;
+        } else if (mute_type == 3) {
+            return getMuteUntil(dialog_id) >= currentTime;
+        }
+        return false;
+    }
+
+    public void setMuteType(long dialog_id, int type) {
+        setMuteType(dialog_id, type, 0);
+    }
+
+    /**
+     * Sets the mute type of the dialog, -1 removes its override. The time is only kept for type 3.
+     */
+    public void setMuteType(long dialog_id, int type, int until) {
+        if (type == -1 && loaded) {
+            muteTypes.remove(dialog_id);
+        } else {
+            muteTypes.put(dialog_id, type);
+        }
+        if (type == 3) {
+            muteUntil.put(dialog_id, until);
+        } else {
+            muteUntil.remove(dialog_id);
+        }
+        boolean post;
+        synchronized (pendingWrites) {
+            post = pendingWrites.isEmpty();
+            pendingWrites.add(dialog_id);
+        }
+        if (post) {
+            MessagesStorage.getInstance(currentAccount).getStorageQueue().postRunnable(flushRunnable);
+        }
+    }
+
+    /**
+     * Removes all mute settings, called when the notification preferences are cleared.
+     */
+    public void clear() {
+        muteTypes.clear();
+        muteUntil.clear();
+        synchronized (pendingWrites) {
+            pendingWrites.clear();
+            if (!loaded) {
+                clearedBeforeLoad = true;
+            }
+        }
+        MessagesStorage.getInstance(currentAccount).getStorageQueue().postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MessagesStorage.getInstance(currentAccount).getDatabase().executeFast("DELETE FROM dialog_mute").stepThis().dispose();
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills the maps with the stored rows, settings changed in this session before it runs are
+     * kept. The migrated preferences are removed only after the maps are filled, so reads falling
+     * back to them never see a setting missing.
+     */
+    private void load() {
+        ArrayList<String> migratedKeys = null;
+        try {
+            SQLiteDatabase database = MessagesStorage.getInstance(currentAccount).getDatabase();
+            migratedKeys = migrateFromPreferences(database);
+            SQLiteCursor cursor = database.queryFinalized("SELECT did, type, until FROM dialog_mute");
+            synchronized (pendingWrites) {
+                while (!clearedBeforeLoad && cursor.next()) {
+                    long did = cursor.longValue(0);
+                    if (pendingWrites.contains(did)) {
+                        continue;
+                    }
+                    int type = cursor.intValue(1);
+                    muteTypes.put(did, type);
+                    if (type == 3) {
+                        muteUntil.put(did, cursor.intValue(2));
+                    }
+                }
+                loaded = true;
+            }
+            cursor.dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+        } finally {
+            loaded = true;
+        }
+        if (migratedKeys != null) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (int a = 0, N = migratedKeys.size(); a < N; a++) {
+                editor.remove(migratedKeys.get(a));
+            }
+            editor.commit();
+        }
+    }
+
+    /**
+     * Copies the preference settings to the table and returns their keys, or null if there are none.
+     */
+    private ArrayList<String> migrateFromPreferences(SQLiteDatabase database) throws Exception {
+        HashMap<Long, int[]> settings = new HashMap<>();
+        ArrayList<String> keys = new ArrayList<>();
+        Map<String, ?> values = preferences.getAll();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String key = entry.getKey();
+            int index;
+            if (key.startsWith(muteTypePrefix)) {
+                index = 0;
+            } else if (key.startsWith(muteUntilPrefix)) {
+                index = 1;
+            } else {
+                continue;
+            }
+            keys.add(key);
+            if (!(entry.getValue() instanceof Integer)) {
+                continue;
+            }
+            long dialog_id;
+            try {
+                dialog_id = Long.parseLong(key.substring(index == 0 ? muteTypePrefix.length() : muteUntilPrefix.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            int[] setting = settings.get(dialog_id);
+            if (setting == null) {
+                setting = new int[]{-1, 0};
+                settings.put(dialog_id, setting);
+            }
+            setting[index] = (Integer) entry.getValue();
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+        database.beginTransaction();
+        SQLitePreparedStatement state = database.executeFast("REPLACE INTO dialog_mute VALUES(?, ?, ?)");
+        for (Map.Entry<Long, int[]> entry : settings.entrySet()) {
+            int[] setting = entry.getValue();
+            if (setting[0] == -1) {
+                continue;
+            }
+            state.requery();
+            state.bindLong(1, entry.getKey());
+            state.bindInteger(2, setting[0]);
+            state.bindInteger(3, setting[0] == 3 ? setting[1] : 0);
+            state.step();
+        }
+        state.dispose();
+        database.commitTransaction();
+        if (BuildVars.LOGS_ENABLED) {
+            FileLog.d("moved " + settings.size() + " dialog mute settings to the database");
+        }
+        return keys;
+    }
+
+    private void flush() {
+        ArrayList<Long> dialogs;
+        synchronized (pendingWrites) {
+            dialogs = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        if (dialogs.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase database = MessagesStorage.getInstance(currentAccount).getDatabase();
+            database.beginTransaction();
+            SQLitePreparedStatement replaceState = database.executeFast("REPLACE INTO dialog_mute VALUES(?, ?, ?)");
+            SQLitePreparedStatement deleteState = database.executeFast("DELETE FROM dialog_mute WHERE did = ?");
+            for (int a = 0, N = dialogs.size(); a < N; a++) {
+                long did = dialogs.get(a);
+                int type = muteTypes.get(did, -1);
+                if (type == -1) {
+                    deleteState.requery();
+                    deleteState.bindLong(1, did);
+                    deleteState.step();
+                } else {
+                    replaceState.requery();
+                    replaceState.bindLong(1, did);
+                    replaceState.bindInteger(2, type);
+                    replaceState.bindInteger(3, muteUntil.get(did, 0));
+                    replaceState.step();
+                }
+            }
+            replaceState.dispose();
+            deleteState.dispose();
+            database.commitTransaction();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+/**
+ * Position changes of one dialogs list since the last full sort, numbered by version. Every
+ * adapter keeps the version it last synced to and replays the operations after it as notifyItem*
+ * calls. Only the last operations are kept, an adapter that fell behind them has to reload.
+ */
+public class DialogsDiff {
+
+    private static final int MAX_OPERATIONS = 32;
+
+    private final int[] fromPositions = new int[MAX_OPERATIONS];
+    private final int[] toPositions = new int[MAX_OPERATIONS];
+    private final int[] listSizes = new int[MAX_OPERATIONS];
+    private int count;
+    private int version;
+
+    void addMove(int from, int to, int listSize) {
+        int index = version % MAX_OPERATIONS;
+        fromPositions[index] = from;
+        toPositions[index] = to;
+        listSizes[index] = listSize;
+        if (count < MAX_OPERATIONS) {
+            count++;
+        }
+        version++;
+    }
+
+    void addInsert(int position, int listSize) {
+        addMove(-1, position, listSize);
+    }
+
+    void addRemove(int position, int listSize) {
+        addMove(position, -1, listSize);
+    }
+
+    void invalidate() {
+        version++;
+        count = 0;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether all operations after the version are still kept.
+     */
+    public boolean canReplayFrom(int fromVersion) {
+        return fromVersion <= version && fromVersion >= version - count;
+    }
+
+    /**
+     * Source position of the operation that produced the version, -1 for an insert.
+     */
+    public int getFrom(int operationVersion) {
+        return fromPositions[(operationVersion - 1) % MAX_OPERATIONS];
+    }
+
+    /**
+     * Target position of the operation that produced the version, -1 for a remove.
+     */
+    public int getTo(int operationVersion) {
+        return toPositions[(operationVersion - 1) % MAX_OPERATIONS];
+    }
+
+    public int getListSize(int operationVersion) {
+        return listSizes[(operationVersion - 1) % MAX_OPERATIONS];
+    }
+
+    public int getSizeDelta(int fromVersion) {
+        int delta = 0;
+        for (int a = fromVersion + 1; a <= version; a++) {
+            if (getFrom(a) < 0) {
+                delta++;
+            } else if (getTo(a) < 0) {
+                delta--;
+            }
+        }
+        return delta;
+    }
+}
@@ -24,7 +24,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-public class DownloadController implements NotificationCenter.NotificationCenterDelegate {
+public class DownloadController implements NotificationCenter.TypedNotificationCenterDelegate {
 
     public interface FileDownloadProgressListener {
         void onFailedDownload(String fileName);
@@ -677,78 +677,90 @@ public class DownloadController implements NotificationCenter.NotificationCenter
             processLaterArrays();
             checkDownloadFinished(fileName, 0);
         } else if (id == NotificationCenter.FileLoadProgressChanged) {
-            listenerInProgress = true;
-            String fileName = (String) args[0];
-            ArrayList<WeakReference<FileDownloadProgressListener>> arrayList = loadingFileObservers.get(fileName);
-            if (arrayList != null) {
-                Float progress = (Float) args[1];
-                for (int a = 0, size = arrayList.size(); a < size; a++) {
-                    WeakReference<FileDownloadProgressListener> reference = arrayList.get(a);
-                    if (reference.get() != null) {
-                        reference.get().onProgressDownload(fileName, progress);
-                    }
+            onFileLoadProgressChanged((String) args[0], (Float) args[1]);
+        } else if (id == NotificationCenter.FileUploadProgressChanged) {
+            onFileUploadProgressChanged((String) args[0], (Float) args[1], (Boolean) args[2]);
+        }
+    }
+
+    @Override
+    public void didReceivedTypedNotification(int id, int account, Object object, long value, float progress, boolean flag) {
+        if (id == NotificationCenter.FileLoadProgressChanged) {
+            onFileLoadProgressChanged((String) object, progress);
+        } else if (id == NotificationCenter.FileUploadProgressChanged) {
+            onFileUploadProgressChanged((String) object, progress, flag);
+        }
+    }
+
+    private void onFileLoadProgressChanged(String fileName, float progress) {
+        listenerInProgress = true;
+        ArrayList<WeakReference<FileDownloadProgressListener>> arrayList = loadingFileObservers.get(fileName);
+        if (arrayList != null) {
+            for (int a = 0, size = arrayList.size(); a < size; a++) {
+                WeakReference<FileDownloadProgressListener> reference = arrayList.get(a);
+                if (reference.get() != null) {
+                    reference.get().onProgressDownload(fileName, progress);
                 }
             }
-            listenerInProgress = false;
-            processLaterArrays();
-        } else if (id == NotificationCenter.FileUploadProgressChanged) {
-            listenerInProgress = true;
-            String fileName = (String) args[0];
-            ArrayList<WeakReference<FileDownloadProgressListener>> arrayList = loadingFileObservers.get(fileName);
-            if (arrayList != null) {
-                Float progress = (Float) args[1];
-                Boolean enc = (Boolean) args[2];
-                for (int a = 0, size = arrayList.size(); a < size; a++) {
-                    WeakReference<FileDownloadProgressListener> reference = arrayList.get(a);
-                    if (reference.get() != null) {
-                        reference.get().onProgressUpload(fileName, progress, enc);
-                    }
+        }
+        listenerInProgress = false;
+        processLaterArrays();
+    }
+
+    private void onFileUploadProgressChanged(String fileName, float progress, boolean enc) {
+        listenerInProgress = true;
+        ArrayList<WeakReference<FileDownloadProgressListener>> arrayList = loadingFileObservers.get(fileName);
+        if (arrayList != null) {
+            for (int a = 0, size = arrayList.size(); a < size; a++) {
+                WeakReference<FileDownloadProgressListener> reference = arrayList.get(a);
+                if (reference.get() != null) {
+                    reference.get().onProgressUpload(fileName, progress, enc);
                 }
             }
-            listenerInProgress = false;
-            processLaterArrays();
-            try {
-                ArrayList<SendMessagesHelper.DelayedMessage> delayedMessages = SendMessagesHelper.getInstance(currentAccount).getDelayedMessages(fileName);
-                if (delayedMessages != null) {
-                    for (int a = 0; a < delayedMessages.size(); a++) {
-                        SendMessagesHelper.DelayedMessage delayedMessage = delayedMessages.get(a);
-                        if (delayedMessage.encryptedChat == null) {
-                            long dialog_id = delayedMessage.peer;
-                            if (delayedMessage.type == 4) {
-                                Long lastTime = typingTimes.get(dialog_id);
-                                if (lastTime == null || lastTime + 4000 < System.currentTimeMillis()) {
-                                    MessageObject messageObject = (MessageObject) delayedMessage.extraHashMap.get(fileName + "_i");
-                                    if (messageObject != null && messageObject.isVideo()) {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 5, 0);
-                                    } else {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 4, 0);
-                                    }
-                                    typingTimes.put(dialog_id, System.currentTimeMillis());
+        }
+        listenerInProgress = false;
+        processLaterArrays();
+        try {
+            ArrayList<SendMessagesHelper.DelayedMessage> delayedMessages = SendMessagesHelper.getInstance(currentAccount).getDelayedMessages(fileName);
+            if (delayedMessages != null) {
+                for (int a = 0; a < delayedMessages.size(); a++) {
+                    SendMessagesHelper.DelayedMessage delayedMessage = delayedMessages.get(a);
+                    if (delayedMessage.encryptedChat == null) {
+                        long dialog_id = delayedMessage.peer;
+                        if (delayedMessage.type == 4) {
+                            Long lastTime = typingTimes.get(dialog_id);
+                            if (lastTime == null || lastTime + 4000 < System.currentTimeMillis()) {
+                                MessageObject messageObject = (MessageObject) delayedMessage.extraHashMap.get(fileName + "_i");
+                                if (messageObject != null && messageObject.isVideo()) {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 5, 0);
+                                } else {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 4, 0);
                                 }
-                            } else {
-                                Long lastTime = typingTimes.get(dialog_id);
-                                TLRPC.Document document = delayedMessage.obj.getDocument();
-                                if (lastTime == null || lastTime + 4000 < System.currentTimeMillis()) {
-                                    if (delayedMessage.obj.isRoundVideo()) {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 8, 0);
-                                    } else if (delayedMessage.obj.isVideo()) {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 5, 0);
-                                    } else if (delayedMessage.obj.isVoice()) {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 9, 0);
-                                    } else if (delayedMessage.obj.getDocument() != null) {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 3, 0);
-                                    } else if (delayedMessage.location != null) {
-                                        MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 4, 0);
-                                    }
-                                    typingTimes.put(dialog_id, System.currentTimeMillis());
+                                typingTimes.put(dialog_id, System.currentTimeMillis());
+                            }
+                        } else {
+                            Long lastTime = typingTimes.get(dialog_id);
+                            TLRPC.Document document = delayedMessage.obj.getDocument();
+                            if (lastTime == null || lastTime + 4000 < System.currentTimeMillis()) {
+                                if (delayedMessage.obj.isRoundVideo()) {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 8, 0);
+                                } else if (delayedMessage.obj.isVideo()) {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 5, 0);
+                                } else if (delayedMessage.obj.isVoice()) {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 9, 0);
+                                } else if (delayedMessage.obj.getDocument() != null) {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 3, 0);
+                                } else if (delayedMessage.location != null) {
+                                    MessagesController.getInstance(currentAccount).sendTyping(dialog_id, 4, 0);
                                 }
+                                typingTimes.put(dialog_id, System.currentTimeMillis());
                             }
                         }
                     }
                 }
-            } catch (Exception e) {
-                FileLog.e(e);
             }
+        } catch (Exception e) {
+            FileLog.e(e);
         }
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Immutable trie over the UTF-16 chars of all known emoji codes. Every node keeps its children
+ * next to each other sorted by char, so a step is a binary search over a few array slots and a
+ * match never allocates. Variation selectors are not part of the codes and are skipped inside a
+ * sequence, so skin tones, ZWJ sequences, keycaps and flags resolve in a single pass.
+ */
+public class EmojiTrie {
+
+    private static class Node {
+        private char[] chars = new char[2];
+        private Node[] children = new Node[2];
+        private int count;
+        private int value = -1;
+
+        private Node getOrAdd(char c) {
+            for (int a = 0; a < count; a++) {
+                if (chars[a] == c) {
+                    return children[a];
+                }
+            }
+            if (count == chars.length) {
+                chars = Arrays.copyOf(chars, count * 2);
+                children = Arrays.copyOf(children, count * 2);
+            }
+            Node node = new Node();
+            chars[count] = c;
+            children[count] = node;
+            count++;
+            return node;
+        }
+
+        private void sort() {
+            for (int a = 1; a < count; a++) {
+                char c = chars[a];
+                Node node = children[a];
+                int b = a - 1;
+                while (b >= 0 && chars[b] > c) {
+                    chars[b + 1] = chars[b];
+                    children[b + 1] = children[b];
+                    b--;
+                }
+                chars[b + 1] = c;
+                children[b + 1] = node;
+            }
+        }
+    }
+
+    private Node root = new Node();
+
+    private char[] labels;
+    private int[] childStart;
+    private int[] childCount;
+    private int[] values;
+    private long[] rootChars;
+
+    public void add(CharSequence code, int value) {
+        if (root == null) {
+            throw new IllegalStateException("trie is already compiled");
+        }
+        Node node = root;
+        for (int a = 0, N = code.length(); a < N; a++) {
+            char c = code.charAt(a);
+            if (isVariationSelector(c)) {
+                continue;
+            }
+            node = node.getOrAdd(c);
+        }
+        if (node != root && node.value == -1) {
+            node.value = value;
+        }
+    }
+
+    /**
+     * Lays the nodes out in breadth-first order so that the children of every node are stored
+     * in one sorted run. No codes can be added afterwards.
+     */
+    public void compile() {
+        ArrayList<Node> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int a = 0; a < nodes.size(); a++) {
+            Node node = nodes.get(a);
+            node.sort();
+            for (int b = 0; b < node.count; b++) {
+                nodes.add(node.children[b]);
+            }
+        }
+        int size = nodes.size();
+        labels = new char[size];
+        childStart = new int[size];
+        childCount = new int[size];
+        values = new int[size];
+        int next = 1;
+        for (int a = 0; a < size; a++) {
+            Node node = nodes.get(a);
+            values[a] = node.value;
+            childStart[a] = next;
+            childCount[a] = node.count;
+            for (int b = 0; b < node.count; b++) {
+                labels[next++] = node.chars[b];
+            }
+        }
+        rootChars = new long[1024];
+        for (int b = 0; b < root.count; b++) {
+            char c = root.chars[b];
+            rootChars[c >>> 6] |= 1L << (c & 63);
+        }
+        root = null;
+    }
+
+    /**
+     * Returns true if an emoji code can start with the char.
+     */
+    public boolean isStartChar(char c) {
+        return (rootChars[c >>> 6] & (1L << (c & 63))) != 0;
+    }
+
+    /**
+     * Finds the longest emoji code that starts at {@code start}. Returns -1 if there is none,
+     * otherwise the value and the end of the match, see {@link #getMatchValue(long)} and
+     * {@link #getMatchEnd(long)}. The end includes trailing variation selectors.
+     */
+    public long match(CharSequence text, int start, int end) {
+        if (start >= end || !isStartChar(text.charAt(start))) {
+            return -1;
+        }
+        int node = 0;
+        int matchValue = -1;
+        int matchEnd = -1;
+        for (int a = start; a < end; a++) {
+            char c = text.charAt(a);
+            if (a != start && isVariationSelector(c)) {
+                if (matchEnd == a) {
+                    matchEnd = a + 1;
+                }
+                continue;
+            }
+            node = findChild(node, c);
+            if (node == -1) {
+                break;
+            }
+            if (values[node] != -1) {
+                matchValue = values[node];
+                matchEnd = a + 1;
+            }
+        }
+        if (matchValue == -1) {
+            return -1;
+        }
+        return ((long) matchValue << 32) | matchEnd;
+    }
+
+    public static int getMatchValue(long match) {
+        return (int) (match >>> 32);
+    }
+
+    public static int getMatchEnd(long match) {
+        return (int) match;
+    }
+
+    private int findChild(int node, char c) {
+        int low = childStart[node];
+        int high = low + childCount[node] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char label = labels[middle];
+            if (label < c) {
+                low = middle + 1;
+            } else if (label > c) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isVariationSelector(char c) {
+        return c >= 0xFE00 && c <= 0xFE0F;
+    }
+}
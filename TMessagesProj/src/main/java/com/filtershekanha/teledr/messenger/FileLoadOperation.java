@@ -8,7 +8,9 @@
 
 package com.filtershekanha.teledr.messenger;
 
+import android.os.SystemClock;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.filtershekanha.teledr.internal.BuildVars;
 import com.filtershekanha.teledr.tgnet.ConnectionsManager;
@@ -30,6 +32,8 @@ public class FileLoadOperation {
     private static class RequestInfo {
         private int requestToken;
         private int offset;
+        private int limit;
+        private long requestTime;
         private TLRPC.TL_upload_file response;
         private TLRPC.TL_upload_webFile responseWeb;
         private TLRPC.TL_upload_cdnFile responseCdn;
@@ -59,6 +63,10 @@ public class FileLoadOperation {
     private final static int maxDownloadRequestsBig = 4;
     private final static int bigFileSizeFrom = 1024 * 1024;
     private final static int maxCdnParts = 1024 * 1024 * 1536 / downloadChunkSizeBig;
+    private final static int syncBytesInterval = 1024 * 1024 * 2;
+
+    private static DispatchQueue cdnCheckQueue = new DispatchQueue("cdnCheckQueue");
+    private static byte[] cdnCheckBytes;
 
     private ArrayList<Range> notLoadedBytesRanges;
     private volatile ArrayList<Range> notLoadedBytesRangesCopy;
@@ -84,6 +92,7 @@ public class FileLoadOperation {
     private byte[] iv;
     private int currentDownloadChunkSize;
     private int currentMaxDownloadRequests;
+    private FileLoadWindow loadWindow;
     private int requestsCount;
     private int renameRetryCount;
 
@@ -101,9 +110,11 @@ public class FileLoadOperation {
     private byte[] cdnToken;
     private int cdnDatacenterId;
     private boolean reuploadingCdn;
-    private RandomAccessFile fileReadStream;
-    private byte[] cdnCheckBytes;
     private boolean requestingCdnOffsets;
+    private int pendingCdnChecks;
+    private boolean finishAfterCdnChecks;
+    private int cdnCheckGuid;
+    private SparseIntArray cdnUncheckedBytes;
 
     private ArrayList<RequestInfo> requestInfos;
     private ArrayList<RequestInfo> delayedRequestInfos;
@@ -117,9 +128,16 @@ public class FileLoadOperation {
     private RandomAccessFile fileOutputStream;
     private RandomAccessFile fiv;
     private RandomAccessFile filePartsStream;
+    private int unsyncedBytes;
+    private boolean notLoadedRangesChanged;
     private File storePath;
     private File tempPath;
     private boolean isForceRequest;
+    private int priority;
+    private long queueTime;
+    private long queueOrderTime;
+    private int queueIndex = -1;
+    private long startTime;
 
     private int currentType;
 
@@ -265,6 +283,46 @@ public class FileLoadOperation {
         return isForceRequest;
     }
 
+    public void setPriority(int value) {
+        priority = value;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    protected void setQueueTime(long value) {
+        queueTime = value;
+    }
+
+    protected long getQueueTime() {
+        return queueTime;
+    }
+
+    protected void setQueueOrderTime(long value) {
+        queueOrderTime = value;
+    }
+
+    protected long getQueueOrderTime() {
+        return queueOrderTime;
+    }
+
+    protected void setQueueIndex(int value) {
+        queueIndex = value;
+    }
+
+    protected int getQueueIndex() {
+        return queueIndex;
+    }
+
+    protected long getStartTime() {
+        return startTime;
+    }
+
+    public int getTotalBytesCount() {
+        return totalBytesCount;
+    }
+
     public void setPaths(int instance, File store, File temp) {
         storePath = store;
         tempPath = temp;
@@ -338,21 +396,8 @@ public class FileLoadOperation {
         }
         if (save) {
             if (modified) {
-                try {
-                    filePartsStream.seek(0);
-                    count = ranges.size();
-                    filePartsStream.writeInt(count);
-                    for (int a = 0; a < count; a++) {
-                        range = ranges.get(a);
-                        /*if (BuildVars.LOGS_ENABLED) {
-                            FileLog.d(cacheFileFinal + " save not loaded part " + range.start + " - " + range.end);
-                        }*/
-                        filePartsStream.writeInt(range.start);
-                        filePartsStream.writeInt(range.end);
-                    }
-                } catch (Exception e) {
-                    FileLog.e(e);
-                }
+                notLoadedRangesChanged = true;
+                copytNotLoadedRanges();
                 if (streamListeners != null) {
                     count = streamListeners.size();
                     for (int a = 0; a < count; a++) {
@@ -367,6 +412,46 @@ public class FileLoadOperation {
         }
     }
 
+    private void saveNotLoadedRanges() {
+        if (filePartsStream == null || notLoadedBytesRanges == null) {
+            return;
+        }
+        try {
+            filePartsStream.seek(0);
+            int count = notLoadedBytesRanges.size();
+            filePartsStream.writeInt(count);
+            for (int a = 0; a < count; a++) {
+                Range range = notLoadedBytesRanges.get(a);
+                filePartsStream.writeInt(range.start);
+                filePartsStream.writeInt(range.end);
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    /**
+     * Flushes written parts to the disk before the parts and iv files are updated, so after a
+     * crash they never describe data that did not reach the disk.
+     */
+    private void syncFile() throws Exception {
+        if (fileOutputStream == null) {
+            return;
+        }
+        if (unsyncedBytes != 0) {
+            fileOutputStream.getChannel().force(false);
+            unsyncedBytes = 0;
+        }
+        if (notLoadedRangesChanged) {
+            notLoadedRangesChanged = false;
+            saveNotLoadedRanges();
+        }
+        if (fiv != null) {
+            fiv.seek(0);
+            fiv.write(iv);
+        }
+    }
+
     protected File getCurrentFile() {
         final CountDownLatch countDownLatch = new CountDownLatch(1);
         final File result[] = new File[1];
@@ -429,6 +514,10 @@ public class FileLoadOperation {
     }
 
     protected int getDownloadedLengthFromOffset(final int offset, final int length) {
+        ArrayList<Range> ranges = notLoadedBytesRangesCopy;
+        if (ranges != null || state == stateFinished) {
+            return getDownloadedLengthFromOffsetInternal(ranges, offset, length);
+        }
         final CountDownLatch countDownLatch = new CountDownLatch(1);
         final int result[] = new int[1];
         Utilities.stageQueue.postRunnable(new Runnable() {
@@ -470,7 +559,32 @@ public class FileLoadOperation {
         if (notLoadedBytesRanges == null) {
             return;
         }
-        notLoadedBytesRangesCopy = new ArrayList<>(notLoadedBytesRanges);
+        int count = notLoadedBytesRanges.size();
+        ArrayList<Range> ranges = new ArrayList<>(count);
+        for (int a = 0; a < count; a++) {
+            Range range = notLoadedBytesRanges.get(a);
+            ranges.add(new Range(range.start, range.end));
+        }
+        notLoadedBytesRangesCopy = ranges;
+    }
+
+    private void cancelRequestsOutsideStreamWindow(int windowSize) {
+        if (notRequestedBytesRanges == null) {
+            return;
+        }
+        int windowEnd = streamStartOffset + windowSize;
+        for (int a = 0; a < requestInfos.size(); a++) {
+            RequestInfo info = requestInfos.get(a);
+            if (info.offset + info.limit > streamStartOffset && info.offset < windowEnd) {
+                continue;
+            }
+            if (info.requestToken != 0) {
+                ConnectionsManager.getInstance(currentAccount).cancelRequest(info.requestToken, true);
+            }
+            removePart(notRequestedBytesRanges, info.offset, info.offset + info.limit);
+            requestInfos.remove(a);
+            a--;
+        }
     }
 
     public void pause() {
@@ -491,8 +605,19 @@ public class FileLoadOperation {
 
     public boolean start(final FileStreamLoadOperation stream, final int streamOffset) {
         if (currentDownloadChunkSize == 0) {
-            currentDownloadChunkSize = totalBytesCount >= bigFileSizeFrom ? downloadChunkSizeBig : downloadChunkSize;
-            currentMaxDownloadRequests = totalBytesCount >= bigFileSizeFrom ? maxDownloadRequestsBig : maxDownloadRequests;
+            if (totalBytesCount >= bigFileSizeFrom) {
+                if (SharedConfig.adaptiveDownload && key == null) {
+                    loadWindow = new FileLoadWindow();
+                    currentDownloadChunkSize = FileLoadWindow.getChunkSize(totalBytesCount, downloadChunkSizeBig);
+                    currentMaxDownloadRequests = loadWindow.getMaxRequests();
+                } else {
+                    currentDownloadChunkSize = downloadChunkSizeBig;
+                    currentMaxDownloadRequests = maxDownloadRequestsBig;
+                }
+            } else {
+                currentDownloadChunkSize = downloadChunkSize;
+                currentMaxDownloadRequests = maxDownloadRequests;
+            }
         }
         final boolean alreadyStarted = state != stateIdle;
         final boolean wasPaused = paused;
@@ -504,10 +629,13 @@ public class FileLoadOperation {
                     if (streamListeners == null) {
                         streamListeners = new ArrayList<>();
                     }
+                    int oldStreamStartOffset = streamStartOffset;
                     streamStartOffset = streamOffset / currentDownloadChunkSize * currentDownloadChunkSize;
                     streamListeners.add(stream);
                     if (alreadyStarted) {
-                        //clearOperaion(null);
+                        if (state == stateDownloading && streamStartOffset != oldStreamStartOffset) {
+                            cancelRequestsOutsideStreamWindow(stream.getReadAheadBytes());
+                        }
                         startDownloadRequest();
                     }
                 }
@@ -529,6 +657,7 @@ public class FileLoadOperation {
         }
 
         streamStartOffset = streamOffset / currentDownloadChunkSize * currentDownloadChunkSize;
+        startTime = SystemClock.elapsedRealtime();
 
         if (allowDisordererFileSave && totalBytesCount > 0 && totalBytesCount > currentDownloadChunkSize) {
             notLoadedBytesRanges = new ArrayList<>();
@@ -601,8 +730,8 @@ public class FileLoadOperation {
             }
         }
 
-        requestInfos = new ArrayList<>(currentMaxDownloadRequests);
-        delayedRequestInfos = new ArrayList<>(currentMaxDownloadRequests - 1);
+        requestInfos = new ArrayList<>(loadWindow != null ? FileLoadWindow.maxRequests : currentMaxDownloadRequests);
+        delayedRequestInfos = new ArrayList<>((loadWindow != null ? FileLoadWindow.maxRequests : currentMaxDownloadRequests) - 1);
         state = stateDownloading;
 
         cacheFileFinal = new File(storePath, fileNameFinal);
@@ -716,12 +845,12 @@ public class FileLoadOperation {
                     requestedBytesCount = downloadedBytes = 0;
                 }
             }
+            copytNotLoadedRanges();
             if (downloadedBytes != 0 && totalBytesCount > 0) {
-                copytNotLoadedRanges();
                 delegate.didChangedLoadProgress(FileLoadOperation.this, Math.min(1.0f, (float) downloadedBytes / (float) totalBytesCount));
             }
             try {
-                fileOutputStream = new RandomAccessFile(cacheFileTemp, "rws");
+                fileOutputStream = new RandomAccessFile(cacheFileTemp, "rw");
                 if (downloadedBytes != 0) {
                     fileOutputStream.seek(downloadedBytes);
                 }
@@ -785,6 +914,13 @@ public class FileLoadOperation {
     private void cleanup() {
         try {
             if (fileOutputStream != null) {
+                if (state == stateDownloading) {
+                    try {
+                        syncFile();
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
+                }
                 try {
                     fileOutputStream.getChannel().close();
                 } catch (Exception e) {
@@ -796,19 +932,6 @@ public class FileLoadOperation {
         } catch (Exception e) {
             FileLog.e(e);
         }
-        try {
-            if (fileReadStream != null) {
-                try {
-                    fileReadStream.getChannel().close();
-                } catch (Exception e) {
-                    FileLog.e(e);
-                }
-                fileReadStream.close();
-                fileReadStream = null;
-            }
-        } catch (Exception e) {
-            FileLog.e(e);
-        }
         try {
             if (filePartsStream != null) {
                 try {
@@ -853,6 +976,11 @@ public class FileLoadOperation {
         if (state != stateDownloading) {
             return;
         }
+        try {
+            syncFile();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
         state = stateFinished;
         cleanup();
         if (cacheIvTemp != null) {
@@ -1015,7 +1143,7 @@ public class FileLoadOperation {
                 if (totalBytesCount > 0) {
                     finishedDownloading = downloadedBytes >= totalBytesCount;
                 } else {
-                    finishedDownloading = currentBytesSize != currentDownloadChunkSize || (totalBytesCount == downloadedBytes || downloadedBytes % currentDownloadChunkSize != 0) && (totalBytesCount <= 0 || totalBytesCount <= downloadedBytes);
+                    finishedDownloading = currentBytesSize != requestInfo.limit || (totalBytesCount == downloadedBytes || downloadedBytes % requestInfo.limit != 0) && (totalBytesCount <= 0 || totalBytesCount <= downloadedBytes);
                 }
                 if (key != null) {
                     Utilities.aesIgeEncryption(bytes.buffer, key, iv, false, true, 0, bytes.limit());
@@ -1036,8 +1164,13 @@ public class FileLoadOperation {
                 }
                 FileChannel channel = fileOutputStream.getChannel();
                 channel.write(bytes.buffer);
-                addPart(notLoadedBytesRanges, requestInfo.offset, requestInfo.offset + currentBytesSize, true);
-                if (isCdn) {
+                unsyncedBytes += currentBytesSize;
+                if (isCdn && notLoadedBytesRanges != null) {
+                    addCdnPart(requestInfo.offset, currentBytesSize, finishedDownloading);
+                } else {
+                    addPart(notLoadedBytesRanges, requestInfo.offset, requestInfo.offset + currentBytesSize, true);
+                }
+                if (isCdn && notLoadedBytesRanges == null) {
                     int cdnCheckPart = requestInfo.offset / cdnChunkCheckSize;
 
                     int size = notCheckedCdnRanges.size();
@@ -1055,33 +1188,14 @@ public class FileLoadOperation {
                         int availableSize = getDownloadedLengthFromOffsetInternal(notLoadedBytesRanges, fileOffset, cdnChunkCheckSize);
                         if (availableSize != 0 && (availableSize == cdnChunkCheckSize || totalBytesCount > 0 && availableSize == totalBytesCount - fileOffset || totalBytesCount <= 0 && finishedDownloading)) {
                             TLRPC.TL_fileHash hash = cdnHashes.get(fileOffset);
-                            if (fileReadStream == null) {
-                                cdnCheckBytes = new byte[cdnChunkCheckSize];
-                                fileReadStream = new RandomAccessFile(cacheFileTemp, "r");
-                            }
-                            fileReadStream.seek(fileOffset);
-                            fileReadStream.readFully(cdnCheckBytes, 0, availableSize);
-                            byte[] sha256 = Utilities.computeSHA256(cdnCheckBytes, 0, availableSize);
-                            if (!Arrays.equals(sha256, hash.hash)) {
-                                if (BuildVars.LOGS_ENABLED) {
-                                    if (location != null) {
-                                        FileLog.e("invalid cdn hash " + location + " id = " + location.id + " local_id = " + location.local_id + " access_hash = " + location.access_hash + " volume_id = " + location.volume_id + " secret = " + location.secret);
-                                    } else if (webLocation != null) {
-                                        FileLog.e("invalid cdn hash  " + webLocation + " id = " + getFileName());
-                                    }
-                                }
-                                onFail(false, 0);
-                                cacheFileTemp.delete();
-                                return false;
-                            }
                             cdnHashes.remove(fileOffset);
                             addPart(notCheckedCdnRanges, cdnCheckPart, cdnCheckPart + 1, false);
+                            checkCdnHash(hash, fileOffset, availableSize);
                         }
                     }
                 }
-                if (fiv != null) {
-                    fiv.seek(0);
-                    fiv.write(iv);
+                if (fiv != null || notLoadedBytesRanges == null || unsyncedBytes >= syncBytesInterval) {
+                    syncFile();
                 }
                 if (totalBytesCount > 0 && state == stateDownloading) {
                     copytNotLoadedRanges();
@@ -1109,7 +1223,11 @@ public class FileLoadOperation {
                 }
 
                 if (finishedDownloading) {
-                    onFinishLoadingFile(true);
+                    if (pendingCdnChecks > 0) {
+                        finishAfterCdnChecks = true;
+                    } else {
+                        onFinishLoadingFile(true);
+                    }
                 } else {
                     startDownloadRequest();
                 }
@@ -1136,7 +1254,7 @@ public class FileLoadOperation {
                     startDownloadRequest();
                 }
             } else if (error.text.contains("OFFSET_INVALID")) {
-                if (downloadedBytes % currentDownloadChunkSize == 0) {
+                if (downloadedBytes % requestInfo.limit == 0) {
                     try {
                         onFinishLoadingFile(true);
                     } catch (Exception e) {
@@ -1162,9 +1280,114 @@ public class FileLoadOperation {
         return false;
     }
 
+    /**
+     * Counts a written cdn part towards its hash block. The block is marked as loaded, and so is
+     * served to streams and saved in the parts file, only after its hash was checked.
+     */
+    private void addCdnPart(int offset, int size, boolean finishedDownloading) {
+        int cdnCheckPart = offset / cdnChunkCheckSize;
+        int fileOffset = cdnCheckPart * cdnChunkCheckSize;
+        int blockSize = totalBytesCount > 0 ? Math.min(cdnChunkCheckSize, totalBytesCount - fileOffset) : cdnChunkCheckSize;
+        int notLoaded = 0;
+        for (int a = 0, N = notLoadedBytesRanges.size(); a < N; a++) {
+            Range range = notLoadedBytesRanges.get(a);
+            notLoaded += Math.max(0, Math.min(range.end, fileOffset + blockSize) - Math.max(range.start, fileOffset));
+        }
+        if (cdnUncheckedBytes == null) {
+            cdnUncheckedBytes = new SparseIntArray();
+        }
+        int unchecked = cdnUncheckedBytes.get(cdnCheckPart) + size;
+        if (unchecked >= notLoaded || totalBytesCount <= 0 && finishedDownloading) {
+            cdnUncheckedBytes.delete(cdnCheckPart);
+            TLRPC.TL_fileHash hash = cdnHashes.get(fileOffset);
+            cdnHashes.remove(fileOffset);
+            checkCdnHash(hash, fileOffset, totalBytesCount > 0 ? blockSize : blockSize - notLoaded + unchecked);
+        } else {
+            cdnUncheckedBytes.put(cdnCheckPart, unchecked);
+        }
+    }
+
+    private void checkCdnHash(final TLRPC.TL_fileHash hash, final int fileOffset, final int length) {
+        pendingCdnChecks++;
+        final int guid = cdnCheckGuid;
+        final File file = cacheFileTemp;
+        cdnCheckQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                boolean valid = false;
+                RandomAccessFile stream = null;
+                try {
+                    if (cdnCheckBytes == null) {
+                        cdnCheckBytes = new byte[cdnChunkCheckSize];
+                    }
+                    stream = new RandomAccessFile(file, "r");
+                    stream.seek(fileOffset);
+                    stream.readFully(cdnCheckBytes, 0, length);
+                    byte[] sha256 = Utilities.computeSHA256(cdnCheckBytes, 0, length);
+                    valid = Arrays.equals(sha256, hash.hash);
+                } catch (Exception e) {
+                    FileLog.e(e);
+                } finally {
+                    if (stream != null) {
+                        try {
+                            stream.close();
+                        } catch (Exception e) {
+                            FileLog.e(e);
+                        }
+                    }
+                }
+                final boolean result = valid;
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCdnHashChecked(guid, fileOffset, length, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onCdnHashChecked(int guid, int fileOffset, int length, boolean valid) {
+        if (guid != cdnCheckGuid) {
+            return;
+        }
+        pendingCdnChecks--;
+        if (state != stateDownloading) {
+            return;
+        }
+        if (!valid) {
+            if (BuildVars.LOGS_ENABLED) {
+                if (location != null) {
+                    FileLog.e("invalid cdn hash " + location + " id = " + location.id + " local_id = " + location.local_id + " access_hash = " + location.access_hash + " volume_id = " + location.volume_id + " secret = " + location.secret);
+                } else if (webLocation != null) {
+                    FileLog.e("invalid cdn hash  " + webLocation + " id = " + getFileName());
+                }
+            }
+            onFail(false, 0);
+            cacheFileTemp.delete();
+            return;
+        }
+        addPart(notLoadedBytesRanges, fileOffset, fileOffset + length, true);
+        if (totalBytesCount > 0) {
+            copytNotLoadedRanges();
+        }
+        if (finishAfterCdnChecks && pendingCdnChecks == 0) {
+            try {
+                onFinishLoadingFile(true);
+            } catch (Exception e) {
+                FileLog.e(e);
+                onFail(false, 0);
+            }
+        }
+    }
+
     private void onFail(boolean thread, final int reason) {
         cleanup();
         state = stateFailed;
+        cdnCheckGuid++;
+        pendingCdnChecks = 0;
+        finishAfterCdnChecks = false;
+        cdnUncheckedBytes = null;
         if (thread) {
             Utilities.stageQueue.postRunnable(new Runnable() {
                 @Override
@@ -1182,7 +1405,7 @@ public class FileLoadOperation {
         for (int a = 0; a < requestInfos.size(); a++) {
             RequestInfo info = requestInfos.get(a);
             minOffset = Math.min(info.offset, minOffset);
-            removePart(notRequestedBytesRanges, info.offset, info.offset + currentDownloadChunkSize);
+            removePart(notRequestedBytesRanges, info.offset, info.offset + info.limit);
             if (currentInfo == info) {
                 continue;
             }
@@ -1193,7 +1416,7 @@ public class FileLoadOperation {
         requestInfos.clear();
         for (int a = 0; a < delayedRequestInfos.size(); a++) {
             RequestInfo info = delayedRequestInfos.get(a);
-            removePart(notRequestedBytesRanges, info.offset, info.offset + currentDownloadChunkSize);
+            removePart(notRequestedBytesRanges, info.offset, info.offset + info.limit);
             if (info.response != null) {
                 info.response.disableFree = false;
                 info.response.freeResources();
@@ -1252,14 +1475,21 @@ public class FileLoadOperation {
             } else {
                 downloadOffset = requestedBytesCount;
             }
+            int limit = currentDownloadChunkSize;
+            if (isCdn) {
+                limit = Math.min(limit, cdnChunkCheckSize);
+            }
+            while (limit > downloadChunkSize && downloadOffset % limit != 0) {
+                limit >>= 1;
+            }
             if (notRequestedBytesRanges != null) {
-                addPart(notRequestedBytesRanges, downloadOffset, downloadOffset + currentDownloadChunkSize, false);
+                addPart(notRequestedBytesRanges, downloadOffset, downloadOffset + limit, false);
             }
 
             if (totalBytesCount > 0 && downloadOffset >= totalBytesCount) {
                 break;
             }
-            boolean isLast = totalBytesCount <= 0 || a == count - 1 || totalBytesCount > 0 && downloadOffset + currentDownloadChunkSize >= totalBytesCount;
+            boolean isLast = totalBytesCount <= 0 || a == count - 1 || totalBytesCount > 0 && downloadOffset + limit >= totalBytesCount;
             final TLObject request;
             int connectionType = requestsCount % 2 == 0 ? ConnectionsManager.ConnectionTypeDownload : ConnectionsManager.ConnectionTypeDownload2;
             int flags = (isForceRequest ? ConnectionsManager.RequestFlagForceDownload : 0);
@@ -1270,7 +1500,7 @@ public class FileLoadOperation {
                 TLRPC.TL_upload_getCdnFile req = new TLRPC.TL_upload_getCdnFile();
                 req.file_token = cdnToken;
                 req.offset = downloadOffset;
-                req.limit = currentDownloadChunkSize;
+                req.limit = limit;
                 request = req;
                 flags |= ConnectionsManager.RequestFlagEnableUnauthorized;
             } else {
@@ -1278,26 +1508,36 @@ public class FileLoadOperation {
                     TLRPC.TL_upload_getWebFile req = new TLRPC.TL_upload_getWebFile();
                     req.location = webLocation;
                     req.offset = downloadOffset;
-                    req.limit = currentDownloadChunkSize;
+                    req.limit = limit;
                     request = req;
                 } else {
                     TLRPC.TL_upload_getFile req = new TLRPC.TL_upload_getFile();
                     req.location = location;
                     req.offset = downloadOffset;
-                    req.limit = currentDownloadChunkSize;
+                    req.limit = limit;
                     request = req;
                 }
             }
-            requestedBytesCount += currentDownloadChunkSize;
+            requestedBytesCount += limit;
             final RequestInfo requestInfo = new RequestInfo();
             requestInfos.add(requestInfo);
             requestInfo.offset = downloadOffset;
+            requestInfo.limit = limit;
+            requestInfo.requestTime = FileLoadWindow.getRequestTime();
             requestInfo.requestToken = ConnectionsManager.getInstance(currentAccount).sendRequest(request, new RequestDelegate() {
                 @Override
                 public void run(TLObject response, TLRPC.TL_error error) {
                     if (!requestInfos.contains(requestInfo)) {
                         return;
                     }
+                    if (loadWindow != null) {
+                        if (error != null) {
+                            loadWindow.onError();
+                        } else if (response instanceof TLRPC.TL_upload_file || response instanceof TLRPC.TL_upload_cdnFile) {
+                            loadWindow.onResponse(requestInfo.requestTime, response.getObjectSize(), requestInfo.limit);
+                        }
+                        currentMaxDownloadRequests = loadWindow.getMaxRequests();
+                    }
                     if (error != null) {
                         if (request instanceof TLRPC.TL_upload_getCdnFile) {
                             if (error.text.equals("FILE_TOKEN_INVALID")) {
@@ -0,0 +1,273 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Download queue of one kind of files on one datacenter. Waiting operations are kept in a binary
+ * heap ordered by their priority with aging: every {@link #agingInterval} of waiting is worth one
+ * priority level, so background files are never starved. Since all waiting operations age at the
+ * same rate the order does not change over time and the heap never has to be rebuilt. Operations
+ * put to the front wait ahead of all others of their priority, so the latest forced load of a
+ * priority starts first. The queue also counts its running operations and keeps queue wait and
+ * throughput statistics.
+ */
+public class FileLoadQueue {
+
+    private final static int agingInterval = 10000;
+
+    private final static Comparator<FileLoadOperation> startOrderComparator = new Comparator<FileLoadOperation>() {
+        @Override
+        public int compare(FileLoadOperation lhs, FileLoadOperation rhs) {
+            return Long.compare(getScore(rhs), getScore(lhs));
+        }
+    };
+
+    private FileLoadOperation[] heap = new FileLoadOperation[8];
+    private int size;
+    private int runningCount;
+
+    private int startedCount;
+    private long totalWaitTime;
+    private long maxWaitTime;
+    private int finishedCount;
+    private float bytesPerSecond;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    public void incrementRunningCount() {
+        runningCount++;
+    }
+
+    public void decrementRunningCount() {
+        runningCount--;
+    }
+
+    public void add(FileLoadOperation operation) {
+        add(operation, false);
+    }
+
+    /**
+     * Adds the operation, if front is set it waits ahead of all operations of its priority.
+     */
+    public void add(FileLoadOperation operation, boolean front) {
+        if (contains(operation)) {
+            if (front) {
+                moveToFront(operation);
+            }
+            return;
+        }
+        if (operation.getQueueTime() == 0) {
+            operation.setQueueTime(SystemClock.elapsedRealtime());
+        }
+        operation.setQueueOrderTime(front ? getFrontOrderTime(operation.getPriority(), operation.getQueueTime()) : operation.getQueueTime());
+        if (size == heap.length) {
+            FileLoadOperation[] newHeap = new FileLoadOperation[size * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        heap[size] = operation;
+        operation.setQueueIndex(size);
+        siftUp(size++);
+    }
+
+    /**
+     * Moves a waiting operation ahead of all other waiting operations of its priority.
+     */
+    public void moveToFront(FileLoadOperation operation) {
+        if (!contains(operation)) {
+            return;
+        }
+        operation.setQueueOrderTime(getFrontOrderTime(operation.getPriority(), operation.getQueueOrderTime()));
+        siftUp(operation.getQueueIndex());
+    }
+
+    public boolean contains(FileLoadOperation operation) {
+        int index = operation.getQueueIndex();
+        return index >= 0 && index < size && heap[index] == operation;
+    }
+
+    public boolean remove(FileLoadOperation operation) {
+        if (!contains(operation)) {
+            return false;
+        }
+        removeAt(operation.getQueueIndex());
+        return true;
+    }
+
+    public FileLoadOperation peek() {
+        return size > 0 ? heap[0] : null;
+    }
+
+    /**
+     * Removes the operation that should start next and records how long it waited.
+     */
+    public FileLoadOperation poll() {
+        return size > 0 ? poll(heap[0]) : null;
+    }
+
+    /**
+     * Removes a waiting operation that starts out of order and records how long it waited.
+     */
+    public FileLoadOperation poll(FileLoadOperation operation) {
+        if (!contains(operation)) {
+            return null;
+        }
+        removeAt(operation.getQueueIndex());
+        long waitTime = SystemClock.elapsedRealtime() - operation.getQueueTime();
+        startedCount++;
+        totalWaitTime += waitTime;
+        maxWaitTime = Math.max(maxWaitTime, waitTime);
+        return operation;
+    }
+
+    public void updatePriority(FileLoadOperation operation, int priority) {
+        int oldPriority = operation.getPriority();
+        operation.setPriority(priority);
+        if (oldPriority == priority || !contains(operation)) {
+            return;
+        }
+        int index = operation.getQueueIndex();
+        if (priority > oldPriority) {
+            siftUp(index);
+        } else {
+            siftDown(index);
+        }
+    }
+
+    /**
+     * Returns the waiting operations in the order they should start.
+     */
+    public ArrayList<FileLoadOperation> getWaitingOperations() {
+        ArrayList<FileLoadOperation> operations = new ArrayList<>(size);
+        for (int a = 0; a < size; a++) {
+            operations.add(heap[a]);
+        }
+        Collections.sort(operations, startOrderComparator);
+        return operations;
+    }
+
+    /**
+     * Returns true if an operation with at least the given base priority is waiting.
+     */
+    public boolean hasWaiting(int minPriority) {
+        for (int a = 0; a < size; a++) {
+            if (heap[a].getPriority() >= minPriority) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void onOperationFinished(int bytes, long loadTime) {
+        if (bytes <= 0 || loadTime <= 0) {
+            return;
+        }
+        float rate = bytes * 1000.0f / loadTime;
+        bytesPerSecond = finishedCount == 0 ? rate : bytesPerSecond * 0.8f + rate * 0.2f;
+        finishedCount++;
+    }
+
+    public long getAverageWaitTime() {
+        return startedCount != 0 ? totalWaitTime / startedCount : 0;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public float getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    private static long getScore(FileLoadOperation operation) {
+        return (long) operation.getPriority() * agingInterval - operation.getQueueOrderTime();
+    }
+
+    private long getFrontOrderTime(int priority, long time) {
+        for (int a = 0; a < size; a++) {
+            FileLoadOperation operation = heap[a];
+            if (operation.getPriority() == priority && operation.getQueueOrderTime() <= time) {
+                time = operation.getQueueOrderTime() - 1;
+            }
+        }
+        return time;
+    }
+
+    private void removeAt(int index) {
+        FileLoadOperation operation = heap[index];
+        operation.setQueueIndex(-1);
+        size--;
+        if (index != size) {
+            FileLoadOperation last = heap[size];
+            heap[index] = last;
+            last.setQueueIndex(index);
+            heap[size] = null;
+            siftDown(index);
+            if (heap[index] == last) {
+                siftUp(index);
+            }
+        } else {
+            heap[size] = null;
+        }
+    }
+
+    private void siftUp(int index) {
+        FileLoadOperation operation = heap[index];
+        long score = getScore(operation);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            FileLoadOperation parentOperation = heap[parent];
+            if (getScore(parentOperation) >= score) {
+                break;
+            }
+            heap[index] = parentOperation;
+            parentOperation.setQueueIndex(index);
+            index = parent;
+        }
+        heap[index] = operation;
+        operation.setQueueIndex(index);
+    }
+
+    private void siftDown(int index) {
+        FileLoadOperation operation = heap[index];
+        long score = getScore(operation);
+        int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            int right = child + 1;
+            if (right < size && getScore(heap[right]) > getScore(heap[child])) {
+                child = right;
+            }
+            if (score >= getScore(heap[child])) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].setQueueIndex(index);
+            index = child;
+        }
+        heap[index] = operation;
+        operation.setQueueIndex(index);
+    }
+}
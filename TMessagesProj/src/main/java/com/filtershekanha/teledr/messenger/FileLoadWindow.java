@@ -0,0 +1,107 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.os.SystemClock;
+
+/**
+ * Sizes the request window of one download from the measured round trip time and throughput.
+ * The window grows by one request per round trip while responses arrive close to the minimal
+ * round trip time, which means the link still has spare capacity, and shrinks once responses start
+ * to queue up or fail. The last measured throughput is shared between downloads so that the next
+ * big file can start with a bigger chunk size.
+ */
+public class FileLoadWindow {
+
+    public final static int minRequests = 4;
+    public final static int maxRequests = 16;
+
+    private final static int chunkSizeMedium = 1024 * 256;
+    private final static int chunkSizeMax = 1024 * 512;
+    private final static int sampleInterval = 500;
+
+    private static volatile float lastBytesPerMs;
+
+    private int currentMaxRequests = minRequests;
+    private int responsesInRound;
+    private long minRtt = Long.MAX_VALUE;
+    private float smoothedRtt;
+    private float bytesPerMs;
+    private long sampleStartTime;
+    private int sampleBytes;
+
+    /**
+     * Returns the chunk size for a big file, never smaller than {@code defaultSize}. Chunk sizes
+     * are powers of two that divide 1 MB, as the servers require.
+     */
+    public static int getChunkSize(int totalBytesCount, int defaultSize) {
+        float rate = lastBytesPerMs;
+        int size = defaultSize;
+        if (rate >= 2048 && totalBytesCount >= chunkSizeMax * 8) {
+            size = chunkSizeMax;
+        } else if (rate >= 512 && totalBytesCount >= chunkSizeMedium * 8) {
+            size = chunkSizeMedium;
+        }
+        return Math.max(size, defaultSize);
+    }
+
+    public static long getRequestTime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    public int getMaxRequests() {
+        return currentMaxRequests;
+    }
+
+    public float getBytesPerMs() {
+        return bytesPerMs;
+    }
+
+    public void onResponse(long requestTime, int bytes, int chunkSize) {
+        long time = SystemClock.elapsedRealtime();
+        long rtt = Math.max(1, time - requestTime);
+        if (rtt < minRtt) {
+            minRtt = rtt;
+        }
+        smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt * 0.875f + rtt * 0.125f;
+
+        if (sampleStartTime == 0) {
+            sampleStartTime = requestTime;
+        }
+        sampleBytes += bytes;
+        long elapsed = time - sampleStartTime;
+        if (elapsed >= sampleInterval) {
+            float rate = sampleBytes / (float) elapsed;
+            bytesPerMs = bytesPerMs == 0 ? rate : bytesPerMs * 0.75f + rate * 0.25f;
+            lastBytesPerMs = bytesPerMs;
+            sampleStartTime = time;
+            sampleBytes = 0;
+        }
+
+        responsesInRound++;
+        if (responsesInRound < currentMaxRequests) {
+            return;
+        }
+        responsesInRound = 0;
+        if (smoothedRtt < minRtt * 1.5f) {
+            currentMaxRequests = Math.min(maxRequests, currentMaxRequests + 1);
+        } else if (smoothedRtt > minRtt * 3) {
+            currentMaxRequests = Math.max(minRequests, currentMaxRequests - currentMaxRequests / 4);
+        }
+        if (bytesPerMs > 0 && chunkSize > 0) {
+            int bdpRequests = (int) Math.ceil(bytesPerMs * smoothedRtt / chunkSize) * 2;
+            currentMaxRequests = Math.max(minRequests, Math.min(currentMaxRequests, bdpRequests));
+        }
+    }
+
+    public void onError() {
+        responsesInRound = 0;
+        currentMaxRequests = Math.max(minRequests, currentMaxRequests / 2);
+    }
+}
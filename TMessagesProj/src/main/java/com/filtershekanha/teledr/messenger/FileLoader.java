@@ -9,9 +9,10 @@
 package com.filtershekanha.teledr.messenger;
 
 import android.text.TextUtils;
+import android.os.SystemClock;
 import android.util.SparseArray;
-import android.util.SparseIntArray;
 
+import com.filtershekanha.teledr.internal.BuildVars;
 import com.filtershekanha.teledr.messenger.exoplayer2.upstream.DataSource;
 import com.filtershekanha.teledr.messenger.exoplayer2.upstream.TransferListener;
 import com.filtershekanha.teledr.tgnet.TLObject;
@@ -41,6 +42,16 @@ public class FileLoader {
     public static final int MEDIA_DIR_DOCUMENT = 3;
     public static final int MEDIA_DIR_CACHE = 4;
 
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final int QUEUE_TYPE_FILE = 0;
+    private static final int QUEUE_TYPE_AUDIO = 1;
+    private static final int QUEUE_TYPE_PHOTO = 2;
+
+    private static final int MAX_RUNNING_COUNT = 3;
+
     private volatile static DispatchQueue fileLoaderQueue = new DispatchQueue("fileUploadQueue");
 
     private LinkedList<FileUploadOperation> uploadOperationQueue = new LinkedList<>();
@@ -50,12 +61,9 @@ public class FileLoader {
     private int currentUploadOperationsCount = 0;
     private int currentUploadSmallOperationsCount = 0;
 
-    private SparseArray<LinkedList<FileLoadOperation>> loadOperationQueues = new SparseArray<>();
-    private SparseArray<LinkedList<FileLoadOperation>> audioLoadOperationQueues = new SparseArray<>();
-    private SparseArray<LinkedList<FileLoadOperation>> photoLoadOperationQueues = new SparseArray<>();
-    private SparseIntArray currentLoadOperationsCount = new SparseIntArray();
-    private SparseIntArray currentAudioLoadOperationsCount = new SparseIntArray();
-    private SparseIntArray currentPhotoLoadOperationsCount = new SparseIntArray();
+    private SparseArray<FileLoadQueue> loadOperationQueues = new SparseArray<>();
+    private SparseArray<FileLoadQueue> audioLoadOperationQueues = new SparseArray<>();
+    private SparseArray<FileLoadQueue> photoLoadOperationQueues = new SparseArray<>();
 
     private ConcurrentHashMap<String, FileLoadOperation> loadOperationPaths = new ConcurrentHashMap<>();
     private ArrayList<FileLoadOperation> activeFileLoadOperation = new ArrayList<>();
@@ -294,31 +302,111 @@ public class FileLoader {
         });
     }
 
-    private LinkedList<FileLoadOperation> getAudioLoadOperationQueue(int datacenterId) {
-        LinkedList<FileLoadOperation> audioLoadOperationQueue = audioLoadOperationQueues.get(datacenterId);
-        if (audioLoadOperationQueue == null) {
-            audioLoadOperationQueue = new LinkedList<>();
-            audioLoadOperationQueues.put(datacenterId, audioLoadOperationQueue);
+    private FileLoadQueue getLoadOperationQueue(int queueType, int datacenterId) {
+        SparseArray<FileLoadQueue> queues;
+        if (queueType == QUEUE_TYPE_AUDIO) {
+            queues = audioLoadOperationQueues;
+        } else if (queueType == QUEUE_TYPE_PHOTO) {
+            queues = photoLoadOperationQueues;
+        } else {
+            queues = loadOperationQueues;
         }
-        return audioLoadOperationQueue;
+        FileLoadQueue queue = queues.get(datacenterId);
+        if (queue == null) {
+            queue = new FileLoadQueue();
+            queues.put(datacenterId, queue);
+        }
+        return queue;
     }
 
-    private LinkedList<FileLoadOperation> getPhotoLoadOperationQueue(int datacenterId) {
-        LinkedList<FileLoadOperation> photoLoadOperationQueue = photoLoadOperationQueues.get(datacenterId);
-        if (photoLoadOperationQueue == null) {
-            photoLoadOperationQueue = new LinkedList<>();
-            photoLoadOperationQueues.put(datacenterId, photoLoadOperationQueue);
+    private static int getQueueType(TLRPC.Document document, SecureDocument secureDocument, WebFile webDocument, TLRPC.FileLocation location) {
+        if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
+            return QUEUE_TYPE_AUDIO;
+        } else if (secureDocument != null || location != null || MessageObject.isImageWebDocument(webDocument)) {
+            return QUEUE_TYPE_PHOTO;
         }
-        return photoLoadOperationQueue;
+        return QUEUE_TYPE_FILE;
+    }
+
+    private static int getMaxRunningCount(FileLoadOperation operation) {
+        return operation.getPriority() >= PRIORITY_NORMAL || operation.isForceRequest() ? MAX_RUNNING_COUNT : 1;
     }
 
-    private LinkedList<FileLoadOperation> getLoadOperationQueue(int datacenterId) {
-        LinkedList<FileLoadOperation> loadOperationQueue = loadOperationQueues.get(datacenterId);
-        if (loadOperationQueue == null) {
-            loadOperationQueue = new LinkedList<>();
-            loadOperationQueues.put(datacenterId, loadOperationQueue);
+    /**
+     * Background files wait while photos that are on the screen are queued on the same datacenter.
+     */
+    private boolean canStartOperation(int queueType, FileLoadQueue queue, FileLoadOperation operation) {
+        if (queue.getRunningCount() >= getMaxRunningCount(operation)) {
+            return false;
+        }
+        return queueType != QUEUE_TYPE_FILE || operation.getPriority() > PRIORITY_LOW || !getLoadOperationQueue(QUEUE_TYPE_PHOTO, operation.getDatacenterId()).hasWaiting(PRIORITY_HIGH);
+    }
+
+    /**
+     * Starts waiting operations in queue order. An operation that can not start yet, like an aged
+     * background file while another one runs, does not hold back the ones behind it.
+     */
+    private void startQueuedOperations(int queueType, int datacenterId) {
+        FileLoadQueue queue = getLoadOperationQueue(queueType, datacenterId);
+        while (!queue.isEmpty()) {
+            FileLoadOperation operation = queue.peek();
+            if (!canStartOperation(queueType, queue, operation)) {
+                break;
+            }
+            startQueuedOperation(queueType, queue, operation);
+        }
+        if (queue.isEmpty() || queue.getRunningCount() >= MAX_RUNNING_COUNT) {
+            return;
+        }
+        ArrayList<FileLoadOperation> waiting = queue.getWaitingOperations();
+        for (int a = 0, N = waiting.size(); a < N && queue.getRunningCount() < MAX_RUNNING_COUNT; a++) {
+            FileLoadOperation operation = waiting.get(a);
+            if (canStartOperation(queueType, queue, operation)) {
+                startQueuedOperation(queueType, queue, operation);
+            }
         }
-        return loadOperationQueue;
+    }
+
+    private void startQueuedOperation(int queueType, FileLoadQueue queue, FileLoadOperation operation) {
+        queue.poll(operation);
+        if (operation.start()) {
+            queue.incrementRunningCount();
+            if (queueType == QUEUE_TYPE_FILE && !activeFileLoadOperation.contains(operation)) {
+                activeFileLoadOperation.add(operation);
+            }
+        }
+    }
+
+    /**
+     * Changes the priority of a file that is being loaded, e.g. when the view showing it leaves
+     * or enters the screen. Queued files are reordered, started files keep loading.
+     */
+    public void setLoadPriority(final String fileName, final int priority) {
+        if (fileName == null) {
+            return;
+        }
+        fileLoaderQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                FileLoadOperation operation = loadOperationPaths.get(fileName);
+                if (operation == null || operation.getPriority() == priority) {
+                    return;
+                }
+                int datacenterId = operation.getDatacenterId();
+                for (int queueType = QUEUE_TYPE_FILE; queueType <= QUEUE_TYPE_PHOTO; queueType++) {
+                    FileLoadQueue queue = getLoadOperationQueue(queueType, datacenterId);
+                    if (queue.contains(operation)) {
+                        queue.updatePriority(operation, priority);
+                        startQueuedOperations(queueType, datacenterId);
+                        if (queueType == QUEUE_TYPE_PHOTO) {
+                            startQueuedOperations(QUEUE_TYPE_FILE, datacenterId);
+                        }
+                        return;
+                    }
+                }
+                operation.setPriority(priority);
+            }
+        });
     }
 
     public void cancelLoadFile(TLRPC.Document document) {
@@ -366,22 +454,12 @@ public class FileLoader {
             public void run() {
                 FileLoadOperation operation = loadOperationPaths.remove(fileName);
                 if (operation != null) {
-                    int datacenterId = operation.getDatacenterId();
-                    if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
-                        LinkedList<FileLoadOperation> audioLoadOperationQueue = getAudioLoadOperationQueue(datacenterId);
-                        if (!audioLoadOperationQueue.remove(operation)) {
-                            currentAudioLoadOperationsCount.put(datacenterId, currentAudioLoadOperationsCount.get(datacenterId) - 1);
-                        }
-                    } else if (secureDocument != null || location != null || MessageObject.isImageWebDocument(webDocument)) {
-                        LinkedList<FileLoadOperation> photoLoadOperationQueue = getPhotoLoadOperationQueue(datacenterId);
-                        if (!photoLoadOperationQueue.remove(operation)) {
-                            currentPhotoLoadOperationsCount.put(datacenterId, currentPhotoLoadOperationsCount.get(datacenterId) - 1);
-                        }
-                    } else {
-                        LinkedList<FileLoadOperation> loadOperationQueue = getLoadOperationQueue(datacenterId);
-                        if (!loadOperationQueue.remove(operation)) {
-                            currentLoadOperationsCount.put(datacenterId, currentLoadOperationsCount.get(datacenterId) - 1);
-                        }
+                    int queueType = getQueueType(document, secureDocument, webDocument, location);
+                    FileLoadQueue queue = getLoadOperationQueue(queueType, operation.getDatacenterId());
+                    if (!queue.remove(operation)) {
+                        queue.decrementRunningCount();
+                    }
+                    if (queueType == QUEUE_TYPE_FILE) {
                         activeFileLoadOperation.remove(operation);
                     }
                     operation.cancel();
@@ -413,38 +491,54 @@ public class FileLoader {
         if (cacheType == 0 && photo != null && (photo.size == 0 || photo.location.key != null)) {
             cacheType = 1;
         }
-        loadFile(null, null, null, photo.location, ext, photo.size, false, cacheType);
+        loadFile(null, null, null, photo.location, ext, photo.size, false, PRIORITY_LOW, cacheType);
     }
 
     public void loadFile(SecureDocument secureDocument, boolean force) {
+        loadFile(secureDocument, force, force ? PRIORITY_NORMAL : PRIORITY_LOW);
+    }
+
+    public void loadFile(SecureDocument secureDocument, boolean force, int priority) {
         if (secureDocument == null) {
             return;
         }
-        loadFile(null, secureDocument, null, null, null, 0, force, 1);
+        loadFile(null, secureDocument, null, null, null, 0, force, priority, 1);
     }
 
     public void loadFile(TLRPC.Document document, boolean force, int cacheType) {
+        loadFile(document, force, cacheType, force ? PRIORITY_NORMAL : PRIORITY_LOW);
+    }
+
+    public void loadFile(TLRPC.Document document, boolean force, int cacheType, int priority) {
         if (document == null) {
             return;
         }
         if (cacheType == 0 && document != null && document.key != null) {
             cacheType = 1;
         }
-        loadFile(document, null, null, null, null, 0, force, cacheType);
+        loadFile(document, null, null, null, null, 0, force, priority, cacheType);
     }
 
     public void loadFile(WebFile document, boolean force, int cacheType) {
-        loadFile(null, null, document, null, null, 0, force, cacheType);
+        loadFile(document, force, cacheType, force ? PRIORITY_NORMAL : PRIORITY_LOW);
+    }
+
+    public void loadFile(WebFile document, boolean force, int cacheType, int priority) {
+        loadFile(null, null, document, null, null, 0, force, priority, cacheType);
     }
 
     public void loadFile(TLRPC.FileLocation location, String ext, int size, int cacheType) {
+        loadFile(location, ext, size, cacheType, PRIORITY_NORMAL);
+    }
+
+    public void loadFile(TLRPC.FileLocation location, String ext, int size, int cacheType, int priority) {
         if (location == null) {
             return;
         }
         if (cacheType == 0 && (size == 0 || location != null && location.key != null)) {
             cacheType = 1;
         }
-        loadFile(null, null, null, location, ext, size, true, cacheType);
+        loadFile(null, null, null, location, ext, size, true, priority, cacheType);
     }
 
     private void pauseCurrentFileLoadOperations(FileLoadOperation newOperation) {
@@ -456,16 +550,15 @@ public class FileLoader {
             activeFileLoadOperation.remove(operation);
             a--;
             operation.pause();
-            int datacenterId = operation.getDatacenterId();
-            LinkedList<FileLoadOperation> loadOperationQueue = getLoadOperationQueue(datacenterId);
-            loadOperationQueue.add(0, operation);
+            FileLoadQueue loadOperationQueue = getLoadOperationQueue(QUEUE_TYPE_FILE, operation.getDatacenterId());
+            loadOperationQueue.add(operation, true);
             if (operation.wasStarted()) {
-                currentLoadOperationsCount.put(datacenterId, currentLoadOperationsCount.get(datacenterId) - 1);
+                loadOperationQueue.decrementRunningCount();
             }
         }
     }
 
-    private FileLoadOperation loadFileInternal(final TLRPC.Document document, final SecureDocument secureDocument, final WebFile webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final boolean force, final FileStreamLoadOperation stream, final int streamOffset, final int cacheType) {
+    private FileLoadOperation loadFileInternal(final TLRPC.Document document, final SecureDocument secureDocument, final WebFile webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final boolean force, final int priority, final FileStreamLoadOperation stream, final int streamOffset, final int cacheType) {
         String fileName = null;
         if (location != null) {
             fileName = getAttachFileName(location, locationExt);
@@ -483,60 +576,39 @@ public class FileLoader {
             loadOperationPathsUI.put(fileName, true);
         }
 
+        int queueType = getQueueType(document, secureDocument, webDocument, location);
         FileLoadOperation operation;
         operation = loadOperationPaths.get(fileName);
         if (operation != null) {
             if (streamOffset != 0 || force) {
                 int datacenterId = operation.getDatacenterId();
-
-                LinkedList<FileLoadOperation> audioLoadOperationQueue = getAudioLoadOperationQueue(datacenterId);
-                LinkedList<FileLoadOperation> photoLoadOperationQueue = getPhotoLoadOperationQueue(datacenterId);
-                LinkedList<FileLoadOperation> loadOperationQueue = getLoadOperationQueue(datacenterId);
+                FileLoadQueue downloadQueue = getLoadOperationQueue(queueType, datacenterId);
 
                 operation.setForceRequest(true);
-                LinkedList<FileLoadOperation> downloadQueue;
-                if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
-                    downloadQueue = audioLoadOperationQueue;
-                } else if (secureDocument != null || location != null || MessageObject.isImageWebDocument(webDocument)) {
-                    downloadQueue = photoLoadOperationQueue;
-                } else {
-                    downloadQueue = loadOperationQueue;
-                }
-                if (downloadQueue != null) {
-                    int index = downloadQueue.indexOf(operation);
-                    if (index > 0) {
-                        downloadQueue.remove(index);
-                        if (streamOffset != 0) {
-                            if (downloadQueue == audioLoadOperationQueue) {
-                                if (operation.start(stream, streamOffset)) {
-                                    currentAudioLoadOperationsCount.put(datacenterId, currentAudioLoadOperationsCount.get(datacenterId) + 1);
-                                }
-                            } else if (downloadQueue == photoLoadOperationQueue) {
-                                if (operation.start(stream, streamOffset)) {
-                                    currentPhotoLoadOperationsCount.put(datacenterId, currentPhotoLoadOperationsCount.get(datacenterId) + 1);
-                                }
-                            } else {
-                                if (operation.start(stream, streamOffset)) {
-                                    currentLoadOperationsCount.put(datacenterId, currentLoadOperationsCount.get(datacenterId) + 1);
-                                }
-                                if (operation.wasStarted() && !activeFileLoadOperation.contains(operation)) {
-                                    if (stream != null) {
-                                        pauseCurrentFileLoadOperations(operation);
-                                    }
-                                    activeFileLoadOperation.add(operation);
-                                }
-                            }
-                        } else {
-                            downloadQueue.add(0, operation);
+                downloadQueue.updatePriority(operation, Math.max(operation.getPriority(), priority));
+                if (downloadQueue.contains(operation)) {
+                    if (streamOffset != 0) {
+                        downloadQueue.remove(operation);
+                        if (operation.start(stream, streamOffset)) {
+                            downloadQueue.incrementRunningCount();
                         }
-                    } else {
-                        if (stream != null) {
-                            pauseCurrentFileLoadOperations(operation);
-                        }
-                        operation.start(stream, streamOffset);
-                        if (downloadQueue == loadOperationQueue && !activeFileLoadOperation.contains(operation)) {
+                        if (queueType == QUEUE_TYPE_FILE && operation.wasStarted() && !activeFileLoadOperation.contains(operation)) {
+                            if (stream != null) {
+                                pauseCurrentFileLoadOperations(operation);
+                            }
                             activeFileLoadOperation.add(operation);
                         }
+                    } else {
+                        downloadQueue.moveToFront(operation);
+                        startQueuedOperations(queueType, datacenterId);
+                    }
+                } else {
+                    if (stream != null) {
+                        pauseCurrentFileLoadOperations(operation);
+                    }
+                    operation.start(stream, streamOffset);
+                    if (queueType == QUEUE_TYPE_FILE && !activeFileLoadOperation.contains(operation)) {
+                        activeFileLoadOperation.add(operation);
                     }
                 }
             }
@@ -583,20 +655,28 @@ public class FileLoader {
 
         final String finalFileName = fileName;
         final int finalType = type;
+        final int finalQueueType = queueType;
         FileLoadOperation.FileLoadOperationDelegate fileLoadOperationDelegate = new FileLoadOperation.FileLoadOperationDelegate() {
             @Override
             public void didFinishLoadingFile(FileLoadOperation operation, File finalFile) {
                 loadOperationPathsUI.remove(finalFileName);
+                if (operation.getStartTime() != 0) {
+                    long loadTime = SystemClock.elapsedRealtime() - operation.getStartTime();
+                    if (BuildVars.LOGS_ENABLED) {
+                        FileLog.d("loaded " + finalFileName + " dc = " + operation.getDatacenterId() + " size = " + operation.getTotalBytesCount() + " time = " + loadTime + " priority = " + operation.getPriority());
+                    }
+                    recordLoadTime(operation, finalQueueType, operation.getTotalBytesCount(), loadTime);
+                }
                 if (delegate != null) {
                     delegate.fileDidLoaded(finalFileName, finalFile, finalType);
                 }
-                checkDownloadQueue(operation.getDatacenterId(), document, webDocument, location, finalFileName);
+                checkDownloadQueue(operation.getDatacenterId(), finalQueueType, finalFileName);
             }
 
             @Override
             public void didFailedLoadingFile(FileLoadOperation operation, int reason) {
                 loadOperationPathsUI.remove(finalFileName);
-                checkDownloadQueue(operation.getDatacenterId(), document, webDocument, location, finalFileName);
+                checkDownloadQueue(operation.getDatacenterId(), finalQueueType, finalFileName);
                 if (delegate != null) {
                     delegate.fileDidFailedLoad(finalFileName, reason);
                 }
@@ -610,63 +690,40 @@ public class FileLoader {
             }
         };
         operation.setDelegate(fileLoadOperationDelegate);
+        operation.setPriority(stream != null ? PRIORITY_HIGH : priority);
 
-        int datacenterId = operation.getDatacenterId();
-
-        LinkedList<FileLoadOperation> audioLoadOperationQueue = getAudioLoadOperationQueue(datacenterId);
-        LinkedList<FileLoadOperation> photoLoadOperationQueue = getPhotoLoadOperationQueue(datacenterId);
-        LinkedList<FileLoadOperation> loadOperationQueue = getLoadOperationQueue(datacenterId);
-
+        FileLoadQueue queue = getLoadOperationQueue(queueType, operation.getDatacenterId());
         loadOperationPaths.put(fileName, operation);
-        int maxCount = force ? 3 : 1;
-        if (type == MEDIA_DIR_AUDIO) {
-            int count = currentAudioLoadOperationsCount.get(datacenterId);
-            if (streamOffset != 0 || count < maxCount) {
-                if (operation.start(stream, streamOffset)) {
-                    currentAudioLoadOperationsCount.put(datacenterId, count + 1);
-                }
-            } else {
-                if (force) {
-                    audioLoadOperationQueue.add(0, operation);
-                } else {
-                    audioLoadOperationQueue.add(operation);
+        if (streamOffset != 0 || canStartOperation(queueType, queue, operation)) {
+            if (operation.start(stream, streamOffset)) {
+                queue.incrementRunningCount();
+                if (queueType == QUEUE_TYPE_FILE) {
+                    activeFileLoadOperation.add(operation);
                 }
             }
-        } else if (location != null || MessageObject.isImageWebDocument(webDocument)) {
-            int count = currentPhotoLoadOperationsCount.get(datacenterId);
-            if (streamOffset != 0 || count < maxCount) {
-                if (operation.start(stream, streamOffset)) {
-                    currentPhotoLoadOperationsCount.put(datacenterId, count + 1);
-                }
-            } else {
-                if (force) {
-                    photoLoadOperationQueue.add(0, operation);
-                } else {
-                    photoLoadOperationQueue.add(operation);
-                }
+            if (queueType == QUEUE_TYPE_FILE && operation.wasStarted() && stream != null) {
+                pauseCurrentFileLoadOperations(operation);
             }
         } else {
-            int count = currentLoadOperationsCount.get(datacenterId);
-            if (streamOffset != 0 || count < maxCount) {
-                if (operation.start(stream, streamOffset)) {
-                    currentLoadOperationsCount.put(datacenterId, count + 1);
-                    activeFileLoadOperation.add(operation);
-                }
-                if (operation.wasStarted() && stream != null) {
-                    pauseCurrentFileLoadOperations(operation);
-                }
-            } else {
-                if (force) {
-                    loadOperationQueue.add(0, operation);
-                } else {
-                    loadOperationQueue.add(operation);
-                }
-            }
+            queue.add(operation, force);
         }
         return operation;
     }
 
-    private void loadFile(final TLRPC.Document document, final SecureDocument secureDocument, final WebFile webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final boolean force, final int cacheType) {
+    private void recordLoadTime(final FileLoadOperation operation, final int queueType, final int bytes, final long loadTime) {
+        fileLoaderQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                FileLoadQueue queue = getLoadOperationQueue(queueType, operation.getDatacenterId());
+                queue.onOperationFinished(bytes, loadTime);
+                if (BuildVars.LOGS_ENABLED) {
+                    FileLog.d("load queue dc = " + operation.getDatacenterId() + " type = " + queueType + " waiting = " + queue.size() + " running = " + queue.getRunningCount() + " avg wait = " + queue.getAverageWaitTime() + " max wait = " + queue.getMaxWaitTime() + " speed = " + (int) queue.getBytesPerSecond());
+                }
+            }
+        });
+    }
+
+    private void loadFile(final TLRPC.Document document, final SecureDocument secureDocument, final WebFile webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final boolean force, final int priority, final int cacheType) {
         String fileName;
         if (location != null) {
             fileName = getAttachFileName(location, locationExt);
@@ -683,7 +740,7 @@ public class FileLoader {
         fileLoaderQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                loadFileInternal(document, secureDocument, webDocument, location, locationExt, locationSize, force, null, 0, cacheType);
+                loadFileInternal(document, secureDocument, webDocument, location, locationExt, locationSize, force, priority, null, 0, cacheType);
             }
         });
     }
@@ -694,7 +751,7 @@ public class FileLoader {
         fileLoaderQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                result[0] = loadFileInternal(document, null, null, null, null, 0, true, stream, offset, 0);
+                result[0] = loadFileInternal(document, null, null, null, null, 0, true, PRIORITY_HIGH, stream, offset, 0);
                 semaphore.countDown();
             }
         });
@@ -706,88 +763,25 @@ public class FileLoader {
         return result[0];
     }
 
-    private void checkDownloadQueue(final int datacenterId, final TLRPC.Document document, final WebFile webDocument, final TLRPC.FileLocation location, final String arg1) {
+    private void checkDownloadQueue(final int datacenterId, final int queueType, final String arg1) {
         fileLoaderQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                LinkedList<FileLoadOperation> audioLoadOperationQueue = getAudioLoadOperationQueue(datacenterId);
-                LinkedList<FileLoadOperation> photoLoadOperationQueue = getPhotoLoadOperationQueue(datacenterId);
-                LinkedList<FileLoadOperation> loadOperationQueue = getLoadOperationQueue(datacenterId);
-
+                FileLoadQueue queue = getLoadOperationQueue(queueType, datacenterId);
                 FileLoadOperation operation = loadOperationPaths.remove(arg1);
-                if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
-                    int count = currentAudioLoadOperationsCount.get(datacenterId);
-                    if (operation != null) {
-                        if (operation.wasStarted()) {
-                            count--;
-                            currentAudioLoadOperationsCount.put(datacenterId, count);
-                        } else {
-                            audioLoadOperationQueue.remove(operation);
-                        }
-                    }
-                    while (!audioLoadOperationQueue.isEmpty()) {
-                        operation = audioLoadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (count < maxCount) {
-                            operation = audioLoadOperationQueue.poll();
-                            if (operation != null && operation.start()) {
-                                count++;
-                                currentAudioLoadOperationsCount.put(datacenterId, count);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                } else if (location != null || MessageObject.isImageWebDocument(webDocument)) {
-                    int count = currentPhotoLoadOperationsCount.get(datacenterId);
-                    if (operation != null) {
-                        if (operation.wasStarted()) {
-                            count--;
-                            currentPhotoLoadOperationsCount.put(datacenterId, count);
-                        } else {
-                            photoLoadOperationQueue.remove(operation);
-                        }
-                    }
-                    while (!photoLoadOperationQueue.isEmpty()) {
-                        operation = photoLoadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (count < maxCount) {
-                            operation = photoLoadOperationQueue.poll();
-                            if (operation != null && operation.start()) {
-                                count++;
-                                currentPhotoLoadOperationsCount.put(datacenterId, count);
-                            }
-                        } else {
-                            break;
-                        }
+                if (operation != null) {
+                    if (operation.wasStarted()) {
+                        queue.decrementRunningCount();
+                    } else {
+                        queue.remove(operation);
                     }
-                } else {
-                    int count = currentLoadOperationsCount.get(datacenterId);
-                    if (operation != null) {
-                        if (operation.wasStarted()) {
-                            count--;
-                            currentLoadOperationsCount.put(datacenterId, count);
-                        } else {
-                            loadOperationQueue.remove(operation);
-                        }
+                    if (queueType == QUEUE_TYPE_FILE) {
                         activeFileLoadOperation.remove(operation);
                     }
-                    while (!loadOperationQueue.isEmpty()) {
-                        operation = loadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (count < maxCount) {
-                            operation = loadOperationQueue.poll();
-                            if (operation != null && operation.start()) {
-                                count++;
-                                currentLoadOperationsCount.put(datacenterId, count);
-                                if (!activeFileLoadOperation.contains(operation)) {
-                                    activeFileLoadOperation.add(operation);
-                                }
-                            }
-                        } else {
-                            break;
-                        }
-                    }
+                }
+                startQueuedOperations(queueType, datacenterId);
+                if (queueType == QUEUE_TYPE_PHOTO) {
+                    startQueuedOperations(QUEUE_TYPE_FILE, datacenterId);
                 }
             }
         });
@@ -15,19 +15,57 @@ import com.filtershekanha.teledr.messenger.time.FastDateFormat;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Log lines are put into a fixed size ring buffer without locks and written to the log file in
+ * batches by a single writer thread, which also formats them: messages logged with {@code {}}
+ * placeholders are only built there. If the buffer is full the line is dropped and counted, and
+ * the number of dropped lines is written to the file later. The file is rotated when it gets too big.
+ */
 public class FileLog {
-    private OutputStreamWriter streamWriter = null;
-    private FastDateFormat dateFormat = null;
-    private DispatchQueue logQueue = null;
-    private File currentFile = null;
-    private File networkFile = null;
-    private boolean initied;
 
     private final static String tag = "tmessages";
 
+    private final static int bufferSize = 4096;
+    private final static int maxBatchSize = 64 * 1024;
+    private final static long maxFileSize = 8 * 1024 * 1024;
+    private final static int maxRotatedFiles = 3;
+    private final static long flushInterval = 200;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLongArray sequences = new AtomicLongArray(bufferSize);
+    private final char[] levels = new char[bufferSize];
+    private final long[] times = new long[bufferSize];
+    private final String[] messages = new String[bufferSize];
+    private final Object[][] arguments = new Object[bufferSize][];
+    private final Throwable[] throwables = new Throwable[bufferSize];
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private long head;
+    private long reportedDroppedCount;
+    private final StringBuilder batchBuilder = new StringBuilder(maxBatchSize);
+    private long lastTimeSecond = -1;
+    private String lastTimeString;
+    private FileChannel fileChannel;
+    private long fileSize;
+    private ArrayList<File> rotatedFiles = new ArrayList<>();
+
+    private FastDateFormat dateFormat = null;
+    private Thread writerThread;
+    private File logsDir = null;
+    private volatile File currentFile = null;
+    private File networkFile = null;
+    private volatile boolean writing;
+    private volatile boolean initied;
+
     private static volatile FileLog Instance = null;
     public static FileLog getInstance() {
         FileLog localInstance = Instance;
@@ -43,13 +81,16 @@ public class FileLog {
     }
 
     public FileLog() {
+        for (int a = 0; a < bufferSize; a++) {
+            sequences.set(a, a);
+        }
         if (!BuildVars.LOGS_ENABLED) {
             return;
         }
         init();
     }
 
-    public void init() {
+    public synchronized void init() {
         if (initied) {
             return;
         }
@@ -59,19 +100,27 @@ public class FileLog {
             if (sdCard == null) {
                 return;
             }
-            File dir = new File(sdCard.getAbsolutePath() + "/logs");
-            dir.mkdirs();
-            currentFile = new File(dir, dateFormat.format(System.currentTimeMillis()) + ".txt");
+            logsDir = new File(sdCard.getAbsolutePath() + "/logs");
+            logsDir.mkdirs();
         } catch (Exception e) {
             e.printStackTrace();
         }
         try {
-            logQueue = new DispatchQueue("logQueue");
-            currentFile.createNewFile();
-            FileOutputStream stream = new FileOutputStream(currentFile);
-            streamWriter = new OutputStreamWriter(stream);
-            streamWriter.write("-----start log " + dateFormat.format(System.currentTimeMillis()) + "-----\n");
-            streamWriter.flush();
+            openFile();
+            batchBuilder.append("-----start log ").append(dateFormat.format(System.currentTimeMillis())).append("-----\n");
+            writeBatch();
+            writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        if (drain() == 0) {
+                            LockSupport.parkNanos(flushInterval * 1000000L);
+                        }
+                    }
+                }
+            }, "logWriter");
+            writerThread.start();
+            writing = true;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -79,7 +128,10 @@ public class FileLog {
     }
 
     public static void ensureInitied() {
-        getInstance().init();
+        FileLog instance = getInstance();
+        if (!instance.initied) {
+            instance.init();
+        }
     }
 
     public static String getNetworkLogPath() {
@@ -101,25 +153,22 @@ public class FileLog {
         return "";
     }
 
+    /**
+     * Returns the number of lines that were dropped because the ring buffer was full.
+     */
+    public static long getDroppedCount() {
+        return getInstance().droppedCount.get();
+    }
+
     public static void e(final String message, final Throwable exception) {
         if (!BuildVars.LOGS_ENABLED) {
             return;
         }
         ensureInitied();
         Log.e(tag, message, exception);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/tmessages: " + message + "\n");
-                        getInstance().streamWriter.write(exception.toString());
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('E', message, null, exception);
         }
     }
 
@@ -129,18 +178,9 @@ public class FileLog {
         }
         ensureInitied();
         Log.e(tag, message);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/tmessages: " + message + "\n");
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('E', message, null, null);
         }
     }
 
@@ -150,24 +190,9 @@ public class FileLog {
         }
         ensureInitied();
         e.printStackTrace();
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/tmessages: " + e + "\n");
-                        StackTraceElement[] stack = e.getStackTrace();
-                        for (int a = 0; a < stack.length; a++) {
-                            getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/tmessages: " + stack[a] + "\n");
-                        }
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-        } else {
-            e.printStackTrace();
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('E', null, null, e);
         }
     }
 
@@ -176,19 +201,28 @@ public class FileLog {
             return;
         }
         ensureInitied();
-        Log.d(tag, message);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " D/tmessages: " + message + "\n");
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('D', message, null, null);
+        } else {
+            Log.d(tag, message);
+        }
+    }
+
+    /**
+     * Logs the message with every {@code {}} replaced by the next argument. The message is only
+     * built on the writer thread.
+     */
+    public static void d(final String format, final Object... args) {
+        if (!BuildVars.LOGS_ENABLED) {
+            return;
+        }
+        ensureInitied();
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('D', format, args, null);
+        } else {
+            Log.d(tag, formatMessage(format, args));
         }
     }
 
@@ -197,19 +231,24 @@ public class FileLog {
             return;
         }
         ensureInitied();
-        Log.w(tag, message);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " W/tmessages: " + message + "\n");
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('W', message, null, null);
+        } else {
+            Log.w(tag, message);
+        }
+    }
+
+    public static void w(final String format, final Object... args) {
+        if (!BuildVars.LOGS_ENABLED) {
+            return;
+        }
+        ensureInitied();
+        FileLog instance = getInstance();
+        if (instance.writing) {
+            instance.enqueue('W', format, args, null);
+        } else {
+            Log.w(tag, formatMessage(format, args));
         }
     }
 
@@ -234,4 +273,146 @@ public class FileLog {
             }
         }
     }
+
+    private void enqueue(char level, String message, Object[] args, Throwable throwable) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & (bufferSize - 1));
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        }
+        levels[index] = level;
+        times[index] = System.currentTimeMillis();
+        messages[index] = message;
+        arguments[index] = args;
+        throwables[index] = throwable;
+        sequences.lazySet(index, position + 1);
+        if (level == 'E' || (position & (bufferSize / 2 - 1)) == 0) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private int drain() {
+        int count = 0;
+        try {
+            while (true) {
+                int index = (int) (head & (bufferSize - 1));
+                if (sequences.get(index) != head + 1) {
+                    break;
+                }
+                appendEntry(levels[index], times[index], messages[index], arguments[index], throwables[index]);
+                messages[index] = null;
+                arguments[index] = null;
+                throwables[index] = null;
+                sequences.lazySet(index, head + bufferSize);
+                head++;
+                count++;
+                if (batchBuilder.length() >= maxBatchSize) {
+                    writeBatch();
+                }
+            }
+            long dropped = droppedCount.get();
+            if (dropped != reportedDroppedCount) {
+                batchBuilder.append(getTimeString(System.currentTimeMillis())).append(" W/tmessages: dropped ").append(dropped - reportedDroppedCount).append(" log lines\n");
+                reportedDroppedCount = dropped;
+            }
+            if (batchBuilder.length() > 0) {
+                writeBatch();
+            }
+        } catch (Exception e) {
+            batchBuilder.setLength(0);
+            e.printStackTrace();
+        }
+        return count;
+    }
+
+    private void appendEntry(char level, long time, String message, Object[] args, Throwable throwable) {
+        String timeString = getTimeString(time);
+        if (message == null && throwable != null) {
+            batchBuilder.append(timeString).append(" E/tmessages: ").append(throwable).append('\n');
+            StackTraceElement[] stack = throwable.getStackTrace();
+            for (int a = 0; a < stack.length; a++) {
+                batchBuilder.append(timeString).append(" E/tmessages: ").append(stack[a]).append('\n');
+            }
+            return;
+        }
+        if (args != null) {
+            message = formatMessage(message, args);
+        }
+        if (level == 'D') {
+            Log.d(tag, message);
+        } else if (level == 'W') {
+            Log.w(tag, message);
+        }
+        batchBuilder.append(timeString).append(' ').append(level).append("/tmessages: ").append(message).append('\n');
+        if (throwable != null) {
+            batchBuilder.append(throwable).append('\n');
+        }
+    }
+
+    private String getTimeString(long time) {
+        long second = time / 1000;
+        if (second != lastTimeSecond) {
+            lastTimeSecond = second;
+            lastTimeString = dateFormat.format(time);
+        }
+        return lastTimeString;
+    }
+
+    private void writeBatch() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(batchBuilder.toString().getBytes("UTF-8"));
+        batchBuilder.setLength(0);
+        fileSize += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        if (fileSize >= maxFileSize) {
+            rotate();
+        }
+    }
+
+    private void rotate() throws IOException {
+        fileChannel.close();
+        rotatedFiles.add(currentFile);
+        while (rotatedFiles.size() > maxRotatedFiles) {
+            rotatedFiles.remove(0).delete();
+        }
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        String name = dateFormat.format(System.currentTimeMillis());
+        File file = new File(logsDir, name + ".txt");
+        for (int a = 1; file.exists(); a++) {
+            file = new File(logsDir, name + "_" + a + ".txt");
+        }
+        file.createNewFile();
+        fileChannel = new FileOutputStream(file).getChannel();
+        fileSize = 0;
+        currentFile = file;
+    }
+
+    private static String formatMessage(String format, Object[] args) {
+        StringBuilder builder = new StringBuilder(format.length() + args.length * 16);
+        int start = 0;
+        for (int a = 0; a < args.length; a++) {
+            int index = format.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            builder.append(format, start, index).append(args[a]);
+            start = index + 2;
+        }
+        builder.append(format, start, format.length());
+        return builder.toString();
+    }
 }
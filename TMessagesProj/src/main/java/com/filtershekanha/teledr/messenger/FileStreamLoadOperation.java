@@ -9,8 +9,11 @@
 package com.filtershekanha.teledr.messenger;
 
 import android.net.Uri;
+import android.os.SystemClock;
 
+import com.filtershekanha.teledr.internal.BuildVars;
 import com.filtershekanha.teledr.messenger.exoplayer2.C;
+import com.filtershekanha.teledr.messenger.exoplayer2.DefaultLoadControl;
 import com.filtershekanha.teledr.messenger.exoplayer2.upstream.DataSource;
 import com.filtershekanha.teledr.messenger.exoplayer2.upstream.DataSpec;
 import com.filtershekanha.teledr.messenger.exoplayer2.upstream.TransferListener;
@@ -20,9 +23,18 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class FileStreamLoadOperation implements DataSource {
 
+    private final static int defaultReadAheadBytes = 1024 * 1024 * 4;
+    private final static int minReadAheadBytes = 1024 * 1024;
+    private final static int maxReadAheadBytes = 1024 * 1024 * 32;
+    private final static int dataWaitTimeout = 1000;
+
+    private static long lastTimeToFirstByte;
+    private static long averageTimeToFirstByte;
+
     private final TransferListener<? super FileStreamLoadOperation> listener;
     private FileLoadOperation loadOperation;
 
@@ -30,10 +42,12 @@ public class FileStreamLoadOperation implements DataSource {
     private long bytesRemaining;
     private boolean opened;
     private int currentOffset;
-    private CountDownLatch countDownLatch;
+    private volatile CountDownLatch countDownLatch;
     private RandomAccessFile file;
     private TLRPC.Document document;
     private int currentAccount;
+    private int readAheadBytes;
+    private long openTime;
 
     public FileStreamLoadOperation() {
         this(null);
@@ -53,6 +67,8 @@ public class FileStreamLoadOperation implements DataSource {
         document.size = Utilities.parseInt(uri.getQueryParameter("size"));
         document.dc_id = Utilities.parseInt(uri.getQueryParameter("dc"));
         document.mime_type = uri.getQueryParameter("mime");
+        readAheadBytes = getReadAheadBytes(document.size, Utilities.parseInt(uri.getQueryParameter("duration")));
+        openTime = SystemClock.elapsedRealtime();
         TLRPC.TL_documentAttributeFilename filename = new TLRPC.TL_documentAttributeFilename();
         filename.file_name = uri.getQueryParameter("name");
         document.attributes.add(filename);
@@ -87,16 +103,21 @@ public class FileStreamLoadOperation implements DataSource {
                 if (bytesRemaining < readLength) {
                     readLength = (int) bytesRemaining;
                 }
+                availableLength = loadOperation.getDownloadedLengthFromOffset(currentOffset, readLength);
                 while (availableLength == 0) {
+                    CountDownLatch latch = countDownLatch = new CountDownLatch(1);
                     availableLength = loadOperation.getDownloadedLengthFromOffset(currentOffset, readLength);
                     if (availableLength == 0) {
                         if (loadOperation.isPaused()) {
                             FileLoader.getInstance(currentAccount).loadStreamFile(this, document, currentOffset);
                         }
-                        countDownLatch = new CountDownLatch(1);
-                        countDownLatch.await();
+                        latch.await(dataWaitTimeout, TimeUnit.MILLISECONDS);
                     }
                 }
+                if (openTime != 0) {
+                    onFirstByte(SystemClock.elapsedRealtime() - openTime);
+                    openTime = 0;
+                }
                 file.readFully(buffer, offset, availableLength);
                 currentOffset += availableLength;
                 bytesRemaining -= availableLength;
@@ -141,8 +162,41 @@ public class FileStreamLoadOperation implements DataSource {
     }
 
     protected void newDataAvailable() {
-        if (countDownLatch != null) {
-            countDownLatch.countDown();
+        CountDownLatch latch = countDownLatch;
+        if (latch != null) {
+            latch.countDown();
         }
     }
+
+    /**
+     * Returns how many bytes ahead of the playback position the loader should keep requested
+     * after a seek: the player's maximum buffer duration at the average bitrate of the file.
+     */
+    protected int getReadAheadBytes() {
+        return readAheadBytes;
+    }
+
+    private static int getReadAheadBytes(int size, int duration) {
+        if (size <= 0 || duration <= 0) {
+            return defaultReadAheadBytes;
+        }
+        long bytes = (long) size * DefaultLoadControl.DEFAULT_MAX_BUFFER_MS / 1000 / duration;
+        return (int) Math.max(minReadAheadBytes, Math.min(maxReadAheadBytes, bytes));
+    }
+
+    private static synchronized void onFirstByte(long time) {
+        lastTimeToFirstByte = time;
+        averageTimeToFirstByte = averageTimeToFirstByte == 0 ? time : (averageTimeToFirstByte * 7 + time) / 8;
+        if (BuildVars.LOGS_ENABLED) {
+            FileLog.d("stream time to first byte " + time + " ms, average " + averageTimeToFirstByte + " ms");
+        }
+    }
+
+    public static synchronized long getLastTimeToFirstByte() {
+        return lastTimeToFirstByte;
+    }
+
+    public static synchronized long getAverageTimeToFirstByte() {
+        return averageTimeToFirstByte;
+    }
 }
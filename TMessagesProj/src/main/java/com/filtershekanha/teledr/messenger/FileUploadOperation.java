@@ -33,6 +33,16 @@ public class FileUploadOperation {
         private byte[] iv;
     }
 
+    private class UploadPart {
+        private NativeByteBuffer buffer;
+        private int bytes;
+        private byte[] iv;
+    }
+
+    private static final int pipelineQueuesCount = 2;
+    private static DispatchQueue[] pipelineQueues = new DispatchQueue[pipelineQueuesCount];
+    private static int nextPipelineQueue;
+
     private int currentAccount;
     private boolean isLastPart;
     private boolean nextPartFirst;
@@ -79,6 +89,13 @@ public class FileUploadOperation {
     private boolean uploadFirstPartLater;
     private SparseArray<UploadCachedResult> cachedResults = new SparseArray<>();
 
+    private boolean pipelined;
+    private DispatchQueue pipelineQueue;
+    private ArrayList<UploadPart> preparedParts = new ArrayList<>();
+    private int preparingPartsCount;
+    private int nextPreparePartNum;
+    private byte[] pipelineReadBuffer;
+
     public interface FileUploadOperationDelegate {
         void didFinishUploadingFile(FileUploadOperation operation, TLRPC.InputFile inputFile, TLRPC.InputEncryptedFile inputEncryptedFile, byte[] key, byte[] iv);
         void didFailedUploadingFile(FileUploadOperation operation);
@@ -153,6 +170,7 @@ public class FileUploadOperation {
                     lastSavedPartNum = 0;
                     uploadFirstPartLater = false;
                     cachedResults.clear();
+                    clearPreparedParts();
 
                     operationGuid++;
                     for (int a = 0, count = (slowNetwork ? initialRequestsSlowNetworkCount : initialRequestsCount); a < count; a++) {
@@ -174,12 +192,114 @@ public class FileUploadOperation {
                 for (int a = 0; a < requestTokens.size(); a++) {
                     ConnectionsManager.getInstance(currentAccount).cancelRequest(requestTokens.valueAt(a), true);
                 }
+                clearPreparedParts();
             }
         });
         delegate.didFailedUploadingFile(this);
         cleanup();
     }
 
+    private static DispatchQueue getPipelineQueue() {
+        synchronized (FileUploadOperation.class) {
+            int index = nextPipelineQueue;
+            nextPipelineQueue = (nextPipelineQueue + 1) % pipelineQueuesCount;
+            if (pipelineQueues[index] == null) {
+                pipelineQueues[index] = new DispatchQueue("uploadPipelineQueue" + index);
+            }
+            return pipelineQueues[index];
+        }
+    }
+
+    private void clearPreparedParts() {
+        pipelined = false;
+        for (int a = 0; a < preparedParts.size(); a++) {
+            preparedParts.get(a).buffer.reuse();
+        }
+        preparedParts.clear();
+        preparingPartsCount = 0;
+        nextPreparePartNum = 0;
+    }
+
+    /**
+     * Keeps up to maxRequestsCount parts read and encrypted ahead of the network on a pipeline
+     * queue. Parts of one file are prepared in order on a single queue, since the AES-IGE iv of
+     * every part depends on the previous one, while different files use different queues.
+     */
+    private void prepareParts() {
+        while (state == 1 && preparedParts.size() + preparingPartsCount < maxRequestsCount && nextPreparePartNum < totalPartsCount) {
+            preparingPartsCount++;
+            nextPreparePartNum++;
+            final int currentOperationGuid = operationGuid;
+            final RandomAccessFile readStream = stream;
+            final int chunkSize = uploadChunkSize;
+            final byte[] encryptKey = isEncrypted ? key : null;
+            final byte[] encryptIv = ivChange;
+            pipelineQueue.postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    UploadPart part = null;
+                    boolean failed = false;
+                    try {
+                        if (pipelineReadBuffer == null || pipelineReadBuffer.length != chunkSize) {
+                            pipelineReadBuffer = new byte[chunkSize];
+                        }
+                        int bytesRead = readStream.read(pipelineReadBuffer, 0, chunkSize);
+                        if (bytesRead > 0) {
+                            int toAdd = 0;
+                            if (encryptKey != null && bytesRead % 16 != 0) {
+                                toAdd += 16 - bytesRead % 16;
+                            }
+                            part = new UploadPart();
+                            part.bytes = bytesRead;
+                            part.buffer = new NativeByteBuffer(bytesRead + toAdd);
+                            part.buffer.writeBytes(pipelineReadBuffer, 0, bytesRead);
+                            if (encryptKey != null) {
+                                for (int a = 0; a < toAdd; a++) {
+                                    part.buffer.writeByte(0);
+                                }
+                                Utilities.aesIgeEncryption(part.buffer.buffer, encryptKey, encryptIv, true, true, 0, bytesRead + toAdd);
+                                part.iv = new byte[32];
+                                System.arraycopy(encryptIv, 0, part.iv, 0, 32);
+                            }
+                        }
+                    } catch (Exception e) {
+                        if (currentOperationGuid == operationGuid) {
+                            FileLog.e(e);
+                        }
+                        failed = true;
+                    }
+                    final UploadPart preparedPart = part;
+                    final boolean prepareFailed = failed;
+                    Utilities.stageQueue.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (currentOperationGuid != operationGuid || state != 1) {
+                                if (preparedPart != null) {
+                                    preparedPart.buffer.reuse();
+                                }
+                                return;
+                            }
+                            preparingPartsCount--;
+                            if (prepareFailed) {
+                                state = 4;
+                                clearPreparedParts();
+                                delegate.didFailedUploadingFile(FileUploadOperation.this);
+                                cleanup();
+                                return;
+                            }
+                            if (preparedPart != null) {
+                                preparedParts.add(preparedPart);
+                                if (currentUploadRequetsCount < maxRequestsCount) {
+                                    startUploadRequest();
+                                }
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+
     private void cleanup() {
         if (preferences == null) {
             preferences = ApplicationLoader.applicationContext.getSharedPreferences("uploadinfo", Activity.MODE_PRIVATE);
@@ -419,6 +539,12 @@ public class FileUploadOperation {
                     }
                     currentPartNum = 1;
                 }
+
+                if (estimatedSize == 0 && !uploadFirstPartLater && !nextPartFirst && totalPartsCount - currentPartNum > 1) {
+                    pipelined = true;
+                    pipelineQueue = getPipelineQueue();
+                    nextPreparePartNum = currentPartNum;
+                }
             }
 
             if (estimatedSize != 0) {
@@ -427,44 +553,60 @@ public class FileUploadOperation {
                 }
             }
 
-            if (nextPartFirst) {
-                stream.seek(0);
-                if (isBigFile) {
-                    currentRequestBytes = stream.read(readBuffer);
-                } else {
-                    currentRequestBytes = stream.read(readBuffer, 0, 1024);
+            NativeByteBuffer sendBuffer;
+            if (pipelined) {
+                if (preparedParts.isEmpty()) {
+                    prepareParts();
+                    return;
+                }
+                UploadPart part = preparedParts.remove(0);
+                prepareParts();
+                currentRequestBytes = part.bytes;
+                currentRequestIv = part.iv;
+                sendBuffer = part.buffer;
+                if (currentRequestBytes != uploadChunkSize || totalPartsCount == currentPartNum + 1) {
+                    isLastPart = true;
                 }
-                currentPartNum = 0;
             } else {
-                currentRequestBytes = stream.read(readBuffer);
-            }
-            if (currentRequestBytes == -1) {
-                return;
-            }
-            int toAdd = 0;
-            if (isEncrypted && currentRequestBytes % 16 != 0) {
-                toAdd += 16 - currentRequestBytes % 16;
-            }
-            NativeByteBuffer sendBuffer = new NativeByteBuffer(currentRequestBytes + toAdd);
-            if (nextPartFirst || currentRequestBytes != uploadChunkSize || estimatedSize == 0 && totalPartsCount == currentPartNum + 1) {
-                if (uploadFirstPartLater) {
-                    nextPartFirst = true;
-                    uploadFirstPartLater = false;
+                if (nextPartFirst) {
+                    stream.seek(0);
+                    if (isBigFile) {
+                        currentRequestBytes = stream.read(readBuffer);
+                    } else {
+                        currentRequestBytes = stream.read(readBuffer, 0, 1024);
+                    }
+                    currentPartNum = 0;
                 } else {
-                    isLastPart = true;
+                    currentRequestBytes = stream.read(readBuffer);
                 }
-            }
-            sendBuffer.writeBytes(readBuffer, 0, currentRequestBytes);
-            if (isEncrypted) {
-                for (int a = 0; a < toAdd; a++) {
-                    sendBuffer.writeByte(0);
+                if (currentRequestBytes == -1) {
+                    return;
+                }
+                int toAdd = 0;
+                if (isEncrypted && currentRequestBytes % 16 != 0) {
+                    toAdd += 16 - currentRequestBytes % 16;
+                }
+                sendBuffer = new NativeByteBuffer(currentRequestBytes + toAdd);
+                if (nextPartFirst || currentRequestBytes != uploadChunkSize || estimatedSize == 0 && totalPartsCount == currentPartNum + 1) {
+                    if (uploadFirstPartLater) {
+                        nextPartFirst = true;
+                        uploadFirstPartLater = false;
+                    } else {
+                        isLastPart = true;
+                    }
+                }
+                sendBuffer.writeBytes(readBuffer, 0, currentRequestBytes);
+                if (isEncrypted) {
+                    for (int a = 0; a < toAdd; a++) {
+                        sendBuffer.writeByte(0);
+                    }
+                    Utilities.aesIgeEncryption(sendBuffer.buffer, key, ivChange, true, true, 0, currentRequestBytes + toAdd);
+                    currentRequestIv = freeRequestIvs.get(0);
+                    System.arraycopy(ivChange, 0, currentRequestIv, 0, 32);
+                    freeRequestIvs.remove(0);
+                } else {
+                    currentRequestIv = null;
                 }
-                Utilities.aesIgeEncryption(sendBuffer.buffer, key, ivChange, true, true, 0, currentRequestBytes + toAdd);
-                currentRequestIv = freeRequestIvs.get(0);
-                System.arraycopy(ivChange, 0, currentRequestIv, 0, 32);
-                freeRequestIvs.remove(0);
-            } else {
-                currentRequestIv = null;
             }
             if (isBigFile) {
                 TLRPC.TL_upload_saveBigFilePart req = new TLRPC.TL_upload_saveBigFilePart();
@@ -493,6 +635,7 @@ public class FileUploadOperation {
         } catch (Exception e) {
             FileLog.e(e);
             state = 4;
+            clearPreparedParts();
             delegate.didFailedUploadingFile(this);
             cleanup();
             return;
@@ -503,6 +646,7 @@ public class FileUploadOperation {
         final long currentRequestBytesOffset = currentRequestPartNum + currentRequestBytes;
         final int requestSize = finalRequest.getObjectSize() + 4;
         final int currentOperationGuid = operationGuid;
+        final boolean pipelinedRequest = pipelined;
 
         int connectionType;
         if (slowNetwork) {
@@ -527,7 +671,7 @@ public class FileUploadOperation {
                 } else if (currentType == ConnectionsManager.FileTypeFile) {
                     StatsController.getInstance(currentAccount).incrementSentBytesCount(networkType, StatsController.TYPE_FILES, requestSize);
                 }
-                if (currentRequestIv != null) {
+                if (currentRequestIv != null && !pipelinedRequest) {
                     freeRequestIvs.add(currentRequestIv);
                 }
                 requestTokens.delete(requestNumFinal);
@@ -624,6 +768,7 @@ public class FileUploadOperation {
                         FileLog.e("23123");
                     }
                     state = 4;
+                    clearPreparedParts();
                     delegate.didFailedUploadingFile(FileUploadOperation.this);
                     cleanup();
                 }
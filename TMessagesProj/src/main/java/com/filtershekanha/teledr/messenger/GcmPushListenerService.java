@@ -226,11 +226,7 @@ public class GcmPushListenerService extends FirebaseMessagingService {
 
                                     boolean processNotification = false;
                                     if (msg_id != 0) {
-                                        Integer currentReadValue = MessagesController.getInstance(currentAccount).dialogs_read_inbox_max.get(dialog_id);
-                                        if (currentReadValue == null) {
-                                            currentReadValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                                            MessagesController.getInstance(accountFinal).dialogs_read_inbox_max.put(dialog_id, currentReadValue);
-                                        }
+                                        int currentReadValue = MessagesController.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
                                         if (msg_id > currentReadValue) {
                                             processNotification = true;
                                         }
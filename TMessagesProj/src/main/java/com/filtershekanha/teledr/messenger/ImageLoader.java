@@ -15,7 +15,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
@@ -60,8 +63,8 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class ImageLoader {
 
-    private HashMap<String, Integer> bitmapUseCounts = new HashMap<>();
-    private LruCache memCache;
+    private BitmapMemoryCache memCache;
+    private BitmapPool bitmapPool;
     private HashMap<String, CacheImage> imageLoadingByUrl = new HashMap<>();
     private HashMap<String, CacheImage> imageLoadingByKeys = new HashMap<>();
     private SparseArray<CacheImage> imageLoadingByTag = new SparseArray<>();
@@ -132,7 +135,7 @@ public class ImageLoader {
                         AndroidUtilities.runOnUIThread(new Runnable() {
                             @Override
                             public void run() {
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.FileLoadProgressChanged, url, progress);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.FileLoadProgressChanged, url, progress);
                             }
                         });
                     }
@@ -307,7 +310,7 @@ public class ImageLoader {
                         AndroidUtilities.runOnUIThread(new Runnable() {
                             @Override
                             public void run() {
-                                NotificationCenter.getInstance(cacheImage.currentAccount).postNotificationName(NotificationCenter.FileLoadProgressChanged, cacheImage.url, progress);
+                                NotificationCenter.getInstance(cacheImage.currentAccount).postTypedNotification(NotificationCenter.FileLoadProgressChanged, cacheImage.url, progress);
                             }
                         });
                     }
@@ -590,9 +593,17 @@ public class ImageLoader {
                     return;
                 }
                 float scaleFactor = Math.min((float) w / size, (float) h / size);
-                Bitmap scaledBitmap = Bitmaps.createScaledBitmap(originalBitmap, (int) (w / scaleFactor), (int) (h / scaleFactor), true);
+                int scaledW = (int) (w / scaleFactor);
+                int scaledH = (int) (h / scaleFactor);
+                Bitmap scaledBitmap = bitmapPool.get(scaledW, scaledH, Bitmap.Config.ARGB_8888);
+                if (scaledBitmap != null) {
+                    Canvas canvas = new Canvas(scaledBitmap);
+                    canvas.drawBitmap(originalBitmap, null, new Rect(0, 0, scaledW, scaledH), new Paint(Paint.FILTER_BITMAP_FLAG));
+                } else {
+                    scaledBitmap = Bitmaps.createScaledBitmap(originalBitmap, scaledW, scaledH, true);
+                }
                 if (scaledBitmap != originalBitmap) {
-                    originalBitmap.recycle();
+                    bitmapPool.put(originalBitmap);
                     originalBitmap = scaledBitmap;
                 }
                 FileOutputStream stream = new FileOutputStream(thumbFile);
@@ -744,7 +755,7 @@ public class ImageLoader {
                             Utilities.loadWebpImage(image, buffer, buffer.limit(), null, !opts.inPurgeable);
                             file.close();
                         } else {
-                            if (opts.inPurgeable || secureDocumentKey != null) {
+                            if (opts.inPurgeable || secureDocumentKey != null || BitmapPool.ENABLED) {
                                 RandomAccessFile f = new RandomAccessFile(cacheFileFinal, "r");
                                 int len = (int) f.length();
                                 int offset = 0;
@@ -767,7 +778,7 @@ public class ImageLoader {
                                     EncryptedFileInputStream.decryptBytesWithKeyFile(data, 0, len, cacheImage.encryptionKeyPath);
                                 }
                                 if (!error) {
-                                    image = BitmapFactory.decodeByteArray(data, offset, len, opts);
+                                    image = decodeByteArray(data, offset, len, opts, true);
                                 }
                             } else {
                                 FileInputStream is;
@@ -946,6 +957,9 @@ public class ImageLoader {
                         }
 
                         opts.inDither = false;
+                        if (mediaId == null && !useNativeWebpLoaded) {
+                            bitmapPool.applyInBitmap(opts);
+                        }
                         if (mediaId != null && mediaThumbPath == null) {
                             if (mediaIsVideo) {
                                 image = MediaStore.Video.Thumbnails.getThumbnail(ApplicationLoader.applicationContext.getContentResolver(), mediaId, MediaStore.Video.Thumbnails.MINI_KIND, opts);
@@ -989,17 +1003,10 @@ public class ImageLoader {
                                         EncryptedFileInputStream.decryptBytesWithKeyFile(data, 0, len, cacheImage.encryptionKeyPath);
                                     }
                                     if (!error) {
-                                        image = BitmapFactory.decodeByteArray(data, offset, len, opts);
+                                        image = decodeByteArray(data, offset, len, opts, false);
                                     }
                                 } else {
-                                    FileInputStream is;
-                                    if (inEncryptedFile) {
-                                        is = new EncryptedFileInputStream(cacheFileFinal, cacheImage.encryptionKeyPath);
-                                    } else {
-                                        is = new FileInputStream(cacheFileFinal);
-                                    }
-                                    image = BitmapFactory.decodeStream(is, null, opts);
-                                    is.close();
+                                    image = decodeFile(cacheFileFinal, inEncryptedFile ? cacheImage.encryptionKeyPath : null, opts);
                                 }
                             }
                         }
@@ -1040,6 +1047,58 @@ public class ImageLoader {
             }
         }
 
+        private Bitmap decodeByteArray(byte[] data, int offset, int len, BitmapFactory.Options opts, boolean decodeBounds) {
+            if (decodeBounds && BitmapPool.ENABLED && !opts.inPurgeable) {
+                opts.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, offset, len, opts);
+                opts.inJustDecodeBounds = false;
+                bitmapPool.applyInBitmap(opts);
+            }
+            if (opts.inBitmap != null) {
+                try {
+                    Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, len, opts);
+                    if (bitmap != null) {
+                        return bitmap;
+                    }
+                    bitmapPool.put(opts.inBitmap);
+                } catch (IllegalArgumentException e) {
+                    opts.inBitmap.recycle();
+                }
+                opts.inBitmap = null;
+            }
+            return BitmapFactory.decodeByteArray(data, offset, len, opts);
+        }
+
+        private Bitmap decodeFile(File file, File encryptionKeyPath, BitmapFactory.Options opts) throws Exception {
+            if (opts.inBitmap != null) {
+                try {
+                    Bitmap bitmap = decodeStream(file, encryptionKeyPath, opts);
+                    if (bitmap != null) {
+                        return bitmap;
+                    }
+                    bitmapPool.put(opts.inBitmap);
+                } catch (IllegalArgumentException e) {
+                    opts.inBitmap.recycle();
+                }
+                opts.inBitmap = null;
+            }
+            return decodeStream(file, encryptionKeyPath, opts);
+        }
+
+        private Bitmap decodeStream(File file, File encryptionKeyPath, BitmapFactory.Options opts) throws Exception {
+            FileInputStream is;
+            if (encryptionKeyPath != null) {
+                is = new EncryptedFileInputStream(file, encryptionKeyPath);
+            } else {
+                is = new FileInputStream(file);
+            }
+            try {
+                return BitmapFactory.decodeStream(is, null, opts);
+            } finally {
+                is.close();
+            }
+        }
+
         private void onPostExecute(final BitmapDrawable bitmapDrawable) {
             AndroidUtilities.runOnUIThread(new Runnable() {
                 @Override
@@ -1053,8 +1112,7 @@ public class ImageLoader {
                             memCache.put(cacheImage.key, bitmapDrawable);
                             toSet = bitmapDrawable;
                         } else {
-                            Bitmap image = bitmapDrawable.getBitmap();
-                            image.recycle();
+                            bitmapPool.put(bitmapDrawable.getBitmap());
                         }
                     }
                     final BitmapDrawable toSetFinal = toSet;
@@ -1165,6 +1223,8 @@ public class ImageLoader {
                         } else if (location instanceof WebFile) {
                             FileLoader.getInstance(currentAccount).cancelLoadFile((WebFile) location);
                         }
+                    } else if (url != null) {
+                        FileLoader.getInstance(currentAccount).setLoadPriority(url, FileLoader.PRIORITY_LOW);
                     }
                 }
                 if (cacheTask != null) {
@@ -1251,7 +1311,8 @@ public class ImageLoader {
 
         int cacheSize = Math.min(15, ((ActivityManager) ApplicationLoader.applicationContext.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass() / 7) * 1024 * 1024;
 
-        memCache = new LruCache(cacheSize) {
+        bitmapPool = new BitmapPool(cacheSize / 4);
+        memCache = new BitmapMemoryCache(cacheSize, 64 * 1024) {
             @Override
             protected int sizeOf(String key, BitmapDrawable value) {
                 return value.getBitmap().getByteCount();
@@ -1262,12 +1323,8 @@ public class ImageLoader {
                 if (ignoreRemoval != null && key != null && ignoreRemoval.equals(key)) {
                     return;
                 }
-                final Integer count = bitmapUseCounts.get(key);
-                if (count == null || count == 0) {
-                    Bitmap b = oldValue.getBitmap();
-                    if (!b.isRecycled()) {
-                        b.recycle();
-                    }
+                if (memCache.getUseCount(key) == 0) {
+                    bitmapPool.put(oldValue.getBitmap());
                 }
             }
         };
@@ -1301,7 +1358,7 @@ public class ImageLoader {
                         AndroidUtilities.runOnUIThread(new Runnable() {
                             @Override
                             public void run() {
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.FileUploadProgressChanged, location, progress, isEncrypted);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.FileUploadProgressChanged, location, progress, isEncrypted);
                             }
                         });
                     }
@@ -1377,7 +1434,7 @@ public class ImageLoader {
                         AndroidUtilities.runOnUIThread(new Runnable() {
                             @Override
                             public void run() {
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.FileLoadProgressChanged, location, progress);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.FileLoadProgressChanged, location, progress);
                             }
                         });
                     }
@@ -1604,10 +1661,10 @@ public class ImageLoader {
     }
 
     private void performReplace(String oldKey, String newKey) {
-        BitmapDrawable b = memCache.get(oldKey);
+        BitmapDrawable b = memCache.peek(oldKey);
         replacedBitmaps.put(oldKey, newKey);
         if (b != null) {
-            BitmapDrawable oldBitmap = memCache.get(newKey);
+            BitmapDrawable oldBitmap = memCache.peek(newKey);
             boolean dontChange = false;
             if (oldBitmap != null && oldBitmap.getBitmap() != null && b.getBitmap() != null) {
                 Bitmap oldBitmapObject = oldBitmap.getBitmap();
@@ -1625,43 +1682,32 @@ public class ImageLoader {
                 memCache.remove(oldKey);
             }
         }
-        Integer val = bitmapUseCounts.get(oldKey);
-        if (val != null) {
-            bitmapUseCounts.put(newKey, val);
-            bitmapUseCounts.remove(oldKey);
-        }
+        memCache.moveUseCount(oldKey, newKey);
     }
 
     public void incrementUseCount(String key) {
-        Integer count = bitmapUseCounts.get(key);
-        if (count == null) {
-            bitmapUseCounts.put(key, 1);
-        } else {
-            bitmapUseCounts.put(key, count + 1);
-        }
+        memCache.incrementUseCount(key);
     }
 
     public boolean decrementUseCount(String key) {
-        Integer count = bitmapUseCounts.get(key);
-        if (count == null) {
-            return true;
-        }
-        if (count == 1) {
-            bitmapUseCounts.remove(key);
-            return true;
-        } else {
-            bitmapUseCounts.put(key, count - 1);
-        }
-        return false;
+        return memCache.decrementUseCount(key);
     }
 
     public void removeImage(String key) {
-        bitmapUseCounts.remove(key);
+        memCache.removeUseCount(key);
         memCache.remove(key);
     }
 
+    public BitmapMemoryCache getMemoryCache() {
+        return memCache;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
     public boolean isInCache(String key) {
-        return memCache.get(key) != null;
+        return memCache.contains(key);
     }
 
     public void clearMemory() {
@@ -1988,13 +2034,13 @@ public class ImageLoader {
                                     if (localCacheType == 0 && (size <= 0 || location.key != null)) {
                                         localCacheType = 1;
                                     }
-                                    FileLoader.getInstance(currentAccount).loadFile(location, ext, size, localCacheType);
+                                    FileLoader.getInstance(currentAccount).loadFile(location, ext, size, localCacheType, FileLoader.PRIORITY_HIGH);
                                 } else if (imageLocation instanceof TLRPC.Document) {
-                                    FileLoader.getInstance(currentAccount).loadFile((TLRPC.Document) imageLocation, true, cacheType);
+                                    FileLoader.getInstance(currentAccount).loadFile((TLRPC.Document) imageLocation, true, cacheType, FileLoader.PRIORITY_HIGH);
                                 } else if (imageLocation instanceof SecureDocument) {
-                                    FileLoader.getInstance(currentAccount).loadFile((SecureDocument) imageLocation, true);
+                                    FileLoader.getInstance(currentAccount).loadFile((SecureDocument) imageLocation, true, FileLoader.PRIORITY_HIGH);
                                 } else if (imageLocation instanceof WebFile) {
-                                    FileLoader.getInstance(currentAccount).loadFile((WebFile) imageLocation, true, cacheType);
+                                    FileLoader.getInstance(currentAccount).loadFile((WebFile) imageLocation, true, cacheType, FileLoader.PRIORITY_HIGH);
                                 }
                                 if (imageReceiver.isForceLoding()) {
                                     forceLoadingImages.put(img.key, 0);
@@ -0,0 +1,322 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.util.Patterns;
+
+import java.util.Arrays;
+
+/**
+ * Finds web links, bot commands, mentions, hashtags and cashtags in a single pass over the text.
+ * Every char is looked at a constant number of times: a token is only tried at a word start and
+ * the scan continues after its end. The scan also notes whether the text has a run of digits
+ * that may be a phone number, so the expensive phone number matcher only runs when needed.
+ * Hosts without a scheme are checked with the domain pattern {@link android.text.util.Linkify}
+ * uses, only for dotted words, so the same top-level domains and IP addresses are linked.
+ */
+public class LinkScanner {
+
+    public final static int FLAG_URLS = 1;
+    public final static int FLAG_USERNAMES = 2;
+
+    public final static int TYPE_URL = 0;
+    public final static int TYPE_BOT_COMMAND = 1;
+    public final static int TYPE_MENTION = 2;
+    public final static int TYPE_HASHTAG = 3;
+    public final static int TYPE_CASHTAG = 4;
+
+    private final static int maxTextLength = 1024 * 20;
+    private final static int maxCommandLength = 255;
+    private final static int maxMentionLength = 32;
+    private final static int phoneDigitsCount = 6;
+
+    private final static String[] schemes = {"http://", "https://", "rtsp://"};
+
+    private final CharSequence text;
+    private final int length;
+    private final int flags;
+
+    private int[] results = new int[12];
+    private int count;
+    private boolean hasPhoneNumbers;
+
+    public LinkScanner(CharSequence text, int flags) {
+        this.text = text;
+        this.length = text.length();
+        this.flags = flags;
+    }
+
+    public static boolean containsPhoneNumber(CharSequence text) {
+        int digitsInRow = 0;
+        for (int a = 0, N = text.length(); a < N; a++) {
+            char c = text.charAt(a);
+            if (c >= '0' && c <= '9') {
+                if (++digitsInRow >= phoneDigitsCount) {
+                    return true;
+                }
+            } else if (c == ' ' || digitsInRow == 0) {
+                digitsInRow = 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans the whole text and returns the number of found tokens.
+     */
+    public int scan() {
+        count = 0;
+        hasPhoneNumbers = false;
+        if (length < 2 || length > maxTextLength) {
+            return 0;
+        }
+        boolean urls = (flags & FLAG_URLS) != 0;
+        boolean usernames = (flags & FLAG_USERNAMES) != 0;
+        int digitsInRow = 0;
+        char prev = 0;
+        int a = 0;
+        while (a < length) {
+            char c = text.charAt(a);
+            if (c >= '0' && c <= '9') {
+                if (++digitsInRow >= phoneDigitsCount) {
+                    hasPhoneNumbers = true;
+                }
+            } else if (c == ' ' || digitsInRow == 0) {
+                digitsInRow = 0;
+            }
+            int end = -1;
+            int type = 0;
+            if (usernames && (a == 0 || isWhitespace(prev))) {
+                if (c == '/') {
+                    end = matchRun(a + 1, maxCommandLength, true);
+                    type = TYPE_BOT_COMMAND;
+                } else if (c == '@') {
+                    end = matchRun(a + 1, maxMentionLength, false);
+                    type = TYPE_MENTION;
+                } else if (c == '#') {
+                    end = matchHashtag(a + 1);
+                    type = TYPE_HASHTAG;
+                } else if (c == '$') {
+                    end = matchCashtag(a + 1);
+                    type = TYPE_CASHTAG;
+                }
+            }
+            if (end == -1 && urls && isHostChar(c) && (a == 0 || isUrlBoundary(prev))) {
+                end = matchUrl(a);
+                type = TYPE_URL;
+            }
+            if (end != -1) {
+                addResult(type, a, end);
+                prev = text.charAt(end - 1);
+                digitsInRow = 0;
+                a = end;
+            } else {
+                prev = c;
+                a++;
+            }
+        }
+        return count;
+    }
+
+    public boolean hasPhoneNumbers() {
+        return hasPhoneNumbers;
+    }
+
+    public int getType(int index) {
+        return results[index * 3];
+    }
+
+    public int getStart(int index) {
+        return results[index * 3 + 1];
+    }
+
+    public int getEnd(int index) {
+        return results[index * 3 + 2];
+    }
+
+    /**
+     * Returns the link of a {@link #TYPE_URL} token with a lower case scheme, adding http://
+     * if it has none, like {@link android.text.util.Linkify} does.
+     */
+    public String getUrl(int index) {
+        String url = text.subSequence(getStart(index), getEnd(index)).toString();
+        for (int a = 0; a < schemes.length; a++) {
+            String scheme = schemes[a];
+            if (url.regionMatches(true, 0, scheme, 0, scheme.length())) {
+                return url.regionMatches(0, scheme, 0, scheme.length()) ? url : scheme + url.substring(scheme.length());
+            }
+        }
+        return schemes[0] + url;
+    }
+
+    private void addResult(int type, int start, int end) {
+        if ((count + 1) * 3 > results.length) {
+            results = Arrays.copyOf(results, results.length * 2);
+        }
+        results[count * 3] = type;
+        results[count * 3 + 1] = start;
+        results[count * 3 + 2] = end;
+        count++;
+    }
+
+    private int matchRun(int start, int maxLength, boolean allowAt) {
+        int a = start;
+        int end = Math.min(length, start + maxLength);
+        while (a < end) {
+            char c = text.charAt(a);
+            if (!isAsciiWordChar(c) && !(allowAt && c == '@')) {
+                break;
+            }
+            a++;
+        }
+        return a > start ? a : -1;
+    }
+
+    private int matchHashtag(int start) {
+        int a = start;
+        while (a < length) {
+            char c = text.charAt(a);
+            if (!isAsciiWordChar(c) && c != '.') {
+                break;
+            }
+            a++;
+        }
+        return a > start ? a : -1;
+    }
+
+    private int matchCashtag(int start) {
+        int a = start;
+        while (a < length && a - start <= 8) {
+            char c = text.charAt(a);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            a++;
+        }
+        int size = a - start;
+        if (size < 3 || size > 8) {
+            return -1;
+        }
+        if (a < length) {
+            char c = text.charAt(a);
+            if (c != ' ' && c != ',' && c != '.') {
+                return -1;
+            }
+            //the delimiter is a part of the span
+            a++;
+        }
+        return a;
+    }
+
+    private int matchUrl(int start) {
+        int a = start;
+        boolean hasScheme = false;
+        for (int b = 0; b < schemes.length; b++) {
+            String scheme = schemes[b];
+            if (regionMatchesIgnoreCase(start, scheme)) {
+                a = start + scheme.length();
+                hasScheme = true;
+                break;
+            }
+        }
+
+        int hostStart = a;
+        int labels = 0;
+        while (true) {
+            int labelStart = a;
+            while (a < length && isHostChar(text.charAt(a))) {
+                a++;
+            }
+            if (a == labelStart) {
+                return -1;
+            }
+            labels++;
+            if (a + 1 < length && text.charAt(a) == '.' && isHostChar(text.charAt(a + 1))) {
+                a++;
+            } else {
+                break;
+            }
+        }
+        int hostEnd = a;
+        if (!hasScheme) {
+            if (labels < 2 || !Patterns.DOMAIN_NAME.matcher(text.subSequence(hostStart, hostEnd)).matches()) {
+                return -1;
+            }
+            if (a < length && text.charAt(a) == '@') {
+                return -1;
+            }
+        }
+
+        if (a + 1 < length && text.charAt(a) == ':') {
+            int b = a + 1;
+            while (b < length && text.charAt(b) >= '0' && text.charAt(b) <= '9') {
+                b++;
+            }
+            if (b > a + 1) {
+                a = b;
+            }
+        }
+        if (a < length) {
+            char c = text.charAt(a);
+            if (c == '/' || c == '?' || c == '#') {
+                int openBrackets = 0;
+                while (a < length) {
+                    c = text.charAt(a);
+                    if (isWhitespace(c)) {
+                        break;
+                    } else if (c == '(') {
+                        openBrackets++;
+                    } else if (c == ')') {
+                        if (openBrackets == 0) {
+                            break;
+                        }
+                        openBrackets--;
+                    }
+                    a++;
+                }
+                while (a > hostEnd && isTrailingPunctuation(text.charAt(a - 1))) {
+                    a--;
+                }
+            }
+        }
+        return a;
+    }
+
+    private boolean regionMatchesIgnoreCase(int start, String value) {
+        if (start + value.length() > length) {
+            return false;
+        }
+        for (int a = 0, N = value.length(); a < N; a++) {
+            if (Character.toLowerCase(text.charAt(start + a)) != value.charAt(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static boolean isHostChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-';
+    }
+
+    private static boolean isUrlBoundary(char c) {
+        return !isHostChar(c) && c != '@' && c != '.' && c != '_' && c != '/';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '.' || c == ',' || c == ';' || c == ':' || c == '!' || c == '?' || c == '"' || c == '\'';
+    }
+}
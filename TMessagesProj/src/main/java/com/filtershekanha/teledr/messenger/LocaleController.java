@@ -77,7 +77,7 @@ public class LocaleController {
     private boolean reloadLastFile;
 
     private HashMap<String, String> currencyValues;
-    private HashMap<String, String> translitChars;
+    private volatile HashMap<String, String> translitChars;
 
     private class TimeZoneChangedReceiver extends BroadcastReceiver {
         @Override
@@ -1631,8 +1631,27 @@ public class LocaleController {
     }
 
     public String getTranslitString(String src) {
+        HashMap<String, String> translitChars = this.translitChars;
         if (translitChars == null) {
-            translitChars = new HashMap<>(520);
+            translitChars = loadTranslitChars();
+        }
+        StringBuilder dst = new StringBuilder(src.length());
+        int len = src.length();
+        for (int a = 0; a < len; a++) {
+            String ch = src.substring(a, a + 1);
+            String tch = translitChars.get(ch);
+            if (tch != null) {
+                dst.append(tch);
+            } else {
+                dst.append(ch);
+            }
+        }
+        return dst.toString();
+    }
+
+    private synchronized HashMap<String, String> loadTranslitChars() {
+        if (translitChars == null) {
+            HashMap<String, String> translitChars = new HashMap<>(520);
             translitChars.put("ȼ", "c");
             translitChars.put("ᶇ", "n");
             translitChars.put("ɖ", "d");
@@ -2152,19 +2171,9 @@ public class LocaleController {
             translitChars.put("ꜩ", "tz");
             translitChars.put("ẻ", "e");
             translitChars.put("о", "o");
+            this.translitChars = translitChars;
         }
-        StringBuilder dst = new StringBuilder(src.length());
-        int len = src.length();
-        for (int a = 0; a < len; a++) {
-            String ch = src.substring(a, a + 1);
-            String tch = translitChars.get(ch);
-            if (tch != null) {
-                dst.append(tch);
-            } else {
-                dst.append(ch);
-            }
-        }
-        return dst.toString();
+        return translitChars;
     }
 
     abstract public static class PluralRules {
@@ -0,0 +1,118 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.text.TextPaint;
+
+import com.filtershekanha.teledr.ui.ActionBar.Theme;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps measured message text layouts keyed by message and text width, so a chat that is opened
+ * again or rotated back does not measure its messages a second time. Loaded messages are still
+ * laid out in the MessageObject constructor on the loading thread; only after a width change
+ * are the messages around the visible ones measured on a background queue before they are bound.
+ */
+public class MessageLayoutCache {
+
+    public static class Entry {
+        public CharSequence text;
+        public ArrayList<MessageObject.TextLayoutBlock> blocks = new ArrayList<>();
+        public boolean hasUrls;
+        public int textWidth;
+        public int textHeight;
+        public int linesCount;
+        public int lastLineWidth;
+        public boolean hasRtl;
+        public float textXOffset;
+    }
+
+    private final static int maxEntries = 400;
+    private final static int lookAhead = 20;
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private static DispatchQueue layoutQueue;
+    private static volatile int prepareGeneration;
+
+    public static Entry get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    public static void put(String key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    public static void clear() {
+        prepareGeneration++;
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Measures the text of the messages between {@code first} and {@code last} for the current
+     * screen width, then of up to {@link #lookAhead} messages on both sides, nearest first.
+     * A newer call stops the previous one. Must be called on the UI thread, which owns the theme
+     * paints that are copied for the background queue.
+     */
+    public static void prepareLayouts(ArrayList<MessageObject> messages, int first, int last) {
+        int count = messages.size();
+        if (count == 0) {
+            return;
+        }
+        first = Math.max(0, Math.min(first, count - 1));
+        last = Math.max(first, Math.min(last, count - 1));
+        final ArrayList<MessageObject> objects = new ArrayList<>(last - first + 1 + lookAhead * 2);
+        for (int a = first; a <= last; a++) {
+            objects.add(messages.get(a));
+        }
+        for (int a = 1; a <= lookAhead; a++) {
+            if (last + a < count) {
+                objects.add(messages.get(last + a));
+            }
+            if (first - a >= 0) {
+                objects.add(messages.get(first - a));
+            }
+        }
+        final TextPaint textPaint = new TextPaint(Theme.chat_msgTextPaint);
+        final TextPaint gameTextPaint = new TextPaint(Theme.chat_msgGameTextPaint);
+        final int generation = ++prepareGeneration;
+        if (layoutQueue == null) {
+            layoutQueue = new DispatchQueue("layoutQueue");
+        }
+        layoutQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                for (int a = 0, N = objects.size(); a < N; a++) {
+                    if (generation != prepareGeneration) {
+                        return;
+                    }
+                    try {
+                        objects.get(a).prepareLayout(textPaint, gameTextPaint);
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -46,8 +46,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MessageObject {
 
@@ -117,8 +115,7 @@ public class MessageObject {
 
     private boolean layoutCreated;
     private int generatedWithMinSize;
-
-    public static Pattern urlPattern;
+    private boolean textHasUrls;
 
     public CharSequence vCardData;
 
@@ -2064,12 +2061,16 @@ public class MessageObject {
             return false;
         }
         if (layoutCreated) {
-            int newMinSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
+            int newMinSize = getLayoutMinSize();
             if (Math.abs(generatedWithMinSize - newMinSize) > AndroidUtilities.dp(52)) {
-                layoutCreated = false;
+                TLRPC.User fromUser = null;
+                if (isFromUser()) {
+                    fromUser = MessagesController.getInstance(currentAccount).getUser(messageOwner.from_id);
+                }
+                updateLayoutWidth(fromUser);
+                return true;
             }
-        }
-        if (!layoutCreated) {
+        } else {
             layoutCreated = true;
             TLRPC.User fromUser = null;
             if (isFromUser()) {
@@ -2402,66 +2403,6 @@ public class MessageObject {
         return FileLoader.MEDIA_DIR_CACHE;
     }
 
-    private static boolean containsUrls(CharSequence message) {
-        if (message == null || message.length() < 2 || message.length() > 1024 * 20) {
-            return false;
-        }
-
-        int length = message.length();
-
-        int digitsInRow = 0;
-        int schemeSequence = 0;
-        int dotSequence = 0;
-
-        char lastChar = 0;
-
-        for (int i = 0; i < length; i++) {
-            char c = message.charAt(i);
-
-            if (c >= '0' && c <= '9') {
-                digitsInRow++;
-                if (digitsInRow >= 6) {
-                    return true;
-                }
-                schemeSequence = 0;
-                dotSequence = 0;
-            } else if (!(c != ' ' && digitsInRow > 0)) {
-                digitsInRow = 0;
-            }
-            if ((c == '@' || c == '#' || c == '/' || c == '$') && i == 0 || i != 0 && (message.charAt(i - 1) == ' ' || message.charAt(i - 1) == '\n')) {
-                return true;
-            }
-            if (c == ':') {
-                if (schemeSequence == 0) {
-                    schemeSequence = 1;
-                } else {
-                    schemeSequence = 0;
-                }
-            } else if (c == '/') {
-                if (schemeSequence == 2) {
-                    return true;
-                }
-                if (schemeSequence == 1) {
-                    schemeSequence++;
-                } else {
-                    schemeSequence = 0;
-                }
-            } else if (c == '.') {
-                if (dotSequence == 0 && lastChar != ' ') {
-                    dotSequence++;
-                } else {
-                    dotSequence = 0;
-                }
-            } else if (c != ' ' && lastChar == '.' && dotSequence == 1) {
-                return true;
-            } else {
-                dotSequence = 0;
-            }
-            lastChar = c;
-        }
-        return false;
-    }
-
     public void generateLinkDescription() {
         if (linkDescription != null) {
             return;
@@ -2474,13 +2415,7 @@ public class MessageObject {
             linkDescription = Spannable.Factory.getInstance().newSpannable(messageOwner.media.description);
         }
         if (linkDescription != null) {
-            if (containsUrls(linkDescription)) {
-                try {
-                    Linkify.addLinks((Spannable) linkDescription, Linkify.WEB_URLS);
-                } catch (Exception e) {
-                    FileLog.e(e);
-                }
-            }
+            addLinks(false, (Spannable) linkDescription, LinkScanner.FLAG_URLS, false, false);
             linkDescription = Emoji.replaceEmoji(linkDescription, Theme.chat_msgTextPaint.getFontMetricsInt(), AndroidUtilities.dp(20), false);
         }
     }
@@ -2517,15 +2452,8 @@ public class MessageObject {
                             messageOwner.id < 0);
 
             if (useManualParse) {
-                if (containsUrls(caption)) {
-                    try {
-                        Linkify.addLinks((Spannable) caption, Linkify.WEB_URLS | Linkify.PHONE_NUMBERS);
-                    } catch (Exception e) {
-                        FileLog.e(e);
-                    }
-                }
-                addUsernamesAndHashtags(isOutOwner(), caption, true);
-            } else {
+                addLinks(isOutOwner(), caption, true);
+            } else if (LinkScanner.containsPhoneNumber(caption)) {
                 try {
                     Linkify.addLinks((Spannable) caption, Linkify.PHONE_NUMBERS);
                 } catch (Throwable e) {
@@ -2537,36 +2465,6 @@ public class MessageObject {
         }
     }
 
-    private static void addUsernamesAndHashtags(boolean isOut, CharSequence charSequence, boolean botCommands) {
-        try {
-            if (urlPattern == null) {
-                urlPattern = Pattern.compile("(^|\\s)/[a-zA-Z@\\d_]{1,255}|(^|\\s)@[a-zA-Z\\d_]{1,32}|(^|\\s)#[\\w.]+|(^|\\s)\\$[A-Z]{3,8}([ ,.]|$)");
-            }
-            Matcher matcher = urlPattern.matcher(charSequence);
-            while (matcher.find()) {
-                int start = matcher.start();
-                int end = matcher.end();
-                char ch = charSequence.charAt(start);
-                if (ch != '@' && ch != '#' && ch != '/' && ch != '$') {
-                    start++;
-                }
-                URLSpanNoUnderline url = null;
-                if (charSequence.charAt(start) == '/') {
-                    if (botCommands) {
-                        url = new URLSpanBotCommand(charSequence.subSequence(start, end).toString(), isOut ? 1 : 0);
-                    }
-                } else {
-                    url = new URLSpanNoUnderline(charSequence.subSequence(start, end).toString());
-                }
-                if (url != null) {
-                    ((Spannable) charSequence).setSpan(url, start, end, 0);
-                }
-            }
-        } catch (Exception e) {
-            FileLog.e(e);
-        }
-    }
-
     public static int[] getWebDocumentWidthAndHeight(TLRPC.WebDocument document) {
         if (document == null) {
             return null;
@@ -2633,21 +2531,36 @@ public class MessageObject {
     }
 
     public static void addLinks(boolean isOut, CharSequence messageText, boolean botCommands) {
-        if (messageText instanceof Spannable && containsUrls(messageText)) {
-            if (messageText.length() < 1000) {
-                try {
-                    Linkify.addLinks((Spannable) messageText, Linkify.WEB_URLS | Linkify.PHONE_NUMBERS);
-                } catch (Exception e) {
-                    FileLog.e(e);
-                }
-            } else {
-                try {
-                    Linkify.addLinks((Spannable) messageText, Linkify.WEB_URLS);
-                } catch (Exception e) {
-                    FileLog.e(e);
+        if (messageText instanceof Spannable) {
+            addLinks(isOut, (Spannable) messageText, LinkScanner.FLAG_URLS | LinkScanner.FLAG_USERNAMES, botCommands, messageText.length() < 1000);
+        }
+    }
+
+    private static void addLinks(boolean isOut, Spannable text, int flags, boolean botCommands, boolean phoneNumbers) {
+        try {
+            LinkScanner scanner = new LinkScanner(text, flags);
+            int count = scanner.scan();
+            if (phoneNumbers && scanner.hasPhoneNumbers()) {
+                Linkify.addLinks(text, Linkify.PHONE_NUMBERS);
+            }
+            for (int a = 0; a < count; a++) {
+                int start = scanner.getStart(a);
+                int end = scanner.getEnd(a);
+                int type = scanner.getType(a);
+                if (type == LinkScanner.TYPE_URL) {
+                    if (text.getSpans(start, end, URLSpan.class).length == 0) {
+                        text.setSpan(new URLSpan(scanner.getUrl(a)), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    }
+                } else if (type == LinkScanner.TYPE_BOT_COMMAND) {
+                    if (botCommands) {
+                        text.setSpan(new URLSpanBotCommand(text.subSequence(start, end).toString(), isOut ? 1 : 0), start, end, 0);
+                    }
+                } else {
+                    text.setSpan(new URLSpanNoUnderline(text.subSequence(start, end).toString()), start, end, 0);
                 }
             }
-            addUsernamesAndHashtags(isOut, messageText, botCommands);
+        } catch (Exception e) {
+            FileLog.e(e);
         }
     }
 
@@ -2761,8 +2674,16 @@ public class MessageObject {
         }
 
         generateLinkDescription();
-        textLayoutBlocks = new ArrayList<>();
-        textWidth = 0;
+
+        generatedWithMinSize = getLayoutMinSize();
+        int maxWidth = getMaxTextWidth(generatedWithMinSize, fromUser);
+        TextPaint paint = getTextPaint();
+        String key = getLayoutCacheKey(maxWidth, paint);
+        MessageLayoutCache.Entry layout = key != null ? MessageLayoutCache.get(key) : null;
+        if (layout != null) {
+            applyTextLayout(layout);
+            return;
+        }
 
         boolean hasEntities;
         if (messageOwner.send_state != MESSAGE_SEND_STATE_SENT) {
@@ -2793,7 +2714,7 @@ public class MessageObject {
         if (useManualParse) {
             addLinks(isOutOwner(), messageText);
         } else {
-            if (messageText instanceof Spannable && messageText.length() < 1000) {
+            if (messageText instanceof Spannable && messageText.length() < 1000 && LinkScanner.containsPhoneNumber(messageText)) {
                 try {
                     Linkify.addLinks((Spannable) messageText, Linkify.PHONE_NUMBERS);
                 } catch (Throwable e) {
@@ -2804,28 +2725,115 @@ public class MessageObject {
 
         boolean hasUrls = addEntitiesToText(messageText, useManualParse);
 
+        layout = measureText(messageText, paint, maxWidth, hasUrls);
+        if (layout == null) {
+            return;
+        }
+        if (key != null) {
+            MessageLayoutCache.put(key, layout);
+        }
+        applyTextLayout(layout);
+    }
+
+    private void updateLayoutWidth(TLRPC.User fromUser) {
+        generatedWithMinSize = getLayoutMinSize();
+        int maxWidth = getMaxTextWidth(generatedWithMinSize, fromUser);
+        TextPaint paint = getTextPaint();
+        String key = getLayoutCacheKey(maxWidth, paint);
+        MessageLayoutCache.Entry layout = key != null ? MessageLayoutCache.get(key) : null;
+        if (layout == null) {
+            layout = measureText(messageText, paint, maxWidth, textHasUrls);
+            if (layout == null) {
+                return;
+            }
+            if (key != null) {
+                MessageLayoutCache.put(key, layout);
+            }
+        }
+        applyTextLayout(layout);
+    }
+
+    /**
+     * Measures the text for the current screen width into {@link MessageLayoutCache} without
+     * touching the fields of this object. Can be called from any thread once the layout was
+     * created, since the text is not changed after that. The paints must be copies of the theme
+     * paints owned by the calling thread. The layouts get their own copy, which ChatMessageCell
+     * colors before drawing.
+     */
+    public void prepareLayout(TextPaint textPaint, TextPaint gameTextPaint) {
+        CharSequence text = messageText;
+        if (!layoutCreated || type != 0 || messageOwner.to_id == null || TextUtils.isEmpty(text)) {
+            return;
+        }
+        TLRPC.User fromUser = null;
+        if (isFromUser()) {
+            fromUser = MessagesController.getInstance(currentAccount).getUser(messageOwner.from_id);
+        }
+        int maxWidth = getMaxTextWidth(getLayoutMinSize(), fromUser);
+        TextPaint paint = messageOwner.media instanceof TLRPC.TL_messageMediaGame ? gameTextPaint : textPaint;
+        String key = getLayoutCacheKey(maxWidth, paint);
+        if (key == null || MessageLayoutCache.get(key) != null) {
+            return;
+        }
+        MessageLayoutCache.Entry layout = measureText(text, new TextPaint(paint), maxWidth, textHasUrls);
+        if (layout != null) {
+            MessageLayoutCache.put(key, layout);
+        }
+    }
+
+    private static int getLayoutMinSize() {
+        return AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
+    }
+
+    private int getMaxTextWidth(int minSize, TLRPC.User fromUser) {
         int maxWidth;
         boolean needShare = eventId == 0 && !isOutOwner() && (
                 messageOwner.fwd_from != null && (messageOwner.fwd_from.saved_from_peer != null || messageOwner.fwd_from.from_id != 0 || messageOwner.fwd_from.channel_id != 0) ||
                 messageOwner.from_id > 0 && (messageOwner.to_id.channel_id != 0 || messageOwner.to_id.chat_id != 0 || messageOwner.media instanceof TLRPC.TL_messageMediaGame || messageOwner.media instanceof TLRPC.TL_messageMediaInvoice)
         );
-        generatedWithMinSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
-        maxWidth = generatedWithMinSize - AndroidUtilities.dp(needShare || eventId != 0 ? 132 : 80);
+        maxWidth = minSize - AndroidUtilities.dp(needShare || eventId != 0 ? 132 : 80);
         if (fromUser != null && fromUser.bot || (isMegagroup() || messageOwner.fwd_from != null && messageOwner.fwd_from.channel_id != 0) && !isOut()) {
             maxWidth -= AndroidUtilities.dp(20);
         }
         if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
             maxWidth -= AndroidUtilities.dp(10);
         }
+        return maxWidth;
+    }
 
-        StaticLayout textLayout;
-
-        TextPaint paint;
+    private TextPaint getTextPaint() {
         if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
-            paint = Theme.chat_msgGameTextPaint;
+            return Theme.chat_msgGameTextPaint;
         } else {
-            paint = Theme.chat_msgTextPaint;
+            return Theme.chat_msgTextPaint;
         }
+    }
+
+    private String getLayoutCacheKey(int maxWidth, TextPaint paint) {
+        if (eventId != 0 || messageOwner.id <= 0 || messageOwner.send_state != MESSAGE_SEND_STATE_SENT) {
+            return null;
+        }
+        return currentAccount + "_" + getDialogId() + "_" + messageOwner.id + "_" + messageOwner.edit_date + "_" + messageText.length() + "_" + maxWidth + "_" + (int) paint.getTextSize() + "_" + (SharedConfig.allowBigEmoji ? 1 : 0) + (SharedConfig.useSystemEmoji ? 1 : 0);
+    }
+
+    private void applyTextLayout(MessageLayoutCache.Entry layout) {
+        messageText = layout.text;
+        textHasUrls = layout.hasUrls;
+        textLayoutBlocks = layout.blocks;
+        textWidth = layout.textWidth;
+        textHeight = layout.textHeight;
+        linesCount = layout.linesCount;
+        lastLineWidth = layout.lastLineWidth;
+        hasRtl = layout.hasRtl;
+        textXOffset = layout.textXOffset;
+    }
+
+    private static MessageLayoutCache.Entry measureText(CharSequence messageText, TextPaint paint, int maxWidth, boolean hasUrls) {
+        MessageLayoutCache.Entry layout = new MessageLayoutCache.Entry();
+        layout.text = messageText;
+        layout.hasUrls = hasUrls;
+
+        StaticLayout textLayout;
 
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
@@ -2839,17 +2847,17 @@ public class MessageObject {
             }
         } catch (Exception e) {
             FileLog.e(e);
-            return;
+            return null;
         }
 
-        textHeight = textLayout.getHeight();
-        linesCount = textLayout.getLineCount();
+        layout.textHeight = textLayout.getHeight();
+        layout.linesCount = textLayout.getLineCount();
 
         int blocksCount;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             blocksCount = 1;
         } else {
-            blocksCount = (int) Math.ceil((float) linesCount / LINES_PER_BLOCK);
+            blocksCount = (int) Math.ceil((float) layout.linesCount / LINES_PER_BLOCK);
         }
         int linesOffset = 0;
         float prevOffset = 0;
@@ -2857,9 +2865,9 @@ public class MessageObject {
         for (int a = 0; a < blocksCount; a++) {
             int currentBlockLinesCount;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                currentBlockLinesCount = linesCount;
+                currentBlockLinesCount = layout.linesCount;
             } else {
-                currentBlockLinesCount = Math.min(LINES_PER_BLOCK, linesCount - linesOffset);
+                currentBlockLinesCount = Math.min(LINES_PER_BLOCK, layout.linesCount - linesOffset);
             }
             TextLayoutBlock block = new TextLayoutBlock();
 
@@ -2867,7 +2875,7 @@ public class MessageObject {
                 block.textLayout = textLayout;
                 block.textYOffset = 0;
                 block.charactersOffset = 0;
-                block.height = textHeight;
+                block.height = layout.textHeight;
             } else {
                 int startCharacter = textLayout.getLineStart(linesOffset);
                 int endCharacter = textLayout.getLineEnd(linesOffset + currentBlockLinesCount - 1);
@@ -2899,25 +2907,25 @@ public class MessageObject {
                 if (a == blocksCount - 1) {
                     currentBlockLinesCount = Math.max(currentBlockLinesCount, block.textLayout.getLineCount());
                     try {
-                        textHeight = Math.max(textHeight, (int) (block.textYOffset + block.textLayout.getHeight()));
+                        layout.textHeight = Math.max(layout.textHeight, (int) (block.textYOffset + block.textLayout.getHeight()));
                     } catch (Exception e) {
                         FileLog.e(e);
                     }
                 }
             }
 
-            textLayoutBlocks.add(block);
+            layout.blocks.add(block);
 
             float lastLeft;
             try {
                 lastLeft = block.textLayout.getLineLeft(currentBlockLinesCount - 1);
                 if (a == 0 && lastLeft >= 0) {
-                    textXOffset = lastLeft;
+                    layout.textXOffset = lastLeft;
                 }
             } catch (Exception e) {
                 lastLeft = 0;
                 if (a == 0) {
-                    textXOffset = 0;
+                    layout.textXOffset = 0;
                 }
                 FileLog.e(e);
             }
@@ -2935,7 +2943,7 @@ public class MessageObject {
             int linesMaxWidthWithLeft;
 
             if (a == blocksCount - 1) {
-                lastLineWidth = linesMaxWidth;
+                layout.lastLineWidth = linesMaxWidth;
             }
 
             linesMaxWidthWithLeft = lastLineWidthWithLeft = (int) Math.ceil(lastLine + lastLeft);
@@ -2963,9 +2971,9 @@ public class MessageObject {
                     }
 
                     if (lineLeft > 0) {
-                        textXOffset = Math.min(textXOffset, lineLeft);
+                        layout.textXOffset = Math.min(layout.textXOffset, lineLeft);
                         block.directionFlags |= 1;
-                        hasRtl = true;
+                        layout.hasRtl = true;
                     } else {
                         block.directionFlags |= 2;
                     }
@@ -2986,29 +2994,30 @@ public class MessageObject {
                 if (hasNonRTL) {
                     textRealMaxWidth = textRealMaxWidthWithLeft;
                     if (a == blocksCount - 1) {
-                        lastLineWidth = lastLineWidthWithLeft;
+                        layout.lastLineWidth = lastLineWidthWithLeft;
                     }
                 } else if (a == blocksCount - 1) {
-                    lastLineWidth = linesMaxWidth;
+                    layout.lastLineWidth = linesMaxWidth;
                 }
-                textWidth = Math.max(textWidth, (int) Math.ceil(textRealMaxWidth));
+                layout.textWidth = Math.max(layout.textWidth, (int) Math.ceil(textRealMaxWidth));
             } else {
                 if (lastLeft > 0) {
-                    textXOffset = Math.min(textXOffset, lastLeft);
-                    if (textXOffset == 0) {
+                    layout.textXOffset = Math.min(layout.textXOffset, lastLeft);
+                    if (layout.textXOffset == 0) {
                         linesMaxWidth += lastLeft;
                     }
-                    hasRtl = blocksCount != 1;
+                    layout.hasRtl = blocksCount != 1;
                     block.directionFlags |= 1;
                 } else {
                     block.directionFlags |= 2;
                 }
 
-                textWidth = Math.max(textWidth, Math.min(maxWidth, linesMaxWidth));
+                layout.textWidth = Math.max(layout.textWidth, Math.min(maxWidth, linesMaxWidth));
             }
 
             linesOffset += currentBlockLinesCount;
         }
+        return layout;
     }
 
     public boolean isOut() {
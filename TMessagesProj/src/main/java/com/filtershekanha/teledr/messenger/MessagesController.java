@@ -51,9 +51,9 @@ import java.util.concurrent.CountDownLatch;
 
 public class MessagesController implements NotificationCenter.NotificationCenterDelegate {
 
-    private ConcurrentHashMap<Integer, TLRPC.Chat> chats = new ConcurrentHashMap<>(100, 1.0f, 2);
-    private ConcurrentHashMap<Integer, TLRPC.EncryptedChat> encryptedChats = new ConcurrentHashMap<>(10, 1.0f, 2);
-    private ConcurrentHashMap<Integer, TLRPC.User> users = new ConcurrentHashMap<>(100, 1.0f, 2);
+    private ConcurrentIntObjectMap<TLRPC.Chat> chats = new ConcurrentIntObjectMap<>();
+    private ConcurrentIntObjectMap<TLRPC.EncryptedChat> encryptedChats = new ConcurrentIntObjectMap<>();
+    private ConcurrentIntObjectMap<TLRPC.User> users = new ConcurrentIntObjectMap<>();
     private ConcurrentHashMap<String, TLObject> objectsByUsernames = new ConcurrentHashMap<>(100, 1.0f, 2);
 
     private ArrayList<Integer> joiningToChannels = new ArrayList<>();
@@ -65,10 +65,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     public ArrayList<TLRPC.TL_dialog> dialogsForward = new ArrayList<>();
     public ArrayList<TLRPC.TL_dialog> dialogsServerOnly = new ArrayList<>();
     public ArrayList<TLRPC.TL_dialog> dialogsGroupsOnly = new ArrayList<>();
+    private final DialogsDiff[] dialogsDiffs = new DialogsDiff[]{new DialogsDiff(), new DialogsDiff(), new DialogsDiff(), new DialogsDiff()};
     public int unreadUnmutedDialogs;
     public int nextDialogsCacheOffset;
-    public ConcurrentHashMap<Long, Integer> dialogs_read_inbox_max = new ConcurrentHashMap<>(100, 1.0f, 2);
-    public ConcurrentHashMap<Long, Integer> dialogs_read_outbox_max = new ConcurrentHashMap<>(100, 1.0f, 2);
+    public ConcurrentLongIntMap dialogs_read_inbox_max = new ConcurrentLongIntMap();
+    public ConcurrentLongIntMap dialogs_read_outbox_max = new ConcurrentLongIntMap();
     public LongSparseArray<TLRPC.TL_dialog> dialogs_dict = new LongSparseArray<>();
     public LongSparseArray<MessageObject> dialogMessage = new LongSparseArray<>();
     public LongSparseArray<MessageObject> dialogMessagesByRandomIds = new LongSparseArray<>();
@@ -220,6 +221,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     private String installReferer;
 
     private SharedPreferences notificationsPreferences;
+    private DialogSettingsStore dialogSettings;
     private SharedPreferences mainPreferences;
     private SharedPreferences emojiPreferences;
 
@@ -330,6 +332,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         return localInstance;
     }
 
+    public DialogSettingsStore getDialogSettings() {
+        return dialogSettings;
+    }
+
     public static SharedPreferences getNotificationsSettings(int account) {
         return getInstance(account).notificationsPreferences;
     }
@@ -382,6 +388,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             emojiPreferences = ApplicationLoader.applicationContext.getSharedPreferences("emoji" + currentAccount, Activity.MODE_PRIVATE);
         }
 
+        dialogSettings = new DialogSettingsStore(currentAccount, notificationsPreferences);
         enableJoined = notificationsPreferences.getBoolean("EnableContactJoined", true);
         secretWebpagePreview = mainPreferences.getInt("secretWebpage2", 2);
         maxGroupCount = mainPreferences.getInt("maxGroupCount", 200);
@@ -687,7 +694,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             AndroidUtilities.runOnUIThread(new Runnable() {
                                 @Override
                                 public void run() {
-                                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_AVATAR);
+                                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_AVATAR);
                                     UserConfig.getInstance(currentAccount).saveConfig(true);
                                 }
                             });
@@ -745,6 +752,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
         SharedPreferences.Editor editor = notificationsPreferences.edit();
         editor.clear().commit();
+        dialogSettings.clear();
         editor = emojiPreferences.edit();
         editor.putLong("lastGifLoadTime", 0).putLong("lastStickersLoadTime", 0).putLong("lastStickersLoadTimeMask", 0).putLong("lastStickersLoadTimeFavs", 0).commit();
         editor = mainPreferences.edit();
@@ -755,15 +763,18 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         dialogs_dict.clear();
         dialogs_read_inbox_max.clear();
         dialogs_read_outbox_max.clear();
+        PeerNameIndex.getInstance(currentAccount).clear();
         exportedChats.clear();
         fullUsers.clear();
         dialogs.clear();
         unreadUnmutedDialogs = 0;
         joiningToChannels.clear();
         channelViewsToSend.clear();
+        RequestCoalescer.getInstance(currentAccount).cleanup();
         dialogsServerOnly.clear();
         dialogsForward.clear();
         dialogsGroupsOnly.clear();
+        invalidateDialogsDiffs();
         dialogMessagesByIds.clear();
         dialogMessagesByRandomIds.clear();
         channelAdmins.clear();
@@ -856,10 +867,14 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.dialogsNeedReload);
     }
 
-    public TLRPC.User getUser(Integer id) {
+    public TLRPC.User getUser(int id) {
         return users.get(id);
     }
 
+    public TLRPC.User getUser(Integer id) {
+        return id != null ? users.get(id) : null;
+    }
+
     public TLObject getUserOrChat(String username) {
         if (username == null || username.length() == 0) {
             return null;
@@ -867,18 +882,35 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         return objectsByUsernames.get(username.toLowerCase());
     }
 
-    public ConcurrentHashMap<Integer, TLRPC.User> getUsers() {
-        return users;
+    public TLRPC.Chat getChat(int id) {
+        return chats.get(id);
     }
 
     public TLRPC.Chat getChat(Integer id) {
-        return chats.get(id);
+        return id != null ? chats.get(id) : null;
     }
 
-    public TLRPC.EncryptedChat getEncryptedChat(Integer id) {
+    public TLRPC.EncryptedChat getEncryptedChat(int id) {
         return encryptedChats.get(id);
     }
 
+    public TLRPC.EncryptedChat getEncryptedChat(Integer id) {
+        return id != null ? encryptedChats.get(id) : null;
+    }
+
+    /**
+     * Returns the cached read max id of the dialog, loading it from the database on a miss.
+     */
+    public int getDialogReadMax(boolean outbox, long dialogId) {
+        ConcurrentLongIntMap readMax = outbox ? dialogs_read_outbox_max : dialogs_read_inbox_max;
+        int value = readMax.get(dialogId, Integer.MIN_VALUE);
+        if (value == Integer.MIN_VALUE) {
+            value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(outbox, dialogId);
+            readMax.put(dialogId, value);
+        }
+        return value;
+    }
+
     public TLRPC.EncryptedChat getEncryptedChatDB(int chat_id, boolean created) {
         TLRPC.EncryptedChat chat = encryptedChats.get(chat_id);
         if (chat == null || created && (chat instanceof TLRPC.TL_encryptedChatWaiting || chat instanceof TLRPC.TL_encryptedChatRequested)) {
@@ -952,6 +984,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             return false;
         }
         fromCache = fromCache && user.id / 1000 != 333 && user.id != 777000;
+        PeerNameIndex.getInstance(currentAccount).putUser(user);
         TLRPC.User oldUser = users.get(user.id);
         if (oldUser == user) {
             return false;
@@ -973,6 +1006,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             oldUser.flags = oldUser.flags & ~8;
                             oldUser.username = null;
                         }
+                        PeerNameIndex.getInstance(currentAccount).putUser(oldUser);
                     }
                     if (user.photo != null) {
                         oldUser.photo = user.photo;
@@ -1007,6 +1041,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         user.flags = user.flags & ~8;
                         user.username = null;
                     }
+                    PeerNameIndex.getInstance(currentAccount).putUser(user);
                 }
                 if (oldUser.photo != null) {
                     user.photo = oldUser.photo;
@@ -1037,7 +1072,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             AndroidUtilities.runOnUIThread(new Runnable() {
                 @Override
                 public void run() {
-                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_STATUS);
+                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_STATUS);
                 }
             });
         }
@@ -1047,6 +1082,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         if (chat == null) {
             return;
         }
+        PeerNameIndex.getInstance(currentAccount).putChat(chat);
         TLRPC.Chat oldChat = chats.get(chat.id);
         if (oldChat == chat) {
             return;
@@ -1124,6 +1160,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     chat.flags |= 131072;
                 }
                 chats.put(chat.id, chat);
+                PeerNameIndex.getInstance(currentAccount).putChat(chat);
             }
         }
     }
@@ -1151,6 +1188,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         if (encryptedChat == null) {
             return;
         }
+        PeerNameIndex.getInstance(currentAccount).putEncryptedChat(encryptedChat);
         if (fromCache) {
             encryptedChats.putIfAbsent(encryptedChat.id, encryptedChat);
         } else {
@@ -1237,10 +1275,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                         }
 
-                        Integer value = dialogs_read_inbox_max.get(dialog.id);
-                        if (value == null) {
-                            value = 0;
-                        }
+                        int value = dialogs_read_inbox_max.get(dialog.id, 0);
                         dialogs_read_inbox_max.put(dialog.id, Math.max(dialog.read_inbox_max_id, value));
                         if (value == 0) {
                             if (dialog.peer.channel_id != 0) {
@@ -1256,10 +1291,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                         }
 
-                        value = dialogs_read_outbox_max.get(dialog.id);
-                        if (value == null) {
-                            value = 0;
-                        }
+                        value = dialogs_read_outbox_max.get(dialog.id, 0);
                         dialogs_read_outbox_max.put(dialog.id, Math.max(dialog.read_outbox_max_id, value));
                         if (value == 0) {
                             if (dialog.peer.channel_id != 0) {
@@ -1361,7 +1393,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             TLRPC.TL_messages_getFullChat req = new TLRPC.TL_messages_getFullChat();
             req.chat_id = chat_id;
             request = req;
-            if (dialogs_read_inbox_max.get(dialog_id) == null || dialogs_read_outbox_max.get(dialog_id) == null) {
+            if (!dialogs_read_inbox_max.containsKey(dialog_id) || !dialogs_read_outbox_max.containsKey(dialog_id)) {
                 reloadDialogsReadValue(null, dialog_id);
             }
         }
@@ -1374,10 +1406,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     MessagesStorage.getInstance(currentAccount).updateChatInfo(res.full_chat, false);
 
                     if (ChatObject.isChannel(chat)) {
-                        Integer value = dialogs_read_inbox_max.get(dialog_id);
-                        if (value == null) {
-                            value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                        }
+                        int value = getDialogReadMax(false, dialog_id);
 
                         dialogs_read_inbox_max.put(dialog_id, Math.max(res.full_chat.read_inbox_max_id, value));
                         if (value == 0) {
@@ -1389,10 +1418,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             processUpdateArray(arrayList, null, null, false);
                         }
 
-                        value = dialogs_read_outbox_max.get(dialog_id);
-                        if (value == null) {
-                            value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                        }
+                        value = getDialogReadMax(true, dialog_id);
                         dialogs_read_outbox_max.put(dialog_id, Math.max(res.full_chat.read_outbox_max_id, value));
                         if (value == 0) {
                             ArrayList<TLRPC.Update> arrayList = new ArrayList<>();
@@ -1448,7 +1474,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         TLRPC.TL_users_getFullUser req = new TLRPC.TL_users_getFullUser();
         req.id = getInputUser(user);
         long dialog_id = user.id;
-        if (dialogs_read_inbox_max.get(dialog_id) == null || dialogs_read_outbox_max.get(dialog_id) == null) {
+        if (!dialogs_read_inbox_max.containsKey(dialog_id) || !dialogs_read_outbox_max.containsKey(dialog_id)) {
             reloadDialogsReadValue(null, dialog_id);
         }
         int reqId = ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
@@ -1472,7 +1498,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             putUsers(users, false);
                             MessagesStorage.getInstance(currentAccount).putUsersAndChats(users, null, false, true);
                             if (names != null && !names.equals(userFull.user.first_name + userFull.user.last_name + userFull.user.username)) {
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_NAME);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_NAME);
                             }
                             if (userFull.bot_info instanceof TLRPC.TL_botInfo) {
                                 NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.botInfoDidLoaded, userFull.bot_info, classGuid);
@@ -1543,17 +1569,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         chatsLocal.put(c.id, c);
                     }
 
-                    Integer inboxValue = dialogs_read_inbox_max.get(dialog_id);
-                    if (inboxValue == null) {
-                        inboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                        dialogs_read_inbox_max.put(dialog_id, inboxValue);
-                    }
+                    int inboxValue = getDialogReadMax(false, dialog_id);
 
-                    Integer outboxValue = dialogs_read_outbox_max.get(dialog_id);
-                    if (outboxValue == null) {
-                        outboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                        dialogs_read_outbox_max.put(dialog_id, outboxValue);
-                    }
+                    int outboxValue = getDialogReadMax(true, dialog_id);
 
                     final ArrayList<MessageObject> objects = new ArrayList<>();
                     for (int a = 0; a < messagesRes.messages.size(); a++) {
@@ -2168,7 +2186,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             }
             user.photo = UserConfig.getInstance(currentAccount).getCurrentUser().photo;
             NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.mainUserInfoChanged);
-            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_ALL);
+            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_ALL);
             ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
                 @Override
                 public void run(TLObject response, TLRPC.TL_error error) {
@@ -2192,7 +2210,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             @Override
                             public void run() {
                                 NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.mainUserInfoChanged);
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_ALL);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_ALL);
                                 UserConfig.getInstance(currentAccount).saveConfig(true);
                             }
                         });
@@ -2429,8 +2447,8 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         }
                         sortDialogs(null);
                     } else {
-                        dialogs.remove(dialog);
-                        if (dialogsServerOnly.remove(dialog) && DialogObject.isChannel(dialog)) {
+                        removeDialogFromList(dialogs, dialog, 0);
+                        if (removeDialogFromList(dialogsServerOnly, dialog, 1) && DialogObject.isChannel(dialog)) {
                             Utilities.stageQueue.postRunnable(new Runnable() {
                                 @Override
                                 public void run() {
@@ -2440,7 +2458,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                 }
                             });
                         }
-                        dialogsGroupsOnly.remove(dialog);
+                        removeDialogFromList(dialogsGroupsOnly, dialog, 2);
                         dialogs_dict.remove(did);
                         dialogs_read_inbox_max.remove(did);
                         dialogs_read_outbox_max.remove(did);
@@ -2785,7 +2803,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 AndroidUtilities.runOnUIThread(new Runnable() {
                     @Override
                     public void run() {
-                        NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_STATUS);
+                        NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_STATUS);
                     }
                 });
             }
@@ -2837,7 +2855,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 AndroidUtilities.runOnUIThread(new Runnable() {
                     @Override
                     public void run() {
-                        NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
+                        NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
                     }
                 });
             }
@@ -3031,15 +3049,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                                             if (DialogObject.isChannel(proxyDialog)) {
                                                                 channelsPts.put(-(int) proxyDialog.id, proxyDialog.pts);
                                                             }
-                                                            Integer value = dialogs_read_inbox_max.get(proxyDialog.id);
-                                                            if (value == null) {
-                                                                value = 0;
-                                                            }
+                                                            int value = dialogs_read_inbox_max.get(proxyDialog.id, 0);
                                                             dialogs_read_inbox_max.put(proxyDialog.id, Math.max(value, proxyDialog.read_inbox_max_id));
-                                                            value = dialogs_read_outbox_max.get(proxyDialog.id);
-                                                            if (value == null) {
-                                                                value = 0;
-                                                            }
+                                                            value = dialogs_read_outbox_max.get(proxyDialog.id, 0);
                                                             dialogs_read_outbox_max.put(proxyDialog.id, Math.max(value, proxyDialog.read_outbox_max_id));
                                                             dialogs_dict.put(did, proxyDialog);
                                                             if (!res2.messages.isEmpty()) {
@@ -3597,17 +3609,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
                 int size = messagesRes.messages.size();
                 if (!isCache) {
-                    Integer inboxValue = dialogs_read_inbox_max.get(dialog_id);
-                    if (inboxValue == null) {
-                        inboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                        dialogs_read_inbox_max.put(dialog_id, inboxValue);
-                    }
+                    int inboxValue = getDialogReadMax(false, dialog_id);
 
-                    Integer outboxValue = dialogs_read_outbox_max.get(dialog_id);
-                    if (outboxValue == null) {
-                        outboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                        dialogs_read_outbox_max.put(dialog_id, outboxValue);
-                    }
+                    int outboxValue = getDialogReadMax(true, dialog_id);
 
                     for (int a = 0; a < size; a++) {
                         TLRPC.Message message = messagesRes.messages.get(a);
@@ -3983,16 +3987,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
                 new_dialogs_dict.put(d.id, d);
 
-                Integer value = dialogs_read_inbox_max.get(d.id);
-                if (value == null) {
-                    value = 0;
-                }
+                int value = dialogs_read_inbox_max.get(d.id, 0);
                 dialogs_read_inbox_max.put(d.id, Math.max(value, d.read_inbox_max_id));
 
-                value = dialogs_read_outbox_max.get(d.id);
-                if (value == null) {
-                    value = 0;
-                }
+                value = dialogs_read_outbox_max.get(d.id, 0);
                 dialogs_read_outbox_max.put(d.id, Math.max(value, d.read_outbox_max_id));
             }
 
@@ -4011,12 +4009,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     message.unread = false;
                     message.media_unread = false;
                 } else {
-                    ConcurrentHashMap<Long, Integer> read_max = message.out ? dialogs_read_outbox_max : dialogs_read_inbox_max;
-                    Integer value = read_max.get(message.dialog_id);
-                    if (value == null) {
-                        value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                        read_max.put(message.dialog_id, value);
-                    }
+                    int value = getDialogReadMax(message.out, message.dialog_id);
                     message.unread = value < message.id;
                 }
             }
@@ -4479,16 +4472,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         dialogsToReload.add(d);
                     }
 
-                    Integer value = dialogs_read_inbox_max.get(d.id);
-                    if (value == null) {
-                        value = 0;
-                    }
+                    int value = dialogs_read_inbox_max.get(d.id, 0);
                     dialogs_read_inbox_max.put(d.id, Math.max(value, d.read_inbox_max_id));
 
-                    value = dialogs_read_outbox_max.get(d.id);
-                    if (value == null) {
-                        value = 0;
-                    }
+                    value = dialogs_read_outbox_max.get(d.id, 0);
                     dialogs_read_outbox_max.put(d.id, Math.max(value, d.read_outbox_max_id));
                 }
 
@@ -4509,12 +4496,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             message.unread = false;
                             message.media_unread = false;
                         } else {
-                            ConcurrentHashMap<Long, Integer> read_max = message.out ? dialogs_read_outbox_max : dialogs_read_inbox_max;
-                            Integer value = read_max.get(message.dialog_id);
-                            if (value == null) {
-                                value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                                read_max.put(message.dialog_id, value);
-                            }
+                            int value = getDialogReadMax(message.out, message.dialog_id);
                             message.unread = value < message.id;
                         }
                     }
@@ -4660,26 +4642,21 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     }
 
     private void applyDialogNotificationsSettings(long dialog_id, TLRPC.PeerNotifySettings notify_settings) {
-        int currentValue = notificationsPreferences.getInt("notify2_" + dialog_id, -1);
-        int currentValue2 = notificationsPreferences.getInt("notifyuntil_" + dialog_id, 0);
-        SharedPreferences.Editor editor = notificationsPreferences.edit();
+        int currentValue = dialogSettings.getMuteType(dialog_id);
+        int currentValue2 = dialogSettings.getMuteUntil(dialog_id);
         boolean updated = false;
         TLRPC.TL_dialog dialog = dialogs_dict.get(dialog_id);
         if (dialog != null) {
             dialog.notify_settings = notify_settings;
         }
-        if ((notify_settings.flags & 2) != 0) {
-            editor.putBoolean("silent_" + dialog_id, notify_settings.silent);
-        } else {
-            editor.remove("silent_" + dialog_id);
-        }
+        SharedPreferences.Editor editor = applySilentSetting(null, dialog_id, notify_settings);
         if ((notify_settings.flags & 4) != 0) {
             if (notify_settings.mute_until > ConnectionsManager.getInstance(currentAccount).getCurrentTime()) {
                 int until = 0;
                 if (notify_settings.mute_until > ConnectionsManager.getInstance(currentAccount).getCurrentTime() + 60 * 60 * 24 * 365) {
                     if (currentValue != 2) {
                         updated = true;
-                        editor.putInt("notify2_" + dialog_id, 2);
+                        dialogSettings.setMuteType(dialog_id, 2);
                         if (dialog != null) {
                             dialog.notify_settings.mute_until = Integer.MAX_VALUE;
                         }
@@ -4687,8 +4664,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 } else {
                     if (currentValue != 3 || currentValue2 != notify_settings.mute_until) {
                         updated = true;
-                        editor.putInt("notify2_" + dialog_id, 3);
-                        editor.putInt("notifyuntil_" + dialog_id, notify_settings.mute_until);
+                        dialogSettings.setMuteType(dialog_id, 3, notify_settings.mute_until);
                         if (dialog != null) {
                             dialog.notify_settings.mute_until = until;
                         }
@@ -4703,7 +4679,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     if (dialog != null) {
                         dialog.notify_settings.mute_until = 0;
                     }
-                    editor.putInt("notify2_" + dialog_id, 0);
+                    dialogSettings.setMuteType(dialog_id, 0);
                 }
                 MessagesStorage.getInstance(currentAccount).setDialogFlags(dialog_id, 0);
             }
@@ -4713,11 +4689,13 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 if (dialog != null) {
                     dialog.notify_settings.mute_until = 0;
                 }
-                editor.remove("notify2_" + dialog_id);
+                dialogSettings.setMuteType(dialog_id, -1);
             }
             MessagesStorage.getInstance(currentAccount).setDialogFlags(dialog_id, 0);
         }
-        editor.commit();
+        if (editor != null) {
+            editor.commit();
+        }
         if (updated) {
             NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.notificationsSettingsUpdated);
         }
@@ -4728,9 +4706,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         for (int a = 0; a < dialogs.size(); a++) {
             TLRPC.TL_dialog dialog = dialogs.get(a);
             if (dialog.peer != null && dialog.notify_settings instanceof TLRPC.TL_peerNotifySettings) {
-                if (editor == null) {
-                    editor = notificationsPreferences.edit();
-                }
                 int dialog_id;
                 if (dialog.peer.user_id != 0) {
                     dialog_id = dialog.peer.user_id;
@@ -4739,25 +4714,20 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 } else {
                     dialog_id = -dialog.peer.channel_id;
                 }
-                if ((dialog.notify_settings.flags & 2) != 0) {
-                    editor.putBoolean("silent_" + dialog_id, dialog.notify_settings.silent);
-                } else {
-                    editor.remove("silent_" + dialog_id);
-                }
+                editor = applySilentSetting(editor, dialog_id, dialog.notify_settings);
                 if ((dialog.notify_settings.flags & 4) != 0) {
                     if (dialog.notify_settings.mute_until > ConnectionsManager.getInstance(currentAccount).getCurrentTime()) {
                         if (dialog.notify_settings.mute_until > ConnectionsManager.getInstance(currentAccount).getCurrentTime() + 60 * 60 * 24 * 365) {
-                            editor.putInt("notify2_" + dialog_id, 2);
+                            dialogSettings.setMuteType(dialog_id, 2);
                             dialog.notify_settings.mute_until = Integer.MAX_VALUE;
                         } else {
-                            editor.putInt("notify2_" + dialog_id, 3);
-                            editor.putInt("notifyuntil_" + dialog_id, dialog.notify_settings.mute_until);
+                            dialogSettings.setMuteType(dialog_id, 3, dialog.notify_settings.mute_until);
                         }
                     } else {
-                        editor.putInt("notify2_" + dialog_id, 0);
+                        dialogSettings.setMuteType(dialog_id, 0);
                     }
                 } else {
-                    editor.remove("notify2_" + dialog_id);
+                    dialogSettings.setMuteType(dialog_id, -1);
                 }
             }
         }
@@ -4766,6 +4736,29 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
     }
 
+    /**
+     * Puts the silent flag of the dialog into the editor if it changed, the editor is created
+     * when needed. Returns the editor, null if nothing changed.
+     */
+    private SharedPreferences.Editor applySilentSetting(SharedPreferences.Editor editor, long dialog_id, TLRPC.PeerNotifySettings notify_settings) {
+        String key = "silent_" + dialog_id;
+        if ((notify_settings.flags & 2) != 0) {
+            if (notificationsPreferences.contains(key) && notificationsPreferences.getBoolean(key, false) == notify_settings.silent) {
+                return editor;
+            }
+            if (editor == null) {
+                editor = notificationsPreferences.edit();
+            }
+            editor.putBoolean(key, notify_settings.silent);
+        } else if (notificationsPreferences.contains(key)) {
+            if (editor == null) {
+                editor = notificationsPreferences.edit();
+            }
+            editor.remove(key);
+        }
+        return editor;
+    }
+
     public void reloadMentionsCountForChannels(final ArrayList<Integer> arrayList) {
         AndroidUtilities.runOnUIThread(new Runnable() {
             @Override
@@ -4775,7 +4768,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     TLRPC.TL_messages_getUnreadMentions req = new TLRPC.TL_messages_getUnreadMentions();
                     req.peer = getInputPeer((int) dialog_id);
                     req.limit = 1;
-                    ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
+                    RequestCoalescer.getInstance(currentAccount).sendRequest("getUnreadMentions_" + dialog_id, req, new RequestDelegate() {
                         @Override
                         public void run(final TLObject response, final TLRPC.TL_error error) {
                             AndroidUtilities.runOnUIThread(new Runnable() {
@@ -4831,7 +4824,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         }
                     }
                 }
-                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
+                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
                 if (dialogsToUpdate != null) {
                     NotificationsController.getInstance(currentAccount).processDialogsUpdateRead(dialogsToUpdate);
                 }
@@ -5003,16 +4996,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     new_dialogs_dict.put(d.id, d);
                     dialogsToUpdate.put(d.id, d.unread_count);
 
-                    Integer value = dialogs_read_inbox_max.get(d.id);
-                    if (value == null) {
-                        value = 0;
-                    }
+                    int value = dialogs_read_inbox_max.get(d.id, 0);
                     dialogs_read_inbox_max.put(d.id, Math.max(value, d.read_inbox_max_id));
 
-                    value = dialogs_read_outbox_max.get(d.id);
-                    if (value == null) {
-                        value = 0;
-                    }
+                    value = dialogs_read_outbox_max.get(d.id, 0);
                     dialogs_read_outbox_max.put(d.id, Math.max(value, d.read_outbox_max_id));
                 }
 
@@ -5139,54 +5126,14 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         if (messageObject.getId() < 0) {
             markMessageAsRead(messageObject.getDialogId(), messageObject.messageOwner.random_id, Integer.MIN_VALUE);
         } else {
-            if (messageObject.messageOwner.to_id.channel_id != 0) {
-                TLRPC.TL_channels_readMessageContents req = new TLRPC.TL_channels_readMessageContents();
-                req.channel = getInputChannel(messageObject.messageOwner.to_id.channel_id);
-                if (req.channel == null) {
-                    return;
-                }
-                req.id.add(messageObject.getId());
-                ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
-                    @Override
-                    public void run(TLObject response, TLRPC.TL_error error) {
-
-                    }
-                });
-            } else {
-                TLRPC.TL_messages_readMessageContents req = new TLRPC.TL_messages_readMessageContents();
-                req.id.add(messageObject.getId());
-                ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
-                    @Override
-                    public void run(TLObject response, TLRPC.TL_error error) {
-                        if (error == null) {
-                            TLRPC.TL_messages_affectedMessages res = (TLRPC.TL_messages_affectedMessages) response;
-                            processNewDifferenceParams(-1, res.pts, -1, res.pts_count);
-                        }
-                    }
-                });
-            }
+            readMessageContents(messageObject.getId(), messageObject.messageOwner.to_id.channel_id);
         }
     }
 
-    public void markMentionMessageAsRead(final int mid, final int channelId, final long did) {
-        MessagesStorage.getInstance(currentAccount).markMentionMessageAsRead(mid, channelId, did);
-        if (channelId != 0) {
-            TLRPC.TL_channels_readMessageContents req = new TLRPC.TL_channels_readMessageContents();
-            req.channel = getInputChannel(channelId);
-            if (req.channel == null) {
-                return;
-            }
-            req.id.add(mid);
-            ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
-                @Override
-                public void run(TLObject response, TLRPC.TL_error error) {
-
-                }
-            });
-        } else {
-            TLRPC.TL_messages_readMessageContents req = new TLRPC.TL_messages_readMessageContents();
-            req.id.add(mid);
-            ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
+    private void readMessageContents(int mid, final int channelId) {
+        RequestDelegate batchDelegate = null;
+        if (channelId == 0) {
+            batchDelegate = new RequestDelegate() {
                 @Override
                 public void run(TLObject response, TLRPC.TL_error error) {
                     if (error == null) {
@@ -5194,8 +5141,31 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         processNewDifferenceParams(-1, res.pts, -1, res.pts_count);
                     }
                 }
-            });
+            };
         }
+        RequestCoalescer.getInstance(currentAccount).sendBatched("readMessageContents_" + channelId, mid, new RequestCoalescer.BatchRequestBuilder() {
+            @Override
+            public TLObject createRequest(ArrayList<Integer> ids) {
+                if (channelId != 0) {
+                    TLRPC.TL_channels_readMessageContents req = new TLRPC.TL_channels_readMessageContents();
+                    req.channel = getInputChannel(channelId);
+                    if (req.channel == null) {
+                        return null;
+                    }
+                    req.id.addAll(ids);
+                    return req;
+                } else {
+                    TLRPC.TL_messages_readMessageContents req = new TLRPC.TL_messages_readMessageContents();
+                    req.id.addAll(ids);
+                    return req;
+                }
+            }
+        }, batchDelegate, null);
+    }
+
+    public void markMentionMessageAsRead(final int mid, final int channelId, final long did) {
+        MessagesStorage.getInstance(currentAccount).markMentionMessageAsRead(mid, channelId, did);
+        readMessageContents(mid, channelId);
     }
 
     public void markMessageAsRead(final int mid, final int channelId, int ttl) {
@@ -5204,29 +5174,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
         int time = ConnectionsManager.getInstance(currentAccount).getCurrentTime();
         MessagesStorage.getInstance(currentAccount).createTaskForMid(mid, channelId, time, time, ttl, false);
-        if (channelId != 0) {
-            TLRPC.TL_channels_readMessageContents req = new TLRPC.TL_channels_readMessageContents();
-            req.channel = getInputChannel(channelId);
-            req.id.add(mid);
-            ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
-                @Override
-                public void run(TLObject response, TLRPC.TL_error error) {
-
-                }
-            });
-        } else {
-            TLRPC.TL_messages_readMessageContents req = new TLRPC.TL_messages_readMessageContents();
-            req.id.add(mid);
-            ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
-                @Override
-                public void run(TLObject response, TLRPC.TL_error error) {
-                    if (error == null) {
-                        TLRPC.TL_messages_affectedMessages res = (TLRPC.TL_messages_affectedMessages) response;
-                        processNewDifferenceParams(-1, res.pts, -1, res.pts_count);
-                    }
-                }
-            });
-        }
+        readMessageContents(mid, channelId);
     }
 
     public void markMessageAsRead(final long dialog_id, final long random_id, int ttl) {
@@ -5363,10 +5311,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     isChannel = true;
                 }
             }
-            Integer value = dialogs_read_inbox_max.get(dialogId);
-            if (value == null) {
-                value = 0;
-            }
+            int value = dialogs_read_inbox_max.get(dialogId, 0);
             dialogs_read_inbox_max.put(dialogId, Math.max(value, maxPositiveId));
 
             MessagesStorage.getInstance(currentAccount).processPendingRead(dialogId, maxMessageId, minMessageId, maxDate, isChannel);
@@ -5394,7 +5339,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                     dialog.unread_mark = false;
                                     MessagesStorage.getInstance(currentAccount).setDialogUnread(dialog.id, false);
                                 }
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
                             }
                             if (!popup) {
                                 NotificationsController.getInstance(currentAccount).processReadMessages(null, dialogId, 0, maxPositiveId, false);
@@ -5446,7 +5391,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                     dialog.unread_mark = false;
                                     MessagesStorage.getInstance(currentAccount).setDialogUnread(dialog.id, false);
                                 }
-                                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
+                                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
                             }
                             LongSparseArray<Integer> dialogsToUpdate = new LongSparseArray<>(1);
                             dialogsToUpdate.put(dialogId, 0);
@@ -5530,7 +5475,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             newMsg.random_id = 0;
             newMsg.flags |= TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
             UserConfig.getInstance(currentAccount).saveConfig(false);
-            MessageObject newMsgObj = new MessageObject(currentAccount, newMsg, users, true);
+            MessageObject newMsgObj = new MessageObject(currentAccount, newMsg, true);
             newMsgObj.messageOwner.send_state = MessageObject.MESSAGE_SEND_STATE_SENT;
 
             ArrayList<MessageObject> objArr = new ArrayList<>();
@@ -5738,7 +5683,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     AndroidUtilities.runOnUIThread(new Runnable() {
                         @Override
                         public void run() {
-                            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_CHANNEL);
+                            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_CHANNEL);
                         }
                     });
                 }
@@ -5758,7 +5703,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     AndroidUtilities.runOnUIThread(new Runnable() {
                         @Override
                         public void run() {
-                            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_CHANNEL);
+                            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_CHANNEL);
                         }
                     });
                 }
@@ -5811,7 +5756,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             ArrayList<TLRPC.Chat> arrayList = new ArrayList<>();
                             arrayList.add(chat);
                             MessagesStorage.getInstance(currentAccount).putUsersAndChats(null, arrayList, true, true);
-                            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_CHANNEL);
+                            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_CHANNEL);
                         }
                     });
                 }
@@ -5984,7 +5929,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 info.participants.participants.add(0, newPart);
                 MessagesStorage.getInstance(currentAccount).updateChatInfo(info, true);
                 NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.chatInfoDidLoaded, info, 0, false, null);
-                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_CHAT_MEMBERS);
+                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_CHAT_MEMBERS);
             }
         }
     }
@@ -6081,7 +6026,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     MessagesStorage.getInstance(currentAccount).updateChatInfo(info, true);
                     NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.chatInfoDidLoaded, info, 0, false, null);
                 }
-                NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_CHAT_MEMBERS);
+                NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_CHAT_MEMBERS);
             }
         }
     }
@@ -6112,11 +6057,12 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         } else {
             TLRPC.Chat chat = getChat(chat_id);
             chat.title = title;
+            PeerNameIndex.getInstance(currentAccount).putChat(chat);
             ArrayList<TLRPC.Chat> chatArrayList = new ArrayList<>();
             chatArrayList.add(chat);
             MessagesStorage.getInstance(currentAccount).putUsersAndChats(null, chatArrayList, true, true);
             NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.dialogsNeedReload);
-            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_CHAT_NAME);
+            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_CHAT_NAME);
         }
     }
 
@@ -6734,17 +6680,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
                                             final ArrayList<MessageObject> pushMessages = new ArrayList<>();
                                             long dialog_id = -channelId;
-                                            Integer inboxValue = dialogs_read_inbox_max.get(dialog_id);
-                                            if (inboxValue == null) {
-                                                inboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                                                dialogs_read_inbox_max.put(dialog_id, inboxValue);
-                                            }
+                                            int inboxValue = getDialogReadMax(false, dialog_id);
 
-                                            Integer outboxValue = dialogs_read_outbox_max.get(dialog_id);
-                                            if (outboxValue == null) {
-                                                outboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                                                dialogs_read_outbox_max.put(dialog_id, outboxValue);
-                                            }
+                                            int outboxValue = getDialogReadMax(true, dialog_id);
 
                                             for (int a = 0; a < res.new_messages.size(); a++) {
                                                 TLRPC.Message message = res.new_messages.get(a);
@@ -6802,17 +6740,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                     } else if (res instanceof TLRPC.TL_updates_channelDifferenceTooLong) {
                                         long dialog_id = -channelId;
 
-                                        Integer inboxValue = dialogs_read_inbox_max.get(dialog_id);
-                                        if (inboxValue == null) {
-                                            inboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                                            dialogs_read_inbox_max.put(dialog_id, inboxValue);
-                                        }
+                                        int inboxValue = getDialogReadMax(false, dialog_id);
 
-                                        Integer outboxValue = dialogs_read_outbox_max.get(dialog_id);
-                                        if (outboxValue == null) {
-                                            outboxValue = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                                            dialogs_read_outbox_max.put(dialog_id, outboxValue);
-                                        }
+                                        int outboxValue = getDialogReadMax(true, dialog_id);
 
                                         for (int a = 0; a < res.messages.size(); a++) {
                                             TLRPC.Message message = res.messages.get(a);
@@ -7046,12 +6976,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                                         message.unread = false;
                                                         message.media_unread = false;
                                                     } else {
-                                                        ConcurrentHashMap<Long, Integer> read_max = message.out ? dialogs_read_outbox_max : dialogs_read_inbox_max;
-                                                        Integer value = read_max.get(message.dialog_id);
-                                                        if (value == null) {
-                                                            value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                                                            read_max.put(message.dialog_id, value);
-                                                        }
+                                                        int value = getDialogReadMax(message.out, message.dialog_id);
                                                         message.unread = value < message.id;
                                                     }
                                                 }
@@ -7170,7 +7095,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             if (dialog.unread_count == 0 && !isDialogMuted(did)) {
                 unreadUnmutedDialogs++;
             }
-            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
+            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
             MessagesStorage.getInstance(currentAccount).setDialogUnread(did, true);
         }
         int lower_id = (int) did;
@@ -7256,7 +7181,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                             UserConfig.getInstance(currentAccount).unreadDialogsLoaded = true;
                             UserConfig.getInstance(currentAccount).saveConfig(false);
-                            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
+                            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
                             loadingUnreadDialogs = false;
                         }
                     }
@@ -7287,7 +7212,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
         sortDialogs(null);
         if (!pin && dialogs.get(dialogs.size() - 1) == dialog && !dialogsEndReached) {
-            dialogs.remove(dialogs.size() - 1);
+            removeDialogFromList(dialogs, dialog, 0);
         }
         NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.dialogsNeedReload);
         if (lower_id != 0) {
@@ -7411,16 +7336,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                         }
 
-                        Integer value = dialogs_read_inbox_max.get(d.id);
-                        if (value == null) {
-                            value = 0;
-                        }
+                        int value = dialogs_read_inbox_max.get(d.id, 0);
                         dialogs_read_inbox_max.put(d.id, Math.max(value, d.read_inbox_max_id));
 
-                        value = dialogs_read_outbox_max.get(d.id);
-                        if (value == null) {
-                            value = 0;
-                        }
+                        value = dialogs_read_outbox_max.get(d.id, 0);
                         dialogs_read_outbox_max.put(d.id, Math.max(value, d.read_outbox_max_id));
                     }
 
@@ -7913,12 +7832,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     message.reply_to_msg_id = updates.reply_to_msg_id;
                     message.media = new TLRPC.TL_messageMediaEmpty();
 
-                    ConcurrentHashMap<Long, Integer> read_max = message.out ? dialogs_read_outbox_max : dialogs_read_inbox_max;
-                    Integer value = read_max.get(message.dialog_id);
-                    if (value == null) {
-                        value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                        read_max.put(message.dialog_id, value);
-                    }
+                    int value = getDialogReadMax(message.out, message.dialog_id);
                     message.unread = value < message.id;
 
                     if (message.dialog_id == clientUserId) {
@@ -7942,7 +7856,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             @Override
                             public void run() {
                                 if (printUpdate) {
-                                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
+                                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
                                 }
                                 updateInterfaceWithMessages(user_id, objArr);
                                 NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -7957,7 +7871,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             @Override
                             public void run() {
                                 if (printUpdate) {
-                                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
+                                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
                                 }
 
                                 updateInterfaceWithMessages(-updates.chat_id, objArr);
@@ -8302,7 +8216,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             AndroidUtilities.runOnUIThread(new Runnable() {
                 @Override
                 public void run() {
-                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_STATUS);
+                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, UPDATE_MASK_STATUS);
                 }
             });
         }
@@ -8353,7 +8267,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             }
         } else {
             checkForUsers = false;
-            usersDict = users;
+            usersDict = null;
         }
         if (chatsArr != null) {
             chatsDict = new ConcurrentHashMap<>();
@@ -8363,7 +8277,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             }
         } else {
             checkForUsers = false;
-            chatsDict = chats;
+            chatsDict = null;
         }
         if (fromGetDifference) {
             checkForUsers = false;
@@ -8410,7 +8324,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     user_id = message.to_id.user_id;
                 }
                 if (chat_id != 0) {
-                    chat = chatsDict.get(chat_id);
+                    chat = chatsDict != null ? chatsDict.get(chat_id) : null;
                     if (chat == null) {
                         chat = getChat(chat_id);
                     }
@@ -8446,7 +8360,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             }
                         }
                         if (user_id > 0) {
-                            TLRPC.User user = usersDict.get(user_id);
+                            TLRPC.User user = usersDict != null ? usersDict.get(user_id) : null;
                             if (user == null || !allowMin && user.min) {
                                 user = getUser(user_id);
                             }
@@ -8475,7 +8389,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
 
                 if (message.action instanceof TLRPC.TL_messageActionChatDeleteUser) {
-                    TLRPC.User user = usersDict.get(message.action.user_id);
+                    TLRPC.User user = usersDict != null ? usersDict.get(message.action.user_id) : getUser(message.action.user_id);
                     if (user != null && user.bot) {
                         message.reply_markup = new TLRPC.TL_replyKeyboardHide();
                         message.flags |= 64;
@@ -8501,12 +8415,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     message.dialog_id = message.to_id.user_id;
                 }
 
-                ConcurrentHashMap<Long, Integer> read_max = message.out ? dialogs_read_outbox_max : dialogs_read_inbox_max;
-                Integer value = read_max.get(message.dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                    read_max.put(message.dialog_id, value);
-                }
+                int value = getDialogReadMax(message.out, message.dialog_id);
                 message.unread = !(value >= message.id || chat != null && ChatObject.isNotInChat(chat) || message.action instanceof TLRPC.TL_messageActionChatMigrateTo || message.action instanceof TLRPC.TL_messageActionChannelCreate);
                 if (message.dialog_id == clientUserId) {
                     message.unread = false;
@@ -8567,10 +8476,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     markAsReadMessagesInbox.put(update.peer.user_id, (long) update.max_id);
                     dialog_id = update.peer.user_id;
                 }
-                Integer value = dialogs_read_inbox_max.get(dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                }
+                int value = getDialogReadMax(false, dialog_id);
                 dialogs_read_inbox_max.put(dialog_id, Math.max(value, update.max_id));
             } else if (baseUpdate instanceof TLRPC.TL_updateReadHistoryOutbox) {
                 TLRPC.TL_updateReadHistoryOutbox update = (TLRPC.TL_updateReadHistoryOutbox) baseUpdate;
@@ -8585,10 +8491,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     markAsReadMessagesOutbox.put(update.peer.user_id, (long) update.max_id);
                     dialog_id = update.peer.user_id;
                 }
-                Integer value = dialogs_read_outbox_max.get(dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                }
+                int value = getDialogReadMax(true, dialog_id);
                 dialogs_read_outbox_max.put(dialog_id, Math.max(value, update.max_id));
             } else if (baseUpdate instanceof TLRPC.TL_updateDeleteMessages) {
                 TLRPC.TL_updateDeleteMessages update = (TLRPC.TL_updateDeleteMessages) baseUpdate;
@@ -8699,7 +8602,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 updatesOnMainThread.add(baseUpdate);
             } else if (baseUpdate instanceof TLRPC.TL_updateContactRegistered) {
                 TLRPC.TL_updateContactRegistered update = (TLRPC.TL_updateContactRegistered) baseUpdate;
-                if (enableJoined && usersDict.containsKey(update.user_id) && !MessagesStorage.getInstance(currentAccount).isDialogHasMessages(update.user_id)) {
+                if (enableJoined && (usersDict != null ? usersDict.containsKey(update.user_id) : users.containsKey(update.user_id)) && !MessagesStorage.getInstance(currentAccount).isDialogHasMessages(update.user_id)) {
                     TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
                     newMessage.action = new TLRPC.TL_messageActionUserJoined();
                     newMessage.local_id = newMessage.id = UserConfig.getInstance(currentAccount).getNewMessageId();
@@ -8948,7 +8851,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 if (channelPts == 0) {
                     channelPts = MessagesStorage.getInstance(currentAccount).getChannelPtsSync(update.channel_id);
                     if (channelPts == 0) {
-                        TLRPC.Chat chat = chatsDict.get(update.channel_id);
+                        TLRPC.Chat chat = chatsDict != null ? chatsDict.get(update.channel_id) : null;
                         if (chat == null || chat.min) {
                             chat = getChat(update.channel_id);
                         }
@@ -8981,10 +8884,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     markAsReadMessagesInbox = new SparseLongArray();
                 }
                 markAsReadMessagesInbox.put(-update.channel_id, message_id);
-                Integer value = dialogs_read_inbox_max.get(dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(false, dialog_id);
-                }
+                int value = getDialogReadMax(false, dialog_id);
                 dialogs_read_inbox_max.put(dialog_id, Math.max(value, update.max_id));
             } else if (baseUpdate instanceof TLRPC.TL_updateReadChannelOutbox) {
                 TLRPC.TL_updateReadChannelOutbox update = (TLRPC.TL_updateReadChannelOutbox) baseUpdate;
@@ -8995,10 +8895,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     markAsReadMessagesOutbox = new SparseLongArray();
                 }
                 markAsReadMessagesOutbox.put(-update.channel_id, message_id);
-                Integer value = dialogs_read_outbox_max.get(dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, dialog_id);
-                }
+                int value = getDialogReadMax(true, dialog_id);
                 dialogs_read_outbox_max.put(dialog_id, Math.max(value, update.max_id));
             } else if (baseUpdate instanceof TLRPC.TL_updateDeleteChannelMessages) {
                 TLRPC.TL_updateDeleteChannelMessages update = (TLRPC.TL_updateDeleteChannelMessages) baseUpdate;
@@ -9075,7 +8972,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 int clientUserId = UserConfig.getInstance(currentAccount).getClientUserId();
                 if (baseUpdate instanceof TLRPC.TL_updateEditChannelMessage) {
                     message = ((TLRPC.TL_updateEditChannelMessage) baseUpdate).message;
-                    TLRPC.Chat chat = chatsDict.get(message.to_id.channel_id);
+                    TLRPC.Chat chat = chatsDict != null ? chatsDict.get(message.to_id.channel_id) : null;
                     if (chat == null) {
                         chat = getChat(message.to_id.channel_id);
                     }
@@ -9102,7 +8999,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         TLRPC.MessageEntity entity = message.entities.get(a);
                         if (entity instanceof TLRPC.TL_messageEntityMentionName) {
                             int user_id = ((TLRPC.TL_messageEntityMentionName) entity).user_id;
-                            TLRPC.User user = usersDict.get(user_id);
+                            TLRPC.User user = usersDict != null ? usersDict.get(user_id) : null;
                             if (user == null || user.min) {
                                 user = getUser(user_id);
                             }
@@ -9131,12 +9028,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     message.dialog_id = message.to_id.user_id;
                 }
 
-                ConcurrentHashMap<Long, Integer> read_max = message.out ? dialogs_read_outbox_max : dialogs_read_inbox_max;
-                Integer value = read_max.get(message.dialog_id);
-                if (value == null) {
-                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                    read_max.put(message.dialog_id, value);
-                }
+                int value = getDialogReadMax(message.out, message.dialog_id);
                 message.unread = value < message.id;
                 if (message.dialog_id == clientUserId) {
                     message.out = true;
@@ -9335,6 +9227,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             toDbUser.last_name = update.last_name;
                             toDbUser.username = update.username;
                             dbUsers.add(toDbUser);
+                            PeerNameIndex.getInstance(currentAccount).putUser(currentUser != null ? currentUser : toDbUser);
                         } else if (baseUpdate instanceof TLRPC.TL_updateDialogPinned) {
                             TLRPC.TL_updateDialogPinned updateDialogPinned = (TLRPC.TL_updateDialogPinned) baseUpdate;
                             long did;
@@ -9413,9 +9306,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         } else if (baseUpdate instanceof TLRPC.TL_updateNotifySettings) {
                             TLRPC.TL_updateNotifySettings update = (TLRPC.TL_updateNotifySettings) baseUpdate;
                             if (update.notify_settings instanceof TLRPC.TL_peerNotifySettings) {
-                                if (editor == null) {
-                                    editor = notificationsPreferences.edit();
-                                }
                                 int currentTime = ConnectionsManager.getInstance(currentAccount).getCurrentTime();
                                 if (update.peer instanceof TLRPC.TL_notifyPeer) {
                                     long dialog_id;
@@ -9430,23 +9320,18 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                     if (dialog != null) {
                                         dialog.notify_settings = update.notify_settings;
                                     }
-                                    if ((update.notify_settings.flags & 2) != 0) {
-                                        editor.putBoolean("silent_" + dialog_id, update.notify_settings.silent);
-                                    } else {
-                                        editor.remove("silent_" + dialog_id);
-                                    }
+                                    editor = applySilentSetting(editor, dialog_id, update.notify_settings);
                                     if ((update.notify_settings.flags & 4) != 0) {
                                         if (update.notify_settings.mute_until > currentTime) {
                                             int until = 0;
                                             if (update.notify_settings.mute_until > currentTime + 60 * 60 * 24 * 365) {
-                                                editor.putInt("notify2_" + dialog_id, 2);
+                                                dialogSettings.setMuteType(dialog_id, 2);
                                                 if (dialog != null) {
                                                     update.notify_settings.mute_until = Integer.MAX_VALUE;
                                                 }
                                             } else {
                                                 until = update.notify_settings.mute_until;
-                                                editor.putInt("notify2_" + dialog_id, 3);
-                                                editor.putInt("notifyuntil_" + dialog_id, update.notify_settings.mute_until);
+                                                dialogSettings.setMuteType(dialog_id, 3, update.notify_settings.mute_until);
                                                 if (dialog != null) {
                                                     update.notify_settings.mute_until = until;
                                                 }
@@ -9457,17 +9342,20 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                             if (dialog != null) {
                                                 update.notify_settings.mute_until = 0;
                                             }
-                                            editor.putInt("notify2_" + dialog_id, 0);
+                                            dialogSettings.setMuteType(dialog_id, 0);
                                             MessagesStorage.getInstance(currentAccount).setDialogFlags(dialog_id, 0);
                                         }
                                     } else {
                                         if (dialog != null) {
                                             update.notify_settings.mute_until = 0;
                                         }
-                                        editor.remove("notify2_" + dialog_id);
+                                        dialogSettings.setMuteType(dialog_id, -1);
                                         MessagesStorage.getInstance(currentAccount).setDialogFlags(dialog_id, 0);
                                     }
                                 } else if (update.peer instanceof TLRPC.TL_notifyChats) {
+                                    if (editor == null) {
+                                        editor = notificationsPreferences.edit();
+                                    }
                                     if ((update.notify_settings.flags & 1) != 0) {
                                         editor.putBoolean("EnablePreviewGroup", update.notify_settings.show_previews);
                                     }
@@ -9482,6 +9370,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                         editor.putBoolean("EnableGroup", update.notify_settings.mute_until < currentTime);
                                     }
                                 } else if (update.peer instanceof TLRPC.TL_notifyUsers) {
+                                    if (editor == null) {
+                                        editor = notificationsPreferences.edit();
+                                    }
                                     if ((update.notify_settings.flags & 1) != 0) {
                                         editor.putBoolean("EnablePreviewAll", update.notify_settings.show_previews);
                                     }
@@ -9748,7 +9639,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.didUpdatedMessagesViews, channelViewsFinal);
                 }
                 if (updateMask != 0) {
-                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, updateMask);
+                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, updateMask);
                 }
             }
         });
@@ -9870,7 +9761,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             NotificationsController.getInstance(currentAccount).removeDeletedHisoryFromNotifications(clearHistoryMessagesFinal);
                         }
                         if (updateMask != 0) {
-                            NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, updateMask);
+                            NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, updateMask);
                         }
                     }
                 });
@@ -9926,27 +9817,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     }
 
     public boolean isDialogMuted(long dialog_id) {
-        int mute_type = notificationsPreferences.getInt("notify2_" + dialog_id, -1);
-        if (mute_type == -1) {
-            if ((int) dialog_id < 0) {
-                if (!notificationsPreferences.getBoolean("EnableGroup", true)) {
-                    return true;
-                }
-            } else {
-                if (!notificationsPreferences.getBoolean("EnableAll", true)) {
-                    return true;
-                }
-            }
-        }
-        if (mute_type == 2) {
-            return true;
-        } else if (mute_type == 3) {
-            int mute_until = notificationsPreferences.getInt("notifyuntil_" + dialog_id, 0);
-            if (mute_until >= ConnectionsManager.getInstance(currentAccount).getCurrentTime()) {
-                return true;
-            }
-        }
-        return false;
+        return dialogSettings.isMuted(dialog_id, ConnectionsManager.getInstance(currentAccount).getCurrentTime());
     }
 
     private boolean updatePrintingUsersWithNewMessages(long uid, ArrayList<MessageObject> messages) {
@@ -10027,9 +9898,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         TLRPC.TL_dialog dialog = dialogs_dict.get(uid);
         if (lastMessage.messageOwner.action instanceof TLRPC.TL_messageActionChatMigrateTo) {
             if (dialog != null) {
-                dialogs.remove(dialog);
-                dialogsServerOnly.remove(dialog);
-                dialogsGroupsOnly.remove(dialog);
+                removeDialogFromList(dialogs, dialog, 0);
+                removeDialogFromList(dialogsServerOnly, dialog, 1);
+                removeDialogFromList(dialogsGroupsOnly, dialog, 2);
                 dialogs_dict.remove(dialog.id);
                 dialogs_read_inbox_max.remove(dialog.id);
                 dialogs_read_outbox_max.remove(dialog.id);
@@ -10062,7 +9933,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 dialog.last_message_date = lastMessage.messageOwner.date;
                 dialog.flags = ChatObject.isChannel(chat) ? 1 : 0;
                 dialogs_dict.put(uid, dialog);
-                dialogs.add(dialog);
                 dialogMessage.put(uid, lastMessage);
                 if (lastMessage.messageOwner.to_id.channel_id == 0) {
                     dialogMessagesByIds.put(lastMessage.getId(), lastMessage);
@@ -10098,7 +9968,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
 
         if (changed) {
-            sortDialogs(null);
+            updateDialogPosition(dialog);
         }
 
         if (updateRating) {
@@ -10106,10 +9976,103 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
     }
 
+    public DialogsDiff getDialogsDiff(int dialogsType) {
+        return dialogsType >= 0 && dialogsType < dialogsDiffs.length ? dialogsDiffs[dialogsType] : null;
+    }
+
+    private void invalidateDialogsDiffs() {
+        for (int a = 0; a < dialogsDiffs.length; a++) {
+            dialogsDiffs[a].invalidate();
+        }
+    }
+
+    private boolean isServerOnlyDialog(TLRPC.TL_dialog dialog) {
+        int high_id = (int) (dialog.id >> 32);
+        int lower_id = (int) dialog.id;
+        return lower_id != 0 && high_id != 1;
+    }
+
+    private boolean isGroupsOnlyDialog(TLRPC.TL_dialog dialog) {
+        int lower_id = (int) dialog.id;
+        if (DialogObject.isChannel(dialog)) {
+            TLRPC.Chat chat = getChat(-lower_id);
+            return chat != null && (chat.megagroup && (chat.admin_rights != null && (chat.admin_rights.post_messages || chat.admin_rights.add_admins)) || chat.creator);
+        }
+        return lower_id < 0;
+    }
+
+    private int findDialogPosition(ArrayList<TLRPC.TL_dialog> array, TLRPC.TL_dialog dialog, int start) {
+        int low = start;
+        int high = array.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dialogComparator.compare(array.get(mid), dialog) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void moveDialogInList(ArrayList<TLRPC.TL_dialog> array, TLRPC.TL_dialog dialog, int start, boolean include, int dialogsType) {
+        int from = array.indexOf(dialog);
+        if (from < 0 && !include) {
+            return;
+        }
+        if (from >= 0) {
+            array.remove(from);
+        }
+        int to = findDialogPosition(array, dialog, start);
+        array.add(to, dialog);
+        if (from != to) {
+            dialogsDiffs[dialogsType].addMove(from, to, array.size());
+        }
+    }
+
+    private boolean removeDialogFromList(ArrayList<TLRPC.TL_dialog> array, TLRPC.TL_dialog dialog, int dialogsType) {
+        int index = array.indexOf(dialog);
+        if (index < 0) {
+            return false;
+        }
+        array.remove(index);
+        dialogsDiffs[dialogsType].addRemove(index, array.size());
+        return true;
+    }
+
+    /**
+     * Moves a single dialog, added to dialogs_dict but not necessarily to the lists yet, to its
+     * sorted position in the dialogs lists instead of sorting them all over again. The lists are
+     * expected to be sorted already, anything special about the dialog falls back to sortDialogs.
+     */
+    private void updateDialogPosition(TLRPC.TL_dialog dialog) {
+        int selfId = UserConfig.getInstance(currentAccount).getClientUserId();
+        if ((int) dialog.id == selfId || proxyDialog != null && proxyDialog.id == dialog.id) {
+            if (!dialogs.contains(dialog)) {
+                dialogs.add(dialog);
+            }
+            sortDialogs(null);
+            return;
+        }
+        int start = proxyDialog != null && isLeftProxyChannel && !dialogs.isEmpty() && dialogs.get(0) == proxyDialog ? 1 : 0;
+        moveDialogInList(dialogs, dialog, start, true, 0);
+        if (isServerOnlyDialog(dialog)) {
+            moveDialogInList(dialogsServerOnly, dialog, 0, true, 1);
+            if (isGroupsOnlyDialog(dialog)) {
+                moveDialogInList(dialogsGroupsOnly, dialog, 0, true, 2);
+            } else {
+                removeDialogFromList(dialogsGroupsOnly, dialog, 2);
+            }
+        }
+        start = !dialogsForward.isEmpty() && (int) dialogsForward.get(0).id == selfId ? 1 : 0;
+        moveDialogInList(dialogsForward, dialog, start, true, 3);
+    }
+
     public void sortDialogs(SparseArray<TLRPC.Chat> chatsDict) {
         dialogsServerOnly.clear();
         dialogsGroupsOnly.clear();
         dialogsForward.clear();
+        invalidateDialogsDiffs();
         unreadUnmutedDialogs = 0;
         boolean selfAdded = false;
         int selfId = UserConfig.getInstance(currentAccount).getClientUserId();
@@ -10123,7 +10086,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
         for (int a = 0; a < dialogs.size(); a++) {
             TLRPC.TL_dialog d = dialogs.get(a);
-            int high_id = (int) (d.id >> 32);
             int lower_id = (int) d.id;
             if (lower_id == selfId) {
                 dialogsForward.add(0, d);
@@ -10131,22 +10093,17 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             } else {
                 dialogsForward.add(d);
             }
-            if (lower_id != 0 && high_id != 1) {
+            if (isServerOnlyDialog(d)) {
                 dialogsServerOnly.add(d);
-                if (DialogObject.isChannel(d)) {
-                    TLRPC.Chat chat = getChat(-lower_id);
-                    if (chat != null && (chat.megagroup && (chat.admin_rights != null && (chat.admin_rights.post_messages || chat.admin_rights.add_admins)) || chat.creator)) {
-                        dialogsGroupsOnly.add(d);
-                    }
-                } else if (lower_id < 0) {
-                    if (chatsDict != null) {
-                        TLRPC.Chat chat = chatsDict.get(-lower_id);
-                        if (chat != null && chat.migrated_to != null) {
-                            dialogs.remove(a);
-                            a--;
-                            continue;
-                        }
+                if (chatsDict != null && lower_id < 0 && !DialogObject.isChannel(d)) {
+                    TLRPC.Chat chat = chatsDict.get(-lower_id);
+                    if (chat != null && chat.migrated_to != null) {
+                        dialogs.remove(a);
+                        a--;
+                        continue;
                     }
+                }
+                if (isGroupsOnlyDialog(d)) {
                     dialogsGroupsOnly.add(d);
                 }
             }
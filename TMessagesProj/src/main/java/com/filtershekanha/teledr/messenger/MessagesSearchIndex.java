@@ -0,0 +1,164 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.text.TextUtils;
+
+import com.filtershekanha.teledr.tgnet.TLRPC;
+
+import java.text.Normalizer;
+
+public class MessagesSearchIndex {
+
+    //contentless, the text is only kept in the messages table; terms of removed or edited texts stay until the index is rebuilt
+    public static final String TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS messages_fts USING fts4(content=\"\", text, tokenize=unicode61 \"remove_diacritics=1\")";
+    //the indexed messages with the hash of their indexed text
+    public static final String DOCS_TABLE = "CREATE TABLE IF NOT EXISTS messages_fts_docs(docid INTEGER PRIMARY KEY, hash INTEGER)";
+
+    private static final int MAX_QUERY_TOKENS = 8;
+
+    public static String getIndexText(TLRPC.Message message) {
+        if (message == null || message instanceof TLRPC.TL_messageService) {
+            return null;
+        }
+        return getIndexText(message.message);
+    }
+
+    public static String getIndexText(String message) {
+        if (TextUtils.isEmpty(message)) {
+            return null;
+        }
+        String text = normalize(message);
+        return text.trim().length() != 0 ? text : null;
+    }
+
+    public static String getMatchQuery(String query) {
+        if (TextUtils.isEmpty(query)) {
+            return null;
+        }
+        String text = normalize(query);
+        StringBuilder result = new StringBuilder(text.length() + 16);
+        int tokens = 0;
+        int start = -1;
+        for (int a = 0, N = text.length(); a <= N; a++) {
+            boolean letter = a < N && Character.isLetterOrDigit(text.charAt(a));
+            if (letter) {
+                if (start < 0) {
+                    start = a;
+                }
+            } else if (start >= 0) {
+                if (result.length() != 0) {
+                    result.append(' ');
+                }
+                result.append(text, start, a).append('*');
+                start = -1;
+                if (++tokens == MAX_QUERY_TOKENS) {
+                    break;
+                }
+            }
+        }
+        return tokens != 0 ? result.toString() : null;
+    }
+
+    /**
+     * Checks the text against a query built by {@link #getMatchQuery(String)}. The index still
+     * returns messages by the terms of their text before an edit, so its results are checked again.
+     */
+    public static boolean matches(String text, String matchQuery) {
+        String indexText = getIndexText(text);
+        if (indexText == null || matchQuery == null) {
+            return false;
+        }
+        indexText = removeMarks(indexText);
+        String[] tokens = removeMarks(matchQuery).split(" ");
+        for (int a = 0; a < tokens.length; a++) {
+            String token = tokens[a];
+            if (token.endsWith("*")) {
+                token = token.substring(0, token.length() - 1);
+            }
+            if (token.length() != 0 && !hasWordWithPrefix(indexText, token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasWordWithPrefix(String text, String prefix) {
+        int index = text.indexOf(prefix);
+        while (index >= 0) {
+            if (index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1))) {
+                return true;
+            }
+            index = text.indexOf(prefix, index + 1);
+        }
+        return false;
+    }
+
+    private static String removeMarks(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder result = new StringBuilder(decomposed.length());
+        for (int a = 0, N = decomposed.length(); a < N; a++) {
+            char c = decomposed.charAt(a);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    static String normalize(String text) {
+        StringBuilder result = null;
+        for (int a = 0, N = text.length(); a < N; a++) {
+            char c = text.charAt(a);
+            char n = normalizeChar(c);
+            if (n != c && result == null) {
+                result = new StringBuilder(N);
+                result.append(text, 0, a);
+            }
+            if (result != null && n != 0) {
+                result.append(n);
+            }
+        }
+        return (result != null ? result.toString() : text).toLowerCase();
+    }
+
+    private static char normalizeChar(char c) {
+        if (c < 0x0600) {
+            return c;
+        }
+        if (c >= 0x064B && c <= 0x065F || c == 0x0670 || c == 0x0640 || c == 0x200C || c == 0x200D || c == 0x200F) {
+            return 0;
+        }
+        if (c >= 0x0660 && c <= 0x0669) {
+            return (char) ('0' + c - 0x0660);
+        }
+        if (c >= 0x06F0 && c <= 0x06F9) {
+            return (char) ('0' + c - 0x06F0);
+        }
+        switch (c) {
+            case 0x064A:
+            case 0x0649:
+            case 0x0626:
+                return 0x06CC;
+            case 0x0643:
+                return 0x06A9;
+            case 0x0622:
+            case 0x0623:
+            case 0x0625:
+            case 0x0671:
+                return 0x0627;
+            case 0x0624:
+                return 0x0648;
+            case 0x0629:
+            case 0x06C0:
+                return 0x0647;
+        }
+        return c;
+    }
+}
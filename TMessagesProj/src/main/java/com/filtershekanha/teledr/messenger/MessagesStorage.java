@@ -15,13 +15,16 @@ import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import com.filtershekanha.teledr.PhoneFormat.PhoneFormat;
+import com.filtershekanha.teledr.SQLite.SQLiteBatchStatement;
 import com.filtershekanha.teledr.SQLite.SQLiteCursor;
 import com.filtershekanha.teledr.SQLite.SQLiteDatabase;
 import com.filtershekanha.teledr.SQLite.SQLitePreparedStatement;
 import com.filtershekanha.teledr.internal.BuildVars;
 import com.filtershekanha.teledr.messenger.support.SparseLongArray;
 import com.filtershekanha.teledr.tgnet.ConnectionsManager;
+import com.filtershekanha.teledr.tgnet.MessageView;
 import com.filtershekanha.teledr.tgnet.NativeByteBuffer;
+import com.filtershekanha.teledr.tgnet.NativeByteBufferPool;
 import com.filtershekanha.teledr.tgnet.RequestDelegate;
 import com.filtershekanha.teledr.tgnet.TLObject;
 import com.filtershekanha.teledr.tgnet.TLRPC;
@@ -35,6 +38,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class MessagesStorage {
@@ -43,8 +47,54 @@ public class MessagesStorage {
         void run(int param);
     }
 
-    private DispatchQueue storageQueue = new DispatchQueue("storageQueue");
+    public interface MessagesCallback {
+        void run(ArrayList<MessageObject> messages);
+    }
+
+    private static final int READ_CONNECTIONS_COUNT = 2;
+    private static final int SEARCH_INDEX_REBUILD_STALE = 10000;
+    private static final int SEARCH_INDEX_MAX_FAILURES = 5;
+    private static final long SEARCH_INDEX_RETRY_DELAY = 30000;
+
+    private final AtomicInteger pendingWritesCount = new AtomicInteger();
+    private DispatchQueue storageQueue = new DispatchQueue("storageQueue") {
+        @Override
+        public void postRunnable(final Runnable runnable, long delay) {
+            if (delay > 0) {
+                super.postRunnable(runnable, delay);
+                return;
+            }
+            pendingWritesCount.incrementAndGet();
+            super.postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        pendingWritesCount.decrementAndGet();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cleanupQueue() {
+            super.cleanupQueue();
+            pendingWritesCount.set(0);
+        }
+    };
     private SQLiteDatabase database;
+    private DispatchQueue[] readQueues = new DispatchQueue[READ_CONNECTIONS_COUNT];
+    private SQLiteDatabase[] readDatabases = new SQLiteDatabase[READ_CONNECTIONS_COUNT];
+    private int[] readDatabasesGeneration = new int[READ_CONNECTIONS_COUNT];
+    private volatile int databaseGeneration;
+    private int lastReadQueue;
+    private final ThreadLocal<SQLiteDatabase> currentReadDatabase = new ThreadLocal<>();
+    private volatile boolean searchIndexAvailable;
+    private int searchIndexFailures;
+    private final ArrayList<Runnable> pendingReads = new ArrayList<>();
+    private boolean readsReady;
+    private boolean migrationPending;
     private File cacheFile;
     private File walCacheFile;
     private File shmCacheFile;
@@ -178,6 +228,98 @@ public class MessagesStorage {
         return storageQueue;
     }
 
+    /**
+     * Returns the reader connection of the current read queue, or the main database on storageQueue.
+     */
+    SQLiteDatabase getReadDatabase() {
+        SQLiteDatabase readDatabase = currentReadDatabase.get();
+        return readDatabase != null ? readDatabase : database;
+    }
+
+    /**
+     * Runs the read on a reader connection. Reads wait until a pending schema upgrade is done, and
+     * go through storageQueue while writes are queued there, so they see everything posted before.
+     */
+    private void postReadRunnable(final Runnable runnable) {
+        synchronized (pendingReads) {
+            if (!readsReady) {
+                pendingReads.add(runnable);
+                return;
+            }
+        }
+        if (pendingWritesCount.get() > 0) {
+            storageQueue.postRunnable(runnable);
+            return;
+        }
+        final int index;
+        synchronized (readQueues) {
+            index = lastReadQueue;
+            lastReadQueue = (lastReadQueue + 1) % READ_CONNECTIONS_COUNT;
+            if (readQueues[index] == null) {
+                readQueues[index] = new DispatchQueue("storageReadQueue" + index);
+            }
+        }
+        readQueues[index].postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase readDatabase = openReadDatabase(index);
+                if (readDatabase == null) {
+                    storageQueue.postRunnable(runnable);
+                    return;
+                }
+                currentReadDatabase.set(readDatabase);
+                try {
+                    runnable.run();
+                } finally {
+                    currentReadDatabase.set(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called on storageQueue once the schema is up to date, queued reads run after the writes
+     * that were posted before them.
+     */
+    private void setReadsReady() {
+        ArrayList<Runnable> reads;
+        synchronized (pendingReads) {
+            readsReady = true;
+            reads = new ArrayList<>(pendingReads);
+            pendingReads.clear();
+        }
+        for (int a = 0, N = reads.size(); a < N; a++) {
+            storageQueue.postRunnable(reads.get(a));
+        }
+    }
+
+    private SQLiteDatabase openReadDatabase(int index) {
+        try {
+            openSync.await();
+        } catch (Throwable ignore) {
+
+        }
+        int generation = databaseGeneration;
+        if (readDatabases[index] != null && readDatabasesGeneration[index] != generation) {
+            readDatabases[index].close();
+            readDatabases[index] = null;
+        }
+        if (readDatabases[index] == null) {
+            File file = cacheFile;
+            if (file == null || !file.exists()) {
+                return null;
+            }
+            try {
+                readDatabases[index] = new SQLiteDatabase(file.getPath(), true);
+                readDatabasesGeneration[index] = generation;
+            } catch (Exception e) {
+                FileLog.e(e);
+                return null;
+            }
+        }
+        return readDatabases[index];
+    }
+
     public long getDatabaseSize() {
         long size = 0;
         if (cacheFile != null) {
@@ -203,6 +345,7 @@ public class MessagesStorage {
         shmCacheFile = new File(filesDir, "cache4.db-shm");
 
         boolean createTable = false;
+        migrationPending = false;
         //cacheFile.delete();
         if (!cacheFile.exists()) {
             createTable = true;
@@ -285,6 +428,7 @@ public class MessagesStorage {
                 database.executeFast("CREATE TABLE user_photos(uid INTEGER, id INTEGER, data BLOB, PRIMARY KEY (uid, id))").stepThis().dispose();
                 database.executeFast("CREATE TABLE blocked_users(uid INTEGER PRIMARY KEY)").stepThis().dispose();
                 database.executeFast("CREATE TABLE dialog_settings(did INTEGER PRIMARY KEY, flags INTEGER);").stepThis().dispose();
+                database.executeFast("CREATE TABLE dialog_mute(did INTEGER PRIMARY KEY, type INTEGER, until INTEGER);").stepThis().dispose();
                 database.executeFast("CREATE TABLE web_recent_v3(id TEXT, type INTEGER, image_url TEXT, thumb_url TEXT, local_url TEXT, width INTEGER, height INTEGER, size INTEGER, date INTEGER, document BLOB, PRIMARY KEY (id, type));").stepThis().dispose();
                 database.executeFast("CREATE TABLE stickers_v2(id INTEGER PRIMARY KEY, data BLOB, date INTEGER, hash TEXT);").stepThis().dispose();
                 database.executeFast("CREATE TABLE stickers_featured(id INTEGER PRIMARY KEY, data BLOB, unread BLOB, date INTEGER, hash TEXT);").stepThis().dispose();
@@ -298,9 +442,10 @@ public class MessagesStorage {
                 database.executeFast("CREATE TABLE pending_tasks(id INTEGER PRIMARY KEY, data BLOB);").stepThis().dispose();
                 database.executeFast("CREATE TABLE requested_holes(uid INTEGER, seq_out_start INTEGER, seq_out_end INTEGER, PRIMARY KEY (uid, seq_out_start, seq_out_end));").stepThis().dispose();
                 database.executeFast("CREATE TABLE sharing_locations(uid INTEGER PRIMARY KEY, mid INTEGER, date INTEGER, period INTEGER, message BLOB);").stepThis().dispose();
+                createSearchIndex();
 
                 //version
-                database.executeFast("PRAGMA user_version = 48").stepThis().dispose();
+                database.executeFast("PRAGMA user_version = 51").stepThis().dispose();
 
                 //database.executeFast("CREATE TABLE secret_holes(uid INTEGER, seq_in INTEGER, seq_out INTEGER, data BLOB, PRIMARY KEY (uid, seq_in, seq_out));").stepThis().dispose();
                 //database.executeFast("CREATE TABLE attach_data(uid INTEGER, id INTEGER, data BLOB, PRIMARY KEY (uid, id))").stepThis().dispose();
@@ -340,8 +485,20 @@ public class MessagesStorage {
                         FileLog.e(e2);
                     }
                 }
-                if (version < 48) {
+                if (version < 51) {
+                    //created here and not in the posted upgrade, DialogSettingsStore reads it right after the database is opened
+                    database.executeFast("CREATE TABLE IF NOT EXISTS dialog_mute(did INTEGER PRIMARY KEY, type INTEGER, until INTEGER);").stepThis().dispose();
+                    //replaced here as well, messages saved before the upgrade runs already go to the contentless index
+                    if (database.tableExists("messages_fts")) {
+                        rebuildSearchIndex();
+                    }
+                }
+                searchIndexAvailable = database.tableExists("messages_fts") && database.tableExists("messages_fts_docs");
+                if (version < 51) {
+                    migrationPending = true;
                     updateDbToLastVersion(version);
+                } else {
+                    indexMessagesChunk(0);
                 }
             }
         } catch (Exception e) {
@@ -361,6 +518,9 @@ public class MessagesStorage {
         }
         loadUnreadMessages();
         loadPendingTasks();
+        if (!migrationPending) {
+            setReadsReady();
+        }
         try {
             openSync.countDown();
         } catch (Throwable ignore) {
@@ -547,8 +707,7 @@ public class MessagesStorage {
                                     chatFull.notify_settings = new TLRPC.TL_peerNotifySettingsEmpty_layer77();
                                     chatFull.exported_invite = new TLRPC.TL_chatInviteEmpty();
                                     chatFull.participants = participants;
-                                    NativeByteBuffer data2 = new NativeByteBuffer(chatFull.getObjectSize());
-                                    chatFull.serializeToStream(data2);
+                                    NativeByteBuffer data2 = NativeByteBufferPool.serialize(chatFull);
                                     state.requery();
                                     state.bindInteger(1, chat_id);
                                     state.bindByteBuffer(2, data2);
@@ -700,11 +859,337 @@ public class MessagesStorage {
                     if (version == 47) {
                         database.executeFast("ALTER TABLE dialogs ADD COLUMN flags INTEGER default 0").stepThis().dispose();
                         database.executeFast("PRAGMA user_version = 48").stepThis().dispose();
-                        //version = 48;
+                        version = 48;
+                    }
+                    if (version == 48) {
+                        createSearchIndex();
+                        if (searchIndexAvailable) {
+                            database.executeFast("REPLACE INTO keyvalue VALUES('fts_index_mid', '" + Long.MAX_VALUE + "')").stepThis().dispose();
+                        }
+                        database.executeFast("PRAGMA user_version = 49").stepThis().dispose();
+                        version = 49;
                     }
+                    if (version == 49) {
+                        database.executeFast("PRAGMA user_version = 50").stepThis().dispose();
+                        version = 50;
+                    }
+                    if (version == 50) {
+                        database.executeFast("PRAGMA user_version = 51").stepThis().dispose();
+                        //version = 51;
+                    }
+                    indexMessagesChunk(0);
                 } catch (Exception e) {
                     FileLog.e(e);
                 }
+                migrationPending = false;
+                setReadsReady();
+            }
+        });
+    }
+
+    private void createSearchIndex() {
+        try {
+            database.executeFast(MessagesSearchIndex.TABLE).stepThis().dispose();
+            database.executeFast(MessagesSearchIndex.DOCS_TABLE).stepThis().dispose();
+            searchIndexAvailable = true;
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    /**
+     * Drops the index and starts the backfill over. The index is contentless, so the terms of
+     * removed and edited messages can't be deleted from it and are only dropped here.
+     */
+    private void rebuildSearchIndex() {
+        try {
+            database.executeFast("DROP TABLE IF EXISTS messages_fts").stepThis().dispose();
+            createSearchIndex();
+            database.executeFast("DELETE FROM messages_fts_docs").stepThis().dispose();
+            database.executeFast("DELETE FROM keyvalue WHERE id = 'fts_stale'").stepThis().dispose();
+            database.executeFast("REPLACE INTO keyvalue VALUES('fts_index_mid', '" + Long.MAX_VALUE + "')").stepThis().dispose();
+        } catch (Exception e) {
+            searchIndexAvailable = false;
+            FileLog.e(e);
+        }
+    }
+
+    private boolean isSearchIndexStale() throws Exception {
+        SQLiteCursor cursor = database.queryFinalized("SELECT value FROM keyvalue WHERE id = 'fts_stale'");
+        long stale = cursor.next() ? Utilities.parseLong(cursor.stringValue(0)) : 0;
+        cursor.dispose();
+        if (stale < SEARCH_INDEX_REBUILD_STALE) {
+            return false;
+        }
+        cursor = database.queryFinalized("SELECT COUNT(*) FROM messages_fts_docs");
+        long indexed = cursor.next() ? cursor.longValue(0) : 0;
+        cursor.dispose();
+        return stale > indexed;
+    }
+
+    private void addSearchIndexStale(int count) throws Exception {
+        database.executeFast("REPLACE INTO keyvalue VALUES('fts_stale', CAST(IFNULL((SELECT value FROM keyvalue WHERE id = 'fts_stale'), 0) + " + count + " AS TEXT))").stepThis().dispose();
+    }
+
+    /**
+     * Removes the messages matching the condition on the messages table from the index, so it
+     * has to be called before they are deleted there.
+     */
+    private void removeFromSearchIndex(String condition) {
+        if (!searchIndexAvailable) {
+            return;
+        }
+        try {
+            SQLiteCursor cursor = database.queryFinalized("SELECT COUNT(*) FROM messages_fts_docs WHERE docid IN(SELECT mid FROM messages WHERE " + condition + ")");
+            int count = cursor.next() ? cursor.intValue(0) : 0;
+            cursor.dispose();
+            if (count != 0) {
+                database.executeFast("DELETE FROM messages_fts_docs WHERE docid IN(SELECT mid FROM messages WHERE " + condition + ")").stepThis().dispose();
+                addSearchIndexStale(count);
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    /**
+     * Reads the index text of the rows selecting mid and data, rows without text are put with null.
+     */
+    private int readSearchTexts(SQLiteCursor cursor, LongSparseArray<String> texts) throws Exception {
+        int count = 0;
+        MessageView messageView = new MessageView();
+        while (cursor.next()) {
+            count++;
+            String text = null;
+            NativeByteBuffer data = cursor.byteBufferValue(1);
+            if (data != null) {
+                try {
+                    messageView.reset(data);
+                    if (messageView.isValid()) {
+                        text = MessagesSearchIndex.getIndexText(messageView.getText());
+                    }
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+                data.reuse();
+            }
+            texts.put(cursor.longValue(0), text);
+        }
+        cursor.dispose();
+        return count;
+    }
+
+    /**
+     * Indexes the texts by message id, a null text removes the message from the index. Messages
+     * already indexed with the same text are skipped, the old terms of changed texts are counted
+     * for the rebuild.
+     */
+    private void updateSearchIndex(LongSparseArray<String> texts) throws Exception {
+        int count = texts.size();
+        if (count == 0) {
+            return;
+        }
+        StringBuilder ids = new StringBuilder(count * 12);
+        for (int a = 0; a < count; a++) {
+            if (ids.length() != 0) {
+                ids.append(',');
+            }
+            ids.append(texts.keyAt(a));
+        }
+        LongSparseArray<Integer> hashes = new LongSparseArray<>();
+        SQLiteCursor cursor = database.queryFinalized("SELECT docid, hash FROM messages_fts_docs WHERE docid IN(" + ids + ")");
+        while (cursor.next()) {
+            hashes.put(cursor.longValue(0), cursor.intValue(1));
+        }
+        cursor.dispose();
+
+        SQLitePreparedStatement insertState = null;
+        SQLitePreparedStatement docState = null;
+        SQLitePreparedStatement deleteState = null;
+        int stale = 0;
+        for (int a = 0; a < count; a++) {
+            long mid = texts.keyAt(a);
+            String text = texts.valueAt(a);
+            Integer oldHash = hashes.get(mid);
+            if (text == null) {
+                if (oldHash != null) {
+                    if (deleteState == null) {
+                        deleteState = database.executeFast("DELETE FROM messages_fts_docs WHERE docid = ?");
+                    }
+                    deleteState.requery();
+                    deleteState.bindLong(1, mid);
+                    deleteState.step();
+                    stale++;
+                }
+                continue;
+            }
+            int hash = text.hashCode();
+            if (oldHash != null) {
+                if (oldHash == hash) {
+                    continue;
+                }
+                stale++;
+            }
+            if (insertState == null) {
+                insertState = database.executeFast("INSERT INTO messages_fts(docid, text) VALUES(?, ?)");
+                docState = database.executeFast("REPLACE INTO messages_fts_docs VALUES(?, ?)");
+            }
+            insertState.requery();
+            insertState.bindLong(1, mid);
+            insertState.bindString(2, text);
+            insertState.step();
+
+            docState.requery();
+            docState.bindLong(1, mid);
+            docState.bindInteger(2, hash);
+            docState.step();
+        }
+        if (insertState != null) {
+            insertState.dispose();
+            docState.dispose();
+        }
+        if (deleteState != null) {
+            deleteState.dispose();
+        }
+        if (stale != 0) {
+            addSearchIndexStale(stale);
+        }
+    }
+
+    private void indexMessagesChunk(long delay) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (!searchIndexAvailable) {
+                    return;
+                }
+                try {
+                    if (isSearchIndexStale()) {
+                        rebuildSearchIndex();
+                        if (!searchIndexAvailable) {
+                            return;
+                        }
+                    }
+                    SQLiteCursor cursor = database.queryFinalized("SELECT value FROM keyvalue WHERE id = 'fts_index_mid'");
+                    long lastMid = 0;
+                    boolean hasProgress = cursor.next();
+                    if (hasProgress) {
+                        lastMid = Utilities.parseLong(cursor.stringValue(0));
+                    }
+                    cursor.dispose();
+                    if (!hasProgress) {
+                        return;
+                    }
+                    database.beginTransaction();
+                    LongSparseArray<String> texts = new LongSparseArray<>();
+                    int count = readSearchTexts(database.queryFinalized("SELECT mid, data FROM messages WHERE mid < ? ORDER BY mid DESC LIMIT 500", lastMid), texts);
+                    updateSearchIndex(texts);
+                    if (count == 0) {
+                        database.executeFast("DELETE FROM keyvalue WHERE id = 'fts_index_mid'").stepThis().dispose();
+                    } else {
+                        SQLitePreparedStatement state = database.executeFast("REPLACE INTO keyvalue VALUES('fts_index_mid', ?)");
+                        state.bindString(1, String.valueOf(texts.keyAt(0)));
+                        state.step();
+                        state.dispose();
+                    }
+                    database.commitTransaction();
+                    searchIndexFailures = 0;
+                    if (count != 0) {
+                        indexMessagesChunk(0);
+                    }
+                } catch (Exception e) {
+                    database.commitTransaction();
+                    FileLog.e(e);
+                    //the progress is kept, so the chunk is retried after a pause and on the next start
+                    if (++searchIndexFailures < SEARCH_INDEX_MAX_FAILURES) {
+                        indexMessagesChunk(SEARCH_INDEX_RETRY_DELAY * searchIndexFailures);
+                    }
+                }
+            }
+        }, delay);
+    }
+
+    public void searchMessagesLocal(final long dialogId, final String query, final int limit, final MessagesCallback callback) {
+        final String matchQuery = MessagesSearchIndex.getMatchQuery(query);
+        if (matchQuery == null || callback == null) {
+            return;
+        }
+        postReadRunnable(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<MessageObject> result = new ArrayList<>();
+                final ArrayList<TLRPC.User> users = new ArrayList<>();
+                final ArrayList<TLRPC.Chat> chats = new ArrayList<>();
+                try {
+                    if (searchIndexAvailable) {
+                        SQLiteDatabase readDatabase = getReadDatabase();
+                        ArrayList<TLRPC.Message> messages = new ArrayList<>();
+                        ArrayList<Integer> usersToLoad = new ArrayList<>();
+                        ArrayList<Integer> chatsToLoad = new ArrayList<>();
+                        SQLiteCursor cursor;
+                        //the index may hold a message id more than once, the subquery returns it once
+                        if (dialogId != 0) {
+                            cursor = readDatabase.queryFinalized("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, m.uid FROM messages as m WHERE m.mid IN(SELECT docid FROM messages_fts WHERE messages_fts MATCH ?) AND m.uid = ? ORDER BY m.date DESC LIMIT ?", matchQuery, dialogId, limit);
+                        } else {
+                            cursor = readDatabase.queryFinalized("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, m.uid FROM messages as m WHERE m.mid IN(SELECT docid FROM messages_fts WHERE messages_fts MATCH ?) ORDER BY m.date DESC LIMIT ?", matchQuery, limit);
+                        }
+                        MessageView messageView = new MessageView();
+                        int clientUserId = UserConfig.getInstance(currentAccount).clientUserId;
+                        while (cursor.next()) {
+                            NativeByteBuffer data = cursor.byteBufferValue(1);
+                            if (data == null) {
+                                continue;
+                            }
+                            messageView.reset(data);
+                            TLRPC.Message message = null;
+                            if (messageView.isValid() && MessagesSearchIndex.matches(messageView.getText(), matchQuery)) {
+                                message = messageView.getMessage(clientUserId, cursor.intValue(2));
+                            }
+                            data.reuse();
+                            if (message == null) {
+                                continue;
+                            }
+                            MessageObject.setUnreadFlags(message, cursor.intValue(0));
+                            message.id = cursor.intValue(3);
+                            message.date = cursor.intValue(4);
+                            message.dialog_id = cursor.longValue(5);
+                            messages.add(message);
+                            addUsersAndChatsFromMessage(message, usersToLoad, chatsToLoad);
+                        }
+                        cursor.dispose();
+
+                        if (!usersToLoad.isEmpty()) {
+                            getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                        }
+                        if (!chatsToLoad.isEmpty()) {
+                            getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                        }
+                        SparseArray<TLRPC.User> usersDict = new SparseArray<>();
+                        SparseArray<TLRPC.Chat> chatsDict = new SparseArray<>();
+                        for (int a = 0; a < users.size(); a++) {
+                            TLRPC.User user = users.get(a);
+                            usersDict.put(user.id, user);
+                        }
+                        for (int a = 0; a < chats.size(); a++) {
+                            TLRPC.Chat chat = chats.get(a);
+                            chatsDict.put(chat.id, chat);
+                        }
+                        for (int a = 0; a < messages.size(); a++) {
+                            result.add(new MessageObject(currentAccount, messages.get(a), usersDict, chatsDict, false));
+                        }
+                    }
+                } catch (Exception e) {
+                    result.clear();
+                    FileLog.e(e);
+                }
+                AndroidUtilities.runOnUIThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        MessagesController.getInstance(currentAccount).putUsers(users, true);
+                        MessagesController.getInstance(currentAccount).putChats(chats, true);
+                        callback.run(result);
+                    }
+                });
             }
         });
     }
@@ -723,6 +1208,7 @@ public class MessagesStorage {
 
         secretPBytes = null;
         secretG = 0;
+        databaseGeneration++;
         if (database != null) {
             database.close();
             database = null;
@@ -820,6 +1306,12 @@ public class MessagesStorage {
                             }
                         }
                     }
+                    SQLiteCursor cursor = database.queryFinalized("SELECT did, type, until FROM dialog_mute WHERE type IN(2,3)");
+                    while (cursor.next()) {
+                        int value = cursor.intValue(1);
+                        ids.put(cursor.longValue(0), value == 2 ? 1 : ((long) cursor.intValue(2) << 32) | 1);
+                    }
+                    cursor.dispose();
                     try {
                         database.beginTransaction();
                         SQLitePreparedStatement state = database.executeFast("REPLACE INTO dialog_settings VALUES(?, ?)");
@@ -1281,8 +1773,7 @@ public class MessagesStorage {
                     SQLitePreparedStatement state = database.executeFast("REPLACE INTO wallpapers VALUES(?, ?)");
                     for (TLRPC.WallPaper wallPaper : wallPapers) {
                         state.requery();
-                        NativeByteBuffer data = new NativeByteBuffer(wallPaper.getObjectSize());
-                        wallPaper.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(wallPaper);
                         state.bindInteger(1, num);
                         state.bindByteBuffer(2, data);
                         state.step();
@@ -1360,8 +1851,7 @@ public class MessagesStorage {
                     if (document != null) {
                         SQLitePreparedStatement state = database.executeFast("UPDATE web_recent_v3 SET document = ? WHERE image_url = ?");
                         state.requery();
-                        NativeByteBuffer data = new NativeByteBuffer(document.getObjectSize());
-                        document.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(document);
                         state.bindByteBuffer(1, data);
                         state.bindString(2, imageUrl);
                         state.step();
@@ -1560,13 +2050,17 @@ public class MessagesStorage {
                     SQLiteCursor cursor = database.queryFinalized("SELECT data FROM messages WHERE uid = " + did);
                     ArrayList<File> filesToDelete = new ArrayList<>();
                     try {
+                        MessageView messageView = new MessageView();
                         while (cursor.next()) {
                             NativeByteBuffer data = cursor.byteBufferValue(0);
                             if (data != null) {
-                                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                message.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                                messageView.reset(data);
+                                TLRPC.Message message = null;
+                                if (messageView.getFromId() == uid && messageView.getId() != 1) {
+                                    message = messageView.getMessage(UserConfig.getInstance(currentAccount).clientUserId);
+                                }
                                 data.reuse();
-                                if (message != null && message.from_id == uid && message.id != 1) {
+                                if (message != null) {
                                     mids.add(message.id);
                                     if (message.media instanceof TLRPC.TL_messageMediaPhoto) {
                                         for (TLRPC.PhotoSize photoSize : message.media.photo.sizes) {
@@ -1623,7 +2117,7 @@ public class MessagesStorage {
                 try {
                     if (messagesOnly == 3) {
                         int lastMid = -1;
-                        SQLiteCursor cursor = database.queryFinalized("SELECT last_mid FROM dialogs WHERE did = " + did);
+                        SQLiteCursor cursor = database.queryFinalized("SELECT last_mid FROM dialogs WHERE did = ?", did);
                         if (cursor.next()) {
                             lastMid = cursor.intValue(0);
                         }
@@ -1689,22 +2183,22 @@ public class MessagesStorage {
                             //database.executeFast("DELETE FROM secret_holes WHERE uid = " + high_id).stepThis().dispose();
                         }
                     } else if (messagesOnly == 2) {
-                        SQLiteCursor cursor = database.queryFinalized("SELECT last_mid_i, last_mid FROM dialogs WHERE did = " + did);
+                        SQLiteCursor cursor = database.queryFinalized("SELECT last_mid_i, last_mid FROM dialogs WHERE did = ?", did);
                         int messageId = -1;
                         if (cursor.next()) {
                             long last_mid_i = cursor.longValue(0);
                             long last_mid = cursor.longValue(1);
                             SQLiteCursor cursor2 = database.queryFinalized("SELECT data FROM messages WHERE uid = " + did + " AND mid IN (" + last_mid_i + "," + last_mid + ")");
                             try {
+                                MessageView messageView = new MessageView();
                                 while (cursor2.next()) {
                                     NativeByteBuffer data = cursor2.byteBufferValue(0);
                                     if (data != null) {
-                                        TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                        message.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
-                                        data.reuse();
-                                        if (message != null) {
-                                            messageId = message.id;
+                                        messageView.reset(data);
+                                        if (messageView.isValid()) {
+                                            messageId = messageView.getId();
                                         }
+                                        data.reuse();
                                     }
                                 }
                             } catch (Exception e) {
@@ -1712,6 +2206,7 @@ public class MessagesStorage {
                             }
                             cursor2.dispose();
 
+                            removeFromSearchIndex("uid = " + did + " AND mid != " + last_mid_i + " AND mid != " + last_mid);
                             database.executeFast("DELETE FROM messages WHERE uid = " + did + " AND mid != " + last_mid_i + " AND mid != " + last_mid).stepThis().dispose();
                             database.executeFast("DELETE FROM messages_holes WHERE uid = " + did).stepThis().dispose();
                             database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
@@ -1733,6 +2228,7 @@ public class MessagesStorage {
                     }
 
                     database.executeFast("UPDATE dialogs SET unread_count = 0 WHERE did = " + did).stepThis().dispose();
+                    removeFromSearchIndex("uid = " + did);
                     database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
@@ -1871,6 +2367,7 @@ public class MessagesStorage {
 
                     database.beginTransaction();
                     database.executeFast("DELETE FROM dialogs WHERE did IN " + ids).stepThis().dispose();
+                    removeFromSearchIndex("uid IN " + ids);
                     database.executeFast("DELETE FROM messages WHERE uid IN " + ids).stepThis().dispose();
                     database.executeFast("DELETE FROM bot_keyboard WHERE uid IN " + ids).stepThis().dispose();
                     database.executeFast("DELETE FROM media_counts_v2 WHERE uid IN " + ids).stepThis().dispose();
@@ -1970,8 +2467,7 @@ public class MessagesStorage {
                             continue;
                         }
                         state.requery();
-                        NativeByteBuffer data = new NativeByteBuffer(photo.getObjectSize());
-                        photo.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(photo);
                         state.bindInteger(1, did);
                         state.bindLong(2, photo.id);
                         state.bindByteBuffer(3, data);
@@ -2036,8 +2532,7 @@ public class MessagesStorage {
                         for (int a = 0; a < messages.size(); a++) {
                             TLRPC.Message message = messages.get(a);
 
-                            NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
-                            message.serializeToStream(data);
+                            NativeByteBuffer data = NativeByteBufferPool.serialize(message);
 
                             state.requery();
                             state.bindLong(1, message.id);
@@ -2125,7 +2620,7 @@ public class MessagesStorage {
 
                     database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = read_state | 2 WHERE mid = %d", mid)).stepThis().dispose();
 
-                    SQLiteCursor cursor = database.queryFinalized("SELECT unread_count_i FROM dialogs WHERE did = " + did);
+                    SQLiteCursor cursor = database.queryFinalized("SELECT unread_count_i FROM dialogs WHERE did = ?", did);
                     int old_mentions_count = 0;
                     if (cursor.next()) {
                         old_mentions_count = Math.max(0, cursor.intValue(0) - 1);
@@ -2353,7 +2848,7 @@ public class MessagesStorage {
                         if (cursor.intValue(1) < 2 && cursor.intValue(2) == 0 && cursor.intValue(3) == 1) {
                             Integer unread_count = dialogsToUpdateMentions.get(did);
                             if (unread_count == null) {
-                                SQLiteCursor cursor2 = database.queryFinalized("SELECT unread_count_i FROM dialogs WHERE did = " + did);
+                                SQLiteCursor cursor2 = database.queryFinalized("SELECT unread_count_i FROM dialogs WHERE did = ?", did);
                                 int old_mentions_count = 0;
                                 if (cursor2.next()) {
                                     old_mentions_count = cursor2.intValue(0);
@@ -2489,8 +2984,7 @@ public class MessagesStorage {
                         });
 
                         SQLitePreparedStatement state = database.executeFast("REPLACE INTO chat_settings_v2 VALUES(?, ?, ?)");
-                        NativeByteBuffer data = new NativeByteBuffer(info.getObjectSize());
-                        info.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(info);
                         state.bindInteger(1, info.id);
                         state.bindByteBuffer(2, data);
                         state.bindInteger(3, info.pinned_msg_id);
@@ -2597,8 +3091,7 @@ public class MessagesStorage {
                         currentDate += ((TLRPC.TL_messages_botResults) result).cache_time;
                     }
                     SQLitePreparedStatement state = database.executeFast("REPLACE INTO botcache VALUES(?, ?, ?)");
-                    NativeByteBuffer data = new NativeByteBuffer(result.getObjectSize());
-                    result.serializeToStream(data);
+                    NativeByteBuffer data = NativeByteBufferPool.serialize(result);
                     state.bindString(1, key);
                     state.bindInteger(2, currentDate);
                     state.bindByteBuffer(3, data);
@@ -2620,10 +3113,19 @@ public class MessagesStorage {
         storageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                TLObject result = null;
                 try {
                     database.executeFast("DELETE FROM botcache WHERE date < " + currentDate).stepThis().dispose();
-                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data FROM botcache WHERE id = '%s'", key));
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+            }
+        });
+        postReadRunnable(new Runnable() {
+            @Override
+            public void run() {
+                TLObject result = null;
+                try {
+                    SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data FROM botcache WHERE id = '%s' AND date >= %d", key, currentDate));
                     if (cursor.next()) {
                         try {
                             NativeByteBuffer data = cursor.byteBufferValue(0);
@@ -2665,8 +3167,7 @@ public class MessagesStorage {
                         }
                     }
                     SQLitePreparedStatement state = database.executeFast("REPLACE INTO chat_settings_v2 VALUES(?, ?, ?)");
-                    NativeByteBuffer data = new NativeByteBuffer(info.getObjectSize());
-                    info.serializeToStream(data);
+                    NativeByteBuffer data = NativeByteBufferPool.serialize(info);
                     state.bindInteger(1, info.id);
                     state.bindByteBuffer(2, data);
                     state.bindInteger(3, info.pinned_msg_id);
@@ -2747,8 +3248,7 @@ public class MessagesStorage {
                         });
 
                         SQLitePreparedStatement state = database.executeFast("REPLACE INTO chat_settings_v2 VALUES(?, ?, ?)");
-                        NativeByteBuffer data = new NativeByteBuffer(info.getObjectSize());
-                        info.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(info);
                         state.bindInteger(1, channelId);
                         state.bindByteBuffer(2, data);
                         state.bindInteger(3, info.pinned_msg_id);
@@ -2832,8 +3332,7 @@ public class MessagesStorage {
                         });
 
                         SQLitePreparedStatement state = database.executeFast("REPLACE INTO chat_settings_v2 VALUES(?, ?, ?)");
-                        NativeByteBuffer data = new NativeByteBuffer(info.getObjectSize());
-                        info.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(info);
                         state.bindInteger(1, chat_id);
                         state.bindByteBuffer(2, data);
                         state.bindInteger(3, info.pinned_msg_id);
@@ -2888,14 +3387,15 @@ public class MessagesStorage {
     }
 
     public void loadChatInfo(final int chat_id, final CountDownLatch countDownLatch, final boolean force, final boolean byChannelUsers) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadRunnable(new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase readDatabase = getReadDatabase();
                 MessageObject pinnedMessageObject = null;
                 TLRPC.ChatFull info = null;
                 ArrayList<TLRPC.User> loadedUsers = new ArrayList<>();
                 try {
-                    SQLiteCursor cursor = database.queryFinalized("SELECT info, pinned FROM chat_settings_v2 WHERE uid = " + chat_id);
+                    SQLiteCursor cursor = readDatabase.queryFinalized("SELECT info, pinned FROM chat_settings_v2 WHERE uid = " + chat_id);
                     if (cursor.next()) {
                         NativeByteBuffer data = cursor.byteBufferValue(0);
                         if (data != null) {
@@ -2919,7 +3419,7 @@ public class MessagesStorage {
                             getUsersInternal(usersToLoad.toString(), loadedUsers);
                         }
                     } else if (info instanceof TLRPC.TL_channelFull) {
-                        cursor = database.queryFinalized("SELECT us.data, us.status, cu.data, cu.date FROM channel_users_v2 as cu LEFT JOIN users as us ON us.uid = cu.uid WHERE cu.did = " + (-chat_id) + " ORDER BY cu.date DESC");
+                        cursor = readDatabase.queryFinalized("SELECT us.data, us.status, cu.data, cu.date FROM channel_users_v2 as cu LEFT JOIN users as us ON us.uid = cu.uid WHERE cu.did = " + (-chat_id) + " ORDER BY cu.date DESC");
                         info.participants = new TLRPC.TL_chatParticipants();
                         while (cursor.next()) {
                             try {
@@ -3571,9 +4071,10 @@ public class MessagesStorage {
     }
 
     public void getMessages(final long dialog_id, final int count, final int max_id, final int offset_date, final int minDate, final int classGuid, final int load_type, final boolean isChannel, final int loadIndex) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadRunnable(new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase readDatabase = getReadDatabase();
                 TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
                 int count_unread = 0;
                 int mentions_unread = 0;
@@ -3607,7 +4108,7 @@ public class MessagesStorage {
                     int lower_id = (int) dialog_id;
                     if (lower_id != 0) {
                         if (load_type == 3 && minDate == 0) {
-                            cursor = database.queryFinalized("SELECT inbox_max, unread_count, date, unread_count_i FROM dialogs WHERE did = " + dialog_id);
+                            cursor = readDatabase.queryFinalized("SELECT inbox_max, unread_count, date, unread_count_i FROM dialogs WHERE did = " + dialog_id);
                             if (cursor.next()) {
                                 min_unread_id = cursor.intValue(0) + 1;
                                 count_unread = cursor.intValue(1);
@@ -3617,7 +4118,7 @@ public class MessagesStorage {
                             cursor.dispose();
                         } else if (load_type != 1 && load_type != 3 && load_type != 4 && minDate == 0) {
                             if (load_type == 2) {
-                                cursor = database.queryFinalized("SELECT inbox_max, unread_count, date, unread_count_i FROM dialogs WHERE did = " + dialog_id);
+                                cursor = readDatabase.queryFinalized("SELECT inbox_max, unread_count, date, unread_count_i FROM dialogs WHERE did = " + dialog_id);
                                 if (cursor.next()) {
                                     messageMaxId = max_id_query = min_unread_id = cursor.intValue(0);
                                     count_unread = cursor.intValue(1);
@@ -3630,14 +4131,14 @@ public class MessagesStorage {
                                 }
                                 cursor.dispose();
                                 if (!queryFromServer) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > 0", dialog_id));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > 0", dialog_id));
                                     if (cursor.next()) {
                                         min_unread_id = cursor.intValue(0);
                                         max_unread_date = cursor.intValue(1);
                                     }
                                     cursor.dispose();
                                     if (min_unread_id != 0) {
-                                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid >= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
+                                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid >= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
                                         if (cursor.next()) {
                                             count_unread = cursor.intValue(0);
                                         }
@@ -3645,13 +4146,13 @@ public class MessagesStorage {
                                     }
                                 } else if (max_id_query == 0) {
                                     int existingUnreadCount = 0;
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid > 0 AND out = 0 AND read_state IN(0,2)", dialog_id));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid > 0 AND out = 0 AND read_state IN(0,2)", dialog_id));
                                     if (cursor.next()) {
                                         existingUnreadCount = cursor.intValue(0);
                                     }
                                     cursor.dispose();
                                     if (existingUnreadCount == count_unread) {
-                                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > 0", dialog_id));
+                                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > 0", dialog_id));
                                         if (cursor.next()) {
                                             messageMaxId = max_id_query = min_unread_id = cursor.intValue(0);
                                             if (messageMaxId != 0 && channelId != 0) {
@@ -3661,12 +4162,12 @@ public class MessagesStorage {
                                         cursor.dispose();
                                     }
                                 } else {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT start, end FROM messages_holes WHERE uid = %d AND start < %d AND end > %d", dialog_id, max_id_query, max_id_query));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start, end FROM messages_holes WHERE uid = %d AND start < %d AND end > %d", dialog_id, max_id_query, max_id_query));
                                     boolean containMessage = !cursor.next();
                                     cursor.dispose();
 
                                     if (containMessage) {
-                                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > %d", dialog_id, max_id_query));
+                                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid > %d", dialog_id, max_id_query));
                                         if (cursor.next()) {
                                             messageMaxId = max_id_query = cursor.intValue(0);
                                             if (messageMaxId != 0 && channelId != 0) {
@@ -3693,30 +4194,40 @@ public class MessagesStorage {
                             }
                         }
 
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start IN (0, 1)", dialog_id));
+                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start IN (0, 1)", dialog_id));
                         if (cursor.next()) {
                             isEnd = cursor.intValue(0) == 1;
                             cursor.dispose();
                         } else {
                             cursor.dispose();
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
                                 int mid = cursor.intValue(0);
                                 if (mid != 0) {
-                                    SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_holes VALUES(?, ?, ?)");
-                                    state.requery();
-                                    state.bindLong(1, dialog_id);
-                                    state.bindInteger(2, 0);
-                                    state.bindInteger(3, mid);
-                                    state.step();
-                                    state.dispose();
+                                    final int holeEnd = mid;
+                                    storageQueue.postRunnable(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            try {
+                                                SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_holes VALUES(?, ?, ?)");
+                                                state.requery();
+                                                state.bindLong(1, dialog_id);
+                                                state.bindInteger(2, 0);
+                                                state.bindInteger(3, holeEnd);
+                                                state.step();
+                                                state.dispose();
+                                            } catch (Exception e) {
+                                                FileLog.e(e);
+                                            }
+                                        }
+                                    });
                                 }
                             }
                             cursor.dispose();
                         }
 
                         if (load_type == 3 || load_type == 4 || queryFromServer && load_type == 2) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
                                 last_message_id = cursor.intValue(0);
                             }
@@ -3726,14 +4237,14 @@ public class MessagesStorage {
                                 int startMid;
                                 int endMid;
 
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND date <= %d AND mid > 0", dialog_id, offset_date));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND date <= %d AND mid > 0", dialog_id, offset_date));
                                 if (cursor.next()) {
                                     startMid = cursor.intValue(0);
                                 } else {
                                     startMid = -1;
                                 }
                                 cursor.dispose();
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND date >= %d AND mid > 0", dialog_id, offset_date));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND date >= %d AND mid > 0", dialog_id, offset_date));
                                 if (cursor.next()) {
                                     endMid = cursor.intValue(0);
                                 } else {
@@ -3744,13 +4255,13 @@ public class MessagesStorage {
                                     if (startMid == endMid) {
                                         max_id_query = startMid;
                                     } else {
-                                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start <= %d AND end > %d", dialog_id, startMid, startMid));
+                                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start <= %d AND end > %d", dialog_id, startMid, startMid));
                                         if (cursor.next()) {
                                             startMid = -1;
                                         }
                                         cursor.dispose();
                                         if (startMid != -1) {
-                                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start <= %d AND end > %d", dialog_id, endMid, endMid));
+                                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start <= %d AND end > %d", dialog_id, endMid, endMid));
                                             if (cursor.next()) {
                                                 endMid = -1;
                                             }
@@ -3769,7 +4280,7 @@ public class MessagesStorage {
 
                             boolean containMessage = max_id_query != 0;
                             if (containMessage) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start < %d AND end > %d", dialog_id, max_id_query, max_id_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start < %d AND end > %d", dialog_id, max_id_query, max_id_query));
                                 if (cursor.next()) {
                                     containMessage = false;
                                 }
@@ -3779,7 +4290,7 @@ public class MessagesStorage {
                             if (containMessage) {
                                 long holeMessageMaxId = 0;
                                 long holeMessageMinId = 1;
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start >= %d ORDER BY start ASC LIMIT 1", dialog_id, max_id_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start FROM messages_holes WHERE uid = %d AND start >= %d ORDER BY start ASC LIMIT 1", dialog_id, max_id_query));
                                 if (cursor.next()) {
                                     holeMessageMaxId = cursor.intValue(0);
                                     if (channelId != 0) {
@@ -3787,7 +4298,7 @@ public class MessagesStorage {
                                     }
                                 }
                                 cursor.dispose();
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT end FROM messages_holes WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT end FROM messages_holes WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id_query));
                                 if (cursor.next()) {
                                     holeMessageMinId = cursor.intValue(0);
                                     if (channelId != 0) {
@@ -3806,23 +4317,23 @@ public class MessagesStorage {
                                             holeMessageMaxId |= ((long) channelId) << 32;
                                         }
                                     }
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d AND (m.mid >= %d OR m.mid < 0) ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d AND (m.mid >= %d OR m.mid < 0) ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
                                             "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d AND (m.mid <= %d OR m.mid < 0) ORDER BY m.date ASC, m.mid ASC LIMIT %d)", dialog_id, messageMaxId, holeMessageMinId, count_query / 2, dialog_id, messageMaxId, holeMessageMaxId, count_query / 2));
                                 } else {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
                                             "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.date ASC, m.mid ASC LIMIT %d)", dialog_id, messageMaxId, count_query / 2, dialog_id, messageMaxId, count_query / 2));
                                 }
                             } else {
                                 if (load_type == 2) {
                                     int existingUnreadCount = 0;
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid != 0 AND out = 0 AND read_state IN(0,2)", dialog_id));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid != 0 AND out = 0 AND read_state IN(0,2)", dialog_id));
                                     if (cursor.next()) {
                                         existingUnreadCount = cursor.intValue(0);
                                     }
                                     cursor.dispose();
                                     if (existingUnreadCount == count_unread) {
                                         unreadCountIsLocal = true;
-                                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
+                                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
                                                 "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.date ASC, m.mid ASC LIMIT %d)", dialog_id, messageMaxId, count_query / 2, dialog_id, messageMaxId, count_query / 2));
                                     } else {
                                         cursor = null;
@@ -3833,7 +4344,7 @@ public class MessagesStorage {
                             }
                         } else if (load_type == 1) {
                             long holeMessageId = 0;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT start, end FROM messages_holes WHERE uid = %d AND start >= %d AND start != 1 AND end != 1 ORDER BY start ASC LIMIT 1", dialog_id, max_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT start, end FROM messages_holes WHERE uid = %d AND start >= %d AND start != 1 AND end != 1 ORDER BY start ASC LIMIT 1", dialog_id, max_id));
                             if (cursor.next()) {
                                 holeMessageId = cursor.intValue(0);
                                 if (channelId != 0) {
@@ -3842,14 +4353,14 @@ public class MessagesStorage {
                             }
                             cursor.dispose();
                             if (holeMessageId != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d AND m.mid <= %d ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d AND m.mid <= %d ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
                             }
                         } else if (minDate != 0) {
                             if (messageMaxId != 0) {
                                 long holeMessageId = 0;
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT end FROM messages_holes WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT end FROM messages_holes WHERE uid = %d AND end <= %d ORDER BY end DESC LIMIT 1", dialog_id, max_id));
                                 if (cursor.next()) {
                                     holeMessageId = cursor.intValue(0);
                                     if (channelId != 0) {
@@ -3858,22 +4369,22 @@ public class MessagesStorage {
                                 }
                                 cursor.dispose();
                                 if (holeMessageId != 0) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d AND (m.mid >= %d OR m.mid < 0) ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d AND (m.mid >= %d OR m.mid < 0) ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, holeMessageId, count_query));
                                 } else {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, messageMaxId, count_query));
                                 }
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
                             }
                         } else {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
                                 last_message_id = cursor.intValue(0);
                             }
                             cursor.dispose();
 
                             long holeMessageId = 0;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(end) FROM messages_holes WHERE uid = %d", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT max(end) FROM messages_holes WHERE uid = %d", dialog_id));
                             if (cursor.next()) {
                                 holeMessageId = cursor.intValue(0);
                                 if (channelId != 0) {
@@ -3882,23 +4393,23 @@ public class MessagesStorage {
                             }
                             cursor.dispose();
                             if (holeMessageId != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND (m.mid >= %d OR m.mid < 0) ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, holeMessageId, offset_query, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND (m.mid >= %d OR m.mid < 0) ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, holeMessageId, offset_query, count_query));
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, offset_query, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, offset_query, count_query));
                             }
                         }
                     } else {
                         isEnd = true;
 
                         if (load_type == 3 && minDate == 0) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
                             if (cursor.next()) {
                                 min_unread_id = cursor.intValue(0);
                             }
                             cursor.dispose();
 
                             int min_unread_id2 = 0;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid < 0", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid < 0", dialog_id));
                             if (cursor.next()) {
                                 min_unread_id2 = cursor.intValue(0);
                                 max_unread_date = cursor.intValue(1);
@@ -3906,7 +4417,7 @@ public class MessagesStorage {
                             cursor.dispose();
                             if (min_unread_id2 != 0) {
                                 min_unread_id = min_unread_id2;
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid <= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id2));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid <= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id2));
                                 if (cursor.next()) {
                                     count_unread = cursor.intValue(0);
                                 }
@@ -3915,38 +4426,38 @@ public class MessagesStorage {
                         }
 
                         if (load_type == 3 || load_type == 4) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
                             if (cursor.next()) {
                                 last_message_id = cursor.intValue(0);
                             }
                             cursor.dispose();
 
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.mid DESC LIMIT %d) UNION " +
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.mid DESC LIMIT %d) UNION " +
                                             "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.mid ASC LIMIT %d)", dialog_id, messageMaxId, count_query / 2, dialog_id, messageMaxId, count_query / 2));
                         } else if (load_type == 1) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid < %d ORDER BY m.mid DESC LIMIT %d", dialog_id, max_id, count_query));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid < %d ORDER BY m.mid DESC LIMIT %d", dialog_id, max_id, count_query));
                         } else if (minDate != 0) {
                             if (max_id != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.mid ASC LIMIT %d", dialog_id, max_id, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.mid ASC LIMIT %d", dialog_id, max_id, count_query));
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
                             }
                         } else {
                             if (load_type == 2) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
                                 if (cursor.next()) {
                                     last_message_id = cursor.intValue(0);
                                 }
                                 cursor.dispose();
 
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid < 0", dialog_id));
+                                cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state IN(0,2) AND mid < 0", dialog_id));
                                 if (cursor.next()) {
                                     min_unread_id = cursor.intValue(0);
                                     max_unread_date = cursor.intValue(1);
                                 }
                                 cursor.dispose();
                                 if (min_unread_id != 0) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid <= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
+                                    cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid <= %d AND out = 0 AND read_state IN(0,2)", dialog_id, min_unread_id));
                                     if (cursor.next()) {
                                         count_unread = cursor.intValue(0);
                                     }
@@ -3965,22 +4476,27 @@ public class MessagesStorage {
                                 offset_query = count_unread - count_query;
                                 count_query += 10;
                             }
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, offset_query, count_query));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata, m.media, m.ttl, m.mention FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, offset_query, count_query));
                         }
                     }
                     int minId = Integer.MAX_VALUE;
                     int maxId = Integer.MIN_VALUE;
                     if (cursor != null) {
+                        int clientUserId = UserConfig.getInstance(currentAccount).clientUserId;
+                        MessageView messageView = new MessageView();
                         while (cursor.next()) {
                             NativeByteBuffer data = cursor.byteBufferValue(1);
                             if (data != null) {
-                                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                message.send_state = cursor.intValue(2);
-                                if (message.id > 0 && message.send_state != 0 && message.send_state != 3) {
-                                    message.send_state = 0;
+                                messageView.reset(data);
+                                int send_state = cursor.intValue(2);
+                                if (cursor.intValue(3) > 0 && send_state != 0 && send_state != 3) {
+                                    send_state = 0;
                                 }
-                                message.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                                TLRPC.Message message = messageView.getMessage(clientUserId, send_state);
                                 data.reuse();
+                                if (message == null) {
+                                    continue;
+                                }
                                 MessageObject.setUnreadFlags(message, cursor.intValue(0));
                                 message.id = cursor.intValue(3);
                                 if (message.id > 0) {
@@ -4006,8 +4522,8 @@ public class MessagesStorage {
                                     if (!cursor.isNull(6)) {
                                         data = cursor.byteBufferValue(6);
                                         if (data != null) {
-                                            message.replyMessage = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                            message.replyMessage.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                                            messageView.reset(data);
+                                            message.replyMessage = messageView.getMessage(clientUserId);
                                             data.reuse();
                                             if (message.replyMessage != null) {
                                                 if (MessageObject.isMegagroup(message)) {
@@ -4050,7 +4566,7 @@ public class MessagesStorage {
                                 }
                                 if (MessageObject.isSecretPhotoOrVideo(message)) {
                                     try {
-                                        SQLiteCursor cursor2 = database.queryFinalized(String.format(Locale.US, "SELECT date FROM enc_tasks_v2 WHERE mid = %d", message.id));
+                                        SQLiteCursor cursor2 = readDatabase.queryFinalized(String.format(Locale.US, "SELECT date FROM enc_tasks_v2 WHERE mid = %d", message.id));
                                         if (cursor2.next()) {
                                             message.destroyTime = cursor2.intValue(0);
                                         }
@@ -4105,16 +4621,23 @@ public class MessagesStorage {
                     }
                     if (!replyMessages.isEmpty()) {
                         if (replyMessageOwners.size() > 0) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, mid, date FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT data, mid, date FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
                         } else {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.data, m.mid, m.date, r.random_id FROM randoms as r INNER JOIN messages as m ON r.mid = m.mid WHERE r.random_id IN(%s)", TextUtils.join(",", replyMessages)));
+                            cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT m.data, m.mid, m.date, r.random_id FROM randoms as r INNER JOIN messages as m ON r.mid = m.mid WHERE r.random_id IN(%s)", TextUtils.join(",", replyMessages)));
                         }
+                        MessageView messageView = new MessageView();
                         while (cursor.next()) {
+                            if (replyMessageOwners.size() > 0 ? replyMessageOwners.get(cursor.intValue(1)) == null : replyMessageRandomOwners.get(cursor.longValue(3)) == null) {
+                                continue;
+                            }
                             NativeByteBuffer data = cursor.byteBufferValue(0);
                             if (data != null) {
-                                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                message.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                                messageView.reset(data);
+                                TLRPC.Message message = messageView.getMessage(UserConfig.getInstance(currentAccount).clientUserId);
                                 data.reuse();
+                                if (message == null) {
+                                    continue;
+                                }
                                 message.id = cursor.intValue(1);
                                 message.date = cursor.intValue(2);
                                 message.dialog_id = dialog_id;
@@ -4161,7 +4684,7 @@ public class MessagesStorage {
                     }
 
                     if (mentions_unread != 0) {
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(mid) FROM messages WHERE uid = %d AND mention = 1 AND read_state IN(0, 1)", dialog_id));
+                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT COUNT(mid) FROM messages WHERE uid = %d AND mention = 1 AND read_state IN(0, 1)", dialog_id));
                         if (cursor.next()) {
                             if (mentions_unread != cursor.intValue(0)) {
                                 mentions_unread *= -1;
@@ -4271,8 +4794,7 @@ public class MessagesStorage {
                         }
                         state = database.executeFast("REPLACE INTO sent_files_v2 VALUES(?, ?, ?)");
                         state.requery();
-                        NativeByteBuffer data = new NativeByteBuffer(messageMedia.getObjectSize());
-                        messageMedia.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(messageMedia);
                         state.bindString(1, id);
                         state.bindInteger(2, type);
                         state.bindByteBuffer(3, data);
@@ -4536,7 +5058,7 @@ public class MessagesStorage {
                     chat.serializeToStream(data);
                     state.bindInteger(1, chat.id);
                     state.bindInteger(2, user.id);
-                    state.bindString(3, formatUserSearchName(user));
+                    state.bindString(3, PeerNameIndex.formatUserSearchName(user));
                     state.bindByteBuffer(4, data);
                     if (chat.a_or_b != null) {
                         data2.writeBytes(chat.a_or_b);
@@ -4597,24 +5119,6 @@ public class MessagesStorage {
         });
     }
 
-    private String formatUserSearchName(TLRPC.User user) {
-        StringBuilder str = new StringBuilder("");
-        if (user.first_name != null && user.first_name.length() > 0) {
-            str.append(user.first_name);
-        }
-        if (user.last_name != null && user.last_name.length() > 0) {
-            if (str.length() > 0) {
-                str.append(" ");
-            }
-            str.append(user.last_name);
-        }
-        str.append(";;;");
-        if (user.username != null && user.username.length() > 0) {
-            str.append(user.username);
-        }
-        return str.toString().toLowerCase();
-    }
-
     private void putUsersInternal(ArrayList<TLRPC.User> users) throws Exception {
         if (users == null || users.isEmpty()) {
             return;
@@ -4655,10 +5159,9 @@ public class MessagesStorage {
                 cursor.dispose();
             }
             state.requery();
-            NativeByteBuffer data = new NativeByteBuffer(user.getObjectSize());
-            user.serializeToStream(data);
+            NativeByteBuffer data = NativeByteBufferPool.serialize(user);
             state.bindInteger(1, user.id);
-            state.bindString(2, formatUserSearchName(user));
+            state.bindString(2, PeerNameIndex.formatUserSearchName(user));
             if (user.status != null) {
                 if (user.status instanceof TLRPC.TL_userStatusRecently) {
                     user.status.expires = -100;
@@ -4717,8 +5220,7 @@ public class MessagesStorage {
                 cursor.dispose();
             }
             state.requery();
-            NativeByteBuffer data = new NativeByteBuffer(chat.getObjectSize());
-            chat.serializeToStream(data);
+            NativeByteBuffer data = NativeByteBufferPool.serialize(chat);
             state.bindInteger(1, chat.id);
             if (chat.title != null) {
                 String name = chat.title.toLowerCase();
@@ -4737,7 +5239,7 @@ public class MessagesStorage {
         if (usersToLoad == null || usersToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", usersToLoad));
+        SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", usersToLoad));
         while (cursor.next()) {
             try {
                 NativeByteBuffer data = cursor.byteBufferValue(0);
@@ -4762,7 +5264,7 @@ public class MessagesStorage {
         if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", chatsToLoad));
+        SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", chatsToLoad));
         while (cursor.next()) {
             try {
                 NativeByteBuffer data = cursor.byteBufferValue(0);
@@ -4784,7 +5286,7 @@ public class MessagesStorage {
         if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, user, g, authkey, ttl, layer, seq_in, seq_out, use_count, exchange_id, key_date, fprint, fauthkey, khash, in_seq_no, admin_id, mtproto_seq FROM enc_chats WHERE uid IN(%s)", chatsToLoad));
+        SQLiteCursor cursor = getReadDatabase().queryFinalized(String.format(Locale.US, "SELECT data, user, g, authkey, ttl, layer, seq_in, seq_out, use_count, exchange_id, key_date, fprint, fauthkey, khash, in_seq_no, admin_id, mtproto_seq FROM enc_chats WHERE uid IN(%s)", chatsToLoad));
         while (cursor.next()) {
             try {
                 NativeByteBuffer data = cursor.byteBufferValue(0);
@@ -5006,8 +5508,7 @@ public class MessagesStorage {
                     SQLitePreparedStatement state2 = database.executeFast("UPDATE media_v2 SET data = ? WHERE mid = ?");
                     for (int a = 0; a < messages.size(); a++) {
                         TLRPC.Message message = messages.get(a);
-                        NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
-                        message.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(message);
 
                         long messageId = message.id;
                         if (message.to_id.channel_id != 0) {
@@ -5053,7 +5554,7 @@ public class MessagesStorage {
                     final long did = -channel_id;
                     int pinned = 0;
 
-                    SQLiteCursor cursor = database.queryFinalized("SELECT pts, pinned FROM dialogs WHERE did = " + did);
+                    SQLiteCursor cursor = database.queryFinalized("SELECT pts, pinned FROM dialogs WHERE did = ?", did);
                     if (!cursor.next()) {
                         if (newDialogType != 0) {
                             checkInvite = true;
@@ -5064,6 +5565,7 @@ public class MessagesStorage {
                     cursor.dispose();
 
 
+                    removeFromSearchIndex("uid = " + did);
                     database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
@@ -5193,16 +5695,9 @@ public class MessagesStorage {
             LongSparseArray<Long> messagesIdsMap = new LongSparseArray<>();
             LongSparseArray<Long> mentionsIdsMap = new LongSparseArray<>();
 
-            SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL, ?, ?)");
-            SQLitePreparedStatement state2 = null;
-            SQLitePreparedStatement state3 = database.executeFast("REPLACE INTO randoms VALUES(?, ?)");
-            SQLitePreparedStatement state4 = database.executeFast("REPLACE INTO download_queue VALUES(?, ?, ?, ?)");
-            SQLitePreparedStatement state5 = database.executeFast("REPLACE INTO webpage_pending VALUES(?, ?)");
-
+            StringBuilder dialogIds = new StringBuilder();
             for (int a = 0; a < messages.size(); a++) {
                 TLRPC.Message message = messages.get(a);
-
-                long messageId = message.id;
                 if (message.dialog_id == 0) {
                     if (message.to_id.user_id != 0) {
                         message.dialog_id = message.to_id.user_id;
@@ -5212,6 +5707,26 @@ public class MessagesStorage {
                         message.dialog_id = -message.to_id.channel_id;
                     }
                 }
+                if (dialogsReadMax.indexOfKey(message.dialog_id) < 0) {
+                    if (dialogIds.length() > 0) {
+                        dialogIds.append(",");
+                    }
+                    dialogIds.append(message.dialog_id);
+                    dialogsReadMax.put(message.dialog_id, 0);
+                }
+            }
+            if (dialogIds.length() > 0) {
+                SQLiteCursor cursor = database.queryFinalized("SELECT did, inbox_max FROM dialogs WHERE did IN(" + dialogIds.toString() + ")");
+                while (cursor.next()) {
+                    dialogsReadMax.put(cursor.longValue(0), cursor.intValue(1));
+                }
+                cursor.dispose();
+            }
+
+            for (int a = 0; a < messages.size(); a++) {
+                TLRPC.Message message = messages.get(a);
+
+                long messageId = message.id;
                 if (message.to_id.channel_id != 0) {
                     messageId |= ((long) message.to_id.channel_id) << 32;
                 }
@@ -5219,17 +5734,8 @@ public class MessagesStorage {
                     mentionsIdsMap.put(messageId, message.dialog_id);
                 }
 
-                if (!(message.action instanceof TLRPC.TL_messageActionHistoryClear) && !MessageObject.isOut(message) && (message.id > 0 || MessageObject.isUnread(message))) {Integer currentMaxId = dialogsReadMax.get(message.dialog_id);
-                    if (currentMaxId == null) {
-                        SQLiteCursor cursor = database.queryFinalized("SELECT inbox_max FROM dialogs WHERE did = " + message.dialog_id);
-                        if (cursor.next()) {
-                            currentMaxId = cursor.intValue(0);
-                        } else {
-                            currentMaxId = 0;
-                        }
-                        cursor.dispose();
-                        dialogsReadMax.put(message.dialog_id, currentMaxId);
-                    }
+                if (!(message.action instanceof TLRPC.TL_messageActionHistoryClear) && !MessageObject.isOut(message) && (message.id > 0 || MessageObject.isUnread(message))) {
+                    int currentMaxId = dialogsReadMax.get(message.dialog_id);
                     if (message.id < 0 || currentMaxId < message.id) {
                         if (messageIds.length() > 0) {
                             messageIds.append(",");
@@ -5321,147 +5827,205 @@ public class MessagesStorage {
             }
 
             int downloadMediaMask = 0;
-            for (int a = 0; a < messages.size(); a++) {
-                TLRPC.Message message = messages.get(a);
-                fixUnsupportedMedia(message);
+            SQLiteBatchStatement messagesBatch = new SQLiteBatchStatement(database, "REPLACE INTO messages VALUES", "(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL, ?, ?)", 11);
+            SQLiteBatchStatement randomsBatch = new SQLiteBatchStatement(database, "REPLACE INTO randoms VALUES", "(?, ?)", 2);
+            SQLiteBatchStatement mediaBatch = new SQLiteBatchStatement(database, "REPLACE INTO media_v2 VALUES", "(?, ?, ?, ?, ?)", 5);
+            SQLitePreparedStatement state4 = database.executeFast("REPLACE INTO download_queue VALUES(?, ?, ?, ?)");
+            SQLitePreparedStatement state5 = database.executeFast("REPLACE INTO webpage_pending VALUES(?, ?)");
+            int batchSize = messagesBatch.getMaxRows();
+            NativeByteBuffer[] buffers = new NativeByteBuffer[batchSize];
+            long[] batchIds = new long[batchSize];
+            LongSparseArray<String> searchTexts = new LongSparseArray<>(batchSize);
+            for (int offset = 0; offset < messages.size(); offset += batchSize) {
+                int count = Math.min(batchSize, messages.size() - offset);
+                int randomsCount = 0;
+                int mediaCount = 0;
+                for (int a = 0; a < count; a++) {
+                    TLRPC.Message message = messages.get(offset + a);
+                    fixUnsupportedMedia(message);
 
-                state.requery();
-                long messageId = message.id;
-                if (message.local_id != 0) {
-                    messageId = message.local_id;
-                }
-                if (message.to_id.channel_id != 0) {
-                    messageId |= ((long) message.to_id.channel_id) << 32;
-                }
+                    long messageId = message.id;
+                    if (message.local_id != 0) {
+                        messageId = message.local_id;
+                    }
+                    if (message.to_id.channel_id != 0) {
+                        messageId |= ((long) message.to_id.channel_id) << 32;
+                    }
+                    batchIds[a] = messageId;
+                    buffers[a] = NativeByteBufferPool.serialize(message);
+                    if (message.random_id != 0) {
+                        randomsCount++;
+                    }
+                    if (DataQuery.canAddMessageToMedia(message)) {
+                        mediaCount++;
+                    }
 
-                NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
-                message.serializeToStream(data);
+                    boolean updateDialog = true;
+                    if (message.action != null && message.action instanceof TLRPC.TL_messageEncryptedAction && !(message.action.encryptedAction instanceof TLRPC.TL_decryptedMessageActionSetMessageTTL || message.action.encryptedAction instanceof TLRPC.TL_decryptedMessageActionScreenshotMessages)) {
+                        updateDialog = false;
+                    }
 
-                boolean updateDialog = true;
-                if (message.action != null && message.action instanceof TLRPC.TL_messageEncryptedAction && !(message.action.encryptedAction instanceof TLRPC.TL_decryptedMessageActionSetMessageTTL || message.action.encryptedAction instanceof TLRPC.TL_decryptedMessageActionScreenshotMessages)) {
-                    updateDialog = false;
-                }
+                    if (updateDialog) {
+                        TLRPC.Message lastMessage = messagesMap.get(message.dialog_id);
+                        if (lastMessage == null || message.date > lastMessage.date || message.id > 0 && lastMessage.id > 0 && message.id > lastMessage.id || message.id < 0 && lastMessage.id < 0 && message.id < lastMessage.id) {
+                            messagesMap.put(message.dialog_id, message);
+                        }
+                    }
 
-                if (updateDialog) {
-                    TLRPC.Message lastMessage = messagesMap.get(message.dialog_id);
-                    if (lastMessage == null || message.date > lastMessage.date || message.id > 0 && lastMessage.id > 0 && message.id > lastMessage.id || message.id < 0 && lastMessage.id < 0 && message.id < lastMessage.id) {
-                        messagesMap.put(message.dialog_id, message);
+                    if (message.media instanceof TLRPC.TL_messageMediaWebPage) {
+                        state5.requery();
+                        state5.bindLong(1, message.media.webpage.id);
+                        state5.bindLong(2, messageId);
+                        state5.step();
+                    }
+
+                    if (downloadMask != 0 && (message.to_id.channel_id == 0 || message.post) && message.date >= ConnectionsManager.getInstance(currentAccount).getCurrentTime() - 60 * 60 && DownloadController.getInstance(currentAccount).canDownloadMedia(message)) {
+                        if (message.media instanceof TLRPC.TL_messageMediaPhoto || message.media instanceof TLRPC.TL_messageMediaDocument) {
+                            int type = 0;
+                            long id = 0;
+                            TLRPC.MessageMedia object = null;
+                            if (MessageObject.isVoiceMessage(message)) {
+                                id = message.media.document.id;
+                                type = DownloadController.AUTODOWNLOAD_MASK_AUDIO;
+                                object = new TLRPC.TL_messageMediaDocument();
+                                object.document = message.media.document;
+                                object.flags |= 1;
+                            } else if (MessageObject.isRoundVideoMessage(message)) {
+                                id = message.media.document.id;
+                                type = DownloadController.AUTODOWNLOAD_MASK_VIDEOMESSAGE;
+                                object = new TLRPC.TL_messageMediaDocument();
+                                object.document = message.media.document;
+                                object.flags |= 1;
+                            } else if (message.media instanceof TLRPC.TL_messageMediaPhoto) {
+                                TLRPC.PhotoSize photoSize = FileLoader.getClosestPhotoSizeWithSize(message.media.photo.sizes, AndroidUtilities.getPhotoSize());
+                                if (photoSize != null) {
+                                    id = message.media.photo.id;
+                                    type = DownloadController.AUTODOWNLOAD_MASK_PHOTO;
+                                    object = new TLRPC.TL_messageMediaPhoto();
+                                    object.photo = message.media.photo;
+                                    object.flags |= 1;
+                                }
+                            } else if (MessageObject.isVideoMessage(message)) {
+                                id = message.media.document.id;
+                                type = DownloadController.AUTODOWNLOAD_MASK_VIDEO;
+                                object = new TLRPC.TL_messageMediaDocument();
+                                object.document = message.media.document;
+                                object.flags |= 1;
+                            } else if (message.media instanceof TLRPC.TL_messageMediaDocument && !MessageObject.isMusicMessage(message) && !MessageObject.isGifDocument(message.media.document)) {
+                                id = message.media.document.id;
+                                type = DownloadController.AUTODOWNLOAD_MASK_DOCUMENT;
+                                object = new TLRPC.TL_messageMediaDocument();
+                                object.document = message.media.document;
+                                object.flags |= 1;
+                            }
+                            if (object != null) {
+                                if (message.media.ttl_seconds != 0) {
+                                    object.ttl_seconds = message.media.ttl_seconds;
+                                    object.flags |= 4;
+                                }
+                                downloadMediaMask |= type;
+                                state4.requery();
+                                NativeByteBuffer data = NativeByteBufferPool.serialize(object);
+                                state4.bindLong(1, id);
+                                state4.bindInteger(2, type);
+                                state4.bindInteger(3, message.date);
+                                state4.bindByteBuffer(4, data);
+                                state4.step();
+                                data.reuse();
+                            }
+                        }
                     }
                 }
 
-                state.bindLong(1, messageId);
-                state.bindLong(2, message.dialog_id);
-                state.bindInteger(3, MessageObject.getUnreadFlags(message));
-                state.bindInteger(4, message.send_state);
-                state.bindInteger(5, message.date);
-                state.bindByteBuffer(6, data);
-                state.bindInteger(7, (MessageObject.isOut(message) ? 1 : 0));
-                state.bindInteger(8, message.ttl);
-                if ((message.flags & TLRPC.MESSAGE_FLAG_HAS_VIEWS) != 0) {
-                    state.bindInteger(9, message.views);
-                } else {
-                    state.bindInteger(9, getMessageMediaType(message));
+                SQLitePreparedStatement state = messagesBatch.obtain(count);
+                int index = 1;
+                for (int a = 0; a < count; a++) {
+                    TLRPC.Message message = messages.get(offset + a);
+                    state.bindLong(index++, batchIds[a]);
+                    state.bindLong(index++, message.dialog_id);
+                    state.bindInteger(index++, MessageObject.getUnreadFlags(message));
+                    state.bindInteger(index++, message.send_state);
+                    state.bindInteger(index++, message.date);
+                    state.bindByteBuffer(index++, buffers[a]);
+                    state.bindInteger(index++, (MessageObject.isOut(message) ? 1 : 0));
+                    state.bindInteger(index++, message.ttl);
+                    if ((message.flags & TLRPC.MESSAGE_FLAG_HAS_VIEWS) != 0) {
+                        state.bindInteger(index++, message.views);
+                    } else {
+                        state.bindInteger(index++, getMessageMediaType(message));
+                    }
+                    state.bindInteger(index++, 0);
+                    state.bindInteger(index++, message.mentioned ? 1 : 0);
                 }
-                state.bindInteger(10, 0);
-                state.bindInteger(11, message.mentioned ? 1 : 0);
                 state.step();
 
-                if (message.random_id != 0) {
-                    state3.requery();
-                    state3.bindLong(1, message.random_id);
-                    state3.bindLong(2, messageId);
+                if (randomsCount != 0) {
+                    SQLitePreparedStatement state3 = randomsBatch.obtain(randomsCount);
+                    index = 1;
+                    for (int a = 0; a < count; a++) {
+                        TLRPC.Message message = messages.get(offset + a);
+                        if (message.random_id != 0) {
+                            state3.bindLong(index++, message.random_id);
+                            state3.bindLong(index++, batchIds[a]);
+                        }
+                    }
                     state3.step();
                 }
 
-                if (DataQuery.canAddMessageToMedia(message)) {
-                    if (state2 == null) {
-                        state2 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
+                if (mediaCount != 0) {
+                    SQLitePreparedStatement state2 = mediaBatch.obtain(mediaCount);
+                    index = 1;
+                    for (int a = 0; a < count; a++) {
+                        TLRPC.Message message = messages.get(offset + a);
+                        if (DataQuery.canAddMessageToMedia(message)) {
+                            state2.bindLong(index++, batchIds[a]);
+                            state2.bindLong(index++, message.dialog_id);
+                            state2.bindInteger(index++, message.date);
+                            state2.bindInteger(index++, DataQuery.getMediaType(message));
+                            state2.bindByteBuffer(index++, buffers[a]);
+                        }
                     }
-                    state2.requery();
-                    state2.bindLong(1, messageId);
-                    state2.bindLong(2, message.dialog_id);
-                    state2.bindInteger(3, message.date);
-                    state2.bindInteger(4, DataQuery.getMediaType(message));
-                    state2.bindByteBuffer(5, data);
                     state2.step();
                 }
 
-                if (message.media instanceof TLRPC.TL_messageMediaWebPage) {
-                    state5.requery();
-                    state5.bindLong(1, message.media.webpage.id);
-                    state5.bindLong(2, messageId);
-                    state5.step();
+                if (searchIndexAvailable) {
+                    //keyed by id, so a message put twice in one batch is indexed once with its last text
+                    searchTexts.clear();
+                    for (int a = 0; a < count; a++) {
+                        searchTexts.put(batchIds[a], MessagesSearchIndex.getIndexText(messages.get(offset + a)));
+                    }
+                    try {
+                        updateSearchIndex(searchTexts);
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
                 }
 
-                data.reuse();
-
-                if (downloadMask != 0 && (message.to_id.channel_id == 0 || message.post) && message.date >= ConnectionsManager.getInstance(currentAccount).getCurrentTime() - 60 * 60 && DownloadController.getInstance(currentAccount).canDownloadMedia(message)) {
-                    if (message.media instanceof TLRPC.TL_messageMediaPhoto || message.media instanceof TLRPC.TL_messageMediaDocument) {
-                        int type = 0;
-                        long id = 0;
-                        TLRPC.MessageMedia object = null;
-                        if (MessageObject.isVoiceMessage(message)) {
-                            id = message.media.document.id;
-                            type = DownloadController.AUTODOWNLOAD_MASK_AUDIO;
-                            object = new TLRPC.TL_messageMediaDocument();
-                            object.document = message.media.document;
-                            object.flags |= 1;
-                        } else if (MessageObject.isRoundVideoMessage(message)) {
-                            id = message.media.document.id;
-                            type = DownloadController.AUTODOWNLOAD_MASK_VIDEOMESSAGE;
-                            object = new TLRPC.TL_messageMediaDocument();
-                            object.document = message.media.document;
-                            object.flags |= 1;
-                        } else if (message.media instanceof TLRPC.TL_messageMediaPhoto) {
-                            TLRPC.PhotoSize photoSize = FileLoader.getClosestPhotoSizeWithSize(message.media.photo.sizes, AndroidUtilities.getPhotoSize());
-                            if (photoSize != null) {
-                                id = message.media.photo.id;
-                                type = DownloadController.AUTODOWNLOAD_MASK_PHOTO;
-                                object = new TLRPC.TL_messageMediaPhoto();
-                                object.photo = message.media.photo;
-                                object.flags |= 1;
-                            }
-                        } else if (MessageObject.isVideoMessage(message)) {
-                            id = message.media.document.id;
-                            type = DownloadController.AUTODOWNLOAD_MASK_VIDEO;
-                            object = new TLRPC.TL_messageMediaDocument();
-                            object.document = message.media.document;
-                            object.flags |= 1;
-                        } else if (message.media instanceof TLRPC.TL_messageMediaDocument && !MessageObject.isMusicMessage(message) && !MessageObject.isGifDocument(message.media.document)) {
-                            id = message.media.document.id;
-                            type = DownloadController.AUTODOWNLOAD_MASK_DOCUMENT;
-                            object = new TLRPC.TL_messageMediaDocument();
-                            object.document = message.media.document;
-                            object.flags |= 1;
-                        }
-                        if (object != null) {
-                            if (message.media.ttl_seconds != 0) {
-                                object.ttl_seconds = message.media.ttl_seconds;
-                                object.flags |= 4;
-                            }
-                            downloadMediaMask |= type;
-                            state4.requery();
-                            data = new NativeByteBuffer(object.getObjectSize());
-                            object.serializeToStream(data);
-                            state4.bindLong(1, id);
-                            state4.bindInteger(2, type);
-                            state4.bindInteger(3, message.date);
-                            state4.bindByteBuffer(4, data);
-                            state4.step();
-                            data.reuse();
-                        }
-                    }
+                for (int a = 0; a < count; a++) {
+                    buffers[a].reuse();
+                    buffers[a] = null;
                 }
             }
-            state.dispose();
-            if (state2 != null) {
-                state2.dispose();
-            }
-            state3.dispose();
+            messagesBatch.dispose();
+            randomsBatch.dispose();
+            mediaBatch.dispose();
             state4.dispose();
             state5.dispose();
 
-            state = database.executeFast("REPLACE INTO dialogs VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            LongSparseArray<int[]> dialogsInfo = new LongSparseArray<>();
+            if (messagesMap.size() != 0) {
+                SQLiteCursor cursor = database.queryFinalized("SELECT did, date, unread_count, pts, last_mid, inbox_max, outbox_max, pinned, unread_count_i, flags FROM dialogs WHERE did IN(" + dialogIds.toString() + ")");
+                while (cursor.next()) {
+                    int[] info = new int[9];
+                    for (int b = 0; b < info.length; b++) {
+                        info[b] = cursor.intValue(b + 1);
+                    }
+                    dialogsInfo.put(cursor.longValue(0), info);
+                }
+                cursor.dispose();
+            }
+
+            SQLitePreparedStatement state = database.executeFast("REPLACE INTO dialogs VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
 
             for (int a = 0; a < messagesMap.size(); a++) {
                 long key = messagesMap.keyAt(a);
@@ -5475,7 +6039,7 @@ public class MessagesStorage {
                     channelId = message.to_id.channel_id;
                 }
 
-                SQLiteCursor cursor = database.queryFinalized("SELECT date, unread_count, pts, last_mid, inbox_max, outbox_max, pinned, unread_count_i, flags FROM dialogs WHERE did = " + key);
+                int[] info = dialogsInfo.get(key);
                 int dialog_date = 0;
                 int last_mid = 0;
                 int old_unread_count = 0;
@@ -5485,20 +6049,19 @@ public class MessagesStorage {
                 int pinned = 0;
                 int old_mentions_count = 0;
                 int flags = 0;
-                if (cursor.next()) {
-                    dialog_date = cursor.intValue(0);
-                    old_unread_count = cursor.intValue(1);
-                    pts = cursor.intValue(2);
-                    last_mid = cursor.intValue(3);
-                    inbox_max = cursor.intValue(4);
-                    outbox_max = cursor.intValue(5);
-                    pinned = cursor.intValue(6);
-                    old_mentions_count = cursor.intValue(7);
-                    flags = cursor.intValue(8);
+                if (info != null) {
+                    dialog_date = info[0];
+                    old_unread_count = info[1];
+                    pts = info[2];
+                    last_mid = info[3];
+                    inbox_max = info[4];
+                    outbox_max = info[5];
+                    pinned = info[6];
+                    old_mentions_count = info[7];
+                    flags = info[8];
                 } else if (channelId != 0) {
                     MessagesController.getInstance(currentAccount).checkChannelInviter(channelId);
                 }
-                cursor.dispose();
 
                 Integer mentions_count = mentionCounts.get(key);
                 Integer unread_count = messagesCounts.get(key);
@@ -5545,7 +6108,36 @@ public class MessagesStorage {
             state.dispose();
 
             if (mediaCounts != null) {
-                state3 = database.executeFast("REPLACE INTO media_counts_v2 VALUES(?, ?, ?)");
+                StringBuilder uids = new StringBuilder();
+                LongSparseArray<Boolean> uidsMap = new LongSparseArray<>();
+                for (int a = 0; a < mediaCounts.size(); a++) {
+                    LongSparseArray<Integer> value = mediaCounts.valueAt(a);
+                    for (int b = 0; b < value.size(); b++) {
+                        long uid = value.keyAt(b);
+                        if (uidsMap.indexOfKey(uid) < 0) {
+                            uidsMap.put(uid, true);
+                            if (uids.length() > 0) {
+                                uids.append(",");
+                            }
+                            uids.append(uid);
+                        }
+                    }
+                }
+                SparseArray<LongSparseArray<Integer>> oldMediaCounts = new SparseArray<>();
+                if (uids.length() > 0) {
+                    SQLiteCursor cursor = database.queryFinalized("SELECT uid, type, count FROM media_counts_v2 WHERE uid IN(" + uids.toString() + ")");
+                    while (cursor.next()) {
+                        int type = cursor.intValue(1);
+                        LongSparseArray<Integer> counts = oldMediaCounts.get(type);
+                        if (counts == null) {
+                            counts = new LongSparseArray<>();
+                            oldMediaCounts.put(type, counts);
+                        }
+                        counts.put(cursor.longValue(0), cursor.intValue(2));
+                    }
+                    cursor.dispose();
+                }
+                SQLitePreparedStatement state3 = database.executeFast("REPLACE INTO media_counts_v2 VALUES(?, ?, ?)");
                 for (int a = 0; a < mediaCounts.size(); a++) {
                     int type = mediaCounts.keyAt(a);
                     LongSparseArray<Integer> value = mediaCounts.valueAt(a);
@@ -5553,11 +6145,13 @@ public class MessagesStorage {
                         long uid = value.keyAt(b);
                         int lower_part = (int) uid;
                         int count = -1;
-                        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT count FROM media_counts_v2 WHERE uid = %d AND type = %d LIMIT 1", uid, type));
-                        if (cursor.next()) {
-                            count = cursor.intValue(0);
+                        LongSparseArray<Integer> oldCounts = oldMediaCounts.get(type);
+                        if (oldCounts != null) {
+                            Integer oldCount = oldCounts.get(uid);
+                            if (oldCount != null) {
+                                count = oldCount;
+                            }
                         }
-                        cursor.dispose();
                         if (count != -1) {
                             state3.requery();
                             count += value.valueAt(b);
@@ -5663,8 +6257,7 @@ public class MessagesStorage {
                     SQLitePreparedStatement state = database.executeFast("REPLACE INTO secret_holes VALUES(?, ?, ?, ?)");
 
                     state.requery();
-                    NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
-                    message.serializeToStream(data);
+                    NativeByteBuffer data = NativeByteBufferPool.serialize(message);
                     state.bindInteger(1, enc_id);
                     state.bindInteger(2, message.seq_in);
                     state.bindInteger(3, message.seq_out);
@@ -5763,12 +6356,24 @@ public class MessagesStorage {
         } else {
             SQLitePreparedStatement state = null;
             try {
+                //the contentless index can't move a document, the text is indexed again under the new id
+                removeFromSearchIndex("mid = " + oldMessageId);
                 state = database.executeFast("UPDATE messages SET mid = ?, send_state = 0 WHERE mid = ?");
                 state.bindLong(1, newMessageId);
                 state.bindLong(2, oldMessageId);
                 state.step();
+                if (searchIndexAvailable) {
+                    try {
+                        LongSparseArray<String> texts = new LongSparseArray<>(1);
+                        readSearchTexts(database.queryFinalized("SELECT mid, data FROM messages WHERE mid = " + newMessageId), texts);
+                        updateSearchIndex(texts);
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
+                }
             } catch (Exception e) {
                 try {
+                    removeFromSearchIndex("mid = " + oldMessageId);
                     database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid = %d", oldMessageId)).stepThis().dispose();
                     database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid = %d", oldMessageId)).stepThis().dispose();
                 } catch (Exception e2) {
@@ -6110,7 +6715,7 @@ public class MessagesStorage {
                 long did = dialogsToUpdate.keyAt(a);
                 Integer[] counts = dialogsToUpdate.valueAt(a);
 
-                cursor = database.queryFinalized("SELECT unread_count, unread_count_i FROM dialogs WHERE did = " + did);
+                cursor = database.queryFinalized("SELECT unread_count, unread_count_i FROM dialogs WHERE did = ?", did);
                 int old_unread_count = 0;
                 int old_mentions_count = 0;
                 if (cursor.next()) {
@@ -6129,6 +6734,7 @@ public class MessagesStorage {
                 state.dispose();
             }
 
+            removeFromSearchIndex("mid IN(" + ids + ")");
             database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM bot_keyboard WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid IN(%s)", ids)).stepThis().dispose();
@@ -6434,7 +7040,7 @@ public class MessagesStorage {
                 long did = dialogsToUpdate.keyAt(a);
                 Integer[] counts = dialogsToUpdate.valueAt(a);
 
-                cursor = database.queryFinalized("SELECT unread_count, unread_count_i FROM dialogs WHERE did = " + did);
+                cursor = database.queryFinalized("SELECT unread_count, unread_count_i FROM dialogs WHERE did = ?", did);
                 int old_unread_count = 0;
                 int old_mentions_count = 0;
                 if (cursor.next()) {
@@ -6453,6 +7059,7 @@ public class MessagesStorage {
                 state.dispose();
             }
 
+            removeFromSearchIndex("uid = " + (-channelId) + " AND mid <= " + maxMessageId);
             database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE uid = %d AND mid <= %d", -channelId, maxMessageId)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM media_v2 WHERE uid = %d AND mid <= %d", -channelId, maxMessageId)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM media_counts_v2 WHERE uid = %d", -channelId)).stepThis().dispose();
@@ -6818,8 +7425,7 @@ public class MessagesStorage {
 
                         fixUnsupportedMedia(message);
                         state.requery();
-                        NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
-                        message.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(message);
                         state.bindLong(1, messageId);
                         state.bindLong(2, dialog_id);
                         state.bindInteger(3, MessageObject.getUnreadFlags(message));
@@ -6978,9 +7584,10 @@ public class MessagesStorage {
     }
 
     public void getDialogs(final int offset, final int count) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadRunnable(new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase readDatabase = getReadDatabase();
                 TLRPC.messages_Dialogs dialogs = new TLRPC.TL_messages_dialogs();
                 ArrayList<TLRPC.EncryptedChat> encryptedChats = new ArrayList<>();
                 try {
@@ -6990,7 +7597,9 @@ public class MessagesStorage {
                     ArrayList<Integer> encryptedToLoad = new ArrayList<>();
                     ArrayList<Long> replyMessages = new ArrayList<>();
                     LongSparseArray<TLRPC.Message> replyMessageOwners = new LongSparseArray<>();
-                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT d.did, d.last_mid, d.unread_count, d.date, m.data, m.read_state, m.mid, m.send_state, s.flags, m.date, d.pts, d.inbox_max, d.outbox_max, m.replydata, d.pinned, d.unread_count_i, d.flags FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did ORDER BY d.pinned DESC, d.date DESC LIMIT %d,%d", offset, count));
+                    int clientUserId = UserConfig.getInstance(currentAccount).clientUserId;
+                    MessageView messageView = new MessageView();
+                    SQLiteCursor cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT d.did, d.last_mid, d.unread_count, d.date, m.data, m.read_state, m.mid, m.send_state, s.flags, m.date, d.pts, d.inbox_max, d.outbox_max, m.replydata, d.pinned, d.unread_count_i, d.flags FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did ORDER BY d.pinned DESC, d.date DESC LIMIT %d,%d", offset, count));
                     while (cursor.next()) {
                         TLRPC.TL_dialog dialog = new TLRPC.TL_dialog();
                         dialog.id = cursor.longValue(0);
@@ -7019,8 +7628,8 @@ public class MessagesStorage {
 
                         NativeByteBuffer data = cursor.byteBufferValue(4);
                         if (data != null) {
-                            TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                            message.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                            messageView.reset(data);
+                            TLRPC.Message message = messageView.getMessage(clientUserId);
                             data.reuse();
                             if (message != null) {
                                 MessageObject.setUnreadFlags(message, cursor.intValue(5));
@@ -7043,8 +7652,8 @@ public class MessagesStorage {
                                         if (!cursor.isNull(13)) {
                                             data = cursor.byteBufferValue(13);
                                             if (data != null) {
-                                                message.replyMessage = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                                message.replyMessage.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                                                messageView.reset(data);
+                                                message.replyMessage = messageView.getMessage(clientUserId);
                                                 data.reuse();
                                                 if (message.replyMessage != null) {
                                                     if (MessageObject.isMegagroup(message)) {
@@ -7098,13 +7707,19 @@ public class MessagesStorage {
                     cursor.dispose();
 
                     if (!replyMessages.isEmpty()) {
-                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, mid, date, uid FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
+                        cursor = readDatabase.queryFinalized(String.format(Locale.US, "SELECT data, mid, date, uid FROM messages WHERE mid IN(%s)", TextUtils.join(",", replyMessages)));
                         while (cursor.next()) {
+                            if (replyMessageOwners.get(cursor.longValue(3)) == null) {
+                                continue;
+                            }
                             NativeByteBuffer data = cursor.byteBufferValue(0);
                             if (data != null) {
-                                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
-                                message.readAttachPath(data, UserConfig.getInstance(currentAccount).clientUserId);
+                                messageView.reset(data);
+                                TLRPC.Message message = messageView.getMessage(clientUserId);
                                 data.reuse();
+                                if (message == null) {
+                                    continue;
+                                }
                                 message.id = cursor.intValue(1);
                                 message.date = cursor.intValue(2);
                                 message.dialog_id = cursor.longValue(3);
@@ -7218,8 +7833,7 @@ public class MessagesStorage {
                         }
 
                         fixUnsupportedMedia(message);
-                        NativeByteBuffer data = new NativeByteBuffer(message.getObjectSize());
-                        message.serializeToStream(data);
+                        NativeByteBuffer data = NativeByteBufferPool.serialize(message);
 
                         long messageId = message.id;
                         if (message.to_id.channel_id != 0) {
@@ -7342,7 +7956,7 @@ public class MessagesStorage {
                     int flags = 0;
                     SQLiteCursor cursor = null;
                     try {
-                        cursor = database.queryFinalized("SELECT flags FROM dialogs WHERE did = " + did);
+                        cursor = database.queryFinalized("SELECT flags FROM dialogs WHERE did = ?", did);
                         if (cursor.next()) {
                             flags = cursor.intValue(0);
                         }
@@ -13,7 +13,7 @@ import android.util.SparseArray;
 
 import com.filtershekanha.teledr.internal.BuildVars;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class NotificationCenter {
 
@@ -148,12 +148,28 @@ public class NotificationCenter {
     public static final int playerDidStartPlaying = totalEvents++;
     public static final int closeSearchByActiveAction = totalEvents++;
 
-    private SparseArray<ArrayList<Object>> observers = new SparseArray<>();
-    private SparseArray<ArrayList<Object>> removeAfterBroadcast = new SparseArray<>();
-    private SparseArray<ArrayList<Object>> addAfterBroadcast = new SparseArray<>();
-    private ArrayList<DelayedPost> delayedPosts = new ArrayList<>(10);
+    private static final int PAYLOAD_ARGS = 0;
+    private static final int PAYLOAD_INT = 1;
+    private static final int PAYLOAD_OBJECT_FLOAT = 2;
+    private static final int PAYLOAD_OBJECT_FLOAT_BOOLEAN = 3;
+
+    private static final NotificationCenterDelegate[] EMPTY_OBSERVERS = new NotificationCenterDelegate[0];
+
+    private SparseArray<NotificationCenterDelegate[]> observers = new SparseArray<>();
+
+    private int delayedCount;
+    private int delayedFlushCount;
+    private int[] delayedIds = new int[10];
+    private int[] delayedPayloads = new int[10];
+    private Object[] delayedObjects = new Object[10];
+    private Object[][] delayedArgs = new Object[10][];
+    private long[] delayedValues = new long[10];
+    private float[] delayedProgress = new float[10];
+    private boolean[] delayedFlags = new boolean[10];
+
+    private long[] dispatchCounts = new long[totalEvents];
+    private long[] dispatchTimes = new long[totalEvents];
 
-    private int broadcasting = 0;
     private boolean animationInProgress;
 
     private int[] allowedNotifications;
@@ -162,15 +178,8 @@ public class NotificationCenter {
         void didReceivedNotification(int id, int account, Object... args);
     }
 
-    private class DelayedPost {
-
-        private DelayedPost(int id, Object[] args) {
-            this.id = id;
-            this.args = args;
-        }
-
-        private int id;
-        private Object[] args;
+    public interface TypedNotificationCenterDelegate extends NotificationCenterDelegate {
+        void didReceivedTypedNotification(int id, int account, Object object, long value, float progress, boolean flag);
     }
 
     private int currentAccount;
@@ -215,12 +224,29 @@ public class NotificationCenter {
 
     public void setAnimationInProgress(boolean value) {
         animationInProgress = value;
-        if (!animationInProgress && !delayedPosts.isEmpty()) {
-            for (int a = 0; a < delayedPosts.size(); a++) {
-                DelayedPost delayedPost = delayedPosts.get(a);
-                postNotificationNameInternal(delayedPost.id, true, delayedPost.args);
+        if (!animationInProgress && delayedCount != 0 && delayedFlushCount == 0) {
+            int count = delayedFlushCount = delayedCount;
+            for (int a = 0; a < count; a++) {
+                if (delayedPayloads[a] == PAYLOAD_ARGS) {
+                    postNotificationNameInternal(delayedIds[a], true, delayedArgs[a]);
+                } else {
+                    postTypedNotificationInternal(delayedIds[a], true, delayedPayloads[a], delayedObjects[a], delayedValues[a], delayedProgress[a], delayedFlags[a]);
+                }
             }
-            delayedPosts.clear();
+            int remaining = delayedCount - count;
+            if (remaining != 0) {
+                System.arraycopy(delayedIds, count, delayedIds, 0, remaining);
+                System.arraycopy(delayedPayloads, count, delayedPayloads, 0, remaining);
+                System.arraycopy(delayedObjects, count, delayedObjects, 0, remaining);
+                System.arraycopy(delayedArgs, count, delayedArgs, 0, remaining);
+                System.arraycopy(delayedValues, count, delayedValues, 0, remaining);
+                System.arraycopy(delayedProgress, count, delayedProgress, 0, remaining);
+                System.arraycopy(delayedFlags, count, delayedFlags, 0, remaining);
+            }
+            Arrays.fill(delayedObjects, remaining, delayedCount, null);
+            Arrays.fill(delayedArgs, remaining, delayedCount, null);
+            delayedCount = remaining;
+            delayedFlushCount = 0;
         }
     }
 
@@ -228,17 +254,46 @@ public class NotificationCenter {
         return animationInProgress;
     }
 
-    public void postNotificationName(int id, Object... args) {
-        boolean allowDuringAnimation = false;
+    public long getDispatchCount(int id) {
+        return dispatchCounts[id];
+    }
+
+    public long getDispatchTime(int id) {
+        return dispatchTimes[id];
+    }
+
+    public void resetDispatchCounters() {
+        for (int a = 0; a < dispatchCounts.length; a++) {
+            dispatchCounts[a] = 0;
+            dispatchTimes[a] = 0;
+        }
+    }
+
+    private boolean isAllowedDuringAnimation(int id) {
         if (allowedNotifications != null) {
             for (int a = 0; a < allowedNotifications.length; a++) {
                 if (allowedNotifications[a] == id) {
-                    allowDuringAnimation = true;
-                    break;
+                    return true;
                 }
             }
         }
-        postNotificationNameInternal(id, allowDuringAnimation, args);
+        return false;
+    }
+
+    public void postNotificationName(int id, Object... args) {
+        postNotificationNameInternal(id, isAllowedDuringAnimation(id), args);
+    }
+
+    public void postTypedNotification(int id, int value) {
+        postTypedNotificationInternal(id, isAllowedDuringAnimation(id), PAYLOAD_INT, null, value, 0, false);
+    }
+
+    public void postTypedNotification(int id, Object object, float progress) {
+        postTypedNotificationInternal(id, isAllowedDuringAnimation(id), PAYLOAD_OBJECT_FLOAT, object, 0, progress, false);
+    }
+
+    public void postTypedNotification(int id, Object object, float progress, boolean flag) {
+        postTypedNotificationInternal(id, isAllowedDuringAnimation(id), PAYLOAD_OBJECT_FLOAT_BOOLEAN, object, 0, progress, flag);
     }
 
     @UiThread
@@ -249,44 +304,114 @@ public class NotificationCenter {
             }
         }
         if (!allowDuringAnimation && animationInProgress) {
-            DelayedPost delayedPost = new DelayedPost(id, args);
-            delayedPosts.add(delayedPost);
+            for (int a = delayedFlushCount; a < delayedCount; a++) {
+                if (delayedIds[a] == id && delayedPayloads[a] == PAYLOAD_ARGS && Arrays.equals(delayedArgs[a], args)) {
+                    removeDelayedPost(a);
+                    break;
+                }
+            }
+            int index = obtainDelayedPost(id, PAYLOAD_ARGS);
+            delayedArgs[index] = args;
             if (BuildVars.LOGS_ENABLED) {
                 FileLog.e("delay post notification " + id + " with args count = " + args.length);
             }
             return;
         }
-        broadcasting++;
-        ArrayList<Object> objects = observers.get(id);
-        if (objects != null && !objects.isEmpty()) {
-            for (int a = 0; a < objects.size(); a++) {
-                Object obj = objects.get(a);
-                ((NotificationCenterDelegate) obj).didReceivedNotification(id, currentAccount, args);
+        NotificationCenterDelegate[] objects = observers.get(id);
+        if (objects == null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        for (int a = 0; a < objects.length; a++) {
+            objects[a].didReceivedNotification(id, currentAccount, args);
+        }
+        dispatchCounts[id]++;
+        dispatchTimes[id] += System.nanoTime() - startTime;
+    }
+
+    @UiThread
+    private void postTypedNotificationInternal(int id, boolean allowDuringAnimation, int payload, Object object, long value, float progress, boolean flag) {
+        if (BuildVars.DEBUG_VERSION) {
+            if (Thread.currentThread() != ApplicationLoader.applicationHandler.getLooper().getThread()) {
+                throw new RuntimeException("postNotificationName allowed only from MAIN thread");
             }
         }
-        broadcasting--;
-        if (broadcasting == 0) {
-            if (removeAfterBroadcast.size() != 0) {
-                for (int a = 0; a < removeAfterBroadcast.size(); a++) {
-                    int key = removeAfterBroadcast.keyAt(a);
-                    ArrayList<Object> arrayList = removeAfterBroadcast.get(key);
-                    for (int b = 0; b < arrayList.size(); b++) {
-                        removeObserver(arrayList.get(b), key);
-                    }
+        if (!allowDuringAnimation && animationInProgress) {
+            for (int a = delayedFlushCount; a < delayedCount; a++) {
+                if (delayedIds[a] == id && delayedPayloads[a] == payload && (payload == PAYLOAD_INT ? delayedValues[a] == value : object != null && object.equals(delayedObjects[a]))) {
+                    removeDelayedPost(a);
+                    break;
                 }
-                removeAfterBroadcast.clear();
             }
-            if (addAfterBroadcast.size() != 0) {
-                for (int a = 0; a < addAfterBroadcast.size(); a++) {
-                    int key = addAfterBroadcast.keyAt(a);
-                    ArrayList<Object> arrayList = addAfterBroadcast.get(key);
-                    for (int b = 0; b < arrayList.size(); b++) {
-                        addObserver(arrayList.get(b), key);
+            int index = obtainDelayedPost(id, payload);
+            delayedObjects[index] = object;
+            delayedValues[index] = value;
+            delayedProgress[index] = progress;
+            delayedFlags[index] = flag;
+            return;
+        }
+        NotificationCenterDelegate[] objects = observers.get(id);
+        if (objects == null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        Object[] args = null;
+        for (int a = 0; a < objects.length; a++) {
+            NotificationCenterDelegate delegate = objects[a];
+            if (delegate instanceof TypedNotificationCenterDelegate) {
+                ((TypedNotificationCenterDelegate) delegate).didReceivedTypedNotification(id, currentAccount, object, value, progress, flag);
+            } else {
+                if (args == null) {
+                    if (payload == PAYLOAD_INT) {
+                        args = new Object[]{(int) value};
+                    } else if (payload == PAYLOAD_OBJECT_FLOAT) {
+                        args = new Object[]{object, progress};
+                    } else {
+                        args = new Object[]{object, progress, flag};
                     }
                 }
-                addAfterBroadcast.clear();
+                delegate.didReceivedNotification(id, currentAccount, args);
             }
         }
+        dispatchCounts[id]++;
+        dispatchTimes[id] += System.nanoTime() - startTime;
+    }
+
+    private int obtainDelayedPost(int id, int payload) {
+        if (delayedCount == delayedIds.length) {
+            int size = delayedCount * 2;
+            delayedIds = Arrays.copyOf(delayedIds, size);
+            delayedPayloads = Arrays.copyOf(delayedPayloads, size);
+            delayedObjects = Arrays.copyOf(delayedObjects, size);
+            delayedArgs = Arrays.copyOf(delayedArgs, size);
+            delayedValues = Arrays.copyOf(delayedValues, size);
+            delayedProgress = Arrays.copyOf(delayedProgress, size);
+            delayedFlags = Arrays.copyOf(delayedFlags, size);
+        }
+        int index = delayedCount++;
+        delayedIds[index] = id;
+        delayedPayloads[index] = payload;
+        return index;
+    }
+
+    /**
+     * Drops a pending post that a newer identical one replaces. The newer post is queued at the
+     * end, so the remaining posts are still delivered in the order they were made.
+     */
+    private void removeDelayedPost(int index) {
+        int remaining = delayedCount - index - 1;
+        if (remaining != 0) {
+            System.arraycopy(delayedIds, index + 1, delayedIds, index, remaining);
+            System.arraycopy(delayedPayloads, index + 1, delayedPayloads, index, remaining);
+            System.arraycopy(delayedObjects, index + 1, delayedObjects, index, remaining);
+            System.arraycopy(delayedArgs, index + 1, delayedArgs, index, remaining);
+            System.arraycopy(delayedValues, index + 1, delayedValues, index, remaining);
+            System.arraycopy(delayedProgress, index + 1, delayedProgress, index, remaining);
+            System.arraycopy(delayedFlags, index + 1, delayedFlags, index, remaining);
+        }
+        delayedCount--;
+        delayedObjects[delayedCount] = null;
+        delayedArgs[delayedCount] = null;
     }
 
     public void addObserver(Object observer, int id) {
@@ -295,23 +420,18 @@ public class NotificationCenter {
                 throw new RuntimeException("addObserver allowed only from MAIN thread");
             }
         }
-        if (broadcasting != 0) {
-            ArrayList<Object> arrayList = addAfterBroadcast.get(id);
-            if (arrayList == null) {
-                arrayList = new ArrayList<>();
-                addAfterBroadcast.put(id, arrayList);
-            }
-            arrayList.add(observer);
-            return;
-        }
-        ArrayList<Object> objects = observers.get(id);
+        NotificationCenterDelegate[] objects = observers.get(id);
         if (objects == null) {
-            observers.put(id, (objects = new ArrayList<>()));
+            objects = EMPTY_OBSERVERS;
         }
-        if (objects.contains(observer)) {
-            return;
+        for (int a = 0; a < objects.length; a++) {
+            if (objects[a] == observer) {
+                return;
+            }
         }
-        objects.add(observer);
+        NotificationCenterDelegate[] newObjects = Arrays.copyOf(objects, objects.length + 1);
+        newObjects[objects.length] = (NotificationCenterDelegate) observer;
+        observers.put(id, newObjects);
     }
 
     public void removeObserver(Object observer, int id) {
@@ -320,18 +440,22 @@ public class NotificationCenter {
                 throw new RuntimeException("removeObserver allowed only from MAIN thread");
             }
         }
-        if (broadcasting != 0) {
-            ArrayList<Object> arrayList = removeAfterBroadcast.get(id);
-            if (arrayList == null) {
-                arrayList = new ArrayList<>();
-                removeAfterBroadcast.put(id, arrayList);
-            }
-            arrayList.add(observer);
+        NotificationCenterDelegate[] objects = observers.get(id);
+        if (objects == null) {
             return;
         }
-        ArrayList<Object> objects = observers.get(id);
-        if (objects != null) {
-            objects.remove(observer);
+        for (int a = 0; a < objects.length; a++) {
+            if (objects[a] == observer) {
+                if (objects.length == 1) {
+                    observers.remove(id);
+                } else {
+                    NotificationCenterDelegate[] newObjects = new NotificationCenterDelegate[objects.length - 1];
+                    System.arraycopy(objects, 0, newObjects, 0, a);
+                    System.arraycopy(objects, a + 1, newObjects, a, objects.length - a - 1);
+                    observers.put(id, newObjects);
+                }
+                return;
+            }
         }
     }
 }
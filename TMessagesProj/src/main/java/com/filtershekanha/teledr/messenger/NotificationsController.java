@@ -223,6 +223,7 @@ public class NotificationsController {
                 SharedPreferences.Editor editor = preferences.edit();
                 editor.clear();
                 editor.commit();
+                MessagesController.getInstance(currentAccount).getDialogSettings().clear();
 
                 if (Build.VERSION.SDK_INT >= 26) {
                     try {
@@ -627,7 +628,7 @@ public class NotificationsController {
                     if (index >= 0) {
                         value = settingsCache.valueAt(index);
                     } else {
-                        int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                        int notifyOverride = getNotifyOverride(dialog_id);
                         if (notifyOverride == -1) {
                             value = (int) dialog_id < 0 ? preferences.getBoolean("EnableGroup", true) : preferences.getBoolean("EnableAll", true);
                         } else {
@@ -694,7 +695,7 @@ public class NotificationsController {
                     long dialog_id = messageObjects.get(0).getDialogId();
                     int old_unread_count = total_unread_count;
 
-                    int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                    int notifyOverride = getNotifyOverride(dialog_id);
                     if (notifyCheck) {
                         Integer override = pushDialogsOverrideMention.get(dialog_id);
                         if (override != null && override == 1) {
@@ -758,7 +759,7 @@ public class NotificationsController {
                 for (int b = 0; b < dialogsToUpdate.size(); b++) {
                     long dialog_id = dialogsToUpdate.keyAt(b);
 
-                    int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                    int notifyOverride = getNotifyOverride(dialog_id);
                     if (notifyCheck) {
                         Integer override = pushDialogsOverrideMention.get(dialog_id);
                         if (override != null && override == 1) {
@@ -889,7 +890,7 @@ public class NotificationsController {
                         if (index >= 0) {
                             value = settingsCache.valueAt(index);
                         } else {
-                            int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                            int notifyOverride = getNotifyOverride(dialog_id);
                             if (notifyOverride == -1) {
                                 value = (int) dialog_id < 0 ? preferences.getBoolean("EnableGroup", true) : preferences.getBoolean("EnableAll", true);
                             } else {
@@ -914,7 +915,7 @@ public class NotificationsController {
                     if (index >= 0) {
                         value = settingsCache.valueAt(index);
                     } else {
-                        int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                        int notifyOverride = getNotifyOverride(dialog_id);
                         Integer override = pushDialogsOverrideMention.get(dialog_id);
                         if (override != null && override == 1) {
                             pushDialogsOverrideMention.put(dialog_id, 0);
@@ -1895,10 +1896,11 @@ public class NotificationsController {
                 && (messageObject.messageOwner.action == null || messageObject.messageOwner.action instanceof TLRPC.TL_messageActionEmpty);
     }
 
-    private int getNotifyOverride(SharedPreferences preferences, long dialog_id) {
-        int notifyOverride = preferences.getInt("notify2_" + dialog_id, -1);
+    private int getNotifyOverride(long dialog_id) {
+        DialogSettingsStore dialogSettings = MessagesController.getInstance(currentAccount).getDialogSettings();
+        int notifyOverride = dialogSettings.getMuteType(dialog_id);
         if (notifyOverride == 3) {
-            int muteUntil = preferences.getInt("notifyuntil_" + dialog_id, 0);
+            int muteUntil = dialogSettings.getMuteUntil(dialog_id);
             if (muteUntil >= ConnectionsManager.getInstance(currentAccount).getCurrentTime()) {
                 notifyOverride = 2;
             }
@@ -1987,8 +1989,7 @@ public class NotificationsController {
         }
 
         try {
-            SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
-            int notifyOverride = getNotifyOverride(preferences, opened_dialog_id);
+            int notifyOverride = getNotifyOverride(opened_dialog_id);
             if (notifyOverride == 2) {
                 return;
             }
@@ -2260,7 +2261,7 @@ public class NotificationsController {
             int ledColor = 0xff0000ff;
             int priority = 0;
 
-            int notifyOverride = getNotifyOverride(preferences, override_dialog_id);
+            int notifyOverride = getNotifyOverride(override_dialog_id);
             boolean value;
             if (notifyOverride == -1) {
                 value = (int) dialog_id < 0 ? preferences.getBoolean("EnableGroup", true) : preferences.getBoolean("EnableAll", true);
@@ -3207,11 +3208,12 @@ public class NotificationsController {
         req.settings.flags |= 2;
         req.settings.silent = preferences.getBoolean("silent_" + dialog_id, false);
 
-        int mute_type = preferences.getInt("notify2_" + dialog_id, -1);
+        DialogSettingsStore dialogSettings = MessagesController.getInstance(currentAccount).getDialogSettings();
+        int mute_type = dialogSettings.getMuteType(dialog_id);
         if (mute_type != -1) {
             req.settings.flags |= 4;
             if (mute_type == 3) {
-                req.settings.mute_until = preferences.getInt("notifyuntil_" + dialog_id, 0);
+                req.settings.mute_until = dialogSettings.getMuteUntil(dialog_id);
             } else {
                 req.settings.mute_until = mute_type != 2 ? 0 : Integer.MAX_VALUE;
             }
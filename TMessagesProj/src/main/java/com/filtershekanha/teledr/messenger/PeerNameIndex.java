@@ -0,0 +1,371 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import android.util.LongSparseArray;
+
+import com.filtershekanha.teledr.SQLite.SQLiteCursor;
+import com.filtershekanha.teledr.SQLite.SQLiteDatabase;
+import com.filtershekanha.teledr.tgnet.TLRPC;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * In-memory index of user, chat and secret chat names for local search. Every word of a name, of
+ * its transliteration and the username is kept in a sorted token map, so a query only has to look
+ * at the peers owning a token that starts with the first word of the query. Names use the same
+ * lowercase form that is stored in the users and chats tables.
+ */
+public class PeerNameIndex {
+
+    public static final int MATCH_NAME = 1;
+    public static final int MATCH_USERNAME = 2;
+
+    public static class Match {
+        public long id;
+        public int type;
+        public String query;
+    }
+
+    private static class Entry {
+        String name;
+        String tName;
+        String username;
+        String[] tokens;
+    }
+
+    private final int currentAccount;
+    private final TreeMap<String, ArrayList<Long>> tokens = new TreeMap<>();
+    private final HashMap<Long, Entry> entries = new HashMap<>();
+    private final HashMap<Integer, ArrayList<Integer>> encryptedChatsByUser = new HashMap<>();
+    private boolean loaded;
+    private int generation;
+
+    private static volatile PeerNameIndex[] Instance = new PeerNameIndex[UserConfig.MAX_ACCOUNT_COUNT];
+    public static PeerNameIndex getInstance(int num) {
+        PeerNameIndex localInstance = Instance[num];
+        if (localInstance == null) {
+            synchronized (PeerNameIndex.class) {
+                localInstance = Instance[num];
+                if (localInstance == null) {
+                    Instance[num] = localInstance = new PeerNameIndex(num);
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    public PeerNameIndex(int instance) {
+        currentAccount = instance;
+    }
+
+    /**
+     * Returns the name stored in the users table, the name and the username separated by ";;;".
+     */
+    public static String formatUserSearchName(TLRPC.User user) {
+        StringBuilder str = new StringBuilder(formatUserName(user));
+        str.append(";;;");
+        if (user.username != null && user.username.length() > 0) {
+            str.append(user.username.toLowerCase());
+        }
+        return str.toString();
+    }
+
+    private static String formatUserName(TLRPC.User user) {
+        StringBuilder str = new StringBuilder("");
+        if (user.first_name != null && user.first_name.length() > 0) {
+            str.append(user.first_name);
+        }
+        if (user.last_name != null && user.last_name.length() > 0) {
+            if (str.length() > 0) {
+                str.append(" ");
+            }
+            str.append(user.last_name);
+        }
+        return str.toString().toLowerCase();
+    }
+
+    public void putUser(TLRPC.User user) {
+        if (user == null || user instanceof TLRPC.TL_userEmpty) {
+            return;
+        }
+        postPut(user.id, formatUserName(user), user.username != null && user.username.length() > 0 ? user.username.toLowerCase() : null);
+    }
+
+    public void putChat(TLRPC.Chat chat) {
+        if (chat == null || chat.title == null) {
+            return;
+        }
+        postPut(-chat.id, chat.title.toLowerCase(), null);
+    }
+
+    /**
+     * Tokenizes the name on the search queue, so callers putting peers on the UI thread don't pay
+     * for the transliteration.
+     */
+    private void postPut(final long id, final String name, final String username) {
+        Utilities.searchQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                put(id, name, username, true);
+            }
+        });
+    }
+
+    public synchronized void putEncryptedChat(TLRPC.EncryptedChat encryptedChat) {
+        if (encryptedChat == null || encryptedChat.user_id == 0) {
+            return;
+        }
+        ArrayList<Integer> chats = encryptedChatsByUser.get(encryptedChat.user_id);
+        if (chats == null) {
+            chats = new ArrayList<>();
+            encryptedChatsByUser.put(encryptedChat.user_id, chats);
+        }
+        if (!chats.contains(encryptedChat.id)) {
+            chats.add(encryptedChat.id);
+        }
+    }
+
+    public synchronized void clear() {
+        tokens.clear();
+        entries.clear();
+        encryptedChatsByUser.clear();
+        loaded = false;
+        generation++;
+    }
+
+    /**
+     * Fills the index with peers that were not put in this session, on the first search. Off the
+     * storage queue this waits until the storage queue has loaded them.
+     */
+    public void ensureLoaded() {
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+        }
+        DispatchQueue storageQueue = MessagesStorage.getInstance(currentAccount).getStorageQueue();
+        if (Thread.currentThread() == storageQueue) {
+            load();
+            return;
+        }
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                countDownLatch.countDown();
+            }
+        });
+        try {
+            countDownLatch.await();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    /**
+     * Runs on the storage queue only, so concurrent callers of {@link #ensureLoaded()} wait for
+     * the same load and it is marked loaded only once it has finished.
+     */
+    private void load() {
+        int loadGeneration;
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            loadGeneration = generation;
+        }
+        SQLiteDatabase database = MessagesStorage.getInstance(currentAccount).getDatabase();
+        SQLiteCursor cursor = null;
+        try {
+            cursor = database.queryFinalized("SELECT uid, name FROM users");
+            while (cursor.next()) {
+                String name = cursor.stringValue(1);
+                String username = null;
+                //usernames can't contain ';', so the last separator is the one added by formatUserSearchName
+                int usernamePos = name != null ? name.lastIndexOf(";;;") : -1;
+                if (usernamePos != -1) {
+                    username = name.substring(usernamePos + 3);
+                    name = name.substring(0, usernamePos);
+                    if (username.length() == 0) {
+                        username = null;
+                    }
+                }
+                put(cursor.intValue(0), name, username, false);
+            }
+            cursor.dispose();
+            cursor = database.queryFinalized("SELECT uid, name FROM chats");
+            while (cursor.next()) {
+                put(-cursor.intValue(0), cursor.stringValue(1), null, false);
+            }
+            cursor.dispose();
+            cursor = database.queryFinalized("SELECT uid, user FROM enc_chats");
+            while (cursor.next()) {
+                TLRPC.EncryptedChat encryptedChat = new TLRPC.TL_encryptedChat();
+                encryptedChat.id = cursor.intValue(0);
+                encryptedChat.user_id = cursor.intValue(1);
+                putEncryptedChat(encryptedChat);
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        } finally {
+            if (cursor != null) {
+                cursor.dispose();
+            }
+        }
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                loaded = true;
+            }
+        }
+    }
+
+    /**
+     * Matches every query against the indexed names the way the search screens always did: a
+     * name or its transliteration starting with the query or containing it after a space, or a
+     * username starting with it. Returns matches keyed by dialog id, secret chats are keyed by
+     * their encrypted dialog id and inherit the match of their user.
+     */
+    public synchronized LongSparseArray<Match> search(String[] queries) {
+        LongSparseArray<Match> result = new LongSparseArray<>();
+        ArrayList<Long> candidates = new ArrayList<>();
+        for (int a = 0; a < queries.length; a++) {
+            String query = queries[a];
+            int space = query.indexOf(' ');
+            String token = space > 0 ? query.substring(0, space) : query;
+            if (token.length() == 0) {
+                continue;
+            }
+            for (Map.Entry<String, ArrayList<Long>> entry : tokens.subMap(token, true, token + Character.MAX_VALUE, true).entrySet()) {
+                candidates.addAll(entry.getValue());
+            }
+        }
+        for (int b = 0; b < candidates.size(); b++) {
+            long id = candidates.get(b);
+            if (result.indexOfKey(id) >= 0) {
+                continue;
+            }
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                continue;
+            }
+            for (int a = 0; a < queries.length; a++) {
+                String q = queries[a];
+                int found = 0;
+                if (entry.name.startsWith(q) || entry.name.contains(" " + q) || entry.tName != null && (entry.tName.startsWith(q) || entry.tName.contains(" " + q))) {
+                    found = MATCH_NAME;
+                } else if (entry.username != null && entry.username.startsWith(q)) {
+                    found = MATCH_USERNAME;
+                }
+                if (found != 0) {
+                    Match match = new Match();
+                    match.id = id;
+                    match.type = found;
+                    match.query = q;
+                    result.put(id, match);
+                    if (id > 0) {
+                        ArrayList<Integer> chats = encryptedChatsByUser.get((int) id);
+                        if (chats != null) {
+                            for (int c = 0; c < chats.size(); c++) {
+                                Match encryptedMatch = new Match();
+                                encryptedMatch.id = ((long) chats.get(c)) << 32;
+                                encryptedMatch.type = found;
+                                encryptedMatch.query = q;
+                                result.put(encryptedMatch.id, encryptedMatch);
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void put(long id, String name, String username, boolean replace) {
+        if (name == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            if (entry != null && (!replace || entry.name.equals(name) && (username != null ? username.equals(entry.username) : entry.username == null))) {
+                return;
+            }
+        }
+        String tName = LocaleController.getInstance().getTranslitString(name);
+        if (name.equals(tName)) {
+            tName = null;
+        }
+        ArrayList<String> entryTokens = new ArrayList<>();
+        addTokens(entryTokens, name);
+        if (tName != null) {
+            addTokens(entryTokens, tName);
+        }
+        if (username != null && !entryTokens.contains(username)) {
+            entryTokens.add(username);
+        }
+
+        Entry entry = new Entry();
+        entry.name = name;
+        entry.tName = tName;
+        entry.username = username;
+        entry.tokens = entryTokens.toArray(new String[entryTokens.size()]);
+        synchronized (this) {
+            Entry oldEntry = entries.get(id);
+            if (oldEntry != null) {
+                if (!replace) {
+                    return;
+                }
+                removeTokens(id, oldEntry);
+            }
+            entries.put(id, entry);
+            for (int a = 0; a < entry.tokens.length; a++) {
+                ArrayList<Long> ids = tokens.get(entry.tokens[a]);
+                if (ids == null) {
+                    ids = new ArrayList<>(1);
+                    tokens.put(entry.tokens[a], ids);
+                }
+                ids.add(id);
+            }
+        }
+    }
+
+    private void removeTokens(long id, Entry entry) {
+        for (int a = 0; a < entry.tokens.length; a++) {
+            ArrayList<Long> ids = tokens.get(entry.tokens[a]);
+            if (ids == null) {
+                continue;
+            }
+            ids.remove((Long) id);
+            if (ids.isEmpty()) {
+                tokens.remove(entry.tokens[a]);
+            }
+        }
+    }
+
+    private static void addTokens(ArrayList<String> result, String text) {
+        int start = 0;
+        for (int a = 0, N = text.length(); a <= N; a++) {
+            if (a == N || text.charAt(a) == ' ') {
+                if (a > start) {
+                    String token = text.substring(start, a);
+                    if (!result.contains(token)) {
+                        result.add(token);
+                    }
+                }
+                start = a + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.messenger;
+
+import com.filtershekanha.teledr.internal.BuildVars;
+import com.filtershekanha.teledr.tgnet.ConnectionsManager;
+import com.filtershekanha.teledr.tgnet.RequestDelegate;
+import com.filtershekanha.teledr.tgnet.TLObject;
+import com.filtershekanha.teledr.tgnet.TLRPC;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves network requests for small high-frequency RPCs. Requests are keyed by the caller,
+ * usually by the RPC type and peer. A request whose key is already in flight is not sent again,
+ * its delegate gets the response of the running one. Batched requests collect message ids for
+ * {@link #batchDelay} and are then sent as one request. Every delegate of a merged request is
+ * called with the same response on the completion queue of the request, a batch delegate that
+ * applies the response itself is called once per sent batch.
+ */
+public class RequestCoalescer {
+
+    public interface BatchRequestBuilder {
+        TLObject createRequest(ArrayList<Integer> ids);
+    }
+
+    private static class PendingRequest {
+        ArrayList<RequestDelegate> delegates = new ArrayList<>();
+    }
+
+    private static class PendingBatch extends PendingRequest {
+        BatchRequestBuilder builder;
+        RequestDelegate batchDelegate;
+        ArrayList<Integer> ids = new ArrayList<>();
+    }
+
+    private final static int batchDelay = 100;
+
+    private int currentAccount;
+    private final HashMap<String, PendingRequest> inFlightRequests = new HashMap<>();
+    private final HashMap<String, PendingBatch> pendingBatches = new HashMap<>();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger savedCount = new AtomicInteger();
+
+    private static volatile RequestCoalescer[] Instance = new RequestCoalescer[UserConfig.MAX_ACCOUNT_COUNT];
+
+    public static RequestCoalescer getInstance(int num) {
+        RequestCoalescer localInstance = Instance[num];
+        if (localInstance == null) {
+            synchronized (RequestCoalescer.class) {
+                localInstance = Instance[num];
+                if (localInstance == null) {
+                    Instance[num] = localInstance = new RequestCoalescer(num);
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    public RequestCoalescer(int instance) {
+        currentAccount = instance;
+    }
+
+    /**
+     * Sends the request unless a request with the same key is in flight, in which case the
+     * delegate is called with its response instead.
+     */
+    public void sendRequest(final String key, TLObject req, RequestDelegate delegate) {
+        synchronized (this) {
+            PendingRequest pending = inFlightRequests.get(key);
+            if (pending != null) {
+                pending.delegates.add(delegate);
+                savedCount.incrementAndGet();
+                return;
+            }
+            pending = new PendingRequest();
+            pending.delegates.add(delegate);
+            inFlightRequests.put(key, pending);
+        }
+        sentCount.incrementAndGet();
+        ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
+            @Override
+            public void run(TLObject response, TLRPC.TL_error error) {
+                PendingRequest pending;
+                synchronized (RequestCoalescer.this) {
+                    pending = inFlightRequests.remove(key);
+                }
+                if (pending != null) {
+                    runDelegates(pending.delegates, response, error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the id to the batch of the key and sends the batch after {@link #batchDelay}. The
+     * builder of the first call creates the request from all collected ids, it may return null
+     * to drop the batch. The batch delegate of the first call is run once with the response,
+     * before the delegates of all merged calls.
+     */
+    public void sendBatched(final String key, int id, BatchRequestBuilder builder, RequestDelegate batchDelegate, RequestDelegate delegate) {
+        synchronized (this) {
+            PendingBatch batch = pendingBatches.get(key);
+            if (batch == null) {
+                batch = new PendingBatch();
+                batch.builder = builder;
+                batch.batchDelegate = batchDelegate;
+                pendingBatches.put(key, batch);
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendBatch(key);
+                    }
+                }, batchDelay);
+            } else {
+                savedCount.incrementAndGet();
+            }
+            if (!batch.ids.contains(id)) {
+                batch.ids.add(id);
+            }
+            if (delegate != null) {
+                batch.delegates.add(delegate);
+            }
+        }
+    }
+
+    public int getSentCount() {
+        return sentCount.get();
+    }
+
+    public int getSavedCount() {
+        return savedCount.get();
+    }
+
+    public void cleanup() {
+        synchronized (this) {
+            inFlightRequests.clear();
+            pendingBatches.clear();
+        }
+    }
+
+    private void sendBatch(String key) {
+        final PendingBatch batch;
+        synchronized (this) {
+            batch = pendingBatches.remove(key);
+        }
+        if (batch == null) {
+            return;
+        }
+        TLObject req = batch.builder.createRequest(batch.ids);
+        if (req == null) {
+            return;
+        }
+        sentCount.incrementAndGet();
+        if (BuildVars.LOGS_ENABLED) {
+            FileLog.d("send batch {} with {} ids, saved requests = {} sent = {}", key, batch.ids.size(), savedCount.get(), sentCount.get());
+        }
+        ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
+            @Override
+            public void run(TLObject response, TLRPC.TL_error error) {
+                if (batch.batchDelegate != null) {
+                    try {
+                        batch.batchDelegate.run(response, error);
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
+                }
+                runDelegates(batch.delegates, response, error);
+            }
+        });
+    }
+
+    private static void runDelegates(ArrayList<RequestDelegate> delegates, TLObject response, TLRPC.TL_error error) {
+        for (int a = 0, N = delegates.size(); a < N; a++) {
+            try {
+                delegates.get(a).run(response, error);
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        }
+    }
+}
@@ -190,7 +190,7 @@ public class SecretChatHelper {
                 user_id = newChat.admin_id;
             }
             TLRPC.User user = MessagesController.getInstance(currentAccount).getUser(user_id);
-            if (user == null) {
+            if (user == null && usersDict != null) {
                 user = usersDict.get(user_id);
             }
             newChat.user_id = user_id;
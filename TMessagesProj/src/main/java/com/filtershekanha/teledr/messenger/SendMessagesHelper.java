@@ -1340,11 +1340,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                                         a--;
                                     }
                                 }
-                                Integer value = MessagesController.getInstance(currentAccount).dialogs_read_outbox_max.get(peer);
-                                if (value == null) {
-                                    value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(true, peer);
-                                    MessagesController.getInstance(currentAccount).dialogs_read_outbox_max.put(peer, value);
-                                }
+                                int value = MessagesController.getInstance(currentAccount).getDialogReadMax(true, peer);
 
                                 int sentCount = 0;
                                 for (int a = 0; a < updates.updates.size(); a++) {
@@ -1504,9 +1500,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                 messageObject.previousCaptionEntities = newMsg.entities;
                 messageObject.previousAttachPath = newMsg.attachPath;
 
-                SerializedData serializedDataCalc = new SerializedData(true);
-                writePreviousMessageData(newMsg, serializedDataCalc);
-                SerializedData prevMessageData = new SerializedData(serializedDataCalc.length());
+                SerializedData prevMessageData = new SerializedData();
                 writePreviousMessageData(newMsg, prevMessageData);
                 if (params == null) {
                     params = new HashMap<>();
@@ -3405,7 +3399,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
             for (int a = 0; a < multiMedia.multi_media.size(); a++) {
                 if (multiMedia.multi_media.get(a).media == inputMedia) {
                     putToSendingMessages(message.messages.get(a));
-                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.FileUploadProgressChanged, key, 1.0f, false);
+                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.FileUploadProgressChanged, key, 1.0f, false);
                     break;
                 }
             }
@@ -3461,7 +3455,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
             for (int a = 0; a < multiMedia.files.size(); a++) {
                 if (multiMedia.files.get(a) == inputEncryptedFile) {
                     putToSendingMessages(message.messages.get(a));
-                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.FileUploadProgressChanged, key, 1.0f, false);
+                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.FileUploadProgressChanged, key, 1.0f, false);
                     break;
                 }
             }
@@ -3622,11 +3616,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                                         }
                                         grouped_id = message.grouped_id;
 
-                                        Integer value = MessagesController.getInstance(currentAccount).dialogs_read_outbox_max.get(message.dialog_id);
-                                        if (value == null) {
-                                            value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                                            MessagesController.getInstance(currentAccount).dialogs_read_outbox_max.put(message.dialog_id, value);
-                                        }
+                                        int value = MessagesController.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
                                         message.unread = value < message.id;
                                         updateMediaPaths(msgObj, message, originalPath, false);
                                     } else {
@@ -3857,11 +3847,7 @@ public class SendMessagesHelper implements NotificationCenter.NotificationCenter
                                     }
                                     if (message != null) {
                                         ImageLoader.saveMessageThumbs(message);
-                                        Integer value = MessagesController.getInstance(currentAccount).dialogs_read_outbox_max.get(message.dialog_id);
-                                        if (value == null) {
-                                            value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
-                                            MessagesController.getInstance(currentAccount).dialogs_read_outbox_max.put(message.dialog_id, value);
-                                        }
+                                        int value = MessagesController.getInstance(currentAccount).getDialogReadMax(message.out, message.dialog_id);
                                         message.unread = value < message.id;
 
                                         newMsgObj.id = message.id;
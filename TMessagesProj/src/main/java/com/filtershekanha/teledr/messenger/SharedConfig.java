@@ -67,6 +67,7 @@ public class SharedConfig {
     public static boolean streamMedia = true;
     public static boolean streamAllVideo = false;
     public static boolean saveStreamMedia = true;
+    public static boolean adaptiveDownload = true;
     public static boolean shuffleMusic;
     public static boolean playOrderReversed;
     public static boolean hasCameraCache;
@@ -227,6 +228,7 @@ public class SharedConfig {
             streamMedia = preferences.getBoolean("streamMedia", true);
             saveStreamMedia = preferences.getBoolean("saveStreamMedia", true);
             streamAllVideo = preferences.getBoolean("streamAllVideo", BuildVars.DEBUG_VERSION);
+            adaptiveDownload = preferences.getBoolean("adaptiveDownload", true);
             suggestStickers = preferences.getInt("suggestStickers", 0);
 
             configLoaded = true;
@@ -16,12 +16,15 @@ import android.os.SystemClock;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Base64;
+import android.util.SparseIntArray;
 
 import com.filtershekanha.teledr.messenger.AndroidUtilities;
 import com.filtershekanha.teledr.messenger.ApplicationLoader;
 import com.filtershekanha.teledr.messenger.BuildConfig;
 import com.filtershekanha.teledr.internal.BuildVars;
+import com.filtershekanha.teledr.messenger.ConcurrentIntObjectMap;
 import com.filtershekanha.teledr.messenger.ContactsController;
+import com.filtershekanha.teledr.messenger.DispatchQueue;
 import com.filtershekanha.teledr.messenger.FileLoader;
 import com.filtershekanha.teledr.messenger.FileLog;
 import com.filtershekanha.teledr.messenger.KeepAliveJob;
@@ -53,8 +56,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectionsManager {
@@ -85,6 +88,22 @@ public class ConnectionsManager {
     public final static int ConnectionStateConnectingToProxy = 4;
     public final static int ConnectionStateUpdating = 5;
 
+    public final static int RequestLaneStage = 0;
+    public final static int RequestLaneFiles = 1;
+    public final static int RequestLaneLight = 2;
+
+    private final static RequestLane[] requestLanes = new RequestLane[]{
+            new RequestLane("stage", Utilities.stageQueue),
+            new RequestLane("files", new DispatchQueue("fileRequestQueue")),
+            new RequestLane("light", new DispatchQueue("lightRequestQueue"))
+    };
+    private final static ConcurrentHashMap<Class<?>, Integer> requestClassLanes = new ConcurrentHashMap<>();
+
+    static {
+        setRequestLane(TLRPC.TL_messages_setTyping.class, RequestLaneLight);
+        setRequestLane(TLRPC.TL_messages_setEncryptedTyping.class, RequestLaneLight);
+    }
+
     private static long lastDnsRequestTime;
 
     public final static int DEFAULT_DATACENTER_ID = Integer.MAX_VALUE;
@@ -94,25 +113,36 @@ public class ConnectionsManager {
     private boolean isUpdating;
     private int connectionState;
     private AtomicInteger lastRequestToken = new AtomicInteger(1);
+    private ConcurrentIntObjectMap<RequestLane> pendingRequests = new ConcurrentIntObjectMap<>();
+    //guids of requests bound while still waiting on their lane, they are bound natively once sent
+    private final SparseIntArray pendingRequestGuids = new SparseIntArray();
     private int appResumeCount;
 
-    private static AsyncTask currentTask;
-
-    private static class ResolvedDomain {
-
-        public String address;
-        long ttl;
-
-        public ResolvedDomain(String a, long t) {
-            address = a;
-            ttl = t;
-        }
+    private final static int ConfigSourceFirebase = 0;
+    private final static int ConfigSourceDnsTxt = 1;
+    private final static int ConfigSourceAzure = 2;
+
+    private final static long minHostTtl = 60 * 1000;
+    private final static long maxHostTtl = 30 * 60 * 1000;
+    private final static long configTtl = 60 * 1000;
+    private final static long configRequestTimeout = 30 * 1000;
+
+    private static class ConfigRequest {
+        private boolean testBackend;
+        private ArrayList<Integer> accounts = new ArrayList<>();
+        private ArrayList<AsyncTask> tasks = new ArrayList<>();
+        private int pendingCount;
+        private long startTime;
     }
 
-    private static ThreadLocal<HashMap<String, ResolvedDomain>> dnsCache = new ThreadLocal<HashMap<String, ResolvedDomain>>() {
+    private static ConfigRequest[] configRequests = new ConfigRequest[2];
+
+    private final static ResolverCache<String> hostCache = new ResolverCache<>("dns", 15 * 1000);
+    private final static ResolverCache<byte[]> configCache = new ResolverCache<>("config", 30 * 1000);
+    private final static ResolverCache.Resolver<String> hostResolver = new ResolverCache.Resolver<String>() {
         @Override
-        protected HashMap<String, ResolvedDomain> initialValue() {
-            return new HashMap<>();
+        public String resolve(String domain) {
+            return resolveHost(domain);
         }
     };
 
@@ -207,13 +237,57 @@ public class ConnectionsManager {
         return sendRequest(object, completionBlock, quickAckBlock, null, flags, DEFAULT_DATACENTER_ID, ConnectionTypeGeneric, true);
     }
 
+    /**
+     * Serializes and completes all requests of the class on the lane instead of the default ones.
+     * Requests are serialized on {@link #RequestLaneFiles} for file connections and on
+     * {@link #RequestLaneStage} otherwise, and always complete on {@link #RequestLaneStage}, so
+     * that their completion blocks stay ordered with {@link MessagesController#processUpdates}.
+     * Only move request classes whose completion blocks do not touch state owned by stageQueue.
+     */
+    public static void setRequestLane(Class<? extends TLObject> requestClass, int lane) {
+        requestClassLanes.put(requestClass, lane);
+    }
+
+    public static RequestLane getRequestLane(int lane) {
+        return requestLanes[lane];
+    }
+
     public int sendRequest(final TLObject object, final RequestDelegate onComplete, final QuickAckDelegate onQuickAck, final WriteToSocketDelegate onWriteToSocket, final int flags, final int datacenterId, final int connetionType, final boolean immediate) {
         final int requestToken = lastRequestToken.getAndIncrement();
-        Utilities.stageQueue.postRunnable(new Runnable() {
+        Integer classLane = requestClassLanes.get(object.getClass());
+        final RequestLane completionLane;
+        RequestLane serializationLane;
+        if (classLane != null) {
+            completionLane = serializationLane = requestLanes[classLane];
+        } else {
+            completionLane = requestLanes[RequestLaneStage];
+            int type = connetionType & 0xffff;
+            if (type == ConnectionTypeDownload || type == ConnectionTypeUpload) {
+                serializationLane = requestLanes[RequestLaneFiles];
+            } else {
+                serializationLane = requestLanes[RequestLaneStage];
+            }
+        }
+        pendingRequests.put(requestToken, serializationLane);
+        serializationLane.postRunnable(new Runnable() {
             @Override
             public void run() {
+                boolean cancelled;
+                int guid;
+                synchronized (pendingRequestGuids) {
+                    cancelled = pendingRequests.remove(requestToken) == null;
+                    guid = pendingRequestGuids.get(requestToken);
+                    pendingRequestGuids.delete(requestToken);
+                }
+                if (cancelled) {
+                    if (BuildVars.LOGS_ENABLED) {
+                        FileLog.d("skip cancelled request {} with token = {}", object, requestToken);
+                    }
+                    object.freeResources();
+                    return;
+                }
                 if (BuildVars.LOGS_ENABLED) {
-                    FileLog.d("send request " + object + " with token = " + requestToken);
+                    FileLog.d("send request {} with token = {}", object, requestToken);
                 }
                 try {
                     NativeByteBuffer buffer = new NativeByteBuffer(object.getObjectSize());
@@ -242,11 +316,11 @@ public class ConnectionsManager {
                                     resp.networkType = networkType;
                                 }
                                 if (BuildVars.LOGS_ENABLED) {
-                                    FileLog.d("java received " + resp + " error = " + error);
+                                    FileLog.d("java received {} error = {}", resp, error);
                                 }
                                 final TLObject finalResponse = resp;
                                 final TLRPC.TL_error finalError = error;
-                                Utilities.stageQueue.postRunnable(new Runnable() {
+                                completionLane.postRunnable(new Runnable() {
                                     @Override
                                     public void run() {
                                         onComplete.run(finalResponse, finalError);
@@ -260,6 +334,9 @@ public class ConnectionsManager {
                             }
                         }
                     }, onQuickAck, onWriteToSocket, flags, datacenterId, connetionType, immediate, requestToken);
+                    if (guid != 0) {
+                        native_bindRequestToGuid(currentAccount, requestToken, guid);
+                    }
                 } catch (Exception e) {
                     FileLog.e(e);
                 }
@@ -269,6 +346,12 @@ public class ConnectionsManager {
     }
 
     public void cancelRequest(int token, boolean notifyServer) {
+        if (pendingRequests.remove(token) != null) {
+            synchronized (pendingRequestGuids) {
+                pendingRequestGuids.delete(token);
+            }
+            return;
+        }
         native_cancelRequest(currentAccount, token, notifyServer);
     }
 
@@ -277,10 +360,24 @@ public class ConnectionsManager {
     }
 
     public void cancelRequestsForGuid(int guid) {
+        synchronized (pendingRequestGuids) {
+            for (int a = pendingRequestGuids.size() - 1; a >= 0; a--) {
+                if (pendingRequestGuids.valueAt(a) == guid) {
+                    pendingRequests.remove(pendingRequestGuids.keyAt(a));
+                    pendingRequestGuids.removeAt(a);
+                }
+            }
+        }
         native_cancelRequestsForGuid(currentAccount, guid);
     }
 
     public void bindRequestToGuid(int requestToken, int guid) {
+        synchronized (pendingRequestGuids) {
+            if (pendingRequests.containsKey(requestToken)) {
+                pendingRequestGuids.put(requestToken, guid);
+                return;
+            }
+        }
         native_bindRequestToGuid(currentAccount, requestToken, guid);
     }
 
@@ -398,6 +495,13 @@ public class ConnectionsManager {
             if (lastPauseTime == 0) {
                 lastPauseTime = System.currentTimeMillis();
             }
+            if (BuildVars.LOGS_ENABLED) {
+                for (int a = 0; a < requestLanes.length; a++) {
+                    FileLog.d(requestLanes[a].getStats());
+                }
+                FileLog.d(hostCache.getStats());
+                FileLog.d(configCache.getStats());
+            }
             native_pauseNetwork(currentAccount);
         } else {
             if (appPaused) {
@@ -421,10 +525,10 @@ public class ConnectionsManager {
             final TLObject message = TLClassStore.Instance().TLdeserialize(buff, buff.readInt32(true), true);
             if (message instanceof TLRPC.Updates) {
                 if (BuildVars.LOGS_ENABLED) {
-                    FileLog.d("java received " + message);
+                    FileLog.d("java received {}", message);
                 }
                 KeepAliveJob.finishJob();
-                Utilities.stageQueue.postRunnable(new Runnable() {
+                requestLanes[RequestLaneStage].postRunnable(new Runnable() {
                     @Override
                     public void run() {
                         MessagesController.getInstance(currentAccount).processUpdates((TLRPC.Updates) message, false);
@@ -498,43 +602,127 @@ public class ConnectionsManager {
         }
     }
 
+    /**
+     * Loads the backup config from all sources starting at {@code second} at once and applies
+     * the first result that arrives. Results are cached for all accounts for a short time, and a
+     * source that just failed is skipped until its negative entry expires. Accounts that ask while
+     * a load is running are added to it.
+     */
     public static void onRequestNewServerIpAndPort(final int second, final int currentAccount) {
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                if (currentTask != null || second == 0 && Math.abs(lastDnsRequestTime - System.currentTimeMillis()) < 10000 || !isNetworkOnline()) {
+                if (second == 0 && Math.abs(lastDnsRequestTime - System.currentTimeMillis()) < 10000 || !isNetworkOnline()) {
                     if (BuildVars.LOGS_ENABLED) {
-                        FileLog.d("don't start task, current task = " + currentTask + " next task = " + second + " time diff = " + Math.abs(lastDnsRequestTime - System.currentTimeMillis()) + " network = " + isNetworkOnline());
+                        FileLog.d("don't start task, next task = " + second + " time diff = " + Math.abs(lastDnsRequestTime - System.currentTimeMillis()) + " network = " + isNetworkOnline());
                     }
                     return;
                 }
-                lastDnsRequestTime = System.currentTimeMillis();
-                if (second == 2) {
+                boolean testBackend = native_isTestBackend(currentAccount) != 0;
+                int index = testBackend ? 1 : 0;
+                ConfigRequest request = configRequests[index];
+                if (request != null && SystemClock.elapsedRealtime() - request.startTime < configRequestTimeout) {
+                    if (!request.accounts.contains(currentAccount)) {
+                        request.accounts.add(currentAccount);
+                    }
                     if (BuildVars.LOGS_ENABLED) {
-                        FileLog.d("start azure dns task");
+                        FileLog.d("config is already loading, account " + currentAccount + " will get it too");
                     }
-                    AzureLoadTask task = new AzureLoadTask(currentAccount);
-                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, null, null, null);
-                    currentTask = task;
-                } else if (second == 1) {
+                    return;
+                }
+                ArrayList<Integer> sources = null;
+                for (int source = second; source <= ConfigSourceAzure; source++) {
+                    String key = getConfigCacheKey(source, testBackend);
+                    if (configCache.contains(key)) {
+                        byte[] bytes = configCache.get(key);
+                        if (bytes != null) {
+                            if (BuildVars.LOGS_ENABLED) {
+                                FileLog.d("apply cached config from source " + source);
+                            }
+                            applyDnsConfig(currentAccount, bytes);
+                            return;
+                        }
+                    } else {
+                        if (sources == null) {
+                            sources = new ArrayList<>();
+                        }
+                        sources.add(source);
+                    }
+                }
+                if (sources == null) {
                     if (BuildVars.LOGS_ENABLED) {
-                        FileLog.d("start dns txt task");
+                        FileLog.d("all config sources failed recently");
+                    }
+                    return;
+                }
+                lastDnsRequestTime = System.currentTimeMillis();
+                request = new ConfigRequest();
+                request.testBackend = testBackend;
+                request.accounts.add(currentAccount);
+                request.startTime = SystemClock.elapsedRealtime();
+                configRequests[index] = request;
+                for (int a = 0; a < sources.size(); a++) {
+                    int source = sources.get(a);
+                    AsyncTask<Void, Void, byte[]> task;
+                    if (source == ConfigSourceFirebase) {
+                        task = new FirebaseTask(currentAccount, request);
+                    } else if (source == ConfigSourceDnsTxt) {
+                        task = new DnsTxtLoadTask(currentAccount, request);
+                    } else {
+                        task = new AzureLoadTask(currentAccount, request);
                     }
-                    DnsTxtLoadTask task = new DnsTxtLoadTask(currentAccount);
-                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, null, null, null);
-                    currentTask = task;
-                } else {
                     if (BuildVars.LOGS_ENABLED) {
-                        FileLog.d("start firebase task");
+                        FileLog.d("start config task " + source);
                     }
-                    FirebaseTask task = new FirebaseTask(currentAccount);
                     task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, null, null, null);
-                    currentTask = task;
+                    request.tasks.add(task);
+                    request.pendingCount++;
                 }
             }
         });
     }
 
+    private static void onConfigLoaded(ConfigRequest request, int source, byte[] bytes) {
+        configCache.put(getConfigCacheKey(source, request.testBackend), bytes, configTtl);
+        request.pendingCount--;
+        int index = request.testBackend ? 1 : 0;
+        if (configRequests[index] != request) {
+            return;
+        }
+        if (bytes != null) {
+            configRequests[index] = null;
+            configCache.recordResolveTime(SystemClock.elapsedRealtime() - request.startTime);
+            if (BuildVars.LOGS_ENABLED) {
+                FileLog.d("got config from source " + source + ", " + configCache.getStats());
+            }
+            for (int a = 0; a < request.tasks.size(); a++) {
+                request.tasks.get(a).cancel(true);
+            }
+            for (int a = 0; a < request.accounts.size(); a++) {
+                applyDnsConfig(request.accounts.get(a), bytes);
+            }
+        } else if (request.pendingCount == 0) {
+            configRequests[index] = null;
+            if (BuildVars.LOGS_ENABLED) {
+                FileLog.d("failed to get config from all sources");
+            }
+        }
+    }
+
+    private static void applyDnsConfig(int currentAccount, byte[] bytes) {
+        try {
+            NativeByteBuffer buffer = new NativeByteBuffer(bytes.length);
+            buffer.writeBytes(bytes);
+            native_applyDnsConfig(currentAccount, buffer.address, UserConfig.getInstance(currentAccount).getClientPhone());
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    private static String getConfigCacheKey(int source, boolean testBackend) {
+        return source + (testBackend ? "_test" : "_prod");
+    }
+
     public static void onProxyError() {
         AndroidUtilities.runOnUIThread(new Runnable() {
             @Override
@@ -545,12 +733,11 @@ public class ConnectionsManager {
     }
 
     public static String getHostByName(String domain, final int currentAccount) {
-        HashMap<String, ResolvedDomain> cache = dnsCache.get();
-        ResolvedDomain resolvedDomain = cache.get(domain);
-        if (resolvedDomain != null && SystemClock.elapsedRealtime() - resolvedDomain.ttl < 5 * 60 * 1000) {
-            return resolvedDomain.address;
-        }
+        String address = hostCache.resolve(domain, hostResolver);
+        return address != null ? address : "";
+    }
 
+    private static String resolveHost(String domain) {
         ByteArrayOutputStream outbuf = null;
         InputStream httpConnectionStream = null;
         try {
@@ -581,9 +768,9 @@ public class ConnectionsManager {
             JSONArray array = jsonObject.getJSONArray("Answer");
             int len = array.length();
             if (len > 0) {
-                String ip = array.getJSONObject(Utilities.random.nextInt(array.length())).getString("data");
-                ResolvedDomain newResolvedDomain = new ResolvedDomain(ip, SystemClock.elapsedRealtime());
-                cache.put(domain, newResolvedDomain);
+                JSONObject answer = array.getJSONObject(Utilities.random.nextInt(array.length()));
+                String ip = answer.getString("data");
+                hostCache.put(domain, ip, Math.max(minHostTtl, Math.min(maxHostTtl, answer.optLong("TTL", 300) * 1000)));
                 return ip;
             }
         } catch (Throwable e) {
@@ -604,7 +791,7 @@ public class ConnectionsManager {
 
             }
         }
-        return "";
+        return null;
     }
 
     public static void onBytesReceived(int amount, int networkType, final int currentAccount) {
@@ -865,16 +1052,18 @@ public class ConnectionsManager {
         return false;
     }
 
-    private static class DnsTxtLoadTask extends AsyncTask<Void, Void, NativeByteBuffer> {
+    private static class DnsTxtLoadTask extends AsyncTask<Void, Void, byte[]> {
 
         private int currentAccount;
+        private ConfigRequest request;
 
-        public DnsTxtLoadTask(int instance) {
+        public DnsTxtLoadTask(int instance, ConfigRequest configRequest) {
             super();
             currentAccount = instance;
+            request = configRequest;
         }
 
-        protected NativeByteBuffer doInBackground(Void... voids) {
+        protected byte[] doInBackground(Void... voids) {
             ByteArrayOutputStream outbuf = null;
             InputStream httpConnectionStream = null;
             for (int i = 0; i < 3; i++) {
@@ -938,10 +1127,7 @@ public class ConnectionsManager {
                     for (int a = 0; a < arrayList.size(); a++) {
                         builder.append(arrayList.get(a).replace("\"", ""));
                     }
-                    byte[] bytes = Base64.decode(builder.toString(), Base64.DEFAULT);
-                    NativeByteBuffer buffer = new NativeByteBuffer(bytes.length);
-                    buffer.writeBytes(bytes);
-                    return buffer;
+                    return Base64.decode(builder.toString(), Base64.DEFAULT);
                 } catch (Throwable e) {
                     FileLog.e(e);
                 } finally {
@@ -965,38 +1151,32 @@ public class ConnectionsManager {
         }
 
         @Override
-        protected void onPostExecute(final NativeByteBuffer result) {
+        protected void onPostExecute(final byte[] result) {
             Utilities.stageQueue.postRunnable(new Runnable() {
                 @Override
                 public void run() {
-                    if (result != null) {
-                        currentTask = null;
-                        native_applyDnsConfig(currentAccount, result.address, UserConfig.getInstance(currentAccount).getClientPhone());
-                    } else {
-                        if (BuildVars.LOGS_ENABLED) {
-                            FileLog.d("failed to get dns txt result");
-                            FileLog.d("start azure task");
-                        }
-                        AzureLoadTask task = new AzureLoadTask(currentAccount);
-                        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, null, null, null);
-                        currentTask = task;
+                    if (result == null && BuildVars.LOGS_ENABLED) {
+                        FileLog.d("failed to get dns txt result");
                     }
+                    onConfigLoaded(request, ConfigSourceDnsTxt, result);
                 }
             });
         }
     }
 
-    private static class FirebaseTask extends AsyncTask<Void, Void, NativeByteBuffer> {
+    private static class FirebaseTask extends AsyncTask<Void, Void, byte[]> {
 
         private int currentAccount;
+        private ConfigRequest request;
         private FirebaseRemoteConfig firebaseRemoteConfig;
 
-        public FirebaseTask(int instance) {
+        public FirebaseTask(int instance, ConfigRequest configRequest) {
             super();
             currentAccount = instance;
+            request = configRequest;
         }
 
-        protected NativeByteBuffer doInBackground(Void... voids) {
+        protected byte[] doInBackground(Void... voids) {
             try {
                 if (native_isTestBackend(currentAccount) != 0) {
                     throw new Exception("test backend");
@@ -1016,30 +1196,18 @@ public class ConnectionsManager {
                         Utilities.stageQueue.postRunnable(new Runnable() {
                             @Override
                             public void run() {
-                                currentTask = null;
                                 String config = null;
                                 if (success) {
                                     firebaseRemoteConfig.activateFetched();
                                     config = firebaseRemoteConfig.getString("ipconfigv2");
                                 }
+                                byte[] bytes = null;
                                 if (!TextUtils.isEmpty(config)) {
-                                    byte[] bytes = Base64.decode(config, Base64.DEFAULT);
-                                    try {
-                                        NativeByteBuffer buffer = new NativeByteBuffer(bytes.length);
-                                        buffer.writeBytes(bytes);
-                                        native_applyDnsConfig(currentAccount, buffer.address, UserConfig.getInstance(currentAccount).getClientPhone());
-                                    } catch (Exception e) {
-                                        FileLog.e(e);
-                                    }
-                                } else {
-                                    if (BuildVars.LOGS_ENABLED) {
-                                        FileLog.d("failed to get firebase result");
-                                        FileLog.d("start dns txt task");
-                                    }
-                                    DnsTxtLoadTask task = new DnsTxtLoadTask(currentAccount);
-                                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, null, null, null);
-                                    currentTask = task;
+                                    bytes = Base64.decode(config, Base64.DEFAULT);
+                                } else if (BuildVars.LOGS_ENABLED) {
+                                    FileLog.d("failed to get firebase result");
                                 }
+                                onConfigLoaded(request, ConfigSourceFirebase, bytes);
                             }
                         });
                     }
@@ -1050,11 +1218,8 @@ public class ConnectionsManager {
                     public void run() {
                         if (BuildVars.LOGS_ENABLED) {
                             FileLog.d("failed to get firebase result");
-                            FileLog.d("start dns txt task");
                         }
-                        DnsTxtLoadTask task = new DnsTxtLoadTask(currentAccount);
-                        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, null, null, null);
-                        currentTask = task;
+                        onConfigLoaded(request, ConfigSourceFirebase, null);
                     }
                 });
                 FileLog.e(e);
@@ -1063,21 +1228,23 @@ public class ConnectionsManager {
         }
 
         @Override
-        protected void onPostExecute(NativeByteBuffer result) {
+        protected void onPostExecute(byte[] result) {
 
         }
     }
 
-    private static class AzureLoadTask extends AsyncTask<Void, Void, NativeByteBuffer> {
+    private static class AzureLoadTask extends AsyncTask<Void, Void, byte[]> {
 
         private int currentAccount;
+        private ConfigRequest request;
 
-        public AzureLoadTask(int instance) {
+        public AzureLoadTask(int instance, ConfigRequest configRequest) {
             super();
             currentAccount = instance;
+            request = configRequest;
         }
 
-        protected NativeByteBuffer doInBackground(Void... voids) {
+        protected byte[] doInBackground(Void... voids) {
             ByteArrayOutputStream outbuf = null;
             InputStream httpConnectionStream = null;
             try {
@@ -1111,10 +1278,7 @@ public class ConnectionsManager {
                         break;
                     }
                 }
-                byte[] bytes = Base64.decode(outbuf.toByteArray(), Base64.DEFAULT);
-                NativeByteBuffer buffer = new NativeByteBuffer(bytes.length);
-                buffer.writeBytes(bytes);
-                return buffer;
+                return Base64.decode(outbuf.toByteArray(), Base64.DEFAULT);
             } catch (Throwable e) {
                 FileLog.e(e);
             } finally {
@@ -1137,18 +1301,14 @@ public class ConnectionsManager {
         }
 
         @Override
-        protected void onPostExecute(final NativeByteBuffer result) {
+        protected void onPostExecute(final byte[] result) {
             Utilities.stageQueue.postRunnable(new Runnable() {
                 @Override
                 public void run() {
-                    if (result != null) {
-                        native_applyDnsConfig(currentAccount, result.address, UserConfig.getInstance(currentAccount).getClientPhone());
-                    } else {
-                        if (BuildVars.LOGS_ENABLED) {
-                            FileLog.d("failed to get azure result");
-                        }
+                    if (result == null && BuildVars.LOGS_ENABLED) {
+                        FileLog.d("failed to get azure result");
                     }
-                    currentTask = null;
+                    onConfigLoaded(request, ConfigSourceAzure, result);
                 }
             });
         }
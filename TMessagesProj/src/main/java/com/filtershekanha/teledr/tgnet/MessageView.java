@@ -0,0 +1,217 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.tgnet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view over a serialized {@link TLRPC.Message} kept in a {@link NativeByteBuffer}.
+ * Header fields are decoded on first access without allocating, the full object graph is built
+ * only by {@link #getMessage(int)}. The view is valid until the backing buffer is reused,
+ * so a single instance is meant to be {@link #reset(NativeByteBuffer) reset} for every cursor row.
+ * The rows of a loaded chat or dialogs page become MessageObjects that read every field, so they
+ * are built in full at once; the view saves the work where rows are only filtered or matched by
+ * their header or text, like search, the search index and the delete paths.
+ */
+public class MessageView {
+
+    private static final int STATE_NONE = 0;
+    private static final int STATE_HEADER = 1;
+    private static final int STATE_MESSAGE = 2;
+
+    private NativeByteBuffer data;
+    private int start;
+    private int state;
+
+    private int constructor;
+    private int flags;
+    private int id;
+    private int fromId;
+    private int date;
+    private int textPosition;
+    private int attachPathPosition;
+    private boolean attachPathRead;
+    private TLRPC.Message message;
+
+    public void reset(NativeByteBuffer buffer) {
+        data = buffer;
+        start = buffer != null ? buffer.position() : 0;
+        state = STATE_NONE;
+        constructor = 0;
+        flags = 0;
+        id = 0;
+        fromId = 0;
+        date = 0;
+        textPosition = -1;
+        attachPathPosition = 0;
+        attachPathRead = false;
+        message = null;
+    }
+
+    public boolean isValid() {
+        decodeHeader();
+        return state == STATE_HEADER || message != null;
+    }
+
+    public int getConstructor() {
+        decodeHeader();
+        return constructor;
+    }
+
+    public int getFlags() {
+        decodeHeader();
+        return flags;
+    }
+
+    public int getId() {
+        decodeHeader();
+        return id;
+    }
+
+    public int getFromId() {
+        decodeHeader();
+        return fromId;
+    }
+
+    public int getDate() {
+        decodeHeader();
+        return date;
+    }
+
+    public String getText() {
+        decodeHeader();
+        if (message != null) {
+            return message.message;
+        }
+        if (constructor == TLRPC.TL_messageService.constructor) {
+            return null;
+        }
+        if (textPosition < 0) {
+            materialize();
+            return message != null ? message.message : null;
+        }
+        data.position(textPosition);
+        return data.readString(false);
+    }
+
+    public TLRPC.Message getMessage(int currentUserId) {
+        return getMessage(currentUserId, 0);
+    }
+
+    /**
+     * Builds the message with the given send state, it is set before the attach path is read
+     * because reading it depends on the state.
+     */
+    public TLRPC.Message getMessage(int currentUserId, int sendState) {
+        materialize();
+        if (message != null && !attachPathRead) {
+            message.send_state = sendState;
+            data.position(attachPathPosition);
+            message.readAttachPath(data, currentUserId);
+            attachPathRead = true;
+        }
+        return message;
+    }
+
+    private void materialize() {
+        if (state == STATE_MESSAGE || data == null) {
+            return;
+        }
+        data.position(start);
+        message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+        attachPathPosition = data.position();
+        if (message != null && state == STATE_NONE) {
+            flags = message.flags;
+            id = message.id;
+            fromId = message.from_id;
+            date = message.date;
+        }
+        state = STATE_MESSAGE;
+    }
+
+    private void decodeHeader() {
+        if (state != STATE_NONE || data == null) {
+            return;
+        }
+        ByteBuffer buffer = data.buffer;
+        try {
+            buffer.position(start);
+            constructor = buffer.getInt();
+            if (constructor != TLRPC.TL_message.constructor && constructor != TLRPC.TL_messageService.constructor) {
+                materialize();
+                return;
+            }
+            flags = buffer.getInt();
+            id = buffer.getInt();
+            if ((flags & TLRPC.MESSAGE_FLAG_HAS_FROM_ID) != 0) {
+                fromId = buffer.getInt();
+            }
+            skipPeer(buffer);
+            boolean isMessage = constructor == TLRPC.TL_message.constructor;
+            if (isMessage && (flags & TLRPC.MESSAGE_FLAG_FWD) != 0 && !skipFwdHeader(buffer)) {
+                materialize();
+                return;
+            }
+            if (isMessage && (flags & TLRPC.MESSAGE_FLAG_HAS_BOT_ID) != 0) {
+                buffer.getInt();
+            }
+            if ((flags & TLRPC.MESSAGE_FLAG_REPLY) != 0) {
+                buffer.getInt();
+            }
+            date = buffer.getInt();
+            if (isMessage && (flags & TLRPC.MESSAGE_FLAG_HAS_MEDIA) == 0) {
+                textPosition = buffer.position();
+            }
+            state = STATE_HEADER;
+        } catch (Exception e) {
+            materialize();
+        }
+    }
+
+    private static void skipPeer(ByteBuffer buffer) {
+        buffer.getInt();
+        buffer.getInt();
+    }
+
+    private static boolean skipFwdHeader(ByteBuffer buffer) {
+        if (buffer.getInt() != TLRPC.TL_messageFwdHeader.constructor) {
+            return false;
+        }
+        int fwdFlags = buffer.getInt();
+        if ((fwdFlags & 1) != 0) {
+            buffer.getInt();
+        }
+        buffer.getInt();
+        if ((fwdFlags & 2) != 0) {
+            buffer.getInt();
+        }
+        if ((fwdFlags & 4) != 0) {
+            buffer.getInt();
+        }
+        if ((fwdFlags & 8) != 0) {
+            skipString(buffer);
+        }
+        if ((fwdFlags & 16) != 0) {
+            skipPeer(buffer);
+            buffer.getInt();
+        }
+        return true;
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int sl = 1;
+        int l = buffer.get() & 0xff;
+        if (l >= 254) {
+            l = (buffer.get() & 0xff) | ((buffer.get() & 0xff) << 8) | ((buffer.get() & 0xff) << 16);
+            sl = 4;
+        }
+        int padding = (4 - (l + sl) % 4) % 4;
+        buffer.position(buffer.position() + l + padding);
+    }
+}
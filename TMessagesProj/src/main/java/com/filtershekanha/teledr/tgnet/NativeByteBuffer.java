@@ -12,6 +12,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public ByteBuffer buffer;
     private boolean justCalc;
     private int len;
+    private boolean pooled;
     public boolean reused = true;
 
     private static final ThreadLocal<NativeByteBuffer> addressWrapper = new ThreadLocal<NativeByteBuffer>() {
@@ -64,6 +65,23 @@ public class NativeByteBuffer extends AbstractSerializedData {
         justCalc = calculate;
     }
 
+    NativeByteBuffer(ByteBuffer byteBuffer, boolean pool) {
+        buffer = byteBuffer;
+        pooled = pool;
+        reused = false;
+    }
+
+    private void ensureCapacity(int count) {
+        if (!pooled || justCalc || buffer.remaining() >= count) {
+            return;
+        }
+        ByteBuffer newBuffer = NativeByteBufferPool.obtainByteBuffer(Math.max(buffer.position() + count, buffer.capacity() * 2));
+        buffer.flip();
+        newBuffer.put(buffer);
+        NativeByteBufferPool.releaseByteBuffer(buffer);
+        buffer = newBuffer;
+    }
+
     public int position() {
         return buffer.position();
     }
@@ -106,6 +124,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeInt32(int x) {
         try {
+            ensureCapacity(4);
             if (!justCalc) {
                 buffer.putInt(x);
             } else {
@@ -120,6 +139,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeInt64(long x) {
         try {
+            ensureCapacity(8);
             if (!justCalc) {
                 buffer.putLong(x);
             } else {
@@ -146,6 +166,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeBytes(byte[] b) {
         try {
+            ensureCapacity(b.length);
             if (!justCalc) {
                 buffer.put(b);
             } else {
@@ -160,6 +181,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeBytes(byte[] b, int offset, int count) {
         try {
+            ensureCapacity(count);
             if (!justCalc) {
                 buffer.put(b, offset, count);
             } else {
@@ -178,6 +200,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByte(byte b) {
         try {
+            ensureCapacity(1);
             if (!justCalc) {
                 buffer.put(b);
             } else {
@@ -202,6 +225,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteArray(byte[] b, int offset, int count) {
         try {
+            ensureCapacity(count + 7);
             if (count <= 253) {
                 if (!justCalc) {
                     buffer.put((byte) count);
@@ -241,6 +265,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteArray(byte[] b) {
         try {
+            ensureCapacity(b.length + 7);
             if (b.length <= 253) {
                 if (!justCalc) {
                     buffer.put((byte) b.length);
@@ -290,6 +315,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteBuffer(NativeByteBuffer b) {
         try {
+            ensureCapacity(b.limit() + 7);
             int l = b.limit();
             if (l <= 253) {
                 if (!justCalc) {
@@ -328,6 +354,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     }
 
     public void writeBytes(NativeByteBuffer b) {
+        ensureCapacity(b.limit());
         if (justCalc) {
             len += b.limit();
         } else {
@@ -552,6 +579,10 @@ public class NativeByteBuffer extends AbstractSerializedData {
         if (address != 0) {
             reused = true;
             native_reuse(address);
+        } else if (pooled && !reused) {
+            reused = true;
+            NativeByteBufferPool.releaseByteBuffer(buffer);
+            buffer = null;
         }
     }
 
@@ -0,0 +1,106 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.tgnet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NativeByteBufferPool {
+
+    private static final int[] SIZE_CLASSES = new int[]{128, 1024 + 200, 4096 + 200, 16384 + 200, 40000, 160000};
+    private static final int MAX_POOLED_BYTES_PER_CLASS = 256 * 1024;
+    private static final int MAX_BUFFERS_PER_CLASS = 64;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final ThreadLocal<ArrayList<ByteBuffer>[]> freeBuffers = new ThreadLocal<ArrayList<ByteBuffer>[]>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected ArrayList<ByteBuffer>[] initialValue() {
+            ArrayList<ByteBuffer>[] result = new ArrayList[SIZE_CLASSES.length];
+            for (int a = 0; a < result.length; a++) {
+                result[a] = new ArrayList<>();
+            }
+            return result;
+        }
+    };
+
+    public static NativeByteBuffer obtain() {
+        return obtain(SIZE_CLASSES[1]);
+    }
+
+    public static NativeByteBuffer obtain(int size) {
+        return new NativeByteBuffer(obtainByteBuffer(size), true);
+    }
+
+    public static NativeByteBuffer serialize(TLObject object) {
+        NativeByteBuffer data = obtain();
+        object.serializeToStream(data);
+        data.limit(data.position());
+        return data;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    static ByteBuffer obtainByteBuffer(int size) {
+        int sizeClass = getSizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            ArrayList<ByteBuffer> buffers = freeBuffers.get()[sizeClass];
+            if (!buffers.isEmpty()) {
+                buffer = buffers.remove(buffers.size() - 1);
+                hits.incrementAndGet();
+            } else {
+                buffer = ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+                misses.incrementAndGet();
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(size);
+            misses.incrementAndGet();
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    static void releaseByteBuffer(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = getSizeClass(capacity);
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != capacity) {
+            return;
+        }
+        ArrayList<ByteBuffer> buffers = freeBuffers.get()[sizeClass];
+        if (buffers.size() < Math.min(MAX_BUFFERS_PER_CLASS, Math.max(2, MAX_POOLED_BYTES_PER_CLASS / capacity))) {
+            buffers.add(buffer);
+        }
+    }
+
+    private static int getSizeClass(int size) {
+        for (int a = 0; a < SIZE_CLASSES.length; a++) {
+            if (size <= SIZE_CLASSES[a]) {
+                return a;
+            }
+        }
+        return -1;
+    }
+}
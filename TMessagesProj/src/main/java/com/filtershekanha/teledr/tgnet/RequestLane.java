@@ -0,0 +1,113 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.tgnet;
+
+import com.filtershekanha.teledr.messenger.DispatchQueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One execution lane of the request pipeline, a thin wrapper over a {@link DispatchQueue}.
+ * Runnables of a lane run in the order they were posted. The lane counts how many of its
+ * runnables are waiting and keeps histograms of the queue depth seen by new runnables and of the
+ * time they waited before running.
+ */
+public class RequestLane {
+
+    private final static int[] depthBuckets = {0, 1, 4, 16, 64};
+    private final static int[] latencyBuckets = {1, 5, 20, 100, 500};
+
+    private final String name;
+    private final DispatchQueue queue;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLongArray depthHistogram = new AtomicLongArray(depthBuckets.length + 1);
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(latencyBuckets.length + 1);
+
+    public RequestLane(String name, DispatchQueue queue) {
+        this.name = name;
+        this.queue = queue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DispatchQueue getQueue() {
+        return queue;
+    }
+
+    public void postRunnable(final Runnable runnable) {
+        final long time = System.nanoTime();
+        depthHistogram.incrementAndGet(getBucket(depthBuckets, depth.getAndIncrement()));
+        queue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                depth.decrementAndGet();
+                latencyHistogram.incrementAndGet(getBucket(latencyBuckets, (System.nanoTime() - time) / 1000000));
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of posted runnables that did not start yet.
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns how often a runnable was posted while 0, 1, 2-4, 5-16, 17-64 or more runnables
+     * were waiting.
+     */
+    public long[] getDepthHistogram() {
+        return toArray(depthHistogram);
+    }
+
+    /**
+     * Returns how many runnables waited up to 1, 5, 20, 100, 500 ms or longer before they ran.
+     */
+    public long[] getLatencyHistogram() {
+        return toArray(latencyHistogram);
+    }
+
+    public String getStats() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(name).append(" lane depth = ").append(depth.get()).append(", depth histogram:");
+        appendHistogram(builder, depthBuckets, depthHistogram, "");
+        builder.append(", wait histogram:");
+        appendHistogram(builder, latencyBuckets, latencyHistogram, "ms");
+        return builder.toString();
+    }
+
+    private static void appendHistogram(StringBuilder builder, int[] buckets, AtomicLongArray histogram, String unit) {
+        for (int a = 0; a < buckets.length; a++) {
+            builder.append(" <=").append(buckets[a]).append(unit).append(": ").append(histogram.get(a));
+        }
+        builder.append(" >").append(buckets[buckets.length - 1]).append(unit).append(": ").append(histogram.get(buckets.length));
+    }
+
+    private static int getBucket(int[] buckets, long value) {
+        for (int a = 0; a < buckets.length; a++) {
+            if (value <= buckets[a]) {
+                return a;
+            }
+        }
+        return buckets.length;
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] result = new long[histogram.length()];
+        for (int a = 0; a < result.length; a++) {
+            result[a] = histogram.get(a);
+        }
+        return result;
+    }
+}
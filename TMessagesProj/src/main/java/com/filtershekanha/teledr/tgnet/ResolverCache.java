@@ -0,0 +1,184 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.tgnet;
+
+import android.os.SystemClock;
+
+import com.filtershekanha.teledr.messenger.FileLog;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of resolved values with a time to live per entry. A failed resolution is
+ * stored as a negative entry for a short time, so a broken source is not asked again by every
+ * thread and account. Concurrent resolutions of the same key wait for the first one instead of
+ * going to the network again. Hit rates and resolution latency are counted for the logs.
+ */
+public class ResolverCache<T> {
+
+    public interface Resolver<T> {
+        /**
+         * Resolves the key, called without any lock held. The resolver should store a found value
+         * with {@link #put(String, Object, long)} to give it its own time to live; if nothing is
+         * stored, a negative entry is added.
+         */
+        T resolve(String key);
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long expireTime;
+
+        private Entry(T value, long expireTime) {
+            this.value = value;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final static long maxWaitTime = 5000;
+
+    private final String name;
+    private final long negativeTtl;
+    private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final HashMap<String, CountDownLatch> pendingResolves = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong joinedResolves = new AtomicLong();
+    private final AtomicLong resolveCount = new AtomicLong();
+    private final AtomicLong resolveTime = new AtomicLong();
+
+    public ResolverCache(String name, long negativeTtl) {
+        this.name = name;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Returns true if the cache has a live entry for the key, a negative one included.
+     */
+    public boolean contains(String key) {
+        return getEntry(key) != null;
+    }
+
+    /**
+     * Returns the cached value, or null if there is none or the entry is negative.
+     */
+    public T get(String key) {
+        Entry<T> entry = getEntry(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.value == null) {
+            negativeHits.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry.value;
+    }
+
+    /**
+     * Stores the value for {@code ttl} ms, a null value is stored as a negative entry.
+     */
+    public void put(String key, T value, long ttl) {
+        entries.put(key, new Entry<>(value, SystemClock.elapsedRealtime() + (value != null ? ttl : negativeTtl)));
+    }
+
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Returns the cached value or resolves it on the calling thread. If the key is already being
+     * resolved by another thread, waits for its result.
+     */
+    public T resolve(String key, Resolver<T> resolver) {
+        Entry<T> entry = getEntry(key);
+        if (entry != null) {
+            if (entry.value == null) {
+                negativeHits.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        CountDownLatch latch;
+        boolean owner = false;
+        synchronized (pendingResolves) {
+            latch = pendingResolves.get(key);
+            if (latch == null) {
+                latch = new CountDownLatch(1);
+                pendingResolves.put(key, latch);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            joinedResolves.incrementAndGet();
+            try {
+                latch.await(maxWaitTime, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                FileLog.e(e);
+            }
+            entry = getEntry(key);
+            return entry != null ? entry.value : null;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        T value = null;
+        try {
+            value = resolver.resolve(key);
+        } finally {
+            recordResolveTime(SystemClock.elapsedRealtime() - startTime);
+            if (getEntry(key) == null) {
+                put(key, value, negativeTtl);
+            }
+            synchronized (pendingResolves) {
+                pendingResolves.remove(key);
+            }
+            latch.countDown();
+        }
+        return value;
+    }
+
+    /**
+     * Counts a resolution done outside of {@link #resolve(String, Resolver)}.
+     */
+    public void recordResolveTime(long time) {
+        resolveCount.incrementAndGet();
+        resolveTime.addAndGet(time);
+    }
+
+    public float getHitRate() {
+        long total = hits.get() + negativeHits.get() + misses.get();
+        return total != 0 ? (hits.get() + negativeHits.get()) / (float) total : 0;
+    }
+
+    public long getAverageResolveTime() {
+        long count = resolveCount.get();
+        return count != 0 ? resolveTime.get() / count : 0;
+    }
+
+    public String getStats() {
+        return name + " cache hits = " + hits.get() + " negative hits = " + negativeHits.get() + " misses = " + misses.get() + " joined = " + joinedResolves.get() + " resolves = " + resolveCount.get() + " average resolve time = " + getAverageResolveTime();
+    }
+
+    private Entry<T> getEntry(String key) {
+        Entry<T> entry = entries.get(key);
+        if (entry != null && entry.expireTime <= SystemClock.elapsedRealtime()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+}
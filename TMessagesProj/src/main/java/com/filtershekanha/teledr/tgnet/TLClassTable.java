@@ -0,0 +1,2142 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.tgnet;
+
+// Generated by Tools/TLClassTableGenerator.py from TLRPC.java, do not edit manually.
+final class TLClassTable {
+
+    static final int SIZE = 1058;
+
+    private TLClassTable() {
+
+    }
+
+    static TLObject newInstance(int constructor) {
+        switch (constructor) {
+            case 0x1b0c841a:
+                return new TLRPC.TL_draftMessageEmpty();
+            case 0xba4baec5:
+                return new TLRPC.TL_draftMessageEmpty_layer81();
+            case 0xfd8e711f:
+                return new TLRPC.TL_draftMessage();
+            case 0x37c1011c:
+                return new TLRPC.TL_chatPhotoEmpty();
+            case 0x6153276a:
+                return new TLRPC.TL_chatPhoto();
+            case 0x780a0310:
+                return new TLRPC.TL_help_termsOfService();
+            case 0x500911e1:
+                return new TLRPC.TL_payments_paymentReceipt();
+            case 0xc007cec3:
+                return new TLRPC.TL_notifyChats();
+            case 0xb4c83b4c:
+                return new TLRPC.TL_notifyUsers();
+            case 0x9fd40bd8:
+                return new TLRPC.TL_notifyPeer();
+            case 0x560f8935:
+                return new TLRPC.TL_messages_sentEncryptedMessage();
+            case 0x9493ff32:
+                return new TLRPC.TL_messages_sentEncryptedFile();
+            case 0xc4b9f9bb:
+                return new TLRPC.TL_error();
+            case 0x811ea28e:
+                return new TLRPC.TL_auth_checkedPhone();
+            case 0xe5d7d19c:
+                return new TLRPC.TL_messages_chatFull();
+            case 0x7bd9c3f1:
+                return new TLRPC.TL_account_passwordSettings();
+            case 0x3a556302:
+                return new TLRPC.TL_documentAttributeSticker_layer55();
+            case 0x51448e5:
+                return new TLRPC.TL_documentAttributeAudio_old();
+            case 0x6319d612:
+                return new TLRPC.TL_documentAttributeSticker();
+            case 0x11b58939:
+                return new TLRPC.TL_documentAttributeAnimated();
+            case 0x15590068:
+                return new TLRPC.TL_documentAttributeFilename();
+            case 0xef02ce6:
+                return new TLRPC.TL_documentAttributeVideo();
+            case 0x5910cccb:
+                return new TLRPC.TL_documentAttributeVideo_layer65();
+            case 0xded218e0:
+                return new TLRPC.TL_documentAttributeAudio_layer45();
+            case 0xfb0a5727:
+                return new TLRPC.TL_documentAttributeSticker_old();
+            case 0x9801d2f7:
+                return new TLRPC.TL_documentAttributeHasStickers();
+            case 0x994c9882:
+                return new TLRPC.TL_documentAttributeSticker_old2();
+            case 0x6c37c15c:
+                return new TLRPC.TL_documentAttributeImageSize();
+            case 0x9852f9c6:
+                return new TLRPC.TL_documentAttributeAudio();
+            case 0xdc3d824f:
+                return new TLRPC.TL_textEmpty();
+            case 0x3c2884c1:
+                return new TLRPC.TL_textUrl();
+            case 0x9bf8bb95:
+                return new TLRPC.TL_textStrike();
+            case 0x6c3f19b9:
+                return new TLRPC.TL_textFixed();
+            case 0xde5a0dd6:
+                return new TLRPC.TL_textEmail();
+            case 0x744694e0:
+                return new TLRPC.TL_textPlain();
+            case 0x7e6260d7:
+                return new TLRPC.TL_textConcat();
+            case 0x6724abc4:
+                return new TLRPC.TL_textBold();
+            case 0xd912a59c:
+                return new TLRPC.TL_textItalic();
+            case 0xc12622c4:
+                return new TLRPC.TL_textUnderline();
+            case 0x5ce14175:
+                return new TLRPC.TL_popularContact();
+            case 0x36585ea4:
+                return new TLRPC.TL_messages_botCallbackAnswer();
+            case 0x7d748d04:
+                return new TLRPC.TL_dataJSON();
+            case 0xd3680c61:
+                return new TLRPC.TL_contactStatus();
+            case 0x7780bcb4:
+                return new TLRPC.TL_groupCallDiscarded();
+            case 0xa8f1624:
+                return new TLRPC.TL_groupCall();
+            case 0x6d0b1604:
+                return new TLRPC.TL_groupCallPrivate();
+            case 0x58cf4249:
+                return new TLRPC.TL_channelBannedRights();
+            case 0xe56dbf05:
+                return new TLRPC.TL_dialogPeer();
+            case 0xda429411:
+                return new TLRPC.TL_dialogPeerFeed();
+            case 0xcd050916:
+                return new TLRPC.TL_auth_authorization();
+            case 0x8c718e87:
+                return new TLRPC.TL_messages_messages();
+            case 0x99262e37:
+                return new TLRPC.TL_messages_channelMessages();
+            case 0xb446ae3:
+                return new TLRPC.TL_messages_messagesSlice();
+            case 0x3f56aea3:
+                return new TLRPC.TL_payments_paymentForm();
+            case 0x3ace484c:
+                return new TLRPC.TL_contacts_link();
+            case 0x4a70994c:
+                return new TLRPC.TL_encryptedFile();
+            case 0xc21f497e:
+                return new TLRPC.TL_encryptedFileEmpty();
+            case 0xbddde532:
+                return new TLRPC.TL_peerChannel();
+            case 0x9db1bc6d:
+                return new TLRPC.TL_peerUser();
+            case 0xbad0e5bb:
+                return new TLRPC.TL_peerChat();
+            case 0xcb296bf8:
+                return new TLRPC.TL_labeledPrice();
+            case 0xf385c1f6:
+                return new TLRPC.TL_langPackDifference();
+            case 0x66afa166:
+                return new TLRPC.TL_help_deepLinkInfoEmpty();
+            case 0x6a4ee832:
+                return new TLRPC.TL_help_deepLinkInfo();
+            case 0x64199744:
+                return new TLRPC.TL_secureFileEmpty();
+            case 0xe0277a62:
+                return new TLRPC.TL_secureFile();
+            case 0x84d19185:
+                return new TLRPC.TL_messages_affectedMessages();
+            case 0xd0d9b163:
+                return new TLRPC.TL_channels_channelParticipant();
+            case 0x7bf2e6f6:
+                return new TLRPC.TL_authorization();
+            case 0xf49ca0:
+                return new TLRPC.TL_updates_difference();
+            case 0xa8fb1981:
+                return new TLRPC.TL_updates_differenceSlice();
+            case 0x4afe8f6d:
+                return new TLRPC.TL_updates_differenceTooLong();
+            case 0x5d75a138:
+                return new TLRPC.TL_updates_differenceEmpty();
+            case 0xbc2eab30:
+                return new TLRPC.TL_privacyKeyStatusTimestamp();
+            case 0x500e6dfa:
+                return new TLRPC.TL_privacyKeyChatInvite();
+            case 0x3d662b7b:
+                return new TLRPC.TL_privacyKeyPhoneCall();
+            case 0x296f104:
+                return new TLRPC.TL_geoPoint();
+            case 0x2049d70c:
+                return new TLRPC.TL_geoPoint_layer81();
+            case 0x1117dd5f:
+                return new TLRPC.TL_geoPointEmpty();
+            case 0x554abb6f:
+                return new TLRPC.TL_account_privacyRules();
+            case 0xdb74f558:
+                return new TLRPC.TL_chatInvite();
+            case 0x5a686d7c:
+                return new TLRPC.TL_chatInviteAlready();
+            case 0xd8aa840f:
+                return new TLRPC.TL_inputGroupCall();
+            case 0x1da7158f:
+                return new TLRPC.TL_help_appUpdate();
+            case 0xc45a6536:
+                return new TLRPC.TL_help_noAppUpdate();
+            case 0x3b5a3e40:
+                return new TLRPC.TL_channelAdminLogEvent();
+            case 0x9e8fa6d3:
+                return new TLRPC.TL_messages_favedStickersNotModified();
+            case 0xf37f2f16:
+                return new TLRPC.TL_messages_favedStickers();
+            case 0x117698f1:
+                return new TLRPC.TL_langPackLanguage();
+            case 0xdd6a8f48:
+                return new TLRPC.TL_sendMessageGamePlayAction();
+            case 0xd52f73f7:
+                return new TLRPC.TL_sendMessageRecordAudioAction();
+            case 0x92042ff7:
+                return new TLRPC.TL_sendMessageUploadVideoAction_old();
+            case 0xe6ac8a6f:
+                return new TLRPC.TL_sendMessageUploadAudioAction_old();
+            case 0xf351d7ab:
+                return new TLRPC.TL_sendMessageUploadAudioAction();
+            case 0xd1d34a26:
+                return new TLRPC.TL_sendMessageUploadPhotoAction();
+            case 0x8faee98e:
+                return new TLRPC.TL_sendMessageUploadDocumentAction_old();
+            case 0xe9763aec:
+                return new TLRPC.TL_sendMessageUploadVideoAction();
+            case 0xfd5ec8f5:
+                return new TLRPC.TL_sendMessageCancelAction();
+            case 0x176f8ba1:
+                return new TLRPC.TL_sendMessageGeoLocationAction();
+            case 0x628cbc6f:
+                return new TLRPC.TL_sendMessageChooseContactAction();
+            case 0x88f27fbc:
+                return new TLRPC.TL_sendMessageRecordRoundAction();
+            case 0x243e1c66:
+                return new TLRPC.TL_sendMessageUploadRoundAction();
+            case 0x16bf744e:
+                return new TLRPC.TL_sendMessageTypingAction();
+            case 0x990a3c1a:
+                return new TLRPC.TL_sendMessageUploadPhotoAction_old();
+            case 0xaa0cd9e4:
+                return new TLRPC.TL_sendMessageUploadDocumentAction();
+            case 0xa187d66f:
+                return new TLRPC.TL_sendMessageRecordVideoAction();
+            case 0x3dbb5986:
+                return new TLRPC.TL_auth_sentCodeTypeApp();
+            case 0x5353e5a7:
+                return new TLRPC.TL_auth_sentCodeTypeCall();
+            case 0xab03c6d9:
+                return new TLRPC.TL_auth_sentCodeTypeFlashCall();
+            case 0xc000bba2:
+                return new TLRPC.TL_auth_sentCodeTypeSms();
+            case 0x38641628:
+                return new TLRPC.TL_messages_stickerSetInstallResultSuccess();
+            case 0x35e410a8:
+                return new TLRPC.TL_messages_stickerSetInstallResultArchive();
+            case 0x818426cd:
+                return new TLRPC.TL_peerSettings();
+            case 0xfcaafeb7:
+                return new TLRPC.TL_inputDialogPeer();
+            case 0x2c38b8cf:
+                return new TLRPC.TL_inputDialogPeerFeed();
+            case 0x9c750409:
+                return new TLRPC.TL_foundGifCached();
+            case 0x162ecc1f:
+                return new TLRPC.TL_foundGif();
+            case 0x4e5f810d:
+                return new TLRPC.TL_payments_paymentResult();
+            case 0x6b56b921:
+                return new TLRPC.TL_payments_paymentVerficationNeeded();
+            case 0xed8af74d:
+                return new TLRPC.TL_channels_adminLogResults();
+            case 0xf392b7f4:
+                return new TLRPC.TL_inputPhoneContact();
+            case 0x4d5bbe0c:
+                return new TLRPC.TL_privacyValueAllowUsers();
+            case 0x8b73e763:
+                return new TLRPC.TL_privacyValueDisallowAll();
+            case 0xfffe1bac:
+                return new TLRPC.TL_privacyValueAllowContacts();
+            case 0xf888fa1a:
+                return new TLRPC.TL_privacyValueDisallowContacts();
+            case 0x65427b82:
+                return new TLRPC.TL_privacyValueAllowAll();
+            case 0xc7f49b7:
+                return new TLRPC.TL_privacyValueDisallowUsers();
+            case 0x29632a36:
+                return new TLRPC.TL_messageMediaUnsupported_old();
+            case 0xc6b68300:
+                return new TLRPC.TL_messageMediaAudio_layer45();
+            case 0xc8c45a2a:
+                return new TLRPC.TL_messageMediaPhoto_old();
+            case 0x84551347:
+                return new TLRPC.TL_messageMediaInvoice();
+            case 0x9f84f49e:
+                return new TLRPC.TL_messageMediaUnsupported();
+            case 0x3ded6320:
+                return new TLRPC.TL_messageMediaEmpty();
+            case 0x2ec0533f:
+                return new TLRPC.TL_messageMediaVenue();
+            case 0x7912b71f:
+                return new TLRPC.TL_messageMediaVenue_layer71();
+            case 0xa2d24290:
+                return new TLRPC.TL_messageMediaVideo_old();
+            case 0x9cb070d7:
+                return new TLRPC.TL_messageMediaDocument();
+            case 0x7c4414d3:
+                return new TLRPC.TL_messageMediaDocument_layer74();
+            case 0x2fda2204:
+                return new TLRPC.TL_messageMediaDocument_old();
+            case 0xf3e02ea8:
+                return new TLRPC.TL_messageMediaDocument_layer68();
+            case 0x695150d7:
+                return new TLRPC.TL_messageMediaPhoto();
+            case 0xb5223b0f:
+                return new TLRPC.TL_messageMediaPhoto_layer74();
+            case 0x7c3c2609:
+                return new TLRPC.TL_messageMediaGeoLive();
+            case 0xfdb19008:
+                return new TLRPC.TL_messageMediaGame();
+            case 0x5e7d2f39:
+                return new TLRPC.TL_messageMediaContact_layer81();
+            case 0x3d8ce53d:
+                return new TLRPC.TL_messageMediaPhoto_layer68();
+            case 0x5bcf1675:
+                return new TLRPC.TL_messageMediaVideo_layer45();
+            case 0xcbf24940:
+                return new TLRPC.TL_messageMediaContact();
+            case 0x56e0d474:
+                return new TLRPC.TL_messageMediaGeo();
+            case 0xa32dd600:
+                return new TLRPC.TL_messageMediaWebPage();
+            case 0x6c47ac9f:
+                return new TLRPC.TL_langPackStringPluralized();
+            case 0xcad181f6:
+                return new TLRPC.TL_langPackString();
+            case 0x2979eeb2:
+                return new TLRPC.TL_langPackStringDeleted();
+            case 0x38faab5f:
+                return new TLRPC.TL_auth_sentCode();
+            case 0x11965f3a:
+                return new TLRPC.TL_botInlineResult();
+            case 0x17db940b:
+                return new TLRPC.TL_botInlineMediaResult();
+            case 0x9acda4c0:
+                return new TLRPC.TL_peerNotifySettings_layer77();
+            case 0xaf509d20:
+                return new TLRPC.TL_peerNotifySettings();
+            case 0x8d5e11ee:
+                return new TLRPC.TL_peerNotifySettings_layer47();
+            case 0x70a68512:
+                return new TLRPC.TL_peerNotifySettingsEmpty_layer77();
+            case 0x1c138d15:
+                return new TLRPC.TL_contacts_blocked();
+            case 0x900802a1:
+                return new TLRPC.TL_contacts_blockedSlice();
+            case 0x67872e8:
+                return new TLRPC.TL_inputSecureValue();
+            case 0xc0e24635:
+                return new TLRPC.TL_messages_dhConfigNotModified();
+            case 0x2c221edd:
+                return new TLRPC.TL_messages_dhConfig();
+            case 0xed1ecdb0:
+                return new TLRPC.TL_secureValueHash();
+            case 0xb60a24a6:
+                return new TLRPC.TL_messages_stickerSet();
+            case 0xf3b7acc9:
+                return new TLRPC.TL_inputGeoPoint();
+            case 0xe4c123d6:
+                return new TLRPC.TL_inputGeoPointEmpty();
+            case 0x18cb9f78:
+                return new TLRPC.TL_help_inviteText();
+            case 0x586988d8:
+                return new TLRPC.TL_audioEmpty_layer45();
+            case 0xf9e35055:
+                return new TLRPC.TL_audio_layer45();
+            case 0x427425e7:
+                return new TLRPC.TL_audio_old();
+            case 0x555555f6:
+                return new TLRPC.TL_audioEncrypted();
+            case 0xc7ac6496:
+                return new TLRPC.TL_audio_old2();
+            case 0xbb2e37ce:
+                return new TLRPC.TL_botInfoEmpty_layer48();
+            case 0x98e81d3a:
+                return new TLRPC.TL_botInfo();
+            case 0x9cf585d:
+                return new TLRPC.TL_botInfo_layer48();
+            case 0xc331e80a:
+                return new TLRPC.TL_inputGameShortName();
+            case 0x32c3e77:
+                return new TLRPC.TL_inputGameID();
+            case 0x48a30254:
+                return new TLRPC.TL_replyInlineMarkup();
+            case 0xa03e5b85:
+                return new TLRPC.TL_replyKeyboardHide();
+            case 0xf4108aa0:
+                return new TLRPC.TL_replyKeyboardForceReply();
+            case 0x3502758c:
+                return new TLRPC.TL_replyKeyboardMarkup();
+            case 0xb74ba9d2:
+                return new TLRPC.TL_contacts_contactsNotModified();
+            case 0xeae87e42:
+                return new TLRPC.TL_contacts_contacts();
+            case 0xbdfb0426:
+                return new TLRPC.TL_inputPrivacyKeyChatInvite();
+            case 0x4f96cb18:
+                return new TLRPC.TL_inputPrivacyKeyStatusTimestamp();
+            case 0xfabadc5f:
+                return new TLRPC.TL_inputPrivacyKeyPhoneCall();
+            case 0x8dca6aa5:
+                return new TLRPC.TL_photos_photos();
+            case 0x15051f54:
+                return new TLRPC.TL_photos_photosSlice();
+            case 0x2e02a614:
+                return new TLRPC.TL_chatFull();
+            case 0xcbb62890:
+                return new TLRPC.TL_channelFull();
+            case 0x76af5481:
+                return new TLRPC.TL_channelFull_layer72();
+            case 0x17f45fcf:
+                return new TLRPC.TL_channelFull_layer71();
+            case 0x95cb5f57:
+                return new TLRPC.TL_channelFull_layer70();
+            case 0x97bee562:
+                return new TLRPC.TL_channelFull_layer52();
+            case 0xc3d5512f:
+                return new TLRPC.TL_channelFull_layer67();
+            case 0x9e341ddf:
+                return new TLRPC.TL_channelFull_layer48();
+            case 0xfab31aa3:
+                return new TLRPC.TL_channelFull_old();
+            case 0x9c3d198e:
+                return new TLRPC.TL_inputPeerNotifySettings();
+            case 0x56730bcc:
+                return new TLRPC.TL_null();
+            case 0x556ec7aa:
+                return new TLRPC.TL_pageFull();
+            case 0x8dee6c44:
+                return new TLRPC.TL_pagePart_layer67();
+            case 0xd7a19d69:
+                return new TLRPC.TL_pageFull_layer67();
+            case 0x8e3f9ebe:
+                return new TLRPC.TL_pagePart();
+            case 0xfb834291:
+                return new TLRPC.TL_topPeerCategoryPeers();
+            case 0xb98886cf:
+                return new TLRPC.TL_inputUserEmpty();
+            case 0xf7c1b13f:
+                return new TLRPC.TL_inputUserSelf();
+            case 0xd8292816:
+                return new TLRPC.TL_inputUser();
+            case 0xb16a6c29:
+                return new TLRPC.TL_keyboardButtonRequestPhone();
+            case 0x50f41ccf:
+                return new TLRPC.TL_keyboardButtonGame();
+            case 0x258aff05:
+                return new TLRPC.TL_keyboardButtonUrl();
+            case 0x568a748:
+                return new TLRPC.TL_keyboardButtonSwitchInline();
+            case 0xfc796b3f:
+                return new TLRPC.TL_keyboardButtonRequestGeoLocation();
+            case 0xafd93fbb:
+                return new TLRPC.TL_keyboardButtonBuy();
+            case 0x683a5e46:
+                return new TLRPC.TL_keyboardButtonCallback();
+            case 0xa2fa4880:
+                return new TLRPC.TL_keyboardButton();
+            case 0x4366232e:
+                return new TLRPC.TL_botInlineMessageMediaVenue_layer77();
+            case 0x8a86659c:
+                return new TLRPC.TL_botInlineMessageMediaVenue();
+            case 0x3a8fd8b8:
+                return new TLRPC.TL_botInlineMessageMediaGeo_layer71();
+            case 0x764cf810:
+                return new TLRPC.TL_botInlineMessageMediaAuto();
+            case 0xa74b15b:
+                return new TLRPC.TL_botInlineMessageMediaAuto_layer74();
+            case 0x35edb4d4:
+                return new TLRPC.TL_botInlineMessageMediaContact_layer81();
+            case 0x18d1cdc2:
+                return new TLRPC.TL_botInlineMessageMediaContact();
+            case 0x8c7f65e2:
+                return new TLRPC.TL_botInlineMessageText();
+            case 0xb722de65:
+                return new TLRPC.TL_botInlineMessageMediaGeo();
+            case 0x77608b83:
+                return new TLRPC.TL_keyboardButtonRow();
+            case 0x997275b5:
+                return new TLRPC.TL_boolTrue();
+            case 0xbc799737:
+                return new TLRPC.TL_boolFalse();
+            case 0xdf969c2d:
+                return new TLRPC.TL_auth_exportedAuthorization();
+            case 0x5f07b4bc:
+                return new TLRPC.TL_webPage();
+            case 0xa31ea0b5:
+                return new TLRPC.TL_webPage_old();
+            case 0xeb1477e8:
+                return new TLRPC.TL_webPageEmpty();
+            case 0xd41a5167:
+                return new TLRPC.TL_webPageUrlPending();
+            case 0xc586da1c:
+                return new TLRPC.TL_webPagePending();
+            case 0x85849473:
+                return new TLRPC.TL_webPageNotModified();
+            case 0xca820ed7:
+                return new TLRPC.TL_webPage_layer58();
+            case 0xf89d88e5:
+                return new TLRPC.TL_messages_featuredStickers();
+            case 0x4ede3cf:
+                return new TLRPC.TL_messages_featuredStickersNotModified();
+            case 0xbe3dfa:
+                return new TLRPC.TL_secureValueErrorFrontSide();
+            case 0x868a2aa5:
+                return new TLRPC.TL_secureValueErrorReverseSide();
+            case 0x666220e9:
+                return new TLRPC.TL_secureValueErrorFiles();
+            case 0xe537ced6:
+                return new TLRPC.TL_secureValueErrorSelfie();
+            case 0x7a700873:
+                return new TLRPC.TL_secureValueErrorFile();
+            case 0xe8a40bd9:
+                return new TLRPC.TL_secureValueErrorData();
+            case 0xb4b4b699:
+                return new TLRPC.TL_secureValue();
+            case 0x6737ffb7:
+                return new TLRPC.TL_phone_groupCall();
+            case 0x57adc690:
+                return new TLRPC.TL_phoneCallDiscardReasonHangup();
+            case 0xfaf7e8c9:
+                return new TLRPC.TL_phoneCallDiscardReasonBusy();
+            case 0xafe2b839:
+                return new TLRPC.TL_phoneCallDiscardReasonAllowGroupCall();
+            case 0x85e42301:
+                return new TLRPC.TL_phoneCallDiscardReasonMissed();
+            case 0xe095c1a0:
+                return new TLRPC.TL_phoneCallDiscardReasonDisconnect();
+            case 0x137948a5:
+                return new TLRPC.TL_auth_passwordRecovery();
+            case 0xc27ac8c7:
+                return new TLRPC.TL_botCommand();
+            case 0x4a95e84e:
+                return new TLRPC.TL_inputNotifyChats();
+            case 0xb8bc5b0c:
+                return new TLRPC.TL_inputNotifyPeer();
+            case 0x193b4417:
+                return new TLRPC.TL_inputNotifyUsers();
+            case 0xf5235d55:
+                return new TLRPC.TL_inputEncryptedFileLocation();
+            case 0x4e45abe9:
+                return new TLRPC.TL_inputDocumentFileLocation();
+            case 0x14637196:
+                return new TLRPC.TL_inputFileLocation();
+            case 0x20212ca8:
+                return new TLRPC.TL_photos_photo();
+            case 0x28ecf961:
+                return new TLRPC.TL_help_termsOfServiceUpdate();
+            case 0xe3309f7f:
+                return new TLRPC.TL_help_termsOfServiceUpdateEmpty();
+            case 0x83761ce4:
+                return new TLRPC.TL_phoneCallRequested();
+            case 0xffe6ab67:
+                return new TLRPC.TL_phoneCall();
+            case 0x5366c915:
+                return new TLRPC.TL_phoneCallEmpty();
+            case 0x6d003d3f:
+                return new TLRPC.TL_phoneCallAccepted();
+            case 0x1b8f4ad1:
+                return new TLRPC.TL_phoneCallWaiting();
+            case 0x50ca4de1:
+                return new TLRPC.TL_phoneCallDiscarded();
+            case 0xcab35e18:
+                return new TLRPC.TL_userContact_old2();
+            case 0xf2fb8319:
+                return new TLRPC.TL_userContact_old();
+            case 0x2e13f4c3:
+                return new TLRPC.TL_user();
+            case 0x720535ec:
+                return new TLRPC.TL_userSelf_old();
+            case 0x1c60e608:
+                return new TLRPC.TL_userSelf_old3();
+            case 0xd6016d7a:
+                return new TLRPC.TL_userDeleted_old2();
+            case 0x200250ba:
+                return new TLRPC.TL_userEmpty();
+            case 0x22e8ceb0:
+                return new TLRPC.TL_userRequest_old();
+            case 0x5214c89d:
+                return new TLRPC.TL_userForeign_old();
+            case 0x75cf7a8:
+                return new TLRPC.TL_userForeign_old2();
+            case 0xd9ccc4ef:
+                return new TLRPC.TL_userRequest_old2();
+            case 0xb29ad7cc:
+                return new TLRPC.TL_userDeleted_old();
+            case 0xd10d979a:
+                return new TLRPC.TL_user_layer65();
+            case 0x22e49072:
+                return new TLRPC.TL_user_old();
+            case 0x7007b451:
+                return new TLRPC.TL_userSelf_old2();
+            case 0xa01b22f9:
+                return new TLRPC.TL_recentMeUrlChat();
+            case 0xbc0a57dc:
+                return new TLRPC.TL_recentMeUrlStickerSet();
+            case 0x46e1d13d:
+                return new TLRPC.TL_recentMeUrlUnknown();
+            case 0xeb49081d:
+                return new TLRPC.TL_recentMeUrlChatInvite();
+            case 0x8dbc3336:
+                return new TLRPC.TL_recentMeUrlUser();
+            case 0x9a3bfd99:
+                return new TLRPC.TL_messages_highScores();
+            case 0xec82e140:
+                return new TLRPC.TL_phone_phoneCall();
+            case 0xb4608969:
+                return new TLRPC.TL_channelParticipantsAdmins();
+            case 0xde3f3c79:
+                return new TLRPC.TL_channelParticipantsRecent();
+            case 0xa3b54985:
+                return new TLRPC.TL_channelParticipantsKicked();
+            case 0x656ac4b:
+                return new TLRPC.TL_channelParticipantsSearch();
+            case 0xb0d1865b:
+                return new TLRPC.TL_channelParticipantsBots();
+            case 0x1427a5e1:
+                return new TLRPC.TL_channelParticipantsBanned();
+            case 0x555555f5:
+                return new TLRPC.TL_messageActionLoginUnknownLocation();
+            case 0x555555f7:
+                return new TLRPC.TL_messageEncryptedAction();
+            case 0xfae69f56:
+                return new TLRPC.TL_messageActionCustomAction();
+            case 0xa6638b9a:
+                return new TLRPC.TL_messageActionChatCreate();
+            case 0x7a0d7f42:
+                return new TLRPC.TL_messageActionGroupCall();
+            case 0x51bdb021:
+                return new TLRPC.TL_messageActionChatMigrateTo();
+            case 0x9fbab604:
+                return new TLRPC.TL_messageActionHistoryClear();
+            case 0x7fcb13a8:
+                return new TLRPC.TL_messageActionChatEditPhoto();
+            case 0x4792929b:
+                return new TLRPC.TL_messageActionScreenshotTaken();
+            case 0xb055eaee:
+                return new TLRPC.TL_messageActionChannelMigrateFrom();
+            case 0x488a7337:
+                return new TLRPC.TL_messageActionChatAddUser();
+            case 0xb2ae9b0c:
+                return new TLRPC.TL_messageActionChatDeleteUser();
+            case 0x55555557:
+                return new TLRPC.TL_messageActionCreatedBroadcastList();
+            case 0x55555550:
+                return new TLRPC.TL_messageActionUserJoined();
+            case 0x55555551:
+                return new TLRPC.TL_messageActionUserUpdatedPhoto();
+            case 0x5e3cfc4b:
+                return new TLRPC.TL_messageActionChatAddUser_old();
+            case 0x55555552:
+                return new TLRPC.TL_messageActionTTLChange();
+            case 0xf89cf5e8:
+                return new TLRPC.TL_messageActionChatJoinedByLink();
+            case 0x95d2ac92:
+                return new TLRPC.TL_messageActionChannelCreate();
+            case 0xd95c6154:
+                return new TLRPC.TL_messageActionSecureValuesSent();
+            case 0x94bd38ed:
+                return new TLRPC.TL_messageActionPinMessage();
+            case 0x95e3fbef:
+                return new TLRPC.TL_messageActionChatDeletePhoto();
+            case 0x80e11a7f:
+                return new TLRPC.TL_messageActionPhoneCall();
+            case 0xb5a1ce5a:
+                return new TLRPC.TL_messageActionChatEditTitle();
+            case 0x40699cd0:
+                return new TLRPC.TL_messageActionPaymentSent();
+            case 0xabe9affe:
+                return new TLRPC.TL_messageActionBotAllowed();
+            case 0xb6aef7b0:
+                return new TLRPC.TL_messageActionEmpty();
+            case 0x92a72876:
+                return new TLRPC.TL_messageActionGameScore();
+            case 0x58dbcab8:
+                return new TLRPC.TL_inputReportReasonSpam();
+            case 0x1e22c78d:
+                return new TLRPC.TL_inputReportReasonViolence();
+            case 0xe1746d0a:
+                return new TLRPC.TL_inputReportReasonOther();
+            case 0x2e59d922:
+                return new TLRPC.TL_inputReportReasonPornography();
+            case 0x4fcba9c8:
+                return new TLRPC.TL_messages_archivedStickers();
+            case 0x3631cf4c:
+                return new TLRPC.TL_chatLocated();
+            case 0x204d3878:
+                return new TLRPC.TL_decryptedMessage();
+            case 0x73164160:
+                return new TLRPC.TL_decryptedMessageService();
+            case 0xaa48327d:
+                return new TLRPC.TL_decryptedMessageService_layer8();
+            case 0x1f814f1f:
+                return new TLRPC.TL_decryptedMessage_layer8();
+            case 0x91cc4674:
+                return new TLRPC.TL_decryptedMessage();
+            case 0x36b091de:
+                return new TLRPC.TL_decryptedMessage_layer45();
+            case 0xc30aa358:
+                return new TLRPC.TL_invoice();
+            case 0x9bed434d:
+                return new TLRPC.TL_inputWebDocument();
+            case 0xee9f4a4d:
+                return new TLRPC.TL_video_old3();
+            case 0xf72887d3:
+                return new TLRPC.TL_video_layer45();
+            case 0x55555553:
+                return new TLRPC.TL_videoEncrypted();
+            case 0x5a04a49f:
+                return new TLRPC.TL_video_old();
+            case 0x388fa391:
+                return new TLRPC.TL_video_old2();
+            case 0xc10658a8:
+                return new TLRPC.TL_videoEmpty_layer45();
+            case 0x3417d728:
+                return new TLRPC.TL_inputPaymentCredentials();
+            case 0xca05d50e:
+                return new TLRPC.TL_inputPaymentCredentialsAndroidPay();
+            case 0xc10eb2cf:
+                return new TLRPC.TL_inputPaymentCredentialsSaved();
+            case 0x5dab1af4:
+                return new TLRPC.TL_exportedMessageLink();
+            case 0x637b7ed:
+                return new TLRPC.TL_topPeerCategoryCorrespondents();
+            case 0xbd17a14a:
+                return new TLRPC.TL_topPeerCategoryGroups();
+            case 0x148677e2:
+                return new TLRPC.TL_topPeerCategoryBotsInline();
+            case 0x161d9628:
+                return new TLRPC.TL_topPeerCategoryChannels();
+            case 0x1e76a78c:
+                return new TLRPC.TL_topPeerCategoryPhoneCalls();
+            case 0xab661b5b:
+                return new TLRPC.TL_topPeerCategoryBotsPM();
+            case 0x561bc879:
+                return new TLRPC.TL_contactBlocked();
+            case 0xd1451883:
+                return new TLRPC.TL_payments_validatedRequestedInfo();
+            case 0xb6213cdf:
+                return new TLRPC.TL_shippingOption();
+            case 0x72f0eaae:
+                return new TLRPC.TL_inputDocumentEmpty();
+            case 0x18798952:
+                return new TLRPC.TL_inputDocument();
+            case 0x770656a8:
+                return new TLRPC.TL_inputAppEvent();
+            case 0xcbe31e26:
+                return new TLRPC.TL_secureValueTypeAddress();
+            case 0x99e3806a:
+                return new TLRPC.TL_secureValueTypePassportRegistration();
+            case 0xa0d0744b:
+                return new TLRPC.TL_secureValueTypeIdentityCard();
+            case 0xfc36954e:
+                return new TLRPC.TL_secureValueTypeUtilityBill();
+            case 0x89137c0d:
+                return new TLRPC.TL_secureValueTypeBankStatement();
+            case 0x8e3ca7ee:
+                return new TLRPC.TL_secureValueTypeEmail();
+            case 0x9d2a81e3:
+                return new TLRPC.TL_secureValueTypePersonalDetails();
+            case 0xea02ec33:
+                return new TLRPC.TL_secureValueTypeTemporaryRegistration();
+            case 0x3dac6a00:
+                return new TLRPC.TL_secureValueTypePassport();
+            case 0x8b883488:
+                return new TLRPC.TL_secureValueTypeRentalAgreement();
+            case 0x6e425c4:
+                return new TLRPC.TL_secureValueTypeDriverLicense();
+            case 0xb320aadb:
+                return new TLRPC.TL_secureValueTypePhone();
+            case 0x99a48f23:
+                return new TLRPC.TL_secureValueTypeInternalPassport();
+            case 0xb45c69d1:
+                return new TLRPC.TL_messages_affectedHistory();
+            case 0x87232bc7:
+                return new TLRPC.TL_document();
+            case 0x55555556:
+                return new TLRPC.TL_documentEncrypted_old();
+            case 0x9efc6326:
+                return new TLRPC.TL_document_old();
+            case 0x36f8c871:
+                return new TLRPC.TL_documentEmpty();
+            case 0x55555558:
+                return new TLRPC.TL_documentEncrypted();
+            case 0xf9a39f4f:
+                return new TLRPC.TL_document_layer53();
+            case 0xfeedd3ad:
+                return new TLRPC.TL_contactLinkNone();
+            case 0xd502c2d0:
+                return new TLRPC.TL_contactLinkContact();
+            case 0x268f3f59:
+                return new TLRPC.TL_contactLinkHasPhone();
+            case 0x5f4f9247:
+                return new TLRPC.TL_contactLinkUnknown();
+            case 0xdb20b188:
+                return new TLRPC.TL_pageBlockDivider();
+            case 0xbaafe5e0:
+                return new TLRPC.TL_pageBlockAuthorDate();
+            case 0xc070d93e:
+                return new TLRPC.TL_pageBlockPreformatted();
+            case 0xcde200d1:
+                return new TLRPC.TL_pageBlockEmbed();
+            case 0xce0d37b0:
+                return new TLRPC.TL_pageBlockAnchor();
+            case 0xbfd064ec:
+                return new TLRPC.TL_pageBlockHeader();
+            case 0xd9d71866:
+                return new TLRPC.TL_pageBlockVideo();
+            case 0x13567e8a:
+                return new TLRPC.TL_pageBlockUnsupported();
+            case 0x467a0766:
+                return new TLRPC.TL_pageBlockParagraph();
+            case 0x8b31c4f:
+                return new TLRPC.TL_pageBlockCollage();
+            case 0x48870999:
+                return new TLRPC.TL_pageBlockFooter();
+            case 0x3a58c7f4:
+                return new TLRPC.TL_pageBlockList();
+            case 0xd935d8fb:
+                return new TLRPC.TL_pageBlockEmbed_layer60();
+            case 0xe9c69982:
+                return new TLRPC.TL_pageBlockPhoto();
+            case 0x8ffa9a1f:
+                return new TLRPC.TL_pageBlockSubtitle();
+            case 0x263d7c26:
+                return new TLRPC.TL_pageBlockBlockquote();
+            case 0x292c7be9:
+                return new TLRPC.TL_pageBlockEmbedPost();
+            case 0x70abc3fd:
+                return new TLRPC.TL_pageBlockTitle();
+            case 0xef1751b5:
+                return new TLRPC.TL_pageBlockChannel();
+            case 0x39f23300:
+                return new TLRPC.TL_pageBlockCover();
+            case 0xf12bb6e1:
+                return new TLRPC.TL_pageBlockSubheader();
+            case 0x130c8963:
+                return new TLRPC.TL_pageBlockSlideshow();
+            case 0x4f4456d3:
+                return new TLRPC.TL_pageBlockPullquote();
+            case 0x31b81a7f:
+                return new TLRPC.TL_pageBlockAudio();
+            case 0x90110467:
+                return new TLRPC.TL_inputPrivacyValueDisallowUsers();
+            case 0xd66b66c9:
+                return new TLRPC.TL_inputPrivacyValueDisallowAll();
+            case 0xba52007:
+                return new TLRPC.TL_inputPrivacyValueDisallowContacts();
+            case 0x184b35ce:
+                return new TLRPC.TL_inputPrivacyValueAllowAll();
+            case 0xd09e07b:
+                return new TLRPC.TL_inputPrivacyValueAllowContacts();
+            case 0x131cc67f:
+                return new TLRPC.TL_inputPrivacyValueAllowUsers();
+            case 0xaed6dbb2:
+                return new TLRPC.TL_maskCoords();
+            case 0x58fffcd0:
+                return new TLRPC.TL_highScore();
+            case 0xf8ab7dfb:
+                return new TLRPC.TL_inputMediaContact();
+            case 0x23ab23d2:
+                return new TLRPC.TL_inputMediaDocument();
+            case 0xd33f43f3:
+                return new TLRPC.TL_inputMediaGame();
+            case 0x4843b0fd:
+                return new TLRPC.TL_inputMediaGifExternal();
+            case 0xf9c44144:
+                return new TLRPC.TL_inputMediaGeoPoint();
+            case 0xfb52dc99:
+                return new TLRPC.TL_inputMediaDocumentExternal();
+            case 0x9664f57f:
+                return new TLRPC.TL_inputMediaEmpty();
+            case 0x1e287d04:
+                return new TLRPC.TL_inputMediaUploadedPhoto();
+            case 0xc13d1c11:
+                return new TLRPC.TL_inputMediaVenue();
+            case 0x7b1a118f:
+                return new TLRPC.TL_inputMediaGeoLive();
+            case 0x5b38c6c1:
+                return new TLRPC.TL_inputMediaUploadedDocument();
+            case 0xe5bbfe1a:
+                return new TLRPC.TL_inputMediaPhotoExternal();
+            case 0xb3ba0635:
+                return new TLRPC.TL_inputMediaPhoto();
+            case 0x3407e51b:
+                return new TLRPC.TL_stickerSetMultiCovered();
+            case 0x6410a5d2:
+                return new TLRPC.TL_stickerSetCovered();
+            case 0x23734b06:
+                return new TLRPC.TL_encryptedMessageService();
+            case 0xed18c118:
+                return new TLRPC.TL_encryptedMessage();
+            case 0xffb62b95:
+                return new TLRPC.TL_inputStickerSetEmpty();
+            case 0x9de7a269:
+                return new TLRPC.TL_inputStickerSetID();
+            case 0x861cc8a0:
+                return new TLRPC.TL_inputStickerSetShortName();
+            case 0xea107ae4:
+                return new TLRPC.TL_channelAdminLogEventsFilter();
+            case 0x8c703f:
+                return new TLRPC.TL_userStatusOffline();
+            case 0x7bf09fc:
+                return new TLRPC.TL_userStatusLastWeek();
+            case 0x9d05049:
+                return new TLRPC.TL_userStatusEmpty();
+            case 0x77ebc742:
+                return new TLRPC.TL_userStatusLastMonth();
+            case 0xedb93949:
+                return new TLRPC.TL_userStatusOnline();
+            case 0xe26f42f1:
+                return new TLRPC.TL_userStatusRecently();
+            case 0x26b5dde6:
+                return new TLRPC.TL_messages_messageEditData();
+            case 0xe09e1fb8:
+                return new TLRPC.TL_help_proxyDataEmpty();
+            case 0x2bf7ee23:
+                return new TLRPC.TL_help_proxyDataPromo();
+            case 0x77d01c3b:
+                return new TLRPC.TL_contacts_importedContacts();
+            case 0x3c20629f:
+                return new TLRPC.TL_inlineBotSwitchPM();
+            case 0xa20db0e5:
+                return new TLRPC.TL_updateDeleteMessages();
+            case 0x571d2742:
+                return new TLRPC.TL_updateReadFeaturedStickers();
+            case 0x6e947941:
+                return new TLRPC.TL_updateChatAdmins();
+            case 0x1710f156:
+                return new TLRPC.TL_updateEncryptedChatTyping();
+            case 0x62ba04d9:
+                return new TLRPC.TL_updateNewChannelMessage();
+            case 0x2f2f21bf:
+                return new TLRPC.TL_updateReadHistoryOutbox();
+            case 0x19d27f3c:
+                return new TLRPC.TL_updateDialogPinned();
+            case 0x12b9417b:
+                return new TLRPC.TL_updateUserPhone();
+            case 0x4e90bfd6:
+                return new TLRPC.TL_updateMessageID();
+            case 0x57eaec8:
+                return new TLRPC.TL_updateGroupCallParticipant();
+            case 0x25d6c9c7:
+                return new TLRPC.TL_updateReadChannelOutbox();
+            case 0x43ae3dec:
+                return new TLRPC.TL_updateStickerSets();
+            case 0x1f2b0afd:
+                return new TLRPC.TL_updateNewMessage();
+            case 0x12bcbd9a:
+                return new TLRPC.TL_updateNewEncryptedMessage();
+            case 0x1bfbd823:
+                return new TLRPC.TL_updateUserStatus();
+            case 0x98a12b4b:
+                return new TLRPC.TL_updateChannelMessageViews();
+            case 0xbec268ef:
+                return new TLRPC.TL_updateNotifySettings();
+            case 0x2575bbb9:
+                return new TLRPC.TL_updateContactRegistered();
+            case 0x6e5f8c22:
+                return new TLRPC.TL_updateChatParticipantDelete();
+            case 0xe40370a3:
+                return new TLRPC.TL_updateEditMessage();
+            case 0x7f891213:
+                return new TLRPC.TL_updateWebPage();
+            case 0xe511996d:
+                return new TLRPC.TL_updateFavedStickers();
+            case 0xea4b0e5c:
+                return new TLRPC.TL_updateChatParticipantAdd();
+            case 0x9a65ea1f:
+                return new TLRPC.TL_updateChatUserTyping();
+            case 0xb4a2e88d:
+                return new TLRPC.TL_updateEncryption();
+            case 0x85fe86ed:
+                return new TLRPC.TL_updateGroupCall();
+            case 0xeb0467fb:
+                return new TLRPC.TL_updateChannelTooLong();
+            case 0x5c486927:
+                return new TLRPC.TL_updateUserTyping();
+            case 0xebe46819:
+                return new TLRPC.TL_updateServiceNotification();
+            case 0x98592475:
+                return new TLRPC.TL_updateChannelPinnedMessage();
+            case 0x56022f4d:
+                return new TLRPC.TL_updateLangPack();
+            case 0xb6901959:
+                return new TLRPC.TL_updateChatParticipantAdmin();
+            case 0x89893b45:
+                return new TLRPC.TL_updateChannelReadMessagesContents();
+            case 0xee3b272a:
+                return new TLRPC.TL_updatePrivacy();
+            case 0xa229dd06:
+                return new TLRPC.TL_updateConfig();
+            case 0xee2bb969:
+                return new TLRPC.TL_updateDraftMessage();
+            case 0xa7332b73:
+                return new TLRPC.TL_updateUserName();
+            case 0x70db6837:
+                return new TLRPC.TL_updateChannelAvailableMessages();
+            case 0xe16459c3:
+                return new TLRPC.TL_updateDialogUnreadMark();
+            case 0xab0f6b1e:
+                return new TLRPC.TL_updatePhoneCall();
+            case 0xea4cb65b:
+                return new TLRPC.TL_updatePinnedDialogs();
+            case 0x9a422c20:
+                return new TLRPC.TL_updateRecentStickers();
+            case 0x9961fd5c:
+                return new TLRPC.TL_updateReadHistoryInbox();
+            case 0x9d2e67c5:
+                return new TLRPC.TL_updateContactLink();
+            case 0x9375341e:
+                return new TLRPC.TL_updateSavedGifs();
+            case 0x7084a7be:
+                return new TLRPC.TL_updateContactsReset();
+            case 0xb6d45656:
+                return new TLRPC.TL_updateChannel();
+            case 0x40771900:
+                return new TLRPC.TL_updateChannelWebPage();
+            case 0xc37521c9:
+                return new TLRPC.TL_updateDeleteChannelMessages();
+            case 0x95313b0c:
+                return new TLRPC.TL_updateUserPhoto();
+            case 0x8e5e9873:
+                return new TLRPC.TL_updateDcOptions();
+            case 0x1b3f4df7:
+                return new TLRPC.TL_updateEditChannelMessage();
+            case 0x80ece81a:
+                return new TLRPC.TL_updateUserBlocked();
+            case 0x688a30aa:
+                return new TLRPC.TL_updateNewStickerSet();
+            case 0x10c2404b:
+                return new TLRPC.TL_updateLangPackTooLong();
+            case 0x38fe25b7:
+                return new TLRPC.TL_updateEncryptedMessagesRead();
+            case 0xbb2d201:
+                return new TLRPC.TL_updateStickerSetsOrder();
+            case 0x4214f37f:
+                return new TLRPC.TL_updateReadChannelInbox();
+            case 0x68c13933:
+                return new TLRPC.TL_updateReadMessagesContents();
+            case 0x7761198:
+                return new TLRPC.TL_updateChatParticipants();
+            case 0xa384b779:
+                return new TLRPC.TL_receivedNotifyMessage();
+            case 0x5a17b5e5:
+                return new TLRPC.TL_inputEncryptedFile();
+            case 0x2dc173c8:
+                return new TLRPC.TL_inputEncryptedFileBigUploaded();
+            case 0x1837c364:
+                return new TLRPC.TL_inputEncryptedFileEmpty();
+            case 0x64bd0306:
+                return new TLRPC.TL_inputEncryptedFileUploaded();
+            case 0xedfd405f:
+                return new TLRPC.TL_messages_allStickers();
+            case 0xe86602c3:
+                return new TLRPC.TL_messages_allStickersNotModified();
+            case 0xa1733aec:
+                return new TLRPC.TL_decryptedMessageActionSetMessageTTL();
+            case 0xf3048883:
+                return new TLRPC.TL_decryptedMessageActionNotifyLayer();
+            case 0x65614304:
+                return new TLRPC.TL_decryptedMessageActionDeleteMessages();
+            case 0xec2e0b9b:
+                return new TLRPC.TL_decryptedMessageActionCommitKey();
+            case 0xdd05ec6b:
+                return new TLRPC.TL_decryptedMessageActionAbortKey();
+            case 0x6719e45c:
+                return new TLRPC.TL_decryptedMessageActionFlushHistory();
+            case 0xccb27641:
+                return new TLRPC.TL_decryptedMessageActionTyping();
+            case 0x6fe1735b:
+                return new TLRPC.TL_decryptedMessageActionAcceptKey();
+            case 0xc4f40be:
+                return new TLRPC.TL_decryptedMessageActionReadMessages();
+            case 0x511110b0:
+                return new TLRPC.TL_decryptedMessageActionResend();
+            case 0xf3c9611b:
+                return new TLRPC.TL_decryptedMessageActionRequestKey();
+            case 0x8ac1f475:
+                return new TLRPC.TL_decryptedMessageActionScreenshotMessages();
+            case 0xa82fdd63:
+                return new TLRPC.TL_decryptedMessageActionNoop();
+            case 0xca39b447:
+                return new TLRPC.TL_account_password();
+            case 0x5ea182f6:
+                return new TLRPC.TL_account_noPassword();
+            case 0x4f11bae1:
+                return new TLRPC.TL_userProfilePhotoEmpty();
+            case 0xd559d8c8:
+                return new TLRPC.TL_userProfilePhoto();
+            case 0x990d1493:
+                return new TLRPC.TL_userProfilePhoto_old();
+            case 0x76a6d327:
+                return new TLRPC.TL_messageEntityTextUrl();
+            case 0x6cef8ac7:
+                return new TLRPC.TL_messageEntityBotCommand();
+            case 0x64e475c2:
+                return new TLRPC.TL_messageEntityEmail();
+            case 0x73924be0:
+                return new TLRPC.TL_messageEntityPre();
+            case 0xbb92ba95:
+                return new TLRPC.TL_messageEntityUnknown();
+            case 0x6ed02538:
+                return new TLRPC.TL_messageEntityUrl();
+            case 0x826f8b60:
+                return new TLRPC.TL_messageEntityItalic();
+            case 0xfa04579d:
+                return new TLRPC.TL_messageEntityMention();
+            case 0x352dca58:
+                return new TLRPC.TL_messageEntityMentionName();
+            case 0x208e68c9:
+                return new TLRPC.TL_inputMessageEntityMentionName();
+            case 0x4c4e743f:
+                return new TLRPC.TL_messageEntityCashtag();
+            case 0xbd610bc9:
+                return new TLRPC.TL_messageEntityBold();
+            case 0x6f635b0d:
+                return new TLRPC.TL_messageEntityHashtag();
+            case 0x28a20571:
+                return new TLRPC.TL_messageEntityCode();
+            case 0x9b69e34b:
+                return new TLRPC.TL_messageEntityPhone();
+            case 0x22b56751:
+                return new TLRPC.TL_photo_old();
+            case 0x9288dd29:
+                return new TLRPC.TL_photo();
+            case 0xc3838076:
+                return new TLRPC.TL_photo_old2();
+            case 0xcded42fe:
+                return new TLRPC.TL_photo_layer55();
+            case 0x2331b22d:
+                return new TLRPC.TL_photoEmpty();
+            case 0xfda9a7b7:
+                return new TLRPC.TL_encryptedChatRequested_old();
+            case 0xc878527e:
+                return new TLRPC.TL_encryptedChatRequested();
+            case 0xfa56ce36:
+                return new TLRPC.TL_encryptedChat();
+            case 0x6601d14f:
+                return new TLRPC.TL_encryptedChat_old();
+            case 0xab7ec0a0:
+                return new TLRPC.TL_encryptedChatEmpty();
+            case 0x3bf703dc:
+                return new TLRPC.TL_encryptedChatWaiting();
+            case 0x13d6dd27:
+                return new TLRPC.TL_encryptedChatDiscarded();
+            case 0xd54b65d:
+                return new TLRPC.TL_messages_foundStickerSetsNotModified();
+            case 0x5108d648:
+                return new TLRPC.TL_messages_foundStickerSets();
+            case 0xf911c994:
+                return new TLRPC.TL_contact();
+            case 0x40732163:
+                return new TLRPC.TL_groupCallConnection();
+            case 0x8aeabec3:
+                return new TLRPC.TL_secureData();
+            case 0x3213dbba:
+                return new TLRPC.TL_config();
+            case 0x70b772a8:
+                return new TLRPC.TL_contacts_topPeers();
+            case 0xb52c939d:
+                return new TLRPC.TL_contacts_topPeersDisabled();
+            case 0xde266ef5:
+                return new TLRPC.TL_contacts_topPeersNotModified();
+            case 0x17c6b5f6:
+                return new TLRPC.TL_help_support();
+            case 0xdb64fd34:
+                return new TLRPC.TL_account_tmpPassword();
+            case 0x64ff9fd5:
+                return new TLRPC.TL_messages_chats();
+            case 0x9cd81144:
+                return new TLRPC.TL_messages_chatsSlice();
+            case 0xee8c1e86:
+                return new TLRPC.TL_inputChannelEmpty();
+            case 0xafeb712e:
+                return new TLRPC.TL_inputChannel();
+            case 0xae30253:
+                return new TLRPC.TL_messageRange();
+            case 0xccd3563d:
+                return new TLRPC.TL_messages_botResults_layer71();
+            case 0x947ca848:
+                return new TLRPC.TL_messages_botResults();
+            case 0x9d4c17c0:
+                return new TLRPC.TL_phoneConnection();
+            case 0x890c3d89:
+                return new TLRPC.TL_inputBotInlineMessageID();
+            case 0x21ec5a5f:
+                return new TLRPC.TL_securePlainEmail();
+            case 0x7d6099dd:
+                return new TLRPC.TL_securePlainPhone();
+            case 0x450a1c0a:
+                return new TLRPC.TL_messages_foundGifs();
+            case 0x3e11affb:
+                return new TLRPC.TL_updates_channelDifferenceEmpty();
+            case 0x2064674e:
+                return new TLRPC.TL_updates_channelDifference();
+            case 0x6a9d7b35:
+                return new TLRPC.TL_updates_channelDifferenceTooLong();
+            case 0xcb976d53:
+                return new TLRPC.TL_account_authorizationForm();
+            case 0xe0310d7:
+                return new TLRPC.TL_help_recentMeUrls();
+            case 0x94d42ee7:
+                return new TLRPC.TL_channelMessagesFilterEmpty();
+            case 0xcd77d957:
+                return new TLRPC.TL_channelMessagesFilter();
+            case 0x7f077ad9:
+                return new TLRPC.TL_contacts_resolvedPeer();
+            case 0x1cc6e91f:
+                return new TLRPC.TL_inputSingleMedia();
+            case 0x1e36fded:
+                return new TLRPC.TL_inputPhoneCall();
+            case 0xf9c8bcc6:
+                return new TLRPC.TL_webDocumentNoProxy();
+            case 0xc61acbd8:
+                return new TLRPC.TL_webDocument_layer81();
+            case 0x1c570ed1:
+                return new TLRPC.TL_webDocument();
+            case 0x222c1886:
+                return new TLRPC.TL_channelParticipantBanned();
+            case 0xe3e2e1f9:
+                return new TLRPC.TL_channelParticipantCreator();
+            case 0x15ebac1d:
+                return new TLRPC.TL_channelParticipant();
+            case 0x8cc5e69a:
+                return new TLRPC.TL_channelParticipantKicked_layer67();
+            case 0xa3289a6d:
+                return new TLRPC.TL_channelParticipantSelf();
+            case 0x91057fef:
+                return new TLRPC.TL_channelParticipantModerator_layer67();
+            case 0x98192d61:
+                return new TLRPC.TL_channelParticipantEditor_layer67();
+            case 0xa82fa898:
+                return new TLRPC.TL_channelParticipantAdmin();
+            case 0x438865b:
+                return new TLRPC.TL_inputStickeredMediaDocument();
+            case 0x4a992157:
+                return new TLRPC.TL_inputStickeredMediaPhoto();
+            case 0xf56ee2a8:
+                return new TLRPC.TL_channels_channelParticipants();
+            case 0xf0173fe9:
+                return new TLRPC.TL_channels_channelParticipantsNotModified();
+            case 0xb3134d9d:
+                return new TLRPC.TL_contacts_found();
+            case 0xfc900c2b:
+                return new TLRPC.TL_chatParticipantsForbidden();
+            case 0x3f460fed:
+                return new TLRPC.TL_chatParticipants();
+            case 0x7841b415:
+                return new TLRPC.TL_chatParticipants_old();
+            case 0xfd2bb8a:
+                return new TLRPC.TL_chatParticipantsForbidden_old();
+            case 0xbdf9653b:
+                return new TLRPC.TL_game();
+            case 0x57e0a9cb:
+                return new TLRPC.TL_decryptedMessageMediaAudio();
+            case 0x35480a59:
+                return new TLRPC.TL_decryptedMessageMediaGeoPoint();
+            case 0x588a0a97:
+                return new TLRPC.TL_decryptedMessageMediaContact();
+            case 0x89f5c4a:
+                return new TLRPC.TL_decryptedMessageMediaEmpty();
+            case 0x7afe8ae2:
+                return new TLRPC.TL_decryptedMessageMediaDocument();
+            case 0xe50511d8:
+                return new TLRPC.TL_decryptedMessageMediaWebPage();
+            case 0xf1fa8d78:
+                return new TLRPC.TL_decryptedMessageMediaPhoto();
+            case 0x970c8c0e:
+                return new TLRPC.TL_decryptedMessageMediaVideo();
+            case 0xb095434b:
+                return new TLRPC.TL_decryptedMessageMediaDocument_layer8();
+            case 0x4cee6ef3:
+                return new TLRPC.TL_decryptedMessageMediaVideo_layer8();
+            case 0x8a0df56f:
+                return new TLRPC.TL_decryptedMessageMediaVenue();
+            case 0xfa95b0dd:
+                return new TLRPC.TL_decryptedMessageMediaExternalDocument();
+            case 0x524a415d:
+                return new TLRPC.TL_decryptedMessageMediaVideo_layer17();
+            case 0x6080758f:
+                return new TLRPC.TL_decryptedMessageMediaAudio_layer8();
+            case 0x32798a8c:
+                return new TLRPC.TL_decryptedMessageMediaPhoto_layer8();
+            case 0xc8d7493e:
+                return new TLRPC.TL_chatParticipant();
+            case 0xda13538a:
+                return new TLRPC.TL_chatParticipantCreator();
+            case 0xe2d6e436:
+                return new TLRPC.TL_chatParticipantAdmin();
+            case 0xcac943f2:
+                return new TLRPC.TL_webAuthorization();
+            case 0x3334b0f0:
+                return new TLRPC.TL_inputSecureFileUploaded();
+            case 0x5367e5be:
+                return new TLRPC.TL_inputSecureFile();
+            case 0x1e8caaeb:
+                return new TLRPC.TL_postAddress();
+            case 0x1b7907ae:
+                return new TLRPC.TL_channelAdminLogEventActionToggleInvites();
+            case 0xe9e82c18:
+                return new TLRPC.TL_channelAdminLogEventActionUpdatePinned();
+            case 0x26ae0971:
+                return new TLRPC.TL_channelAdminLogEventActionToggleSignatures();
+            case 0x55188a2e:
+                return new TLRPC.TL_channelAdminLogEventActionChangeAbout();
+            case 0x709b2405:
+                return new TLRPC.TL_channelAdminLogEventActionEditMessage();
+            case 0xd5676710:
+                return new TLRPC.TL_channelAdminLogEventActionParticipantToggleAdmin();
+            case 0xb1c3caa7:
+                return new TLRPC.TL_channelAdminLogEventActionChangeStickerSet();
+            case 0xe6dfb825:
+                return new TLRPC.TL_channelAdminLogEventActionChangeTitle();
+            case 0x5f5c95f1:
+                return new TLRPC.TL_channelAdminLogEventActionTogglePreHistoryHidden();
+            case 0x42e047bb:
+                return new TLRPC.TL_channelAdminLogEventActionDeleteMessage();
+            case 0xe31c34d8:
+                return new TLRPC.TL_channelAdminLogEventActionParticipantInvite();
+            case 0xf89777f2:
+                return new TLRPC.TL_channelAdminLogEventActionParticipantLeave();
+            case 0x6a4afc38:
+                return new TLRPC.TL_channelAdminLogEventActionChangeUsername();
+            case 0xb82f55c3:
+                return new TLRPC.TL_channelAdminLogEventActionChangePhoto();
+            case 0xe6d83d7e:
+                return new TLRPC.TL_channelAdminLogEventActionParticipantToggleBan();
+            case 0x183040d3:
+                return new TLRPC.TL_channelAdminLogEventActionParticipantJoin();
+            case 0x9f2221c9:
+                return new TLRPC.TL_inputWebFileGeoPointLocation();
+            case 0xc239d686:
+                return new TLRPC.TL_inputWebFileLocation();
+            case 0x811f854f:
+                return new TLRPC.TL_account_sentEmailCode();
+            case 0x5d7ceba5:
+                return new TLRPC.TL_channelAdminRights();
+            case 0xfb0ccc41:
+                return new TLRPC.TL_chatForbidden_old();
+            case 0x7312bc48:
+                return new TLRPC.TL_chat_old2();
+            case 0x289da732:
+                return new TLRPC.TL_channelForbidden();
+            case 0x8537784f:
+                return new TLRPC.TL_channelForbidden_layer67();
+            case 0x4b1b7506:
+                return new TLRPC.TL_channel_layer48();
+            case 0x2d85832c:
+                return new TLRPC.TL_channelForbidden_layer52();
+            case 0x7328bdb:
+                return new TLRPC.TL_chatForbidden();
+            case 0xa14dca52:
+                return new TLRPC.TL_channel_layer67();
+            case 0x678e9587:
+                return new TLRPC.TL_channel_old();
+            case 0x6e9c9bc7:
+                return new TLRPC.TL_chat_old();
+            case 0x450b7115:
+                return new TLRPC.TL_channel_layer77();
+            case 0xcb44b1c:
+                return new TLRPC.TL_channel_layer72();
+            case 0xc88974ac:
+                return new TLRPC.TL_channel();
+            case 0xd91cdd54:
+                return new TLRPC.TL_chat();
+            case 0xa7a43b17:
+                return new TLRPC.TL_stickerSet_old();
+            case 0x5585a139:
+                return new TLRPC.TL_stickerSet();
+            case 0xcd303b41:
+                return new TLRPC.TL_stickerSet_layer75();
+            case 0xaa963b05:
+                return new TLRPC.TL_storage_fileUnknown();
+            case 0xb3cea0e4:
+                return new TLRPC.TL_storage_fileMp4();
+            case 0x1081464c:
+                return new TLRPC.TL_storage_fileWebp();
+            case 0xa4f63c0:
+                return new TLRPC.TL_storage_filePng();
+            case 0xcae1aadf:
+                return new TLRPC.TL_storage_fileGif();
+            case 0xae1e508d:
+                return new TLRPC.TL_storage_filePdf();
+            case 0x528a0677:
+                return new TLRPC.TL_storage_fileMp3();
+            case 0x7efe0e:
+                return new TLRPC.TL_storage_fileJpeg();
+            case 0x4b09ebbc:
+                return new TLRPC.TL_storage_fileMov();
+            case 0x40bc6f52:
+                return new TLRPC.TL_storage_filePartial();
+            case 0x72a3158c:
+                return new TLRPC.TL_auth_codeTypeSms();
+            case 0x741cd3e3:
+                return new TLRPC.TL_auth_codeTypeCall();
+            case 0x226ccefb:
+                return new TLRPC.TL_auth_codeTypeFlashCall();
+            case 0xffc86587:
+                return new TLRPC.TL_inputMessagesFilterGif();
+            case 0x3751b49e:
+                return new TLRPC.TL_inputMessagesFilterMusic();
+            case 0x3a20ecb8:
+                return new TLRPC.TL_inputMessagesFilterChatPhotos();
+            case 0x9609a51c:
+                return new TLRPC.TL_inputMessagesFilterPhotos();
+            case 0x7ef0dd87:
+                return new TLRPC.TL_inputMessagesFilterUrl();
+            case 0x9eddf188:
+                return new TLRPC.TL_inputMessagesFilterDocument();
+            case 0x56e9f0e4:
+                return new TLRPC.TL_inputMessagesFilterPhotoVideo();
+            case 0xd95e73bb:
+                return new TLRPC.TL_inputMessagesFilterPhotoVideoDocuments();
+            case 0xe7026d0d:
+                return new TLRPC.TL_inputMessagesFilterGeo();
+            case 0xc1f8e69a:
+                return new TLRPC.TL_inputMessagesFilterMyMentions();
+            case 0x7a7c17a4:
+                return new TLRPC.TL_inputMessagesFilterRoundVoice();
+            case 0x50f5c392:
+                return new TLRPC.TL_inputMessagesFilterVoice();
+            case 0xe062db83:
+                return new TLRPC.TL_inputMessagesFilterContacts();
+            case 0x9fc00e65:
+                return new TLRPC.TL_inputMessagesFilterVideo();
+            case 0x80c99768:
+                return new TLRPC.TL_inputMessagesFilterPhoneCalls();
+            case 0x57e2f66c:
+                return new TLRPC.TL_inputMessagesFilterEmpty();
+            case 0xb549da53:
+                return new TLRPC.TL_inputMessagesFilterRoundVideo();
+            case 0x3f4e0648:
+                return new TLRPC.TL_messages_messageEmpty();
+            case 0x33f0ea47:
+                return new TLRPC.TL_secureCredentialsEncrypted();
+            case 0xfadff4ac:
+                return new TLRPC.TL_messageFwdHeader_layer72();
+            case 0x559ebe6d:
+                return new TLRPC.TL_messageFwdHeader();
+            case 0xc786ddcb:
+                return new TLRPC.TL_messageFwdHeader_layer68();
+            case 0x53d69076:
+                return new TLRPC.TL_fileLocation();
+            case 0x55555554:
+                return new TLRPC.TL_fileEncryptedLocation();
+            case 0x7c596b46:
+                return new TLRPC.TL_fileLocationUnavailable();
+            case 0xe8025ca2:
+                return new TLRPC.TL_messages_savedGifsNotModified();
+            case 0x2e0709a5:
+                return new TLRPC.TL_messages_savedGifs();
+            case 0x77bfb61b:
+                return new TLRPC.TL_photoSize();
+            case 0xe17e23c:
+                return new TLRPC.TL_photoSizeEmpty();
+            case 0xe9a734fa:
+                return new TLRPC.TL_photoCachedSize();
+            case 0xea879f95:
+                return new TLRPC.TL_contactFound();
+            case 0xfc2e05bc:
+                return new TLRPC.TL_chatInviteExported();
+            case 0x69df3769:
+                return new TLRPC.TL_chatInviteEmpty();
+            case 0xfa4f0bb5:
+                return new TLRPC.TL_inputFileBig();
+            case 0xf52ff27f:
+                return new TLRPC.TL_inputFile();
+            case 0xed56c9fc:
+                return new TLRPC.TL_account_webAuthorizations();
+            case 0xa56c2a3e:
+                return new TLRPC.TL_updates_state();
+            case 0xf220f3f:
+                return new TLRPC.TL_userFull();
+            case 0x74ae4240:
+                return new TLRPC.TL_updates();
+            case 0x914fbf11:
+                return new TLRPC.TL_updateShortMessage();
+            case 0x11f1331c:
+                return new TLRPC.TL_updateShortSentMessage();
+            case 0x78d4dec1:
+                return new TLRPC.TL_updateShort();
+            case 0x16812688:
+                return new TLRPC.TL_updateShortChatMessage();
+            case 0x725b04c3:
+                return new TLRPC.TL_updatesCombined();
+            case 0xe317af7e:
+                return new TLRPC.TL_updatesTooLong();
+            case 0xccb03657:
+                return new TLRPC.TL_wallPaper();
+            case 0x63117f24:
+                return new TLRPC.TL_wallPaperSolid();
+            case 0xcdc27a1f:
+                return new TLRPC.TL_paymentSavedCredentialsCard();
+            case 0x12b299d4:
+                return new TLRPC.TL_stickerPack();
+            case 0xf141b5e1:
+                return new TLRPC.TL_inputEncryptedChat();
+            case 0x8953ad37:
+                return new TLRPC.TL_inputChatPhoto();
+            case 0x1ca48f57:
+                return new TLRPC.TL_inputChatPhotoEmpty();
+            case 0x927c55b4:
+                return new TLRPC.TL_inputChatUploadedPhoto();
+            case 0x8e1a1775:
+                return new TLRPC.TL_nearestDc();
+            case 0xfb8fe43c:
+                return new TLRPC.TL_payments_savedInfo();
+            case 0x1cd7bf0d:
+                return new TLRPC.TL_inputPhotoEmpty();
+            case 0xfb95c6c4:
+                return new TLRPC.TL_inputPhoto();
+            case 0xd0028438:
+                return new TLRPC.TL_importedContact();
+            case 0x22f3afb3:
+                return new TLRPC.TL_messages_recentStickers();
+            case 0xb17f890:
+                return new TLRPC.TL_messages_recentStickersNotModified();
+            case 0xb8d0afdf:
+                return new TLRPC.TL_accountDaysTTL();
+            case 0xf1749a22:
+                return new TLRPC.TL_messages_stickersNotModified();
+            case 0xe4599bbd:
+                return new TLRPC.TL_messages_stickers();
+            case 0x7b8e7de6:
+                return new TLRPC.TL_inputPeerUser();
+            case 0x179be863:
+                return new TLRPC.TL_inputPeerChat();
+            case 0x7f3b18ea:
+                return new TLRPC.TL_inputPeerEmpty();
+            case 0x7da07ec9:
+                return new TLRPC.TL_inputPeerSelf();
+            case 0x20adaef8:
+                return new TLRPC.TL_inputPeerChannel();
+            case 0x21ffa60d:
+                return new TLRPC.TL_account_passwordInputSettings();
+            case 0x18b7a10d:
+                return new TLRPC.TL_dcOption();
+            case 0x1be31789:
+                return new TLRPC.TL_decryptedMessageLayer();
+            case 0x419b0df2:
+                return new TLRPC.TL_groupCallParticipantLeft();
+            case 0x4f0b39b8:
+                return new TLRPC.TL_groupCallParticipantAdmin();
+            case 0x589db397:
+                return new TLRPC.TL_groupCallParticipant();
+            case 0x377496f0:
+                return new TLRPC.TL_groupCallParticipantInvited();
+            case 0x6242c773:
+                return new TLRPC.TL_fileHash();
+            case 0x3371c354:
+                return new TLRPC.TL_messages_peerDialogs();
+            case 0xedcdc05b:
+                return new TLRPC.TL_topPeer();
+            case 0x15ba6c40:
+                return new TLRPC.TL_messages_dialogs();
+            case 0x71e094f3:
+                return new TLRPC.TL_messages_dialogsSlice();
+            case 0xf0e3e596:
+                return new TLRPC.TL_messages_dialogsNotModified();
+            case 0x1250abde:
+                return new TLRPC.TL_account_authorizations();
+            case 0x909c3f94:
+                return new TLRPC.TL_paymentRequestedInfo();
+            case 0x6fe51dfb:
+                return new TLRPC.TL_auth_checkPhone();
+            case 0x86aef0ec:
+                return new TLRPC.TL_auth_sendCode();
+            case 0x1b067634:
+                return new TLRPC.TL_auth_signUp();
+            case 0xbcd51581:
+                return new TLRPC.TL_auth_signIn();
+            case 0x5717da40:
+                return new TLRPC.TL_auth_logOut();
+            case 0x9fab0d1a:
+                return new TLRPC.TL_auth_resetAuthorizations();
+            case 0xe5bfffcd:
+                return new TLRPC.TL_auth_exportAuthorization();
+            case 0xe3ef9613:
+                return new TLRPC.TL_auth_importAuthorization();
+            case 0x5cbea590:
+                return new TLRPC.TL_account_registerDevice();
+            case 0x3076c4bf:
+                return new TLRPC.TL_account_unregisterDevice();
+            case 0x84be5b93:
+                return new TLRPC.TL_account_updateNotifySettings();
+            case 0x12b3ad31:
+                return new TLRPC.TL_account_getNotifySettings();
+            case 0xdb7e1747:
+                return new TLRPC.TL_account_resetNotifySettings();
+            case 0x78515775:
+                return new TLRPC.TL_account_updateProfile();
+            case 0x6628562c:
+                return new TLRPC.TL_account_updateStatus();
+            case 0xc04cfac2:
+                return new TLRPC.TL_account_getWallPapers();
+            case 0xd91a548:
+                return new TLRPC.TL_users_getUsers();
+            case 0xae189d5f:
+                return new TLRPC.TL_account_reportPeer();
+            case 0xca30a5b1:
+                return new TLRPC.TL_users_getFullUser();
+            case 0xc4a353ee:
+                return new TLRPC.TL_contacts_getStatuses();
+            case 0xc023849f:
+                return new TLRPC.TL_contacts_getContacts();
+            case 0x2c800be5:
+                return new TLRPC.TL_contacts_importContacts();
+            case 0x8e953744:
+                return new TLRPC.TL_contacts_deleteContact();
+            case 0x59ab389e:
+                return new TLRPC.TL_contacts_deleteContacts();
+            case 0x332b49fc:
+                return new TLRPC.TL_contacts_block();
+            case 0xe54100bd:
+                return new TLRPC.TL_contacts_unblock();
+            case 0xf57c350f:
+                return new TLRPC.TL_contacts_getBlocked();
+            case 0x84e53737:
+                return new TLRPC.TL_contacts_exportCard();
+            case 0x4fe196fe:
+                return new TLRPC.TL_contacts_importCard();
+            case 0x879537f1:
+                return new TLRPC.TL_contacts_resetSaved();
+            case 0x8514bdda:
+                return new TLRPC.TL_contacts_toggleTopPeers();
+            case 0x4222fa74:
+                return new TLRPC.TL_messages_getMessages();
+            case 0xb098aee6:
+                return new TLRPC.TL_messages_getDialogs();
+            case 0xafa92846:
+                return new TLRPC.TL_messages_getHistory();
+            case 0x8614ef68:
+                return new TLRPC.TL_messages_search();
+            case 0x2ca51fd1:
+                return new TLRPC.TL_help_getTermsOfServiceUpdate();
+            case 0xee72f79a:
+                return new TLRPC.TL_help_acceptTermsOfService();
+            case 0xe306d3a:
+                return new TLRPC.TL_messages_readHistory();
+            case 0x1c015b09:
+                return new TLRPC.TL_messages_deleteHistory();
+            case 0xeabbb94c:
+                return new TLRPC.TL_channels_togglePreHistoryHidden();
+            case 0xec8bd9e1:
+                return new TLRPC.TL_messages_toggleChatAdmins();
+            case 0xa9e69f2e:
+                return new TLRPC.TL_messages_editChatAdmin();
+            case 0x15a3b8e3:
+                return new TLRPC.TL_messages_migrateChat();
+            case 0x9e3cacb0:
+                return new TLRPC.TL_messages_searchGlobal();
+            case 0xe58e95d2:
+                return new TLRPC.TL_messages_deleteMessages();
+            case 0x5a954c0:
+                return new TLRPC.TL_messages_receivedMessages();
+            case 0xa3825e50:
+                return new TLRPC.TL_messages_setTyping();
+            case 0xfa88427a:
+                return new TLRPC.TL_messages_sendMessage();
+            case 0xb8d1262b:
+                return new TLRPC.TL_messages_sendMedia();
+            case 0x708e0195:
+                return new TLRPC.TL_messages_forwardMessages();
+            case 0xcf1592db:
+                return new TLRPC.TL_messages_reportSpam();
+            case 0xa8f1709b:
+                return new TLRPC.TL_messages_hideReportSpam();
+            case 0x3672e09c:
+                return new TLRPC.TL_messages_getPeerSettings();
+            case 0xbd82b658:
+                return new TLRPC.TL_messages_report();
+            case 0x3c6aa187:
+                return new TLRPC.TL_messages_getChats();
+            case 0x3b831c66:
+                return new TLRPC.TL_messages_getFullChat();
+            case 0xdc452855:
+                return new TLRPC.TL_messages_editChatTitle();
+            case 0xca4c79d8:
+                return new TLRPC.TL_messages_editChatPhoto();
+            case 0xf9a0aa09:
+                return new TLRPC.TL_messages_addChatUser();
+            case 0xe0611f16:
+                return new TLRPC.TL_messages_deleteChatUser();
+            case 0x9cb126e:
+                return new TLRPC.TL_messages_createChat();
+            case 0xedd4882a:
+                return new TLRPC.TL_updates_getState();
+            case 0x25939651:
+                return new TLRPC.TL_updates_getDifference();
+            case 0x3173d78:
+                return new TLRPC.TL_updates_getChannelDifference();
+            case 0xf0bb5152:
+                return new TLRPC.TL_photos_updateProfilePhoto();
+            case 0x4f32c098:
+                return new TLRPC.TL_photos_uploadProfilePhoto();
+            case 0x87cf7f2f:
+                return new TLRPC.TL_photos_deletePhotos();
+            case 0xe3a6cfb5:
+                return new TLRPC.TL_upload_getFile();
+            case 0xc4f9186b:
+                return new TLRPC.TL_help_getConfig();
+            case 0x1fb33026:
+                return new TLRPC.TL_help_getNearestDc();
+            case 0x522d5a7d:
+                return new TLRPC.TL_help_getAppUpdate();
+            case 0x6f02f748:
+                return new TLRPC.TL_help_saveAppLog();
+            case 0x4d392343:
+                return new TLRPC.TL_help_getInviteText();
+            case 0x91cd32a8:
+                return new TLRPC.TL_photos_getUserPhotos();
+            case 0x33963bf9:
+                return new TLRPC.TL_messages_forwardMessage();
+            case 0xbf73f4da:
+                return new TLRPC.TL_messages_sendBroadcast();
+            case 0x26cf8950:
+                return new TLRPC.TL_messages_getDhConfig();
+            case 0xf64daf43:
+                return new TLRPC.TL_messages_requestEncryption();
+            case 0x3dbc0415:
+                return new TLRPC.TL_messages_acceptEncryption();
+            case 0xedd923c5:
+                return new TLRPC.TL_messages_discardEncryption();
+            case 0x791451ed:
+                return new TLRPC.TL_messages_setEncryptedTyping();
+            case 0x7f4b690a:
+                return new TLRPC.TL_messages_readEncryptedHistory();
+            case 0x55a5bb66:
+                return new TLRPC.TL_messages_receivedQueue();
+            case 0x4b0c8c0f:
+                return new TLRPC.TL_messages_reportEncryptedSpam();
+            case 0x9cdf08cd:
+                return new TLRPC.TL_help_getSupport();
+            case 0x36a73f77:
+                return new TLRPC.TL_messages_readMessageContents();
+            case 0x2714d86c:
+                return new TLRPC.TL_account_checkUsername();
+            case 0x3e0bdd7c:
+                return new TLRPC.TL_account_updateUsername();
+            case 0x11f812d8:
+                return new TLRPC.TL_contacts_search();
+            case 0xdadbc950:
+                return new TLRPC.TL_account_getPrivacy();
+            case 0xc9f81ce8:
+                return new TLRPC.TL_account_setPrivacy();
+            case 0x418d4e0b:
+                return new TLRPC.TL_account_deleteAccount();
+            case 0x8fc711d:
+                return new TLRPC.TL_account_getAccountTTL();
+            case 0x2442485e:
+                return new TLRPC.TL_account_setAccountTTL();
+            case 0xf93ccba3:
+                return new TLRPC.TL_contacts_resolveUsername();
+            case 0xd4982db5:
+                return new TLRPC.TL_contacts_getTopPeers();
+            case 0x1ae373ac:
+                return new TLRPC.TL_contacts_resetTopPeerRating();
+            case 0x8e57deb:
+                return new TLRPC.TL_account_sendChangePhoneCode();
+            case 0x70c32edb:
+                return new TLRPC.TL_account_changePhone();
+            case 0x182e6d6f:
+                return new TLRPC.TL_account_getWebAuthorizations();
+            case 0x2d01b9ef:
+                return new TLRPC.TL_account_resetWebAuthorization();
+            case 0x682d2594:
+                return new TLRPC.TL_account_resetWebAuthorizations();
+            case 0xb288bc7d:
+                return new TLRPC.TL_account_getAllSecureValues();
+            case 0x73665bc2:
+                return new TLRPC.TL_account_getSecureValue();
+            case 0x899fe31d:
+                return new TLRPC.TL_account_saveSecureValue();
+            case 0xb880bc4b:
+                return new TLRPC.TL_account_deleteSecureValue();
+            case 0xb86ba8e1:
+                return new TLRPC.TL_account_getAuthorizationForm();
+            case 0xe7027c94:
+                return new TLRPC.TL_account_acceptAuthorization();
+            case 0x823380b4:
+                return new TLRPC.TL_account_sendVerifyPhoneCode();
+            case 0x4dd3a7f6:
+                return new TLRPC.TL_account_verifyPhone();
+            case 0x7011509f:
+                return new TLRPC.TL_account_sendVerifyEmailCode();
+            case 0xecba39db:
+                return new TLRPC.TL_account_verifyEmail();
+            case 0x1c9618b1:
+                return new TLRPC.TL_messages_getAllStickers();
+            case 0x38df3532:
+                return new TLRPC.TL_account_updateDeviceLocked();
+            case 0x8b68b0cc:
+                return new TLRPC.TL_messages_getWebPagePreview();
+            case 0xe320c158:
+                return new TLRPC.TL_account_getAuthorizations();
+            case 0xdf77f3bc:
+                return new TLRPC.TL_account_resetAuthorization();
+            case 0x548a30f5:
+                return new TLRPC.TL_account_getPassword();
+            case 0xbc8d11bb:
+                return new TLRPC.TL_account_getPasswordSettings();
+            case 0xfa7c4b86:
+                return new TLRPC.TL_account_updatePasswordSettings();
+            case 0x1516d7bd:
+                return new TLRPC.TL_account_sendConfirmPhoneCode();
+            case 0x5f2178c3:
+                return new TLRPC.TL_account_confirmPhone();
+            case 0x4a82327e:
+                return new TLRPC.TL_account_getTmpPassword();
+            case 0xa63011e:
+                return new TLRPC.TL_auth_checkPassword();
+            case 0xd897bc66:
+                return new TLRPC.TL_auth_requestPasswordRecovery();
+            case 0x4ea56e92:
+                return new TLRPC.TL_auth_recoverPassword();
+            case 0x3ef1a9bf:
+                return new TLRPC.TL_auth_resendCode();
+            case 0x1f040578:
+                return new TLRPC.TL_auth_cancelCode();
+            case 0x7d885289:
+                return new TLRPC.TL_messages_exportChatInvite();
+            case 0x3eadb1bb:
+                return new TLRPC.TL_messages_checkChatInvite();
+            case 0x6c50051c:
+                return new TLRPC.TL_messages_importChatInvite();
+            case 0x2619a90e:
+                return new TLRPC.TL_messages_getStickerSet();
+            case 0xc78fe460:
+                return new TLRPC.TL_messages_installStickerSet();
+            case 0xf96e55de:
+                return new TLRPC.TL_messages_uninstallStickerSet();
+            case 0xe6df7378:
+                return new TLRPC.TL_messages_startBot();
+            case 0xc4c8a55d:
+                return new TLRPC.TL_messages_getMessagesViews();
+            case 0xbf9a776b:
+                return new TLRPC.TL_messages_searchGifs();
+            case 0x83bf3d52:
+                return new TLRPC.TL_messages_getSavedGifs();
+            case 0x327a30cb:
+                return new TLRPC.TL_messages_saveGif();
+            case 0x514e999d:
+                return new TLRPC.TL_messages_getInlineBotResults();
+            case 0xb16e06fe:
+                return new TLRPC.TL_messages_sendInlineBotResult();
+            case 0xfda68d36:
+                return new TLRPC.TL_messages_getMessageEditData();
+            case 0xc000e4c8:
+                return new TLRPC.TL_messages_editMessage();
+            case 0x810a9fec:
+                return new TLRPC.TL_messages_getBotCallbackAnswer();
+            case 0xd58f130a:
+                return new TLRPC.TL_messages_setBotCallbackAnswer();
+            case 0xe470bcfd:
+                return new TLRPC.TL_messages_getPeerDialogs();
+            case 0xbc39e14b:
+                return new TLRPC.TL_messages_saveDraft();
+            case 0x6a3f8d65:
+                return new TLRPC.TL_messages_getAllDrafts();
+            case 0x2dacca4f:
+                return new TLRPC.TL_messages_getFeaturedStickers();
+            case 0x5b118126:
+                return new TLRPC.TL_messages_readFeaturedStickers();
+            case 0x5ea192c9:
+                return new TLRPC.TL_messages_getRecentStickers();
+            case 0x392718f8:
+                return new TLRPC.TL_messages_saveRecentSticker();
+            case 0x8999602d:
+                return new TLRPC.TL_messages_clearRecentStickers();
+            case 0x57f17692:
+                return new TLRPC.TL_messages_getArchivedStickers();
+            case 0x8ef8ecc0:
+                return new TLRPC.TL_messages_setGameScore();
+            case 0x15ad9f64:
+                return new TLRPC.TL_messages_setInlineGameScore();
+            case 0x65b8c79f:
+                return new TLRPC.TL_messages_getMaskStickers();
+            case 0xe822649d:
+                return new TLRPC.TL_messages_getGameHighScores();
+            case 0xf635e1b:
+                return new TLRPC.TL_messages_getInlineGameHighScores();
+            case 0xcc5b67cc:
+                return new TLRPC.TL_messages_getAttachedStickers();
+            case 0xd0a48c4:
+                return new TLRPC.TL_messages_getCommonChats();
+            case 0xeba80ff0:
+                return new TLRPC.TL_messages_getAllChats();
+            case 0x32ca8f91:
+                return new TLRPC.TL_messages_getWebPage();
+            case 0xa731e257:
+                return new TLRPC.TL_messages_toggleDialogPin();
+            case 0x5b51d63f:
+                return new TLRPC.TL_messages_reorderPinnedDialogs();
+            case 0xe254d64e:
+                return new TLRPC.TL_messages_getPinnedDialogs();
+            case 0x519bc2b1:
+                return new TLRPC.TL_messages_uploadMedia();
+            case 0xc97df020:
+                return new TLRPC.TL_messages_sendScreenshotNotification();
+            case 0x21ce0b0e:
+                return new TLRPC.TL_messages_getFavedStickers();
+            case 0xb9ffc55b:
+                return new TLRPC.TL_messages_faveSticker();
+            case 0x46578472:
+                return new TLRPC.TL_messages_getUnreadMentions();
+            case 0xf0189d3:
+                return new TLRPC.TL_messages_readMentions();
+            case 0xbbc45b09:
+                return new TLRPC.TL_messages_getRecentLocations();
+            case 0x2095512f:
+                return new TLRPC.TL_messages_sendMultiMedia();
+            case 0x7e58ee9c:
+                return new TLRPC.TL_messages_clearAllDrafts();
+            case 0x9010ef6f:
+                return new TLRPC.TL_help_getAppChangelog();
+            case 0x5057c497:
+                return new TLRPC.TL_messages_uploadEncryptedFile();
+            case 0xc2b7d08b:
+                return new TLRPC.TL_messages_searchStickerSets();
+            case 0xc286d98f:
+                return new TLRPC.TL_messages_markDialogUnread();
+            case 0x22e24e22:
+                return new TLRPC.TL_messages_getDialogUnreadMarks();
+            case 0xec22cfcd:
+                return new TLRPC.TL_help_setBotUpdatesStatus();
+            case 0x78337739:
+                return new TLRPC.TL_messages_reorderStickerSets();
+            case 0x338e2464:
+                return new TLRPC.TL_messages_getDocumentByHash();
+            case 0x3dc0f114:
+                return new TLRPC.TL_help_getRecentMeUrls();
+            case 0x3d7758e1:
+                return new TLRPC.TL_help_getProxyData();
+            case 0x3fedc75f:
+                return new TLRPC.TL_help_getDeepLinkInfo();
+            case 0xcc104937:
+                return new TLRPC.TL_channels_readHistory();
+            case 0x84c1fd4e:
+                return new TLRPC.TL_channels_deleteMessages();
+            case 0xd10dd71b:
+                return new TLRPC.TL_channels_deleteUserHistory();
+            case 0xfe087810:
+                return new TLRPC.TL_channels_reportSpam();
+            case 0x93d7b347:
+                return new TLRPC.TL_channels_getMessages();
+            case 0x123e05e9:
+                return new TLRPC.TL_channels_getParticipants();
+            case 0x546dd7a6:
+                return new TLRPC.TL_channels_getParticipant();
+            case 0xa7f6bbb:
+                return new TLRPC.TL_channels_getChannels();
+            case 0x8736a09:
+                return new TLRPC.TL_channels_getFullChannel();
+            case 0xf4893d7f:
+                return new TLRPC.TL_channels_createChannel();
+            case 0x13e27f1e:
+                return new TLRPC.TL_channels_editAbout();
+            case 0x20b88214:
+                return new TLRPC.TL_channels_editAdmin();
+            case 0x566decd0:
+                return new TLRPC.TL_channels_editTitle();
+            case 0xf12e57c9:
+                return new TLRPC.TL_channels_editPhoto();
+            case 0x10e6bd2c:
+                return new TLRPC.TL_channels_checkUsername();
+            case 0x3514b3de:
+                return new TLRPC.TL_channels_updateUsername();
+            case 0x24b524c5:
+                return new TLRPC.TL_channels_joinChannel();
+            case 0xf836aa95:
+                return new TLRPC.TL_channels_leaveChannel();
+            case 0x199f3a6c:
+                return new TLRPC.TL_channels_inviteToChannel();
+            case 0xc7560885:
+                return new TLRPC.TL_channels_exportInvite();
+            case 0xc0111fe3:
+                return new TLRPC.TL_channels_deleteChannel();
+            case 0x49609307:
+                return new TLRPC.TL_channels_toggleInvites();
+            case 0xc846d22d:
+                return new TLRPC.TL_channels_exportMessageLink();
+            case 0x1f69b606:
+                return new TLRPC.TL_channels_toggleSignatures();
+            case 0xa72ded52:
+                return new TLRPC.TL_channels_updatePinnedMessage();
+            case 0x8d8d82d7:
+                return new TLRPC.TL_channels_getAdminedPublicChannels();
+            case 0xbfd915cd:
+                return new TLRPC.TL_channels_editBanned();
+            case 0x33ddf480:
+                return new TLRPC.TL_channels_getAdminLog();
+            case 0xea8ca4f9:
+                return new TLRPC.TL_channels_setStickers();
+            case 0xeab5dc38:
+                return new TLRPC.TL_channels_readMessageContents();
+            case 0xaf369d42:
+                return new TLRPC.TL_channels_deleteHistory();
+            case 0x55451fa9:
+                return new TLRPC.TL_phone_getCallConfig();
+            case 0x5b95b3d4:
+                return new TLRPC.TL_phone_requestCall();
+            case 0x3bd2b4a0:
+                return new TLRPC.TL_phone_acceptCall();
+            case 0x2efe1722:
+                return new TLRPC.TL_phone_confirmCall();
+            case 0x17d54f61:
+                return new TLRPC.TL_phone_receivedCall();
+            case 0x78d413a6:
+                return new TLRPC.TL_phone_discardCall();
+            case 0x1c536a34:
+                return new TLRPC.TL_phone_setCallRating();
+            case 0x277add7e:
+                return new TLRPC.TL_phone_saveCallDebug();
+            case 0x8504e5b6:
+                return new TLRPC.TL_phone_createGroupCall();
+            case 0x9db32d7:
+                return new TLRPC.TL_phone_joinGroupCall();
+            case 0x60e98e5f:
+                return new TLRPC.TL_phone_leaveGroupCall();
+            case 0x46659be4:
+                return new TLRPC.TL_phone_editGroupCallMember();
+            case 0xcc92a6dc:
+                return new TLRPC.TL_phone_inviteGroupCallMembers();
+            case 0x7a777135:
+                return new TLRPC.TL_phone_discardGroupCall();
+            case 0xc7cb017:
+                return new TLRPC.TL_phone_getGroupCall();
+            case 0x98e3cdba:
+                return new TLRPC.TL_phone_upgradePhoneCall();
+            case 0x8adb4f79:
+                return new TLRPC.TL_phone_getCall();
+            case 0x99f09745:
+                return new TLRPC.TL_payments_getPaymentForm();
+            case 0xa092a980:
+                return new TLRPC.TL_payments_getPaymentReceipt();
+            case 0x770a8e74:
+                return new TLRPC.TL_payments_validateRequestedInfo();
+            case 0x2b8879b3:
+                return new TLRPC.TL_payments_sendPaymentForm();
+            case 0x227d824b:
+                return new TLRPC.TL_payments_getSavedInfo();
+            case 0xd83d70c1:
+                return new TLRPC.TL_payments_clearSavedInfo();
+            case 0x9ab5c58e:
+                return new TLRPC.TL_langpack_getLangPack();
+            case 0x2e1ee318:
+                return new TLRPC.TL_langpack_getStrings();
+            case 0xb2e4d7d:
+                return new TLRPC.TL_langpack_getDifference();
+            case 0x800fd57d:
+                return new TLRPC.TL_langpack_getLanguages();
+            case 0x3d5b64f2:
+                return new TLRPC.TL_pageBlockAuthorDate_layer60();
+            case 0x83e5de54:
+                return new TLRPC.TL_messageEmpty();
+            case 0x1d86f70e:
+                return new TLRPC.TL_messageService_old2();
+            case 0x90dddc11:
+                return new TLRPC.TL_message_layer72();
+            case 0xc09be45f:
+                return new TLRPC.TL_message_layer68();
+            case 0xc992e15c:
+                return new TLRPC.TL_message_layer47();
+            case 0x5ba66c13:
+                return new TLRPC.TL_message_old7();
+            case 0xa367e716:
+                return new TLRPC.TL_messageForwarded_old2();
+            case 0x44f9b43d:
+                return new TLRPC.TL_message();
+            case 0x2bebfa86:
+                return new TLRPC.TL_message_old6();
+            case 0xf07814c8:
+                return new TLRPC.TL_message_old5();
+            case 0xc06b9607:
+                return new TLRPC.TL_messageService_layer48();
+            case 0xc3060325:
+                return new TLRPC.TL_message_old4();
+            case 0xa7ab1991:
+                return new TLRPC.TL_message_old3();
+            case 0x567699b3:
+                return new TLRPC.TL_message_old2();
+            case 0x9f8d60bb:
+                return new TLRPC.TL_messageService_old();
+            case 0x5f46804:
+                return new TLRPC.TL_messageForwarded_old();
+            case 0x22eb6aba:
+                return new TLRPC.TL_message_old();
+            case 0x555555fa:
+                return new TLRPC.TL_message_secret();
+            case 0x555555f9:
+                return new TLRPC.TL_message_secret_layer72();
+            case 0x555555f8:
+                return new TLRPC.TL_message_secret_old();
+            case 0x9e19a1f6:
+                return new TLRPC.TL_messageService();
+            case 0xe4def5db:
+                return new TLRPC.TL_dialog();
+            case 0x9ba2d800:
+                return new TLRPC.TL_chatEmpty();
+            case 0xb304a621:
+                return new TLRPC.TL_upload_saveFilePart();
+            case 0x43d4f2c:
+                return new TLRPC.TL_messages_getStickers();
+            case 0xde7b673d:
+                return new TLRPC.TL_upload_saveBigFilePart();
+            case 0x24e6818d:
+                return new TLRPC.TL_upload_getWebFile();
+            case 0x2000bcc3:
+                return new TLRPC.TL_upload_getCdnFile();
+            case 0x9b2754a8:
+                return new TLRPC.TL_upload_reuploadCdnFile();
+            case 0x4da54231:
+                return new TLRPC.TL_upload_getCdnFileHashes();
+            case 0xc7025931:
+                return new TLRPC.TL_upload_getFileHashes();
+            case 0x21e753bc:
+                return new TLRPC.TL_upload_webFile();
+            case 0xa99fca4f:
+                return new TLRPC.TL_upload_cdnFile();
+            case 0xeea8e46e:
+                return new TLRPC.TL_upload_cdnFileReuploadNeeded();
+            case 0x96a18d5:
+                return new TLRPC.TL_upload_file();
+            case 0xf18cda44:
+                return new TLRPC.TL_upload_fileCdnRedirect();
+            case 0xa2bb35cb:
+                return new TLRPC.TL_phoneCallProtocol();
+            case 0x9a901b66:
+                return new TLRPC.TL_messages_sendEncryptedFile();
+            case 0xcacacaca:
+                return new TLRPC.TL_messages_sendEncryptedMultiMedia();
+            case 0xa9776773:
+                return new TLRPC.TL_messages_sendEncrypted();
+            case 0x32d439a4:
+                return new TLRPC.TL_messages_sendEncryptedService();
+            case 0x1cb5c415:
+                return new TLRPC.Vector();
+            default:
+                return null;
+        }
+    }
+}
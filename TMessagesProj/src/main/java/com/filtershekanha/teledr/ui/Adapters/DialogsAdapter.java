@@ -21,6 +21,7 @@ import android.widget.TextView;
 
 import com.filtershekanha.teledr.messenger.AndroidUtilities;
 import com.filtershekanha.teledr.messenger.ContactsController;
+import com.filtershekanha.teledr.messenger.DialogsDiff;
 import com.filtershekanha.teledr.messenger.LocaleController;
 import com.filtershekanha.teledr.messenger.MessagesController;
 import com.filtershekanha.teledr.messenger.R;
@@ -53,6 +54,7 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter {
     private boolean hasHints;
     private int currentAccount = UserConfig.selectedAccount;
     private boolean showContacts;
+    private int dialogsDiffVersion;
 
     public DialogsAdapter(Context context, int type, boolean onlySelect) {
         mContext = context;
@@ -62,6 +64,7 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter {
         if (onlySelect) {
             selectedDialogs = new ArrayList<>();
         }
+        syncDialogsDiff();
     }
 
     public void setOpenedDialogId(long id) {
@@ -90,6 +93,56 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter {
         return selectedDialogs;
     }
 
+    /**
+     * Replays dialog moves recorded by MessagesController since the last sync as notifyItem* calls.
+     * Returns false if they can't be applied and the caller has to refresh the list itself.
+     */
+    public boolean applyDialogsDiff() {
+        DialogsDiff diff = MessagesController.getInstance(currentAccount).getDialogsDiff(dialogsType);
+        if (diff == null) {
+            return false;
+        }
+        int previousCount = currentCount;
+        int count = getItemCount();
+        ArrayList<TLRPC.TL_dialog> array = getDialogsArray();
+        int version = diff.getVersion();
+        if (version == dialogsDiffVersion || !diff.canReplayFrom(dialogsDiffVersion) || showContacts || previousCount + diff.getSizeDelta(dialogsDiffVersion) != count || diff.getListSize(version) != array.size()) {
+            currentCount = previousCount;
+            syncDialogsDiff();
+            return false;
+        }
+        int offset = hasHints ? 2 + MessagesController.getInstance(currentAccount).hintDialogs.size() : 0;
+        for (int a = dialogsDiffVersion + 1; a <= version; a++) {
+            int from = diff.getFrom(a);
+            int to = diff.getTo(a);
+            int listSize = diff.getListSize(a);
+            if (from < 0) {
+                notifyItemInserted(to + offset);
+                if (to > 0 && to == listSize - 1) {
+                    //the previous last dialog gets its separator back
+                    notifyItemChanged(to - 1 + offset);
+                }
+            } else if (to < 0) {
+                notifyItemRemoved(from + offset);
+                if (from > 0 && from == listSize) {
+                    notifyItemChanged(from - 1 + offset);
+                }
+            } else {
+                notifyItemMoved(from + offset, to + offset);
+                notifyItemRangeChanged(Math.min(from, to) + offset, Math.abs(from - to) + 1);
+            }
+        }
+        syncDialogsDiff();
+        return true;
+    }
+
+    private void syncDialogsDiff() {
+        DialogsDiff diff = MessagesController.getInstance(currentAccount).getDialogsDiff(dialogsType);
+        if (diff != null) {
+            dialogsDiffVersion = diff.getVersion();
+        }
+    }
+
     public boolean isDataSetChanged() {
         int current = currentCount;
         return current != getItemCount() || current == 1;
@@ -161,6 +214,7 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter {
     @Override
     public void notifyDataSetChanged() {
         hasHints = dialogsType == 0 && !isOnlySelect && !MessagesController.getInstance(currentAccount).hintDialogs.isEmpty();
+        syncDialogsDiff();
         super.notifyDataSetChanged();
     }
 
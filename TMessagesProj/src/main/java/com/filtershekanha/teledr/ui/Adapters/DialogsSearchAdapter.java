@@ -29,6 +29,7 @@ import com.filtershekanha.teledr.messenger.LocaleController;
 import com.filtershekanha.teledr.messenger.MessageObject;
 import com.filtershekanha.teledr.messenger.MessagesController;
 import com.filtershekanha.teledr.messenger.MessagesStorage;
+import com.filtershekanha.teledr.messenger.PeerNameIndex;
 import com.filtershekanha.teledr.messenger.R;
 import com.filtershekanha.teledr.messenger.UserConfig;
 import com.filtershekanha.teledr.messenger.support.widget.LinearLayoutManager;
@@ -54,7 +55,6 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
 
@@ -264,12 +264,7 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                                     TLRPC.Message message = res.messages.get(a);
                                     searchResultMessages.add(new MessageObject(currentAccount, message, false));
                                     long dialog_id = MessageObject.getDialogId(message);
-                                    ConcurrentHashMap<Long, Integer> read_max = message.out ? MessagesController.getInstance(currentAccount).dialogs_read_outbox_max : MessagesController.getInstance(currentAccount).dialogs_read_inbox_max;
-                                    Integer value = read_max.get(dialog_id);
-                                    if (value == null) {
-                                        value = MessagesStorage.getInstance(currentAccount).getDialogReadMax(message.out, dialog_id);
-                                        read_max.put(dialog_id, value);
-                                    }
+                                    int value = MessagesController.getInstance(currentAccount).getDialogReadMax(message.out, dialog_id);
                                     message.unread = value < message.id;
                                 }
                                 messagesSearchEndReached = res.messages.size() != 20;
@@ -510,6 +505,10 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                         search[1] = search2;
                     }
 
+                    PeerNameIndex nameIndex = PeerNameIndex.getInstance(currentAccount);
+                    nameIndex.ensureLoaded();
+                    LongSparseArray<PeerNameIndex.Match> matches = nameIndex.search(search);
+
                     ArrayList<Integer> usersToLoad = new ArrayList<>();
                     ArrayList<Integer> chatsToLoad = new ArrayList<>();
                     ArrayList<Integer> encryptedToLoad = new ArrayList<>();
@@ -528,22 +527,22 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                         int high_id = (int) (id >> 32);
                         if (lower_id != 0) {
                             if (high_id == 1) {
-                                if (dialogsType == 0 && !chatsToLoad.contains(lower_id)) {
+                                if (dialogsType == 0 && !chatsToLoad.contains(lower_id) && matches.indexOfKey(-lower_id) >= 0) {
                                     chatsToLoad.add(lower_id);
                                 }
                             } else {
                                 if (lower_id > 0) {
-                                    if (dialogsType != 2 && !usersToLoad.contains(lower_id)) {
+                                    if (dialogsType != 2 && !usersToLoad.contains(lower_id) && matches.indexOfKey(lower_id) >= 0) {
                                         usersToLoad.add(lower_id);
                                     }
                                 } else {
-                                    if (!chatsToLoad.contains(-lower_id)) {
+                                    if (!chatsToLoad.contains(-lower_id) && matches.indexOfKey(lower_id) >= 0) {
                                         chatsToLoad.add(-lower_id);
                                     }
                                 }
                             }
                         } else if (dialogsType == 0) {
-                            if (!encryptedToLoad.contains(high_id)) {
+                            if (!encryptedToLoad.contains(high_id) && matches.indexOfKey(id) >= 0) {
                                 encryptedToLoad.add(high_id);
                             }
                         }
@@ -561,77 +560,54 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     }
 
                     if (!usersToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status, name FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
+                        cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
                         while (cursor.next()) {
-                            String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 3);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
+                            NativeByteBuffer data = cursor.byteBufferValue(0);
+                            if (data != null) {
+                                TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                                data.reuse();
+                                PeerNameIndex.Match match = matches.get((long) user.id);
+                                DialogSearchResult dialogSearchResult = dialogsResult.get((long) user.id);
+                                if (match == null || dialogSearchResult == null) {
+                                    continue;
                                 }
-                                if (found != 0) {
-                                    NativeByteBuffer data = cursor.byteBufferValue(0);
-                                    if (data != null) {
-                                        TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                        data.reuse();
-                                        DialogSearchResult dialogSearchResult = dialogsResult.get((long) user.id);
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(1);
-                                        }
-                                        if (found == 1) {
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName(user.first_name, user.last_name, q);
-                                        } else {
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q);
-                                        }
-                                        dialogSearchResult.object = user;
-                                        resultCount++;
-                                    }
-                                    break;
+                                if (user.status != null) {
+                                    user.status.expires = cursor.intValue(1);
                                 }
+                                if (match.type == PeerNameIndex.MATCH_NAME) {
+                                    dialogSearchResult.name = AndroidUtilities.generateSearchName(user.first_name, user.last_name, match.query);
+                                } else {
+                                    dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + match.query);
+                                }
+                                dialogSearchResult.object = user;
+                                resultCount++;
                             }
                         }
                         cursor.dispose();
                     }
 
                     if (!chatsToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, name FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
+                        cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
                         while (cursor.next()) {
-                            String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    NativeByteBuffer data = cursor.byteBufferValue(0);
-                                    if (data != null) {
-                                        TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
-                                        data.reuse();
-                                        if (!(chat == null || chat.deactivated || ChatObject.isChannel(chat) && ChatObject.isNotInChat(chat))) {
-                                            long dialog_id;
-                                            if (chat.id > 0) {
-                                                dialog_id = -chat.id;
-                                            } else {
-                                                dialog_id = AndroidUtilities.makeBroadcastId(chat.id);
-                                            }
-                                            DialogSearchResult dialogSearchResult = dialogsResult.get(dialog_id);
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName(chat.title, null, q);
-                                            dialogSearchResult.object = chat;
-                                            resultCount++;
-                                        }
+                            NativeByteBuffer data = cursor.byteBufferValue(0);
+                            if (data != null) {
+                                TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
+                                data.reuse();
+                                if (!(chat == null || chat.deactivated || ChatObject.isChannel(chat) && ChatObject.isNotInChat(chat))) {
+                                    PeerNameIndex.Match match = matches.get((long) -chat.id);
+                                    long dialog_id;
+                                    if (chat.id > 0) {
+                                        dialog_id = -chat.id;
+                                    } else {
+                                        dialog_id = AndroidUtilities.makeBroadcastId(chat.id);
+                                    }
+                                    DialogSearchResult dialogSearchResult = dialogsResult.get(dialog_id);
+                                    if (match == null || dialogSearchResult == null) {
+                                        continue;
                                     }
-                                    break;
+                                    dialogSearchResult.name = AndroidUtilities.generateSearchName(chat.title, null, match.query);
+                                    dialogSearchResult.object = chat;
+                                    resultCount++;
                                 }
                             }
                         }
@@ -641,78 +617,55 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     if (!encryptedToLoad.isEmpty()) {
                         cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized(String.format(Locale.US, "SELECT q.data, u.name, q.user, q.g, q.authkey, q.ttl, u.data, u.status, q.layer, q.seq_in, q.seq_out, q.use_count, q.exchange_id, q.key_date, q.fprint, q.fauthkey, q.khash, q.in_seq_no, q.admin_id, q.mtproto_seq FROM enc_chats as q INNER JOIN users as u ON q.user = u.uid WHERE q.uid IN(%s)", TextUtils.join(",", encryptedToLoad)));
                         while (cursor.next()) {
-                            String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
+                            TLRPC.EncryptedChat chat = null;
+                            TLRPC.User user = null;
+                            NativeByteBuffer data = cursor.byteBufferValue(0);
+                            if (data != null) {
+                                chat = TLRPC.EncryptedChat.TLdeserialize(data, data.readInt32(false), false);
+                                data.reuse();
                             }
-
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 2);
+                            data = cursor.byteBufferValue(6);
+                            if (data != null) {
+                                user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                                data.reuse();
                             }
-                            int found = 0;
-                            for (int a = 0; a < search.length; a++) {
-                                String q = search[a];
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
+                            PeerNameIndex.Match match = chat != null ? matches.get((long) chat.id << 32) : null;
+                            if (match != null && user != null) {
+                                DialogSearchResult dialogSearchResult = dialogsResult.get((long) chat.id << 32);
+                                chat.user_id = cursor.intValue(2);
+                                chat.a_or_b = cursor.byteArrayValue(3);
+                                chat.auth_key = cursor.byteArrayValue(4);
+                                chat.ttl = cursor.intValue(5);
+                                chat.layer = cursor.intValue(8);
+                                chat.seq_in = cursor.intValue(9);
+                                chat.seq_out = cursor.intValue(10);
+                                int use_count = cursor.intValue(11);
+                                chat.key_use_count_in = (short) (use_count >> 16);
+                                chat.key_use_count_out = (short) (use_count);
+                                chat.exchange_id = cursor.longValue(12);
+                                chat.key_create_date = cursor.intValue(13);
+                                chat.future_key_fingerprint = cursor.longValue(14);
+                                chat.future_auth_key = cursor.byteArrayValue(15);
+                                chat.key_hash = cursor.byteArrayValue(16);
+                                chat.in_seq_no = cursor.intValue(17);
+                                int admin_id = cursor.intValue(18);
+                                if (admin_id != 0) {
+                                    chat.admin_id = admin_id;
                                 }
+                                chat.mtproto_seq = cursor.intValue(19);
 
-                                if (found != 0) {
-                                    TLRPC.EncryptedChat chat = null;
-                                    TLRPC.User user = null;
-                                    NativeByteBuffer data = cursor.byteBufferValue(0);
-                                    if (data != null) {
-                                        chat = TLRPC.EncryptedChat.TLdeserialize(data, data.readInt32(false), false);
-                                        data.reuse();
-                                    }
-                                    data = cursor.byteBufferValue(6);
-                                    if (data != null) {
-                                        user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                        data.reuse();
-                                    }
-                                    if (chat != null && user != null) {
-                                        DialogSearchResult dialogSearchResult = dialogsResult.get((long) chat.id << 32);
-                                        chat.user_id = cursor.intValue(2);
-                                        chat.a_or_b = cursor.byteArrayValue(3);
-                                        chat.auth_key = cursor.byteArrayValue(4);
-                                        chat.ttl = cursor.intValue(5);
-                                        chat.layer = cursor.intValue(8);
-                                        chat.seq_in = cursor.intValue(9);
-                                        chat.seq_out = cursor.intValue(10);
-                                        int use_count = cursor.intValue(11);
-                                        chat.key_use_count_in = (short) (use_count >> 16);
-                                        chat.key_use_count_out = (short) (use_count);
-                                        chat.exchange_id = cursor.longValue(12);
-                                        chat.key_create_date = cursor.intValue(13);
-                                        chat.future_key_fingerprint = cursor.longValue(14);
-                                        chat.future_auth_key = cursor.byteArrayValue(15);
-                                        chat.key_hash = cursor.byteArrayValue(16);
-                                        chat.in_seq_no = cursor.intValue(17);
-                                        int admin_id = cursor.intValue(18);
-                                        if (admin_id != 0) {
-                                            chat.admin_id = admin_id;
-                                        }
-                                        chat.mtproto_seq = cursor.intValue(19);
-
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(7);
-                                        }
-                                        if (found == 1) {
-                                            dialogSearchResult.name = new SpannableStringBuilder(ContactsController.formatName(user.first_name, user.last_name));
-                                            ((SpannableStringBuilder) dialogSearchResult.name).setSpan(new ForegroundColorSpan(Theme.getColor(Theme.key_chats_secretName)), 0, dialogSearchResult.name.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                                        } else {
-                                            dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q);
-                                        }
-                                        dialogSearchResult.object = chat;
-                                        encUsers.add(user);
-                                        resultCount++;
-                                    }
-                                    break;
+                                if (user.status != null) {
+                                    user.status.expires = cursor.intValue(7);
+                                }
+                                if (match.type == PeerNameIndex.MATCH_NAME) {
+                                    dialogSearchResult.name = new SpannableStringBuilder(ContactsController.formatName(user.first_name, user.last_name));
+                                    ((SpannableStringBuilder) dialogSearchResult.name).setSpan(new ForegroundColorSpan(Theme.getColor(Theme.key_chats_secretName)), 0, dialogSearchResult.name.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                                } else {
+                                    dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + match.query);
                                 }
+                                dialogSearchResult.object = chat;
+                                encUsers.add(user);
+                                resultCount++;
                             }
                         }
                         cursor.dispose();
@@ -748,49 +701,37 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     }
 
                     if (dialogsType != 2) {
-                        cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized("SELECT u.data, u.status, u.name, u.uid FROM users as u INNER JOIN contacts as c ON u.uid = c.uid");
-                        while (cursor.next()) {
-                            int uid = cursor.intValue(3);
-                            if (dialogsResult.indexOfKey((long) uid) >= 0) {
-                                continue;
-                            }
-                            String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
+                        ArrayList<Long> contactsToLoad = new ArrayList<>();
+                        for (int a = 0; a < matches.size(); a++) {
+                            long id = matches.keyAt(a);
+                            if (id > 0 && id <= Integer.MAX_VALUE && dialogsResult.indexOfKey(id) < 0) {
+                                contactsToLoad.add(id);
                             }
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 3);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
-                                }
-                                if (found != 0) {
-                                    NativeByteBuffer data = cursor.byteBufferValue(0);
-                                    if (data != null) {
-                                        TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                        data.reuse();
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(1);
-                                        }
-                                        if (found == 1) {
-                                            resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, q));
-                                        } else {
-                                            resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q));
-                                        }
-                                        resultArray.add(user);
+                        }
+                        if (!contactsToLoad.isEmpty()) {
+                            cursor = MessagesStorage.getInstance(currentAccount).getDatabase().queryFinalized(String.format(Locale.US, "SELECT u.data, u.status FROM users as u INNER JOIN contacts as c ON u.uid = c.uid WHERE u.uid IN(%s)", TextUtils.join(",", contactsToLoad)));
+                            while (cursor.next()) {
+                                NativeByteBuffer data = cursor.byteBufferValue(0);
+                                if (data != null) {
+                                    TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                                    data.reuse();
+                                    PeerNameIndex.Match match = matches.get((long) user.id);
+                                    if (match == null) {
+                                        continue;
+                                    }
+                                    if (user.status != null) {
+                                        user.status.expires = cursor.intValue(1);
                                     }
-                                    break;
+                                    if (match.type == PeerNameIndex.MATCH_NAME) {
+                                        resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, match.query));
+                                    } else {
+                                        resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + match.query));
+                                    }
+                                    resultArray.add(user);
                                 }
                             }
+                            cursor.dispose();
                         }
-                        cursor.dispose();
                     }
 
                     updateSearchResults(resultArray, resultArrayNames, encUsers, searchId);
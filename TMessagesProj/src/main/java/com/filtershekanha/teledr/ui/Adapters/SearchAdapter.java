@@ -12,6 +12,7 @@ import android.content.Context;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.style.ForegroundColorSpan;
+import android.util.LongSparseArray;
 import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,6 +22,7 @@ import com.filtershekanha.teledr.messenger.ContactsController;
 import com.filtershekanha.teledr.messenger.FileLog;
 import com.filtershekanha.teledr.messenger.LocaleController;
 import com.filtershekanha.teledr.messenger.MessagesController;
+import com.filtershekanha.teledr.messenger.PeerNameIndex;
 import com.filtershekanha.teledr.messenger.R;
 import com.filtershekanha.teledr.messenger.UserConfig;
 import com.filtershekanha.teledr.messenger.Utilities;
@@ -145,6 +147,9 @@ public class SearchAdapter extends RecyclerListView.SelectionAdapter {
 
                         ArrayList<TLRPC.User> resultArray = new ArrayList<>();
                         ArrayList<CharSequence> resultArrayNames = new ArrayList<>();
+                        PeerNameIndex nameIndex = PeerNameIndex.getInstance(currentAccount);
+                        nameIndex.ensureLoaded();
+                        LongSparseArray<PeerNameIndex.Match> matches = nameIndex.search(search);
 
                         for (int a = 0; a < contactsCopy.size(); a++) {
                             TLRPC.TL_contact contact = contactsCopy.get(a);
@@ -153,30 +158,16 @@ public class SearchAdapter extends RecyclerListView.SelectionAdapter {
                                 continue;
                             }
 
-                            String name = ContactsController.formatName(user.first_name, user.last_name).toLowerCase();
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
+                            PeerNameIndex.Match match = matches.get((long) user.id);
+                            if (match == null) {
+                                continue;
                             }
-
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (user.username != null && user.username.startsWith(q)) {
-                                    found = 2;
-                                }
-
-                                if (found != 0) {
-                                    if (found == 1) {
-                                        resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, q));
-                                    } else {
-                                        resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q));
-                                    }
-                                    resultArray.add(user);
-                                    break;
-                                }
+                            if (match.type == PeerNameIndex.MATCH_NAME) {
+                                resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, match.query));
+                            } else {
+                                resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + match.query));
                             }
+                            resultArray.add(user);
                         }
 
                         updateSearchResults(resultArray, resultArrayNames);
@@ -4272,6 +4272,12 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
                                 canvas.drawPath(urlPathSelection.get(b), Theme.chat_textSearchSelectionPaint);
                             }
                         }
+                        TextPaint paint = block.textLayout.getPaint();
+                        if (paint != Theme.chat_msgTextPaint && paint != Theme.chat_msgGameTextPaint) {
+                            TextPaint themePaint = currentMessageObject.messageOwner.media instanceof TLRPC.TL_messageMediaGame ? Theme.chat_msgGameTextPaint : Theme.chat_msgTextPaint;
+                            paint.setColor(themePaint.getColor());
+                            paint.linkColor = themePaint.linkColor;
+                        }
                         try {
                             block.textLayout.draw(canvas);
                         } catch (Exception e) {
@@ -395,7 +395,7 @@ public class ChangeUsernameActivity extends BaseFragment {
         final TLRPC.TL_account_updateUsername req = new TLRPC.TL_account_updateUsername();
         req.username = newName;
 
-        NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_NAME);
+        NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_NAME);
         final int reqId = ConnectionsManager.getInstance(currentAccount).sendRequest(req, new RequestDelegate() {
             @Override
             public void run(TLObject response, final TLRPC.TL_error error) {
@@ -89,6 +89,7 @@ import com.filtershekanha.teledr.messenger.FileLog;
 import com.filtershekanha.teledr.messenger.ImageReceiver;
 import com.filtershekanha.teledr.messenger.LocaleController;
 import com.filtershekanha.teledr.messenger.MediaController;
+import com.filtershekanha.teledr.messenger.MessageLayoutCache;
 import com.filtershekanha.teledr.messenger.MessageObject;
 import com.filtershekanha.teledr.messenger.MessagesController;
 import com.filtershekanha.teledr.messenger.MessagesStorage;
@@ -179,7 +180,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.regex.Matcher;
 
 @SuppressWarnings("unchecked")
-public class ChatActivity extends BaseFragment implements NotificationCenter.NotificationCenterDelegate, DialogsActivity.DialogsActivityDelegate, LocationActivity.LocationActivityDelegate {
+public class ChatActivity extends BaseFragment implements NotificationCenter.TypedNotificationCenterDelegate, DialogsActivity.DialogsActivityDelegate, LocationActivity.LocationActivityDelegate {
 
     protected TLRPC.Chat currentChat;
     protected TLRPC.User currentUser;
@@ -6004,12 +6005,9 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
         if (!muted) {
             if (instant) {
                 long flags;
-                SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putInt("notify2_" + dialog_id, 2);
+                MessagesController.getInstance(currentAccount).getDialogSettings().setMuteType(dialog_id, 2);
                 flags = 1;
                 MessagesStorage.getInstance(currentAccount).setDialogFlags(dialog_id, flags);
-                editor.commit();
                 TLRPC.TL_dialog dialog = MessagesController.getInstance(currentAccount).dialogs_dict.get(dialog_id);
                 if (dialog != null) {
                     dialog.notify_settings = new TLRPC.TL_peerNotifySettings();
@@ -6021,11 +6019,8 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                 showDialog(AlertsCreator.createMuteAlert(getParentActivity(), dialog_id));
             }
         } else {
-            SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
-            SharedPreferences.Editor editor = preferences.edit();
-            editor.putInt("notify2_" + dialog_id, 0);
+            MessagesController.getInstance(currentAccount).getDialogSettings().setMuteType(dialog_id, 0);
             MessagesStorage.getInstance(currentAccount).setDialogFlags(dialog_id, 0);
-            editor.commit();
             TLRPC.TL_dialog dialog = MessagesController.getInstance(currentAccount).dialogs_dict.get(dialog_id);
             if (dialog != null) {
                 dialog.notify_settings = new TLRPC.TL_peerNotifySettings();
@@ -7008,6 +7003,62 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
         return chatActivityEnterView.processSendingText(text);
     }
 
+    @Override
+    public void didReceivedTypedNotification(int id, int account, Object object, long value, float progress, boolean flag) {
+        if (id == NotificationCenter.updateInterfaces) {
+            onUpdateInterfaces((int) value);
+        }
+    }
+
+    private void onUpdateInterfaces(int updateMask) {
+        if ((updateMask & MessagesController.UPDATE_MASK_NAME) != 0 || (updateMask & MessagesController.UPDATE_MASK_CHAT_NAME) != 0) {
+            if (currentChat != null) {
+                TLRPC.Chat chat = MessagesController.getInstance(currentAccount).getChat(currentChat.id);
+                if (chat != null) {
+                    currentChat = chat;
+                }
+            } else if (currentUser != null) {
+                TLRPC.User user = MessagesController.getInstance(currentAccount).getUser(currentUser.id);
+                if (user != null) {
+                    currentUser = user;
+                }
+            }
+            updateTitle();
+        }
+        boolean updateSubtitle = false;
+        if ((updateMask & MessagesController.UPDATE_MASK_CHAT_MEMBERS) != 0 || (updateMask & MessagesController.UPDATE_MASK_STATUS) != 0) {
+            if (currentChat != null && avatarContainer != null) {
+                avatarContainer.updateOnlineCount();
+            }
+            updateSubtitle = true;
+        }
+        if ((updateMask & MessagesController.UPDATE_MASK_AVATAR) != 0 || (updateMask & MessagesController.UPDATE_MASK_CHAT_AVATAR) != 0 || (updateMask & MessagesController.UPDATE_MASK_NAME) != 0) {
+            checkAndUpdateAvatar();
+            updateVisibleRows();
+        }
+        if ((updateMask & MessagesController.UPDATE_MASK_USER_PRINT) != 0) {
+            updateSubtitle = true;
+        }
+        if ((updateMask & MessagesController.UPDATE_MASK_CHANNEL) != 0 && ChatObject.isChannel(currentChat)) {
+            TLRPC.Chat chat = MessagesController.getInstance(currentAccount).getChat(currentChat.id);
+            if (chat == null) {
+                return;
+            }
+            currentChat = chat;
+            updateSubtitle = true;
+            updateBottomOverlay();
+            if (chatActivityEnterView != null) {
+                chatActivityEnterView.setDialogId(dialog_id, currentAccount);
+            }
+        }
+        if (avatarContainer != null && updateSubtitle) {
+            avatarContainer.updateSubtitle();
+        }
+        if ((updateMask & MessagesController.UPDATE_MASK_USER_PHONE) != 0) {
+            updateContactStatus();
+        }
+    }
+
     @Override
     public void didReceivedNotification(int id, int account, final Object... args) {
         if (id == NotificationCenter.messagesDidLoaded) {
@@ -7566,53 +7617,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                 mentionListView.invalidateViews();
             }
         } else if (id == NotificationCenter.updateInterfaces) {
-            int updateMask = (Integer) args[0];
-            if ((updateMask & MessagesController.UPDATE_MASK_NAME) != 0 || (updateMask & MessagesController.UPDATE_MASK_CHAT_NAME) != 0) {
-                if (currentChat != null) {
-                    TLRPC.Chat chat = MessagesController.getInstance(currentAccount).getChat(currentChat.id);
-                    if (chat != null) {
-                        currentChat = chat;
-                    }
-                } else if (currentUser != null) {
-                    TLRPC.User user = MessagesController.getInstance(currentAccount).getUser(currentUser.id);
-                    if (user != null) {
-                        currentUser = user;
-                    }
-                }
-                updateTitle();
-            }
-            boolean updateSubtitle = false;
-            if ((updateMask & MessagesController.UPDATE_MASK_CHAT_MEMBERS) != 0 || (updateMask & MessagesController.UPDATE_MASK_STATUS) != 0) {
-                if (currentChat != null && avatarContainer != null) {
-                    avatarContainer.updateOnlineCount();
-                }
-                updateSubtitle = true;
-            }
-            if ((updateMask & MessagesController.UPDATE_MASK_AVATAR) != 0 || (updateMask & MessagesController.UPDATE_MASK_CHAT_AVATAR) != 0 || (updateMask & MessagesController.UPDATE_MASK_NAME) != 0) {
-                checkAndUpdateAvatar();
-                updateVisibleRows();
-            }
-            if ((updateMask & MessagesController.UPDATE_MASK_USER_PRINT) != 0) {
-                updateSubtitle = true;
-            }
-            if ((updateMask & MessagesController.UPDATE_MASK_CHANNEL) != 0 && ChatObject.isChannel(currentChat)) {
-                TLRPC.Chat chat = MessagesController.getInstance(currentAccount).getChat(currentChat.id);
-                if (chat == null) {
-                    return;
-                }
-                currentChat = chat;
-                updateSubtitle = true;
-                updateBottomOverlay();
-                if (chatActivityEnterView != null) {
-                    chatActivityEnterView.setDialogId(dialog_id, currentAccount);
-                }
-            }
-            if (avatarContainer != null && updateSubtitle) {
-                avatarContainer.updateSubtitle();
-            }
-            if ((updateMask & MessagesController.UPDATE_MASK_USER_PHONE) != 0) {
-                updateContactStatus();
-            }
+            onUpdateInterfaces((Integer) args[0]);
         } else if (id == NotificationCenter.didReceivedNewMessages) {
             long did = (Long) args[0];
             if (did == dialog_id) {
@@ -10224,7 +10229,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
             hideFieldPanel();
         }
         if (replyingMessageObject == null && draftReplyMessage != null) {
-            replyingMessageObject = new MessageObject(currentAccount, draftReplyMessage, MessagesController.getInstance(currentAccount).getUsers(), false);
+            replyingMessageObject = new MessageObject(currentAccount, draftReplyMessage, false);
             showFieldPanelForReply(true, replyingMessageObject);
         }
     }
@@ -10326,6 +10331,13 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     @Override
     public void onConfigurationChanged(android.content.res.Configuration newConfig) {
         fixLayout();
+        if (chatLayoutManager != null && chatAdapter != null && !messages.isEmpty()) {
+            int firstVisibleItem = chatLayoutManager.findFirstVisibleItemPosition();
+            if (firstVisibleItem != RecyclerView.NO_POSITION) {
+                int lastVisibleItem = chatLayoutManager.findLastVisibleItemPosition();
+                MessageLayoutCache.prepareLayouts(messages, firstVisibleItem - chatAdapter.messagesStartRow, lastVisibleItem - chatAdapter.messagesStartRow);
+            }
+        }
         if (visibleDialog instanceof DatePickerDialog) {
             visibleDialog.dismiss();
         }
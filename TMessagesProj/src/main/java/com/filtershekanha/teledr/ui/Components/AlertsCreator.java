@@ -476,20 +476,16 @@ public class AlertsCreator {
                             untilTime = Integer.MAX_VALUE;
                         }
 
-                        SharedPreferences preferences = MessagesController.getNotificationsSettings(UserConfig.selectedAccount);
-                        SharedPreferences.Editor editor = preferences.edit();
                         long flags;
                         if (i == 3) {
-                            editor.putInt("notify2_" + dialog_id, 2);
+                            MessagesController.getInstance(UserConfig.selectedAccount).getDialogSettings().setMuteType(dialog_id, 2);
                             flags = 1;
                         } else {
-                            editor.putInt("notify2_" + dialog_id, 3);
-                            editor.putInt("notifyuntil_" + dialog_id, untilTime);
+                            MessagesController.getInstance(UserConfig.selectedAccount).getDialogSettings().setMuteType(dialog_id, 3, untilTime);
                             flags = ((long) untilTime << 32) | 1;
                         }
                         NotificationsController.getInstance(UserConfig.selectedAccount).removeNotificationsForDialog(dialog_id);
                         MessagesStorage.getInstance(UserConfig.selectedAccount).setDialogFlags(dialog_id, flags);
-                        editor.commit();
                         TLRPC.TL_dialog dialog = MessagesController.getInstance(UserConfig.selectedAccount).dialogs_dict.get(dialog_id);
                         if (dialog != null) {
                             dialog.notify_settings = new TLRPC.TL_peerNotifySettings();
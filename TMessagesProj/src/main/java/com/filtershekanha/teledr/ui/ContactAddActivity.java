@@ -102,7 +102,7 @@ public class ContactAddActivity extends BaseFragment implements NotificationCent
                         finishFragment();
                         SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
                         preferences.edit().putInt("spam3_" + user_id, 1).commit();
-                        NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_NAME);
+                        NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_NAME);
                         NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.peerSettingsDidLoaded, (long) user_id);
                     }
                 }
@@ -125,7 +125,7 @@ import static com.filtershekanha.teledr.VersionCheckService.EXTRA_APK_URL;
 import static com.filtershekanha.teledr.VersionCheckService.EXTRA_PLAY_URL;
 import static com.filtershekanha.teledr.VersionCheckService.EXTRA_REQUIRED;
 
-public class DialogsActivity extends BaseFragment implements NotificationCenter.NotificationCenterDelegate {
+public class DialogsActivity extends BaseFragment implements NotificationCenter.TypedNotificationCenterDelegate {
 
     private RecyclerListView listView;
     private LinearLayoutManager layoutManager;
@@ -1919,13 +1919,29 @@ public class DialogsActivity extends BaseFragment implements NotificationCenter.
         }
     }
 
+    @Override
+    public void didReceivedTypedNotification(int id, int account, Object object, long value, float progress, boolean flag) {
+        if (id == NotificationCenter.updateInterfaces) {
+            onUpdateInterfaces((int) value);
+        }
+    }
+
+    private void onUpdateInterfaces(int mask) {
+        updateVisibleRows(mask);
+        if ((mask & MessagesController.UPDATE_MASK_NEW_MESSAGE) != 0 || (mask & MessagesController.UPDATE_MASK_READ_DIALOG_MESSAGE) != 0) {
+            checkUnreadCount(true);
+        }
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public void didReceivedNotification(int id, int account, Object... args) {
         if (id == NotificationCenter.dialogsNeedReload) {
             checkUnreadCount(true);
             if (dialogsAdapter != null) {
-                if (dialogsAdapter.isDataSetChanged() || args.length > 0) {
+                if (args.length == 0 && dialogsAdapter.applyDialogsDiff()) {
+                    updateVisibleRows(MessagesController.UPDATE_MASK_NEW_MESSAGE);
+                } else if (dialogsAdapter.isDataSetChanged() || args.length > 0) {
                     dialogsAdapter.notifyDataSetChanged();
                 } else {
                     updateVisibleRows(MessagesController.UPDATE_MASK_NEW_MESSAGE);
@@ -1958,11 +1974,7 @@ public class DialogsActivity extends BaseFragment implements NotificationCenter.
         } else if (id == NotificationCenter.proxySettingsChanged) {
             updateProxyButton(false);
         } else if (id == NotificationCenter.updateInterfaces) {
-            Integer mask = (Integer) args[0];
-            updateVisibleRows(mask);
-            if ((mask & MessagesController.UPDATE_MASK_NEW_MESSAGE) != 0 || (mask & MessagesController.UPDATE_MASK_READ_DIALOG_MESSAGE) != 0) {
-                checkUnreadCount(true);
-            }
+            onUpdateInterfaces((Integer) args[0]);
         } else if (id == NotificationCenter.appDidLogout) {
             dialogsLoaded[currentAccount] = false;
         } else if (id == NotificationCenter.encryptedChatUpdated) {
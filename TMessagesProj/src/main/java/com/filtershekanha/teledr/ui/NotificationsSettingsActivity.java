@@ -303,6 +303,7 @@ public class NotificationsSettingsActivity extends BaseFragment implements Notif
                                             SharedPreferences.Editor editor = preferences.edit();
                                             editor.clear();
                                             editor.commit();
+                                            MessagesController.getInstance(currentAccount).getDialogSettings().clear();
                                             adapter.notifyDataSetChanged();
                                             if (getParentActivity() != null) {
                                                 Toast toast = Toast.makeText(getParentActivity(), LocaleController.getString("ResetNotificationsText", R.string.ResetNotificationsText), Toast.LENGTH_SHORT);
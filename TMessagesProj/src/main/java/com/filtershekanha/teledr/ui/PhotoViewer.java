@@ -8213,7 +8213,7 @@ public class PhotoViewer implements NotificationCenter.NotificationCenterDelegat
                         try {
                             FileLoader.getInstance(currentAccount).loadFile(currentMessageObject.getDocument(), true, 0);
                             TLRPC.Document document = currentMessageObject.getDocument();
-                            String params = "?account=" + currentMessageObject.currentAccount + "&id=" + document.id + "&hash=" + document.access_hash + "&dc=" + document.dc_id + "&size=" + document.size + "&mime=" + URLEncoder.encode(document.mime_type, "UTF-8") + "&name=" + URLEncoder.encode(FileLoader.getDocumentFileName(document), "UTF-8");
+                            String params = "?account=" + currentMessageObject.currentAccount + "&id=" + document.id + "&hash=" + document.access_hash + "&dc=" + document.dc_id + "&size=" + document.size + "&duration=" + currentMessageObject.getDuration() + "&mime=" + URLEncoder.encode(document.mime_type, "UTF-8") + "&name=" + URLEncoder.encode(FileLoader.getDocumentFileName(document), "UTF-8");
                             uri = Uri.parse("tg://" + currentMessageObject.getFileName() + params);
                             isStreaming = true;
                             checkProgress(0, false);
@@ -56,6 +56,7 @@ import com.filtershekanha.teledr.messenger.ApplicationLoader;
 import com.filtershekanha.teledr.messenger.ChatObject;
 import com.filtershekanha.teledr.messenger.ContactsController;
 import com.filtershekanha.teledr.messenger.DataQuery;
+import com.filtershekanha.teledr.messenger.DialogSettingsStore;
 import com.filtershekanha.teledr.messenger.FileLog;
 import com.filtershekanha.teledr.messenger.LocaleController;
 import com.filtershekanha.teledr.messenger.MessageObject;
@@ -769,15 +770,8 @@ public class ProfileActivity extends BaseFragment implements NotificationCenter.
                             public void onClick(View v) {
                                 int i = (Integer) v.getTag();
                                 if (i == 0 || i == 1) {
-                                    SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
-                                    SharedPreferences.Editor editor = preferences.edit();
-                                    if (i == 0) {
-                                        editor.remove("notify2_" + did);
-                                    } else {
-                                        editor.putInt("notify2_" + did, 0);
-                                    }
+                                    MessagesController.getInstance(currentAccount).getDialogSettings().setMuteType(did, i == 0 ? -1 : 0);
                                     MessagesStorage.getInstance(currentAccount).setDialogFlags(did, 0);
-                                    editor.commit();
                                     TLRPC.TL_dialog dialog = MessagesController.getInstance(currentAccount).dialogs_dict.get(did);
                                     if (dialog != null) {
                                         dialog.notify_settings = new TLRPC.TL_peerNotifySettings();
@@ -796,20 +790,16 @@ public class ProfileActivity extends BaseFragment implements NotificationCenter.
                                     } else if (i == 5) {
                                         untilTime = Integer.MAX_VALUE;
                                     }
-                                    SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
-                                    SharedPreferences.Editor editor = preferences.edit();
                                     long flags;
                                     if (i == 5) {
-                                        editor.putInt("notify2_" + did, 2);
+                                        MessagesController.getInstance(currentAccount).getDialogSettings().setMuteType(did, 2);
                                         flags = 1;
                                     } else {
-                                        editor.putInt("notify2_" + did, 3);
-                                        editor.putInt("notifyuntil_" + did, untilTime);
+                                        MessagesController.getInstance(currentAccount).getDialogSettings().setMuteType(did, 3, untilTime);
                                         flags = ((long) untilTime << 32) | 1;
                                     }
                                     NotificationsController.getInstance(currentAccount).removeNotificationsForDialog(did);
                                     MessagesStorage.getInstance(currentAccount).setDialogFlags(did, flags);
-                                    editor.commit();
                                     TLRPC.TL_dialog dialog = MessagesController.getInstance(currentAccount).dialogs_dict.get(did);
                                     if (dialog != null) {
                                         dialog.notify_settings = new TLRPC.TL_peerNotifySettings();
@@ -2819,9 +2809,13 @@ public class ProfileActivity extends BaseFragment implements NotificationCenter.
                         }
 
                         boolean custom = preferences.getBoolean("custom_" + did, false);
-                        boolean hasOverride = preferences.contains("notify2_" + did);
-                        int value = preferences.getInt("notify2_" + did, 0);
-                        int delta = preferences.getInt("notifyuntil_" + did, 0);
+                        DialogSettingsStore dialogSettings = MessagesController.getInstance(currentAccount).getDialogSettings();
+                        int value = dialogSettings.getMuteType(did);
+                        boolean hasOverride = value != -1;
+                        if (!hasOverride) {
+                            value = 0;
+                        }
+                        int delta = dialogSettings.getMuteUntil(did);
                         String val;
                         if (value == 3 && delta != Integer.MAX_VALUE) {
                             delta -= ConnectionsManager.getInstance(currentAccount).getCurrentTime();
@@ -153,8 +153,11 @@ public class ProfileNotificationsActivity extends BaseFragment implements Notifi
         SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
         customEnabled = preferences.getBoolean("custom_" + dialog_id, false);
 
-        boolean hasOverride = preferences.contains("notify2_" + dialog_id);
-        int value = preferences.getInt("notify2_" + dialog_id, 0);
+        int value = MessagesController.getInstance(currentAccount).getDialogSettings().getMuteType(dialog_id);
+        boolean hasOverride = value != -1;
+        if (!hasOverride) {
+            value = 0;
+        }
         if (value == 0) {
             if (hasOverride) {
                 notificationsEnabled = true;
@@ -193,8 +196,7 @@ public class ProfileNotificationsActivity extends BaseFragment implements Notifi
             public void onItemClick(int id) {
                 if (id == -1) {
                     if (notificationsEnabled && customEnabled) {
-                        SharedPreferences preferences = MessagesController.getNotificationsSettings(currentAccount);
-                        preferences.edit().putInt("notify2_" + dialog_id, 0).commit();
+                        MessagesController.getInstance(currentAccount).getDialogSettings().setMuteType(dialog_id, 0);
                     }
                     finishFragment();
                 }
@@ -261,7 +261,7 @@ public class SettingsActivity extends BaseFragment implements NotificationCenter
                             AndroidUtilities.runOnUIThread(new Runnable() {
                                 @Override
                                 public void run() {
-                                    NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_ALL);
+                                    NotificationCenter.getInstance(currentAccount).postTypedNotification(NotificationCenter.updateInterfaces, MessagesController.UPDATE_MASK_ALL);
                                     NotificationCenter.getInstance(currentAccount).postNotificationName(NotificationCenter.mainUserInfoChanged);
                                     UserConfig.getInstance(currentAccount).saveConfig(true);
                                 }
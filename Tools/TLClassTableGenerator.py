@@ -0,0 +1,72 @@
+#!/usr/bin/env python3
+#
+# Generates TMessagesProj/src/main/java/com/filtershekanha/teledr/tgnet/TLClassTable.java
+# from the constructor constants declared in TLRPC.java.
+#
+# Usage: python3 Tools/TLClassTableGenerator.py
+#
+
+import os
+import re
+
+ROOT = os.path.join(os.path.dirname(os.path.abspath(__file__)), '..')
+TGNET = os.path.join(ROOT, 'TMessagesProj', 'src', 'main', 'java', 'com', 'filtershekanha', 'teledr', 'tgnet')
+
+# constructors that must be instantiated as a different class than the one declaring them
+OVERRIDES = {
+    'TL_decryptedMessage_layer17': 'TL_decryptedMessage',
+}
+
+CLASS_PATTERN = re.compile(r'public static class (\w+)[^{]*\{\s*public static int constructor = (0x[0-9a-fA-F]+);')
+
+HEADER = '''/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package com.filtershekanha.teledr.tgnet;
+
+// Generated by Tools/TLClassTableGenerator.py from TLRPC.java, do not edit manually.
+final class TLClassTable {
+
+    static final int SIZE = %d;
+
+    private TLClassTable() {
+
+    }
+
+    static TLObject newInstance(int constructor) {
+        switch (constructor) {
+'''
+
+FOOTER = '''            default:
+                return null;
+        }
+    }
+}
+'''
+
+
+def main():
+    with open(os.path.join(TGNET, 'TLRPC.java')) as f:
+        source = f.read()
+    entries = []
+    seen = set()
+    for name, constructor in CLASS_PATTERN.findall(source):
+        constructor = constructor.lower()
+        if constructor in seen:
+            continue
+        seen.add(constructor)
+        entries.append((constructor, OVERRIDES.get(name, name)))
+    with open(os.path.join(TGNET, 'TLClassTable.java'), 'w') as f:
+        f.write(HEADER % len(entries))
+        for constructor, name in entries:
+            f.write('            case %s:\n                return new TLRPC.%s();\n' % (constructor, name))
+        f.write(FOOTER)
+
+
+if __name__ == '__main__':
+    main()